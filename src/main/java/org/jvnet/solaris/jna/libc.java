@@ -0,0 +1,96 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.jna;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * The few bits of the C library we need around libzfs, mostly to pass
+ * file descriptors into the functions that stream their output.
+ */
+public interface libc extends Library {
+    public static final libc LIBC = (libc) Native.loadLibrary("c",libc.class);
+
+    /**
+     * errno values that are the same on all the platforms we care about.
+     */
+    public static final int EPERM = 1;
+    public static final int ENOENT = 2;
+    public static final int ESRCH = 3;
+    public static final int EINTR = 4;
+    public static final int EIO = 5;
+    public static final int EBADF = 9;
+    public static final int ENOMEM = 12;
+    public static final int EACCES = 13;
+    public static final int EBUSY = 16;
+    public static final int EEXIST = 17;
+    public static final int EXDEV = 18;
+    public static final int EINVAL = 22;
+    public static final int ENOSPC = 28;
+    public static final int EROFS = 30;
+    public static final int EPIPE = 32;
+
+    /**
+     * @param fds
+     *      Receives the read end in [0] and the write end in [1].
+     */
+    int pipe(int[] fds);
+    NativeLong read(int fd, Pointer buf, NativeLong count);
+    NativeLong write(int fd, Pointer buf, NativeLong count);
+    int close(int fd);
+
+    public static final int O_RDONLY = 0;
+    public static final int O_RDWR = 2;
+
+    int open(String path, int flags);
+
+    /**
+     * poll(2) events; these values are the same on Linux and Solaris.
+     */
+    public static final short POLLIN = 0x1;
+    public static final short POLLPRI = 0x2;
+    public static final short POLLERR = 0x8;
+
+    public static class pollfd extends Structure {
+        public int fd;
+        public short events;
+        public short revents;
+
+        @Override
+        protected List getFieldOrder() {
+            return Arrays.asList("fd","events","revents");
+        }
+    }
+
+    /**
+     * @param fds
+     *      Array of nfds structures; a single one can be passed as is.
+     */
+    int poll(pollfd fds, int nfds, int timeout);
+    String strerror(int errnum);
+}
@@ -0,0 +1,276 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.label;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jvnet.solaris.nvlist.PackedNVList;
+
+/**
+ * Reads the vdev labels of a device or an image file in pure Java, without libzfs,
+ * so that it works for pools that aren't imported and on hosts without ZFS.
+ *
+ * <p>
+ * A vdev has 4 labels of 256KiB, two at the start and two at the end. Each has
+ * the pool configuration as a packed nvlist at 16KiB, and a ring of uberblocks
+ * in its second half. Both are protected by an embedded fletcher-2 checksum,
+ * which is verified.
+ *
+ * <p>
+ * Labels are memory-mapped where the platform allows it, and read otherwise
+ * (block devices report a size of 0 to Java and can't be mapped.)
+ */
+public final class LabelReader implements Closeable {
+    public static final int VDEV_LABELS = 4;
+    public static final int LABEL_SIZE = 256 * 1024;
+
+    private static final int PHYS_OFFSET = 16 * 1024;
+    private static final int PHYS_SIZE = 112 * 1024;
+    private static final int UBERBLOCK_RING_OFFSET = 128 * 1024;
+    private static final int UBERBLOCK_RING_SIZE = 128 * 1024;
+    private static final int MIN_UBERBLOCK_SHIFT = 10;
+    private static final int MAX_UBERBLOCK_SHIFT = 13;
+
+    /**
+     * zec_magic of the zio_eck_t at the end of a block with an embedded checksum.
+     */
+    private static final long ZEC_MAGIC = 0x0210da7ab10c7a11L;
+    private static final int ZIO_ECK_SIZE = 40;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /**
+     * Size of the device, rounded down to a multiple of the label size like ZFS does.
+     */
+    private final long size;
+
+    public LabelReader(File file) throws IOException {
+        this(file, -1);
+    }
+
+    /**
+     * @param size
+     *      Size of the device in bytes, for when Java can't tell it (as with block
+     *      devices other than on Linux.) -1 to find it out.
+     */
+    public LabelReader(File file, long size) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        if (size < 0)
+            size = sizeOf(file, channel);
+        this.size = size - size % LABEL_SIZE;
+        if (this.size < VDEV_LABELS * LABEL_SIZE) {
+            close();
+            throw new IOException(file + " is too small to have labels: " + size + " bytes");
+        }
+    }
+
+    private static long sizeOf(File file, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > 0)
+            return size;
+
+        // Linux block devices: /sys/class/block/sdb1/size is in 512-byte sectors
+        File sys = new File("/sys/class/block/" + file.getCanonicalFile().getName() + "/size");
+        if (sys.exists()) {
+            BufferedReader r = new BufferedReader(new FileReader(sys));
+            try {
+                return Long.parseLong(r.readLine().trim()) * 512;
+            } finally {
+                r.close();
+            }
+        }
+        throw new IOException("Can't tell the size of " + file + "; please specify it");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Size of the device as ZFS sees it.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Where a label starts on the device.
+     */
+    public long getLabelOffset(int index) {
+        if (index < 0 || index >= VDEV_LABELS)
+            throw new IllegalArgumentException("No such label: " + index);
+        return (long) index * LABEL_SIZE + (index < VDEV_LABELS / 2 ? 0 : size - VDEV_LABELS * LABEL_SIZE);
+    }
+
+    /**
+     * Reads one label.
+     *
+     * @return
+     *      null if the label is blank or damaged.
+     */
+    public VdevLabel readLabel(int index) throws IOException {
+        long offset = getLabelOffset(index);
+        ByteBuffer label = region(offset, LABEL_SIZE);
+
+        ByteBuffer phys = slice(label, PHYS_OFFSET, PHYS_SIZE);
+        if (!verifyChecksum(phys, offset + PHYS_OFFSET))
+            return null;
+        Map<String,Object> config;
+        try {
+            config = PackedNVList.unpack(slice(label, PHYS_OFFSET, PHYS_SIZE - ZIO_ECK_SIZE));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        int shift = Math.min(Math.max(ashiftOf(config), MIN_UBERBLOCK_SHIFT), MAX_UBERBLOCK_SHIFT);
+        int slotSize = 1 << shift;
+        List<Uberblock> uberblocks = new ArrayList<Uberblock>();
+        for (int i = 0; i < UBERBLOCK_RING_SIZE / slotSize; i++) {
+            int o = UBERBLOCK_RING_OFFSET + i * slotSize;
+            Uberblock u = Uberblock.decode(index, i, offset + o, slice(label, o, slotSize));
+            if (u != null)
+                uberblocks.add(u);
+        }
+        return new VdevLabel(index, offset, config, uberblocks);
+    }
+
+    /**
+     * Reads all the labels.
+     *
+     * @return
+     *      The good ones, in order. Empty if the device isn't a vdev.
+     */
+    public List<VdevLabel> readLabels() throws IOException {
+        List<VdevLabel> r = new ArrayList<VdevLabel>();
+        for (int i = 0; i < VDEV_LABELS; i++) {
+            VdevLabel l = readLabel(i);
+            if (l != null)
+                r.add(l);
+        }
+        return r;
+    }
+
+    /**
+     * Finds the uberblock that the pool would be opened with, which is
+     * the newest valid one of all the labels.
+     *
+     * @return
+     *      null if there's none.
+     */
+    public Uberblock findActiveUberblock() throws IOException {
+        Uberblock best = null;
+        for (VdevLabel l : readLabels()) {
+            Uberblock u = l.getActiveUberblock();
+            if (u != null && u.isNewerThan(best))
+                best = u;
+        }
+        return best;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int ashiftOf(Map<String,Object> config) {
+        Object tree = config.get("vdev_tree");
+        if (tree instanceof Map) {
+            Object a = ((Map<String,Object>) tree).get("ashift");
+            if (a instanceof Number)
+                return ((Number) a).intValue();
+        }
+        return 9;
+    }
+
+    private ByteBuffer region(long offset, int len) throws IOException {
+        try {
+            return channel.map(MapMode.READ_ONLY, offset, len);
+        } catch (IOException e) {
+            // can't map, such as a block device; read it instead
+        }
+        ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (channel.read(b, offset + b.position()) < 0)
+                throw new IOException("Unexpected end of " + file + " at " + (offset + b.position()));
+        }
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer slice(ByteBuffer b, int offset, int len) {
+        ByteBuffer d = b.duplicate();
+        d.position(offset).limit(offset + len);
+        return d.slice();
+    }
+
+    /**
+     * Verifies the embedded checksum of a block: fletcher-2 over the whole block,
+     * with the checksum in the trailer replaced by its offset on the device.
+     * The byte order of the writer is told by the trailer magic.
+     */
+    /*package*/ static boolean verifyChecksum(ByteBuffer block, long offset) {
+        ByteBuffer b = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int len = b.limit();
+        if (len < ZIO_ECK_SIZE || len % 16 != 0)
+            return false;
+        int trailer = len - ZIO_ECK_SIZE;
+        long magic = b.getLong(trailer);
+        if (magic == Long.reverseBytes(ZEC_MAGIC))
+            b.order(ByteOrder.BIG_ENDIAN);
+        else if (magic != ZEC_MAGIC)
+            return false;
+
+        int cksum = trailer + 8;
+        long a0 = 0, a1 = 0, b0 = 0, b1 = 0;
+        for (int i = 0; i < len; i += 16) {
+            long w0, w1;
+            if (i >= cksum) {
+                // the verifier: { offset, 0, 0, 0 }
+                w0 = i == cksum ? offset : 0;
+                w1 = 0;
+            } else {
+                w0 = b.getLong(i);
+                w1 = b.getLong(i + 8);
+            }
+            a0 += w0;
+            a1 += w1;
+            b0 += a0;
+            b1 += a1;
+        }
+        return a0 == b.getLong(cksum) && a1 == b.getLong(cksum + 8)
+            && b0 == b.getLong(cksum + 16) && b1 == b.getLong(cksum + 24);
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.label;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+
+/**
+ * One uberblock out of the ring in a vdev label, which points to the root
+ * of the pool as of a transaction group.
+ */
+public final class Uberblock {
+    public static final long UBERBLOCK_MAGIC = 0x00bab10cL;
+
+    private final int labelIndex;
+    private final int slot;
+    private final long offset;
+    private final ByteOrder order;
+    private final long version;
+    private final long txg;
+    private final long guidSum;
+    private final long timestamp;
+    private final long softwareVersion;
+    private final long checkpointTxg;
+
+    private Uberblock(int labelIndex, int slot, long offset, ByteBuffer b) {
+        this.labelIndex = labelIndex;
+        this.slot = slot;
+        this.offset = offset;
+        this.order = b.order();
+        this.version = b.getLong(8);
+        this.txg = b.getLong(16);
+        this.guidSum = b.getLong(24);
+        this.timestamp = b.getLong(32);
+        // 40..168 is the block pointer to the MOS
+        this.softwareVersion = b.getLong(168);
+        this.checkpointTxg = b.getLong(200);
+    }
+
+    /**
+     * Decodes the uberblock in a slot of the ring.
+     *
+     * @param slotBuf
+     *      The whole slot, with the embedded checksum at its end.
+     * @param offset
+     *      Where the slot is on the device, which the checksum covers.
+     * @return
+     *      null if the slot doesn't hold a valid uberblock.
+     */
+    /*package*/ static Uberblock decode(int labelIndex, int slot, long offset, ByteBuffer slotBuf) {
+        ByteBuffer b = slotBuf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long magic = b.getLong(0);
+        if (magic == Long.reverseBytes(UBERBLOCK_MAGIC))
+            b.order(ByteOrder.BIG_ENDIAN);
+        else if (magic != UBERBLOCK_MAGIC)
+            return null;
+        if (b.getLong(16) == 0 || !LabelReader.verifyChecksum(slotBuf, offset))
+            return null;
+        return new Uberblock(labelIndex, slot, offset, b);
+    }
+
+    /**
+     * Which of the 4 labels this came from.
+     */
+    public int getLabelIndex() {
+        return labelIndex;
+    }
+
+    /**
+     * Position in the ring.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Where on the device this uberblock is.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Byte order of the host that wrote this.
+     */
+    public ByteOrder getByteOrder() {
+        return order;
+    }
+
+    /**
+     * SPA version of the pool (5000 for pools with feature flags.)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTxg() {
+        return txg;
+    }
+
+    /**
+     * Sum of the guids of all the vdevs, which tells if all of them are there.
+     */
+    public long getGuidSum() {
+        return guidSum;
+    }
+
+    /**
+     * When the transaction group was written.
+     */
+    public Date getTimestamp() {
+        return new Date(timestamp * 1000);
+    }
+
+    /**
+     * Version of the software that wrote this, if it recorded it; otherwise 0.
+     */
+    public long getSoftwareVersion() {
+        return softwareVersion;
+    }
+
+    /**
+     * Transaction group of the pool checkpoint, or 0 if there's none.
+     */
+    public long getCheckpointTxg() {
+        return checkpointTxg;
+    }
+
+    /**
+     * Whether this one is newer than the other, the way ZFS picks the uberblock to use:
+     * the higher transaction group, then the later timestamp.
+     */
+    public boolean isNewerThan(Uberblock that) {
+        if (that == null)
+            return true;
+        if (txg != that.txg)
+            return txg > that.txg;
+        return timestamp > that.timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "uberblock txg=" + txg + " at " + getTimestamp() + " (label " + labelIndex + " slot " + slot + ")";
+    }
+}
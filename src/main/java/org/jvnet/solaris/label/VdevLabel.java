@@ -0,0 +1,137 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.label;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of the 4 labels of a vdev: the configuration of the pool as this
+ * device saw it, and the ring of uberblocks.
+ * @see LabelReader
+ */
+public final class VdevLabel {
+    private final int index;
+    private final long offset;
+    private final Map<String,Object> config;
+    private final List<Uberblock> uberblocks;
+
+    /*package*/ VdevLabel(int index, long offset, Map<String,Object> config, List<Uberblock> uberblocks) {
+        this.index = index;
+        this.offset = offset;
+        this.config = Collections.unmodifiableMap(config);
+        this.uberblocks = Collections.unmodifiableList(uberblocks);
+    }
+
+    /**
+     * 0 and 1 are at the start of the device, 2 and 3 at the end.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Where the label starts on the device.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The configuration nvlist, decoded the way {@link org.jvnet.solaris.nvlist.PackedNVList} does.
+     */
+    public Map<String,Object> getConfig() {
+        return config;
+    }
+
+    public String getPoolName() {
+        Object v = config.get("name");
+        return v instanceof String ? (String) v : null;
+    }
+
+    public long getPoolGuid() {
+        return number("pool_guid");
+    }
+
+    /**
+     * Guid of this device.
+     */
+    public long getGuid() {
+        return number("guid");
+    }
+
+    /**
+     * Transaction group when the configuration was last written.
+     */
+    public long getTxg() {
+        return number("txg");
+    }
+
+    /**
+     * pool_state_t: 0 active, 1 exported, 2 destroyed, 3 spare, 4 l2cache.
+     */
+    public long getState() {
+        return number("state");
+    }
+
+    public String getHostName() {
+        Object v = config.get("hostname");
+        return v instanceof String ? (String) v : null;
+    }
+
+    /**
+     * The top-level vdev this device is in, with this device somewhere under it.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String,Object> getVdevTree() {
+        Object v = config.get("vdev_tree");
+        return v instanceof Map ? (Map<String,Object>) v : null;
+    }
+
+    /**
+     * Valid uberblocks of the ring, in slot order.
+     */
+    public List<Uberblock> getUberblocks() {
+        return uberblocks;
+    }
+
+    /**
+     * The newest valid uberblock of this label, or null.
+     */
+    public Uberblock getActiveUberblock() {
+        Uberblock best = null;
+        for (Uberblock u : uberblocks)
+            if (u.isNewerThan(best))
+                best = u;
+        return best;
+    }
+
+    private long number(String key) {
+        Object v = config.get(key);
+        return v instanceof Number ? ((Number) v).longValue() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "label " + index + " of " + getPoolName() + " txg=" + getTxg();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.jna.NativeLibrary;
+
+/**
+ * Keeps the symbol lookups of {@link Capabilities} on disk, so that the next
+ * JVM on the same libzfs doesn't have to redo them.
+ *
+ * <p>
+ * An entry is only used for the very same libraries: the path, modification
+ * time and ELF build-id of libzfs, and of libzfs_core where the lzc_* symbols
+ * come from, have to match. The file is LIBZFS4J_ABI_CACHE,
+ * by default ~/.cache/libzfs4j/abi.properties; set it to "off" to not cache.
+ */
+/*package*/ final class AbiCache {
+    private static final String PREFIX = "symbol.";
+
+    private final File file;
+    private final File library;
+    private final long lastModified;
+    private final String buildId;
+    /**
+     * Path, modification time and build-id of libzfs_core, or "none".
+     */
+    private final String core;
+
+    /*package*/ AbiCache(File file, File library) throws IOException {
+        this(file, library, null);
+    }
+
+    /**
+     * @param coreLibrary
+     *      libzfs_core, or null if there's none.
+     */
+    /*package*/ AbiCache(File file, File library, File coreLibrary) throws IOException {
+        this.file = file;
+        this.library = library;
+        this.lastModified = library.lastModified();
+        this.buildId = readBuildId(library);
+        this.core = coreLibrary == null ? "none"
+                : coreLibrary.getPath() + " " + coreLibrary.lastModified() + " " + readBuildId(coreLibrary);
+    }
+
+    /**
+     * The cache for the libzfs this JVM uses, or null if caching is off
+     * or the library can't be found.
+     */
+    /*package*/ static AbiCache open() {
+        String v = System.getProperty("LIBZFS4J_ABI_CACHE");
+        if (v == null)
+            v = System.getenv("LIBZFS4J_ABI_CACHE");
+        if (v != null && (v.equals("off") || v.equals("no") || v.equals("false")))
+            return null;
+        File file = v != null && v.length() > 0 ? new File(v)
+                : new File(System.getProperty("user.home"), ".cache/libzfs4j/abi.properties");
+
+        try {
+            File library = findLibrary("zfs");
+            if (library == null) {
+                LOGGER.log(Level.FINE, "Can't tell where libzfs was loaded from, not caching the ABI");
+                return null;
+            }
+            return new AbiCache(file, library, findLibrary("zfs_core"));
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINE, "Not caching the ABI", e);
+            return null;
+        }
+    }
+
+    /**
+     * Where a library like "zfs" was loaded from. JNA only knows that when it
+     * found the file itself, otherwise the mappings of this process tell.
+     *
+     * @return
+     *      null if it can't be told, or the library isn't there.
+     */
+    private static File findLibrary(String name) throws IOException {
+        File f;
+        try {
+            f = NativeLibrary.getInstance(name).getFile();
+        } catch (UnsatisfiedLinkError e) {
+            return null;    // e.g. no libzfs_core on legacy
+        }
+        if (f != null && f.isFile())
+            return f.getCanonicalFile();
+
+        File maps = new File("/proc/self/maps");
+        if (!maps.exists())
+            return null;
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(maps)));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                int i = line.indexOf('/');
+                if (i >= 0 && line.indexOf("/lib" + name + ".so", i) >= 0)
+                    return new File(line.substring(i)).getCanonicalFile();
+            }
+            return null;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Symbol lookups recorded for this library, or null if there are none,
+     * they are for another library, or some of the given symbols are missing.
+     */
+    /*package*/ Map<String,Boolean> load(String[]... expected) {
+        if (!file.isFile())
+            return null;
+        Properties p = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                p.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to read " + file, e);
+            return null;
+        }
+
+        if (!library.getPath().equals(p.getProperty("library"))
+         || !String.valueOf(lastModified).equals(p.getProperty("lastModified"))
+         || !buildId.equals(p.getProperty("buildId"))
+         || !core.equals(p.getProperty("core"))) {
+            LOGGER.log(Level.FINE, file + " is for another libzfs than " + library);
+            return null;
+        }
+
+        Map<String,Boolean> symbols = new TreeMap<String,Boolean>();
+        for (String key : p.stringPropertyNames()) {
+            if (key.startsWith(PREFIX))
+                symbols.put(key.substring(PREFIX.length()), Boolean.valueOf(p.getProperty(key)));
+        }
+        for (String[] names : expected) {
+            for (String name : names) {
+                if (!symbols.containsKey(name))
+                    return null;
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * Writes the symbol lookups. Failures are only logged, as the cache is
+     * just an optimization. The file is replaced by a rename so that other
+     * JVMs starting at the same time never see half of it.
+     */
+    /*package*/ void store(Map<String,Boolean> symbols) {
+        Properties p = new Properties();
+        p.setProperty("library", library.getPath());
+        p.setProperty("lastModified", String.valueOf(lastModified));
+        p.setProperty("buildId", buildId);
+        p.setProperty("core", core);
+        for (Map.Entry<String,Boolean> e : symbols.entrySet())
+            p.setProperty(PREFIX + e.getKey(), e.getValue().toString());
+
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Failed to create " + dir);
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    p.store(out, "libzfs4j symbol lookups, safe to delete");
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file)) {
+                    // renameTo doesn't replace on some platforms
+                    file.delete();
+                    if (!tmp.renameTo(file))
+                        throw new IOException("Failed to rename " + tmp + " to " + file);
+                }
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to write " + file, e);
+        }
+    }
+
+    /*package*/ File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the GNU build-id note of an ELF file, in hex.
+     * Empty if the file is not ELF or has no build-id.
+     */
+    /*package*/ static String readBuildId(File elf) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(elf, "r");
+        try {
+            ByteBuffer header = read(f, 0, 64);
+            if (header.remaining() < 52 || header.getInt(0) != 0x7f454c46)
+                return "";
+            boolean is64 = header.get(4) == 2;
+            header.order(header.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+            long phoff = is64 ? header.getLong(32) : header.getInt(28) & 0xFFFFFFFFL;
+            int phentsize = header.getShort(is64 ? 54 : 42) & 0xFFFF;
+            int phnum = header.getShort(is64 ? 56 : 44) & 0xFFFF;
+
+            ByteBuffer ph = read(f, phoff, phentsize * phnum).order(header.order());
+            for (int i = 0; i < phnum; i++) {
+                int base = i * phentsize;
+                if (ph.getInt(base) != PT_NOTE)
+                    continue;
+                long offset = is64 ? ph.getLong(base + 8) : ph.getInt(base + 4) & 0xFFFFFFFFL;
+                long size = is64 ? ph.getLong(base + 32) : ph.getInt(base + 16) & 0xFFFFFFFFL;
+                if (size <= 0 || size > MAX_NOTES)
+                    continue;
+                String id = findBuildId(read(f, offset, (int) size).order(header.order()));
+                if (id != null)
+                    return id;
+            }
+            return "";
+        } finally {
+            f.close();
+        }
+    }
+
+    private static String findBuildId(ByteBuffer notes) {
+        while (notes.remaining() >= 12) {
+            int namesz = notes.getInt();
+            int descsz = notes.getInt();
+            int type = notes.getInt();
+            int name = notes.position();
+            int desc = name + align4(namesz);
+            int next = desc + align4(descsz);
+            if (namesz < 0 || descsz < 0 || next > notes.limit())
+                return null;
+            if (type == NT_GNU_BUILD_ID && namesz == 4 && notes.get(name) == 'G'
+             && notes.get(name + 1) == 'N' && notes.get(name + 2) == 'U') {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < descsz; i++)
+                    sb.append(String.format("%02x", notes.get(desc + i) & 0xFF));
+                return sb.toString();
+            }
+            notes.position(next);
+        }
+        return null;
+    }
+
+    private static int align4(int n) {
+        return (n + 3) & ~3;
+    }
+
+    private static ByteBuffer read(RandomAccessFile f, long offset, int len) throws IOException {
+        byte[] buf = new byte[(int) Math.max(0, Math.min(len, f.length() - offset))];
+        f.seek(offset);
+        f.readFully(buf);
+        return ByteBuffer.wrap(buf);
+    }
+
+    private static final int PT_NOTE = 4;
+    private static final int NT_GNU_BUILD_ID = 3;
+    private static final int MAX_NOTES = 1 << 16;
+
+    private static final Logger LOGGER = Logger.getLogger(AbiCache.class.getName());
+}
@@ -0,0 +1,129 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of an operation on many datasets, snapshots or bookmarks at once,
+ * returned instead of throwing so that expected failures (say
+ * {@link ErrorCode#EZFS_EXISTS} when creating what may already be there)
+ * can be told apart from real ones without an exception per name.
+ *
+ * <p>
+ * Each failure knows its operation and name, see {@link ZFSException#getDataSetName()}.
+ * The exceptions of a batch don't have stack traces.
+ */
+public final class BatchResult {
+    private final String operation;
+    private final List<String> succeeded;
+    private final Map<String,ZFSException> failures;
+
+    /**
+     * @param names
+     *      Everything the operation was asked to do.
+     * @param failures
+     *      Those of the names that failed.
+     */
+    public BatchResult(String operation, Collection<String> names, Map<String,ZFSException> failures) {
+        this.operation = operation;
+        this.failures = Collections.unmodifiableMap(new TreeMap<String,ZFSException>(failures));
+        List<String> ok = new ArrayList<String>();
+        for (String n : names)
+            if (!failures.containsKey(n))
+                ok.add(n);
+        Collections.sort(ok);
+        this.succeeded = Collections.unmodifiableList(ok);
+
+        for (Map.Entry<String,ZFSException> e : failures.entrySet()) {
+            if (e.getValue().getDataSetName() == null)
+                e.getValue().withContext(operation, e.getKey());
+        }
+    }
+
+    /**
+     * Like "destroy".
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Names that went through, sorted.
+     */
+    public List<String> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Names that failed, sorted, with why.
+     */
+    public Map<String,ZFSException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Failures other than the given expected ones.
+     */
+    public Map<String,ZFSException> getFailuresExcept(ErrorCode... expected) {
+        List<ErrorCode> codes = Arrays.asList(expected);
+        Map<String,ZFSException> r = new TreeMap<String,ZFSException>();
+        for (Map.Entry<String,ZFSException> e : failures.entrySet())
+            if (!codes.contains(e.getValue().getCode()))
+                r.put(e.getKey(), e.getValue());
+        return r;
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Throws the first failure other than the given expected ones, if any.
+     */
+    public void throwIfFailed(ErrorCode... expected) throws ZFSException {
+        Map<String,ZFSException> f = getFailuresExcept(expected);
+        if (!f.isEmpty())
+            throw f.values().iterator().next();
+    }
+
+    /**
+     * A report like "destroy: 98 succeeded, 2 failed: rpool/a@x EZFS_BUSY, rpool/b@x EZFS_EXISTS".
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(operation).append(": ")
+                .append(succeeded.size()).append(" succeeded, ")
+                .append(failures.size()).append(" failed");
+        String sep = ": ";
+        for (Map.Entry<String,ZFSException> e : failures.entrySet()) {
+            sb.append(sep).append(e.getKey()).append(' ').append(e.getValue().getCode());
+            sep = ", ";
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+import com.sun.jna.Function;
+
+/**
+ * What the libzfs of this host can do, found out once per JVM.
+ *
+ * <p>
+ * libzfs has no version function, so the optional functions we care about
+ * are looked up by name when this is first asked for, all at once on a few
+ * threads, and remembered on disk for the next JVM on the same library
+ * (see LIBZFS4J_ABI_CACHE). {@link LibZFS} picks its ABI from here, so
+ * creating more of them doesn't probe the library again, and callers can check for a fast path
+ * (say {@link #canDestroySnapshotsInBatch()}) before falling back to a slow one.
+ *
+ * <p>
+ * The feature@ states of pools are kept here too, as last read by
+ * {@link ZFSPool#getFeatures()}.
+ */
+public final class Capabilities {
+    /**
+     * State of a pool feature, as in "zpool get feature@...".
+     */
+    public enum FeatureState {
+        DISABLED, ENABLED, ACTIVE
+    }
+
+    /**
+     * Functions whose presence means feature flags, hence OpenZFS.
+     * This list was retrieved by running
+     *   nm /usr/lib/libzfs.so | grep feature | awk '{print "\""$NF"\","}' | sort
+     * on different systems.
+     */
+    /*package*/ static final String[] FEATURE_SYMBOLS = { "deps_contains_feature", "feature_is_supported",
+        "spa_feature_is_enabled", "spa_feature_table",
+        "zfeature_checks_disable", "zfeature_depends_on", "zfeature_is_supported",
+        "zfeature_is_valid_guid", "zfeature_lookup_name", "zfeature_register",
+        "zpool_feature_init", "zpool_get_features",
+        "zpool_prop_feature", "zpool_prop_get_feature"
+        };
+
+    /**
+     * Other optional functions looked up up front. lzc_* are in libzfs_core.
+     */
+    /*package*/ static final String[] OPTIONAL_SYMBOLS = {
+        "zfs_commit_all_shares", "zfs_commit_shares", "zfs_commit_nfs_shares", "zfs_destroy_snaps_nvl",
+        "zfs_foreach_mountpoint", "zfs_get_holds", "zfs_hold_nvl",
+        "zfs_perm_remove", "zfs_perm_set", "zfs_prop_set_list", "zfs_share_nfs",
+        "zpool_events_next", "zpool_events_seek", "zpool_read_label", "zpool_scan",
+        "lzc_bookmark", "lzc_channel_program", "lzc_destroy_snaps", "lzc_hold",
+        "lzc_send_space", "lzc_snapshot"
+        };
+
+    private static final int PROBE_THREADS = 4;
+
+    private static volatile Capabilities instance;
+
+    /**
+     * Symbol name to whether it's there. Symbols not looked up at startup
+     * are added as they are asked for.
+     */
+    private final Map<String,Boolean> symbols = new ConcurrentHashMap<String,Boolean>();
+    private final String abi;
+    private final long probeNanos;
+
+    /**
+     * Pool name to its feature states, by short feature name.
+     */
+    private final Map<String,Map<String,FeatureState>> poolFeatures = new ConcurrentHashMap<String,Map<String,FeatureState>>();
+
+    /*package*/ Capabilities(Map<String,Boolean> symbols, long probeNanos) {
+        this.symbols.putAll(symbols);
+        this.probeNanos = probeNanos;
+        this.abi = detectABI();
+    }
+
+    /**
+     * Gets the capabilities of this host, probing the library the first time.
+     */
+    public static Capabilities get() {
+        Capabilities c = instance;
+        if (c == null) {
+            synchronized (Capabilities.class) {
+                c = instance;
+                if (c == null)
+                    instance = c = probe(AbiCache.open());
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Looks up the symbols, unless the cache has them for this very library.
+     *
+     * @param cache
+     *      null to always look them up.
+     */
+    /*package*/ static Capabilities probe(AbiCache cache) {
+        long start = System.nanoTime();
+        if (cache != null) {
+            Map<String,Boolean> cached = cache.load(FEATURE_SYMBOLS, OPTIONAL_SYMBOLS);
+            if (cached != null) {
+                Capabilities c = new Capabilities(cached, System.nanoTime() - start);
+                LOGGER.log(Level.FINE, "libzfs4j capabilities from " + cache.getFile() + ": " + c);
+                return c;
+            }
+        }
+
+        List<String> names = new ArrayList<String>();
+        Collections.addAll(names, FEATURE_SYMBOLS);
+        Collections.addAll(names, OPTIONAL_SYMBOLS);
+
+        Map<String,Boolean> found = new TreeMap<String,Boolean>();
+        ExecutorService executor = Executors.newFixedThreadPool(PROBE_THREADS, new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable task) {
+                Thread t = new Thread(task, "libzfs4j capabilities #" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            Map<String,Future<Boolean>> results = new TreeMap<String,Future<Boolean>>();
+            for (final String name : names) {
+                results.put(name, executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return resolve(name);
+                    }
+                }));
+            }
+            for (Map.Entry<String,Future<Boolean>> e : results.entrySet()) {
+                try {
+                    found.put(e.getKey(), e.getValue().get());
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    found.put(e.getKey(), resolve(e.getKey()));
+                } catch (ExecutionException x) {
+                    found.put(e.getKey(), false);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (cache != null)
+            cache.store(found);
+        Capabilities c = new Capabilities(found, System.nanoTime() - start);
+        LOGGER.log(Level.FINE, "libzfs4j capabilities: " + c);
+        return c;
+    }
+
+    private static boolean resolve(String symbol) {
+        try {
+            Function.getFunction(symbol.startsWith("lzc_") ? "zfs_core" : "zfs", symbol);
+            return true;
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINEST, "While looking for " + symbol + "() got this: " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Presence of a feature flags function means OpenZFS.
+     */
+    private String detectABI() {
+        for (String s : FEATURE_SYMBOLS) {
+            if (hasSymbol(s)) {
+                LOGGER.log(Level.FINER, "libzfs4j autodetect: found " + s + "() - assuming OpenZFS ABI");
+                return "openzfs";
+            }
+        }
+        LOGGER.log(Level.FINER, "libzfs4j autodetect: OpenZFS feature flag support not detected - assuming legacy ZFS ABI");
+        return "legacy";
+    }
+
+    /**
+     * Whether the given function is exported by libzfs, or by libzfs_core
+     * for lzc_* ones.
+     */
+    public boolean hasSymbol(String symbol) {
+        Boolean b = symbols.get(symbol);
+        if (b == null) {
+            b = resolve(symbol);
+            symbols.put(symbol, b);
+        }
+        return b;
+    }
+
+    /**
+     * The ABI detected from the library, "openzfs" or "legacy". This is what
+     * LIBZFS4J_ABI defaults to.
+     */
+    public String getABI() {
+        return abi;
+    }
+
+    public boolean isOpenZFS() {
+        return abi.equals("openzfs");
+    }
+
+    /**
+     * Whether many snapshots can be destroyed in one call.
+     */
+    public boolean canDestroySnapshotsInBatch() {
+        return hasSymbol("zfs_destroy_snaps_nvl") || hasSymbol("lzc_destroy_snaps");
+    }
+
+    /**
+     * Whether ZFS channel programs (Lua scripts run in the kernel) can be run.
+     */
+    public boolean canRunChannelPrograms() {
+        return hasSymbol("lzc_channel_program");
+    }
+
+    /**
+     * Whether libzfs can mount the file systems of a pool on many threads.
+     */
+    public boolean canMountInParallel() {
+        return hasSymbol("zfs_foreach_mountpoint");
+    }
+
+    /**
+     * Whether sharing takes lists of protocols, as in OpenZFS 2.2 and later.
+     *
+     * <p>
+     * OpenZFS 2.0 and 2.1 have a zfs_commit_shares() as well, but one taking a
+     * protocol name, so the name alone doesn't tell. What does is that 2.2 dropped
+     * the per-protocol zfs_share_nfs() and zfs_commit_all_shares().
+     */
+    public boolean hasShareProtocolLists() {
+        return hasSymbol("zfs_commit_shares") && !hasSymbol("zfs_commit_all_shares") && !hasSymbol("zfs_share_nfs");
+    }
+
+    /**
+     * Whether the kernel event queue can be read, see {@link ZFSEventStream}.
+     */
+    public boolean hasEventQueue() {
+        return hasSymbol("zpool_events_next");
+    }
+
+    public boolean hasLibZFSCore() {
+        return hasSymbol("lzc_snapshot");
+    }
+
+    /**
+     * The symbols looked up so far and whether they were found, by name.
+     */
+    public Map<String,Boolean> getSymbols() {
+        return Collections.unmodifiableMap(new TreeMap<String,Boolean>(symbols));
+    }
+
+    /**
+     * How long the startup lookup, or reading it from the cache, took.
+     */
+    public long getProbeNanos() {
+        return probeNanos;
+    }
+
+    /**
+     * Reads the feature@ states of the pool and records them.
+     * Empty if the library has no feature flags.
+     */
+    /*package*/ Map<String,FeatureState> readPoolFeatures(ZFSPool pool) {
+        Map<String,Long> refcounts = new TreeMap<String,Long>();
+        if (hasSymbol("zpool_get_features")) {
+            // owned by the handle
+            nvlist_t features = LIBZFS.zpool_get_features(pool.handle);
+            if (features != null) {
+                for (String guid : features.names())
+                    refcounts.put(guid, features.getLong(guid));
+            }
+        }
+        return recordPoolFeatures(pool.getName(), refcounts);
+    }
+
+    /**
+     * @param refcounts
+     *      Feature guid like "org.open-zfs:large_blocks" to its reference count,
+     *      for every feature enabled on the pool.
+     */
+    /*package*/ Map<String,FeatureState> recordPoolFeatures(String pool, Map<String,Long> refcounts) {
+        Map<String,FeatureState> states = new TreeMap<String,FeatureState>();
+        for (Map.Entry<String,Long> e : refcounts.entrySet()) {
+            Long n = e.getValue();
+            states.put(featureName(e.getKey()), n != null && n > 0 ? FeatureState.ACTIVE : FeatureState.ENABLED);
+        }
+        states = Collections.unmodifiableMap(states);
+        poolFeatures.put(pool, states);
+        return states;
+    }
+
+    /**
+     * Feature states of the pool when {@link ZFSPool#getFeatures()} was last called,
+     * or null if it hasn't been.
+     */
+    public Map<String,FeatureState> getPoolFeatures(String pool) {
+        return poolFeatures.get(pool);
+    }
+
+    /**
+     * State of a feature of a pool as last recorded.
+     *
+     * @param feature
+     *      "feature@name", "name" or the guid like "com.delphix:async_destroy".
+     * @return
+     *      null if the features of the pool haven't been read.
+     */
+    public FeatureState getPoolFeature(String pool, String feature) {
+        Map<String,FeatureState> states = poolFeatures.get(pool);
+        if (states == null)
+            return null;
+        FeatureState s = states.get(featureName(feature));
+        return s != null ? s : FeatureState.DISABLED;
+    }
+
+    /**
+     * Forgets the recorded features of a pool that has been destroyed or exported.
+     */
+    public void forgetPool(String pool) {
+        poolFeatures.remove(pool);
+    }
+
+    /**
+     * Short name of a feature, "large_blocks" for "org.open-zfs:large_blocks"
+     * or "feature@large_blocks".
+     */
+    /*package*/ static String featureName(String feature) {
+        if (feature.startsWith("feature@"))
+            return feature.substring("feature@".length());
+        return feature.substring(feature.indexOf(':') + 1);
+    }
+
+    @Override
+    public String toString() {
+        List<String> present = new ArrayList<String>();
+        for (Map.Entry<String,Boolean> e : new TreeMap<String,Boolean>(symbols).entrySet())
+            if (e.getValue())
+                present.add(e.getKey());
+        return "abi=" + abi + " symbols=" + present + " in " + probeNanos / 1000 + "us";
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(Capabilities.class.getName());
+}
@@ -0,0 +1,77 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs_core.ZCP_DEFAULT_INSTRLIMIT;
+import static org.jvnet.solaris.libzfs.jna.libzfs_core.ZCP_DEFAULT_MEMLIMIT;
+import static org.jvnet.solaris.libzfs.jna.libzfs_core.ZCP_MAX_INSTRLIMIT;
+import static org.jvnet.solaris.libzfs.jna.libzfs_core.ZCP_MAX_MEMLIMIT;
+
+/**
+ * How much a channel program may do before the kernel stops it,
+ * like the -t and -m options of "zfs program".
+ *
+ * <p>
+ * The kernel rejects limits above its zfs_lua_max_instrlimit and
+ * zfs_lua_max_memlimit tunables, which default to {@link #MAX}.
+ * @see ZFSPool#runChannelProgram(String, org.jvnet.solaris.nvlist.jna.nvlist_t, ChannelProgramLimits)
+ */
+public final class ChannelProgramLimits {
+    /**
+     * 10 million Lua instructions and 10MB of memory.
+     */
+    public static final ChannelProgramLimits DEFAULT = new ChannelProgramLimits(ZCP_DEFAULT_INSTRLIMIT, ZCP_DEFAULT_MEMLIMIT);
+    /**
+     * 100 million Lua instructions and 100MB of memory.
+     */
+    public static final ChannelProgramLimits MAX = new ChannelProgramLimits(ZCP_MAX_INSTRLIMIT, ZCP_MAX_MEMLIMIT);
+
+    private final long instructions;
+    private final long memory;
+
+    /**
+     * @param instructions
+     *      Number of Lua instructions.
+     * @param memory
+     *      Bytes of memory for the Lua interpreter.
+     */
+    public ChannelProgramLimits(long instructions, long memory) {
+        if (instructions <= 0)
+            throw new IllegalArgumentException("instruction limit must be positive: " + instructions);
+        if (memory <= 0)
+            throw new IllegalArgumentException("memory limit must be positive: " + memory);
+        this.instructions = instructions;
+        this.memory = memory;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getMemory() {
+        return memory;
+    }
+
+    @Override
+    public String toString() {
+        return instructions + " instructions, " + memory + " bytes";
+    }
+}
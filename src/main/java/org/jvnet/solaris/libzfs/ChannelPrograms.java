@@ -0,0 +1,178 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+/**
+ * Channel programs behind the bulk snapshot operations of {@link ZFSPool},
+ * each doing in one ioctl what would otherwise take one or more per snapshot.
+ *
+ * <p>
+ * Arguments go in as strings, which every version of the kernel's nvlist to
+ * Lua conversion takes, and sets of names as tables from each name to itself.
+ */
+/*package*/ final class ChannelPrograms {
+    private ChannelPrograms() {}
+
+    private static final String LIST_SNAPSHOTS =
+        "args = ...\n" +
+        "local result = {}\n" +
+        "local function visit(fs)\n" +
+        "    for snap in zfs.list.snapshots(fs) do\n" +
+        "        local props = {}\n" +
+        "        for _, prop in pairs(args.props) do\n" +
+        "            local value = zfs.get_prop(snap, prop)\n" +
+        "            if value ~= nil then props[prop] = value end\n" +
+        "        end\n" +
+        "        result[snap] = props\n" +
+        "    end\n" +
+        "    if args.recursive then\n" +
+        "        for child in zfs.list.children(fs) do visit(child) end\n" +
+        "    end\n" +
+        "end\n" +
+        "visit(args.fs)\n" +
+        "return result\n";
+
+    /**
+     * Checks all the snapshots before destroying any, so either all
+     * of them go in the same transaction or none.
+     */
+    private static final String DESTROY_SNAPSHOTS =
+        "args = ...\n" +
+        "local failed = {}\n" +
+        "for _, snap in pairs(args.snapshots) do\n" +
+        "    local err = zfs.check.destroy(snap)\n" +
+        "    if err ~= 0 then failed[snap] = err end\n" +
+        "end\n" +
+        "if next(failed) ~= nil then return failed end\n" +
+        "for _, snap in pairs(args.snapshots) do\n" +
+        "    local err = zfs.sync.destroy(snap)\n" +
+        "    if err ~= 0 then failed[snap] = err end\n" +
+        "end\n" +
+        "return failed\n";
+
+    /**
+     * Collects the snapshots first, as destroying them would upset the iteration.
+     */
+    private static final String PRUNE_SNAPSHOTS =
+        "args = ...\n" +
+        "local before = tonumber(args.before)\n" +
+        "local candidates = {}\n" +
+        "local function visit(fs)\n" +
+        "    for snap in zfs.list.snapshots(fs) do\n" +
+        "        if zfs.get_prop(snap, 'creation') < before then\n" +
+        "            candidates[#candidates + 1] = snap\n" +
+        "        end\n" +
+        "    end\n" +
+        "    if args.recursive then\n" +
+        "        for child in zfs.list.children(fs) do visit(child) end\n" +
+        "    end\n" +
+        "end\n" +
+        "visit(args.fs)\n" +
+        "local destroyed = {}\n" +
+        "for _, snap in ipairs(candidates) do\n" +
+        "    if zfs.check.destroy(snap) == 0 and zfs.sync.destroy(snap) == 0 then\n" +
+        "        destroyed[snap] = true\n" +
+        "    end\n" +
+        "end\n" +
+        "return destroyed\n";
+
+    /*package*/ static Map<String,Map<String,Object>> listSnapshots(ZFSPool pool, String fs, boolean recursive, Collection<String> props) {
+        checkInPool(pool, fs);
+        nvlist_t args = nvlist_t.alloc(NV_UNIQUE_NAME);
+        args.put("fs", fs);
+        args.put("props", names(props));
+        if (recursive)
+            args.put("recursive", "true");
+
+        Map<String,Map<String,Object>> r = new TreeMap<String,Map<String,Object>>();
+        for (Map.Entry<String,Object> e : asMap(pool.runChannelProgramNoSync(LIST_SNAPSHOTS, args, ChannelProgramLimits.MAX)).entrySet())
+            r.put(e.getKey(), asMap(e.getValue()));
+        return r;
+    }
+
+    /*package*/ static BatchResult destroySnapshots(ZFSPool pool, Collection<String> snapshots) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        if (snapshots.isEmpty())
+            return new BatchResult("destroy", snapshots, failures);
+        for (String s : snapshots)
+            checkInPool(pool, s);
+        nvlist_t args = nvlist_t.alloc(NV_UNIQUE_NAME);
+        args.put("snapshots", names(snapshots));
+
+        Map<String,Object> failed = asMap(pool.runChannelProgram(DESTROY_SNAPSHOTS, args, ChannelProgramLimits.DEFAULT));
+        boolean quiet = ZFSException.suppressStackTraces(true);
+        try {
+            for (Map.Entry<String,Object> e : failed.entrySet()) {
+                int errno = ((Number) e.getValue()).intValue();
+                failures.put(e.getKey(), new ZFSException("Failed to destroy " + e.getKey(), errno));
+            }
+        } finally {
+            ZFSException.suppressStackTraces(quiet);
+        }
+        return new BatchResult("destroy", snapshots, failures);
+    }
+
+    /*package*/ static List<String> pruneSnapshots(ZFSPool pool, String fs, long createdBefore, boolean recursive) {
+        checkInPool(pool, fs);
+        nvlist_t args = nvlist_t.alloc(NV_UNIQUE_NAME);
+        args.put("fs", fs);
+        args.put("before", Long.toString(createdBefore));
+        if (recursive)
+            args.put("recursive", "true");
+
+        List<String> r = new ArrayList<String>(asMap(pool.runChannelProgram(PRUNE_SNAPSHOTS, args, ChannelProgramLimits.MAX)).keySet());
+        Collections.sort(r);
+        return r;
+    }
+
+    private static nvlist_t names(Collection<String> names) {
+        nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+        for (String n : names)
+            nvl.put(n, n);
+        return nvl;
+    }
+
+    /**
+     * An empty Lua table comes back as an empty nvlist, or not at all.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> asMap(Object o) {
+        if (o instanceof Map)
+            return (Map<String,Object>) o;
+        return Collections.emptyMap();
+    }
+
+    private static void checkInPool(ZFSPool pool, String name) {
+        if (!LibZFS.getPoolName(name).equals(pool.getName()))
+            throw new IllegalArgumentException(name + " is not in pool " + pool.getName());
+    }
+}
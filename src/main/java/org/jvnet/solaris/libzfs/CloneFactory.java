@@ -0,0 +1,425 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+import org.jvnet.solaris.libzfs.jna.zfs_type_t;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+/**
+ * Stamps out clones of one "golden" snapshot, for short-lived workspaces.
+ *
+ * <p>
+ * Clones are created on the calling thread, which is cheap, while mounting
+ * and sharing, which are not, happen on a separate pipeline thread. That
+ * thread mounts whatever clones have queued up and then shares all of them
+ * with one {@link ShareBatch} commit. Callers get a {@link Future} that
+ * completes once the clone is ready to use. The pipeline thread has a
+ * {@link LibZFS} of its own, since libzfs handles can't be used from two
+ * threads at the same time.
+ *
+ * <p>
+ * The golden snapshot gets a user hold for the lifetime of the factory, so
+ * that it can't go away under the clones. The tag of the hold is unique to
+ * the factory, so many factories can share a golden snapshot, and a hold left
+ * behind by a process that died doesn't get in the way of the next one.
+ * Destroyed clones give their names back to be reused, which keeps mount
+ * points and exports stable.
+ *
+ * <p>
+ * A clone that can't be mounted or shared is destroyed again, and its
+ * {@link Future} fails.
+ *
+ * <p>
+ * The factory keeps the time from {@link #provision()} to the clone being
+ * ready for the recent clones; see {@link #getLatencyPercentile(double)}.
+ */
+public final class CloneFactory implements Closeable {
+    /**
+     * Start of the tags of the holds placed on golden snapshots, see {@link #getHoldTag()}.
+     */
+    public static final String HOLD_TAG_PREFIX = "libzfs4j-clonefactory-";
+
+    /**
+     * Number of recent provisioning latencies kept for the percentiles.
+     */
+    private static final int LATENCY_SAMPLES = 4096;
+
+    private final LibZFS library;
+    private final ZFSSnapshot golden;
+    private final String prefix;
+    private final nvlist_t props;
+    private final boolean share;
+    private final String holdTag = HOLD_TAG_PREFIX + UUID.randomUUID();
+    private boolean held;
+
+    private final LinkedList<String> freeNames = new LinkedList<String>();
+    private int counter;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+    private final Thread pipeline;
+    private volatile boolean closed;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long provisioned;
+    private long failed;
+
+    /**
+     * @param golden
+     *      Snapshot to clone.
+     * @param parent
+     *      File system the clones are created in. Must exist.
+     * @param prefix
+     *      Clones are named like "parent/prefix17".
+     * @param props
+     *      ZFS properties of the clones. Can be null.
+     * @param share
+     *      Whether to share the clones (according to their sharenfs/sharesmb properties)
+     *      once they are mounted.
+     */
+    public CloneFactory(ZFSSnapshot golden, String parent, String prefix, Map<String,String> props, boolean share) {
+        this.library = golden.getLibrary();
+        this.golden = golden;
+        this.prefix = parent+'/'+prefix;
+        this.share = share;
+
+        if (LIBZFS.zfs_name_valid(this.prefix+"0", zfs_type_t.FILESYSTEM) == 0)
+            throw new IllegalArgumentException("Not a valid file system name prefix: "+this.prefix);
+
+        if (props!=null) {
+            this.props = nvlist_t.alloc(NV_UNIQUE_NAME);
+            for (Map.Entry<String,String> e : props.entrySet())
+                this.props.put(e.getKey(), e.getValue());
+        } else {
+            this.props = null;
+        }
+
+        golden.hold(holdTag);
+        held = true;
+
+        pipeline = new Thread("CloneFactory pipeline for "+golden.getName()) {
+            @Override
+            public void run() {
+                runPipeline();
+            }
+        };
+        pipeline.setDaemon(true);
+        pipeline.start();
+    }
+
+    /**
+     * Creates a new clone and schedules it to be mounted and shared.
+     *
+     * @return
+     *      Completes with the clone once it's mounted (and shared), or with the
+     *      {@link ZFSException} that prevented it.
+     * @throws ZFSException
+     *      if the clone couldn't be created.
+     */
+    public synchronized Future<ZFSFileSystem> provision() {
+        if (closed)
+            throw new IllegalStateException("Already closed");
+
+        long start = System.nanoTime();
+        String name = nextName();
+        if (LIBZFS.zfs_clone(golden.handle, name, props) != 0) {
+            failed++;
+            throw new ZFSException(library,"Failed to clone "+golden.getName()+" to "+name);
+        }
+        zfs_handle_t h = LIBZFS.zfs_open(library.getHandle(), name, zfs_type_t.FILESYSTEM);
+        if (h==null) {
+            failed++;
+            throw new ZFSException(library,"Failed to open "+name);
+        }
+
+        Pending p = new Pending(new ZFSFileSystem(library, h), start);
+        queue.add(p);
+        return p;
+    }
+
+    /**
+     * Creates many clones at once. See {@link #provision()}.
+     */
+    public List<Future<ZFSFileSystem>> provision(int n) {
+        List<Future<ZFSFileSystem>> r = new ArrayList<Future<ZFSFileSystem>>(n);
+        for (int i=0; i<n; i++)
+            r.add(provision());
+        return r;
+    }
+
+    /**
+     * Destroys a clone made by this factory and makes its name available for the next one.
+     */
+    public synchronized void recycle(ZFSFileSystem clone) {
+        String name = clone.getName();
+        if (!name.startsWith(prefix))
+            throw new IllegalArgumentException(name+" was not made by this factory");
+        if (clone.isShared())
+            clone.unshare();
+        if (clone.isMounted())
+            clone.unmount();
+        clone.destroy();
+        freeNames.add(name);
+    }
+
+    /**
+     * Tag of the hold this factory places on the golden snapshot.
+     */
+    public String getHoldTag() {
+        return holdTag;
+    }
+
+    private String nextName() {
+        if (!freeNames.isEmpty())
+            return freeNames.removeFirst();
+        String name;
+        do {
+            name = prefix+(counter++);
+        } while (library.exists(name));
+        return name;
+    }
+
+    /**
+     * Mounts queued clones, then shares everything mounted in one commit.
+     */
+    private void runPipeline() {
+        LibZFS z = new LibZFS();
+        try {
+            runPipeline(z);
+        } finally {
+            z.dispose();
+        }
+    }
+
+    private void runPipeline(LibZFS z) {
+        List<Pending> ready = new ArrayList<Pending>();
+        List<ZFSFileSystem> opened = new ArrayList<ZFSFileSystem>();
+        ShareBatch shares = new ShareBatch(z);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending p = queue.poll(1, TimeUnit.SECONDS);
+                if (p==null)
+                    continue;
+                do {
+                    try {
+                        ZFSFileSystem fs = z.open(p.clone.getName(), ZFSFileSystem.class);
+                        if (fs==null)
+                            throw new ZFSException(p.clone.getName()+" no longer exists", ErrorCode.EZFS_NOENT);
+                        opened.add(fs);
+                        p.fs = fs;
+                        fs.mount();
+                        ready.add(p);
+                        if (share)
+                            shares.share(fs);
+                    } catch (RuntimeException e) {
+                        ready.remove(p);
+                        discard(p, e);
+                    }
+                } while ((p=queue.poll())!=null);
+
+                Map<String,ZFSException> failures = shares.commit();
+                for (Pending r : ready) {
+                    ZFSException e = failures.get(r.clone.getName());
+                    if (e!=null)
+                        discard(r, e);
+                    else
+                        r.done();
+                }
+            } catch (InterruptedException e) {
+                // close() wants us to go away
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Clone pipeline failed", e);
+                for (Pending r : ready)
+                    discard(r, e);
+                shares = new ShareBatch(z);   // a failed commit leaves its file systems in there
+            }
+            ready.clear();
+            for (ZFSFileSystem fs : opened)
+                fs.dispose();
+            opened.clear();
+        }
+    }
+
+    /**
+     * Fails the clone and destroys it, giving its name back.
+     */
+    private void discard(Pending p, RuntimeException cause) {
+        p.fail(cause);
+        if (p.fs==null)
+            return;
+        try {
+            if (p.fs.isShared())
+                p.fs.unshare();
+            if (p.fs.isMounted())
+                p.fs.unmount();
+            p.fs.destroy();
+            synchronized (this) {
+                freeNames.add(p.fs.getName());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to destroy "+p.fs.getName()+", which couldn't be made ready", e);
+        }
+    }
+
+    private synchronized void record(long nanos, boolean ok) {
+        if (ok)
+            latencies[(int)(provisioned++ % LATENCY_SAMPLES)] = nanos;
+        else
+            failed++;
+    }
+
+    /**
+     * Number of clones that were successfully provisioned so far.
+     */
+    public synchronized long getProvisionedCount() {
+        return provisioned;
+    }
+
+    /**
+     * Number of clones that failed to get created, mounted or shared.
+     */
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * Provisioning latency from {@link #provision()} to the clone being ready,
+     * over the most recent clones.
+     *
+     * @param p
+     *      Percentile between 0 and 100, like 50 or 99.
+     * @return
+     *      In nanoseconds, or -1 if nothing was provisioned yet.
+     */
+    public synchronized long getLatencyPercentile(double p) {
+        if (p<0 || p>100)
+            throw new IllegalArgumentException("Percentile out of range: "+p);
+        int n = (int)Math.min(provisioned, LATENCY_SAMPLES);
+        if (n==0)
+            return -1;
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        int i = (int)Math.ceil(p/100*n)-1;
+        return sorted[Math.max(0,i)];
+    }
+
+    /**
+     * Stops the pipeline once the queued clones are done and releases the hold on
+     * the golden snapshot. Clones that are still around remain.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            pipeline.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (held) {
+            golden.release(holdTag);
+            held = false;
+        }
+    }
+
+    /**
+     * Clone on its way through the pipeline.
+     */
+    private final class Pending implements Future<ZFSFileSystem> {
+        private final ZFSFileSystem clone;
+        /**
+         * The clone as opened by the pipeline thread, once it is.
+         */
+        private ZFSFileSystem fs;
+        private final long start;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+
+        Pending(ZFSFileSystem clone, long start) {
+            this.clone = clone;
+            this.start = start;
+        }
+
+        void done() {
+            record(System.nanoTime()-start, true);
+            latch.countDown();
+        }
+
+        void fail(RuntimeException e) {
+            failure = e;
+            record(0, false);
+            latch.countDown();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return latch.getCount()==0;
+        }
+
+        public ZFSFileSystem get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return result();
+        }
+
+        public ZFSFileSystem get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private ZFSFileSystem result() throws ExecutionException {
+            if (failure!=null)
+                throw new ExecutionException(failure);
+            return clone;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(CloneFactory.class.getName());
+}
@@ -0,0 +1,549 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.libc;
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+import org.jvnet.solaris.libzfs.jna.zfs_type_t;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Destroys a whole tree of datasets, like "zfs destroy -r", but in far fewer
+ * round trips than destroying them one by one.
+ *
+ * <p>
+ * The tree is walked once to find out what depends on what: a clone has to go
+ * before the snapshot it was made from, a snapshot before its file system, and
+ * a file system before its parent. From that, the datasets are put in levels,
+ * where nothing in a level depends on anything in the same or a later level.
+ * Level by level, all the snapshots go in one {@link LibZFS#destroySnapshots(Collection) batch},
+ * and the file systems and volumes are destroyed on several threads, each with
+ * its own libzfs handle so that they don't wait on one another. Threads are
+ * only started once a level has {@value #MIN_PARALLEL} or more of them; small
+ * trees are destroyed on the calling thread.
+ *
+ * <p>
+ * A dataset that can't be destroyed is recorded and doesn't stop the others,
+ * but whatever contains it is then left alone. Clones outside the tree keep
+ * their origin snapshots, and those snapshots' file systems, from going,
+ * as with "zfs destroy -r".
+ *
+ * <pre>
+ * DestroyPlanner.Plan plan = new DestroyPlanner(zfs).plan(tenant);
+ * System.out.println(plan);    // like "zfs destroy -rnv"
+ * new DestroyPlanner(zfs).setParallelism(16).execute(plan).throwIfFailed();
+ * </pre>
+ * @see ZFSObject#destroy(boolean)
+ */
+public final class DestroyPlanner {
+    /**
+     * Fewer file systems and volumes than this in a level are destroyed one by one,
+     * since opening a libzfs handle for each thread costs more than it saves.
+     */
+    public static final int MIN_PARALLEL = 4;
+
+    private final LibZFS library;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public DestroyPlanner(LibZFS library) {
+        this.library = library;
+    }
+
+    /**
+     * Sets how many file systems and volumes are destroyed at the same time.
+     * With more than one, each thread opens its own {@link LibZFS}.
+     * Defaults to the number of processors.
+     */
+    public DestroyPlanner setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * A dataset in the plan.
+     */
+    private static final class Node {
+        final String name;
+        final boolean snapshot;
+        /**
+         * Origin snapshot of a clone, or null.
+         */
+        final String origin;
+        final long used;
+        /**
+         * Datasets that can only be destroyed after this one.
+         */
+        final List<Node> waiters = new ArrayList<Node>();
+        /**
+         * Datasets to be destroyed before this one.
+         */
+        final List<Node> blockers = new ArrayList<Node>();
+        int level;
+
+        Node(String name, boolean snapshot, String origin, long used) {
+            this.name = name;
+            this.snapshot = snapshot;
+            this.origin = origin;
+            this.used = used;
+        }
+
+        void mustGoBefore(Node that) {
+            waiters.add(that);
+            that.blockers.add(this);
+        }
+    }
+
+    /**
+     * Datasets that can be destroyed together, once the earlier steps are done.
+     */
+    public static final class Step {
+        private final List<Node> snapshots = new ArrayList<Node>();
+        private final List<Node> dataSets = new ArrayList<Node>();
+
+        /**
+         * Full names of the snapshots destroyed in one batch in this step.
+         */
+        public List<String> getSnapshots() {
+            return names(snapshots);
+        }
+
+        /**
+         * Full names of the file systems and volumes destroyed in parallel in this step.
+         */
+        public List<String> getDataSets() {
+            return names(dataSets);
+        }
+
+        private static List<String> names(List<Node> nodes) {
+            List<String> r = new ArrayList<String>(nodes.size());
+            for (Node n : nodes)
+                r.add(n.name);
+            return r;
+        }
+
+        @Override
+        public String toString() {
+            return snapshots.size()+" snapshots, "+dataSets.size()+" file systems and volumes";
+        }
+    }
+
+    /**
+     * What would be destroyed, and in what order. Nothing is destroyed by
+     * computing one, so it doubles as a dry run.
+     */
+    public static final class Plan {
+        private final String root;
+        private final Map<String,Node> nodes = new HashMap<String,Node>();
+        /**
+         * In the order of the walk, so that parents come before children.
+         */
+        private final List<Node> order = new ArrayList<Node>();
+        private final List<Step> steps = new ArrayList<Step>();
+
+        /*package*/ Plan(String root) {
+            this.root = root;
+        }
+
+        /**
+         * Records a dataset found by the walk.
+         *
+         * @param origin
+         *      Origin snapshot of a clone, null otherwise.
+         */
+        /*package*/ void add(String name, boolean snapshot, String origin, long used) {
+            Node n = new Node(name, snapshot, origin, used);
+            nodes.put(name, n);
+            order.add(n);
+        }
+
+        /**
+         * Works out the dependencies and the levels, once all the datasets are added.
+         */
+        /*package*/ Plan schedule() {
+            for (Node n : order) {
+                Node container = nodes.get(container(n.name));
+                if (container != null)
+                    n.mustGoBefore(container);
+                if (n.origin != null) {
+                    Node origin = nodes.get(n.origin);
+                    if (origin != null)
+                        n.mustGoBefore(origin);
+                }
+            }
+
+            // Kahn's algorithm, putting each dataset one level above the last of its blockers
+            Map<Node,Integer> remaining = new HashMap<Node,Integer>();
+            List<Node> ready = new ArrayList<Node>();
+            for (Node n : order) {
+                remaining.put(n, n.blockers.size());
+                if (n.blockers.isEmpty())
+                    ready.add(n);
+            }
+            int done = 0;
+            while (done < ready.size()) {
+                Node n = ready.get(done++);
+                while (steps.size() <= n.level)
+                    steps.add(new Step());
+                Step s = steps.get(n.level);
+                (n.snapshot ? s.snapshots : s.dataSets).add(n);
+
+                for (Node w : n.waiters) {
+                    w.level = Math.max(w.level, n.level+1);
+                    int r = remaining.get(w)-1;
+                    remaining.put(w, r);
+                    if (r == 0)
+                        ready.add(w);
+                }
+            }
+            if (done < order.size())
+                throw new IllegalStateException("Circular dependencies among the datasets below "+root);
+            return this;
+        }
+
+        /**
+         * Name of the file system or volume that contains the given dataset.
+         *
+         * @return null for a pool's root file system.
+         */
+        private static String container(String name) {
+            int i = name.indexOf('@');
+            if (i < 0)
+                i = name.lastIndexOf('/');
+            return i < 0 ? null : name.substring(0, i);
+        }
+
+        /**
+         * Name of the dataset the plan destroys, with everything below it.
+         */
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * Steps to carry out one after another.
+         */
+        public List<Step> getSteps() {
+            return Collections.unmodifiableList(steps);
+        }
+
+        /**
+         * Number of datasets to be destroyed, snapshots included.
+         */
+        public int size() {
+            return order.size();
+        }
+
+        /**
+         * Bytes that destroying the whole tree gives back to the pool, which is
+         * the "used" property of the root. Less comes back if some of the tree
+         * can't be destroyed, such as snapshots held or cloned from elsewhere.
+         */
+        public long getEstimatedFreedSpace() {
+            Node n = nodes.get(root);
+            return n != null ? n.used : 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            for (Step s : steps) {
+                for (Node n : s.snapshots)
+                    b.append("would destroy ").append(n.name).append('\n');
+                for (Node n : s.dataSets)
+                    b.append("would destroy ").append(n.name).append('\n');
+            }
+            b.append("would reclaim ").append(getEstimatedFreedSpace()).append(" bytes");
+            return b.toString();
+        }
+    }
+
+    /**
+     * Walks the given file system or volume and everything below it, without destroying anything.
+     */
+    public Plan plan(ZFSObject root) {
+        if (root instanceof ZFSSnapshot)
+            throw new IllegalArgumentException("Not a file system or volume: "+root.getName());
+
+        Plan plan = new Plan(root.getName());
+        new Walker(root.getLibrary(), plan).add(root.handle);
+        return plan.schedule();
+    }
+
+    /**
+     * Records datasets into a {@link Plan} through raw handles, so that the walk
+     * doesn't sort snapshots or wrap the handles.
+     */
+    private static final class Walker {
+        private final LibZFS library;
+        private final Plan plan;
+        private final int used, origin;
+        private final Memory buf = new Memory(libzfs.ZFS_MAXPROPLEN);
+
+        Walker(LibZFS library, Plan plan) {
+            this.library = library;
+            this.plan = plan;
+            this.used = library.getZfsPropertyCode("used");
+            this.origin = library.getZfsPropertyCode("origin");
+        }
+
+        /**
+         * Records the file system or volume, then its snapshots and children.
+         */
+        void add(zfs_handle_t handle) {
+            String name = LIBZFS.zfs_get_name(handle);
+            String o = null;
+            if (LIBZFS.zfs_prop_get(handle, new NativeLong(origin), buf, libzfs.ZFS_MAXPROPLEN, null, null, new NativeLong(0), true) == 0) {
+                o = buf.getString(0);
+                if (o.length() == 0 || o.equals("-"))
+                    o = null;
+            }
+            plan.add(name, false, o, LIBZFS.zfs_prop_get_int(handle, used));
+
+            ZFSObject.iterSnapshots(library, handle, new libzfs.zfs_iter_f() {
+                public int callback(zfs_handle_t snapshot, Pointer arg) {
+                    try {
+                        plan.add(LIBZFS.zfs_get_name(snapshot), true, null, LIBZFS.zfs_prop_get_int(snapshot, used));
+                    } finally {
+                        LIBZFS.zfs_close(snapshot);
+                    }
+                    return 0;
+                }
+            });
+            LIBZFS.zfs_iter_filesystems(handle, new libzfs.zfs_iter_f() {
+                public int callback(zfs_handle_t child, Pointer arg) {
+                    try {
+                        add(child);
+                    } finally {
+                        LIBZFS.zfs_close(child);
+                    }
+                    return 0;
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * Walks and destroys the given file system or volume and everything below it.
+     */
+    public BatchResult destroy(ZFSObject root) {
+        return execute(plan(root));
+    }
+
+    /**
+     * Destroys what the plan says. Datasets created since the plan was made are
+     * not destroyed, and keep what contains them from being destroyed.
+     */
+    public BatchResult execute(Plan plan) {
+        Execution e = new Execution();
+        try {
+            for (Step s : plan.steps)
+                e.run(s);
+        } finally {
+            e.finish();
+        }
+        return new BatchResult("destroy", Step.names(plan.order), e.failures);
+    }
+
+    /**
+     * State of one {@link #execute(Plan)}.
+     */
+    private final class Execution {
+        private final Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        /**
+         * Started by the first level big enough to be worth it.
+         */
+        private ExecutorService executor;
+        /**
+         * Libraries opened by the threads, to be disposed at the end.
+         */
+        private final List<LibZFS> opened = Collections.synchronizedList(new ArrayList<LibZFS>());
+        private final ThreadLocal<LibZFS> libraries = new ThreadLocal<LibZFS>() {
+            @Override
+            protected LibZFS initialValue() {
+                LibZFS z = new LibZFS();
+                opened.add(z);
+                return z;
+            }
+        };
+
+        void run(Step step) {
+            List<String> snapshots = new ArrayList<String>();
+            for (Node n : step.snapshots)
+                if (!skipped(n))
+                    snapshots.add(n.name);
+            if (!snapshots.isEmpty())
+                destroySnapshots(snapshots);
+
+            List<Node> dataSets = new ArrayList<Node>();
+            for (Node n : step.dataSets)
+                if (!skipped(n))
+                    dataSets.add(n);
+            if (parallelism == 1 || dataSets.size() < MIN_PARALLEL) {
+                for (Node n : dataSets) {
+                    ZFSException x = destroy(library, n);
+                    if (x != null)
+                        failures.put(n.name, x);
+                }
+                return;
+            }
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                    private final AtomicInteger n = new AtomicInteger();
+                    public Thread newThread(Runnable task) {
+                        Thread t = new Thread(task, "zfs destroy #" + n.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+
+            List<Future<ZFSException>> futures = new ArrayList<Future<ZFSException>>();
+            for (final Node n : dataSets) {
+                futures.add(executor.submit(new Callable<ZFSException>() {
+                    public ZFSException call() {
+                        return destroy(libraries.get(), n);
+                    }
+                }));
+            }
+            for (int i=0; i<futures.size(); i++) {
+                ZFSException x;
+                try {
+                    x = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException)e.getCause();
+                    throw (Error)e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ZFSException("Interrupted while destroying datasets", libc.EINTR);
+                }
+                if (x != null)
+                    failures.put(dataSets.get(i).name, x);
+            }
+        }
+
+        /**
+         * With libzfs_core a batch is all or nothing within a pool, so when some
+         * snapshots fail, the rest are still there and get one more try on their own.
+         */
+        private void destroySnapshots(List<String> snapshots) {
+            Map<String,ZFSException> failed = library.destroySnapshots(snapshots).getFailures();
+            failures.putAll(failed);
+            if (failed.isEmpty())
+                return;
+
+            List<String> rest = new ArrayList<String>();
+            for (String s : snapshots)
+                if (!failed.containsKey(s) && library.exists(s))
+                    rest.add(s);
+            if (!rest.isEmpty())
+                failures.putAll(library.destroySnapshots(rest).getFailures());
+        }
+
+        /**
+         * Records a failure for the dataset if something it waits for is still there.
+         */
+        private boolean skipped(Node n) {
+            for (Node b : n.blockers) {
+                if (failures.containsKey(b.name)) {
+                    failures.put(n.name, new ZFSException("Not destroying "+n.name+" because "+b.name+" is still there", libc.EBUSY)
+                        .withContext("destroy", n.name));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return
+         *      the failure, or null if the dataset is gone.
+         */
+        private ZFSException destroy(LibZFS z, Node n) {
+            boolean quiet = ZFSException.suppressStackTraces(true);
+            ZFSObject o = null;
+            try {
+                o = z.open(n.name, zfs_type_t.FILESYSTEM|zfs_type_t.VOLUME);
+                if (o == null) {
+                    LOGGER.log(Level.FINE, "{0} is already gone", n.name);
+                    return null;
+                }
+                LOGGER.log(Level.FINER, "Destroying {0}", n.name);
+                o.destroy();
+                return null;
+            } catch (ZFSException e) {
+                return e.withContext("destroy", n.name);
+            } finally {
+                if (o != null)
+                    o.dispose();
+                ZFSException.suppressStackTraces(quiet);
+            }
+        }
+
+        /**
+         * Waits for the threads to be done before disposing of their handles,
+         * since they may still be inside libzfs when a step failed half way.
+         */
+        private void finish() {
+            if (executor != null) {
+                executor.shutdownNow();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        if (executor.awaitTermination(1, TimeUnit.MINUTES))
+                            break;
+                        LOGGER.log(Level.WARNING, "Still waiting for destroy threads to finish");
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            for (LibZFS z : opened)
+                z.dispose();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DestroyPlanner.class.getName());
+}
@@ -0,0 +1,153 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.Date;
+
+/**
+ * One change between two snapshots, as reported by {@link ZFSSnapshot#diff(ZFSSnapshot)}.
+ */
+public final class DiffEntry {
+    /**
+     * What happened to the file.
+     */
+    public enum ChangeType {
+        ADDED('+'),
+        REMOVED('-'),
+        MODIFIED('M'),
+        /**
+         * The file was renamed, see {@link DiffEntry#getNewPath()}.
+         */
+        RENAMED('R');
+
+        /**
+         * The marker used by "zfs diff".
+         */
+        public final char symbol;
+
+        ChangeType(char symbol) {
+            this.symbol = symbol;
+        }
+
+        /*package*/ static ChangeType fromSymbol(char ch) {
+            for (ChangeType t : values())
+                if (t.symbol==ch)
+                    return t;
+            return null;
+        }
+    }
+
+    /**
+     * Type of the file, as in "zfs diff -F".
+     */
+    public enum FileType {
+        BLOCK_DEVICE('B'),
+        CHARACTER_DEVICE('C'),
+        DIRECTORY('/'),
+        DOOR('>'),
+        FIFO('|'),
+        SYMLINK('@'),
+        EVENT_PORT('P'),
+        SOCKET('='),
+        FILE('F'),
+        UNKNOWN('?');
+
+        public final char symbol;
+
+        FileType(char symbol) {
+            this.symbol = symbol;
+        }
+
+        /*package*/ static FileType fromSymbol(char ch) {
+            for (FileType t : values())
+                if (t.symbol==ch)
+                    return t;
+            return UNKNOWN;
+        }
+    }
+
+    private final ChangeType changeType;
+    private final FileType fileType;
+    private final String path;
+    private final String newPath;
+    private final int linkCountDelta;
+    private final long ctimeNanos;
+
+    /*package*/ DiffEntry(ChangeType changeType, FileType fileType, String path, String newPath, int linkCountDelta, long ctimeNanos) {
+        this.changeType = changeType;
+        this.fileType = fileType;
+        this.path = path;
+        this.newPath = newPath;
+        this.linkCountDelta = linkCountDelta;
+        this.ctimeNanos = ctimeNanos;
+    }
+
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+
+    public FileType getFileType() {
+        return fileType;
+    }
+
+    /**
+     * Absolute path of the file, under the mount point of the file system.
+     * For {@link ChangeType#RENAMED} this is the path before the rename.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The path after the rename, for {@link ChangeType#RENAMED}.
+     *
+     * @return
+     *      null for other change types.
+     */
+    public String getNewPath() {
+        return newPath;
+    }
+
+    /**
+     * For {@link ChangeType#MODIFIED} entries that only report a change in
+     * the number of hard links to the file, how much that number changed.
+     * 0 otherwise.
+     */
+    public int getLinkCountDelta() {
+        return linkCountDelta;
+    }
+
+    /**
+     * The inode change time of the file, in nanoseconds since the epoch.
+     */
+    public long getChangeTimeNanos() {
+        return ctimeNanos;
+    }
+
+    public Date getChangeTime() {
+        return new Date(ctimeNanos/1000000);
+    }
+
+    @Override
+    public String toString() {
+        return changeType.symbol + "\t" + fileType.symbol + "\t" + path + (newPath==null ? "" : " -> " + newPath);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.jna.libc.EIO;
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+
+/**
+ * Streams the changes between two snapshots, as returned from {@link ZFSSnapshot#diff(ZFSSnapshot)}.
+ *
+ * <p>
+ * libzfs writes the diff into a pipe from a separate thread, and this iterator
+ * parses it one line at a time as the caller asks for more, so the whole diff
+ * never sits in memory and the producer stalls while the consumer is busy.
+ *
+ * <p>
+ * Iterate to the end, or call {@link #close()} to abandon the diff midway.
+ */
+public final class DiffIterator implements Iterator<DiffEntry>, Closeable {
+    private final NativePipe pipe;
+    private final InputStream in;
+    private final Future<Integer> writer;
+    private final String what;
+    /**
+     * Set by the writer thread, so that the error description is captured
+     * before anything else touches the libzfs handle.
+     */
+    private volatile ZFSException failure;
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private DiffEntry next;
+    private boolean done;
+
+    /**
+     * @param fs
+     *      Handle of the file system. This iterator takes it over and closes it.
+     */
+    /*package*/ DiffIterator(final LibZFS library, final zfs_handle_t fs, final String from, final String to) {
+        this.what = from + (to==null ? "" : " " + to);
+        this.pipe = new NativePipe();
+        this.in = new BufferedInputStream(pipe.getInputStream(), 64*1024);
+        this.writer = pipe.start("zfs diff "+what, new Callable<Integer>() {
+            public Integer call() {
+                try {
+                    int r = LIBZFS.zfs_show_diffs(fs, pipe.getWriteFd(), from, to,
+                            libzfs.ZFS_DIFF_PARSEABLE|libzfs.ZFS_DIFF_TIMESTAMP|libzfs.ZFS_DIFF_CLASSIFY);
+                    if (r != 0)
+                        failure = new ZFSException(library,"Failed to diff "+what);
+                    return r;
+                } finally {
+                    LIBZFS.zfs_close(fs);
+                }
+            }
+        }, true);   // libzfs fdopen()s the descriptor and fclose()s it when done
+    }
+
+    public boolean hasNext() {
+        if (next != null)   return true;
+        if (done)           return false;
+
+        try {
+            while (readLine()) {
+                next = parse(line.toByteArray());
+                if (next != null)
+                    return true;
+            }
+        } catch (IOException e) {
+            close();
+            throw new ZFSException("Failed to read the diff of "+what+": "+e.getMessage(), EIO);
+        } catch (ZFSException e) {
+            close();
+            throw e;
+        }
+
+        // reached EOF: see how the native side fared
+        close();
+        NativePipe.join(writer);
+        if (failure != null)
+            throw failure;
+        return false;
+    }
+
+    public DiffEntry next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        DiffEntry r = next;
+        next = null;
+        return r;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops reading the diff. The native side gets EPIPE and bails out.
+     */
+    public void close() {
+        done = true;
+        pipe.close();
+    }
+
+    /**
+     * Reads the next line into {@link #line}, without the '\n'.
+     *
+     * @return false at EOF.
+     */
+    private boolean readLine() throws IOException {
+        line.reset();
+        int ch;
+        while ((ch=in.read()) >= 0) {
+            if (ch == '\n')
+                return true;
+            line.write(ch);
+        }
+        return line.size() > 0;
+    }
+
+    /**
+     * Parses a line of "zfs diff -HtF" output, like "1500000000.000000000\tR\tF\t/a\t/b".
+     *
+     * @return null if the line is of a change type this library doesn't know.
+     * @throws ZFSException
+     *      With {@link ErrorCode#EZFS_DIFFDATA} if the line is malformed or cut short.
+     */
+    /*package*/ static DiffEntry parse(byte[] line) {
+        List<String> f = split(line);
+        if (f.size() < 4 || f.get(1).length() != 1 || f.get(2).length() != 1 || f.get(3).length() == 0)
+            throw malformed(line, "expected a timestamp, change type, file type and path");
+
+        DiffEntry.ChangeType change = DiffEntry.ChangeType.fromSymbol(f.get(1).charAt(0));
+        if (change == null) return null;
+        DiffEntry.FileType type = DiffEntry.FileType.fromSymbol(f.get(2).charAt(0));
+
+        try {
+            String newPath = null;
+            int delta = 0;
+            if (f.size() > 4) {
+                String extra = f.get(4);
+                if (change == DiffEntry.ChangeType.RENAMED)
+                    newPath = extra;
+                else if (extra.startsWith("(") && extra.endsWith(")") && extra.length() > 2)  // link count change like "(+1)"
+                    delta = Integer.parseInt(extra.substring(extra.charAt(1)=='+' ? 2 : 1, extra.length()-1));
+            }
+            if (change == DiffEntry.ChangeType.RENAMED && (newPath == null || newPath.length() == 0))
+                throw malformed(line, "no path to rename to");
+
+            return new DiffEntry(change, type, f.get(3), newPath, delta, parseTimestamp(f.get(0).trim()));
+        } catch (NumberFormatException e) {
+            throw malformed(line, e.getMessage());
+        }
+    }
+
+    private static ZFSException malformed(byte[] line, String why) {
+        return new ZFSException("Malformed zfs diff output ("+why+"): "+new String(line, UTF8), ErrorCode.EZFS_DIFFDATA);
+    }
+
+    /**
+     * "seconds.nanoseconds" to nanoseconds.
+     */
+    private static long parseTimestamp(String ts) {
+        int dot = ts.indexOf('.');
+        if (dot < 0)
+            return Long.parseLong(ts)*1000000000L;
+        return Long.parseLong(ts.substring(0,dot))*1000000000L + Long.parseLong(ts.substring(dot+1));
+    }
+
+    /**
+     * Splits the line at tabs, undoing the octal escapes ("\0040") that
+     * libzfs uses for whitespace, backslashes and other unprintable bytes
+     * in file names.
+     */
+    private static List<String> split(byte[] line) {
+        List<String> r = new ArrayList<String>();
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        for (int i=0; i<line.length; i++) {
+            byte b = line[i];
+            if (b == '\t') {
+                r.add(decode(field));
+                field.reset();
+            } else
+            if (b == '\\') {
+                int v = 0;
+                int j = i+1;
+                for (; j<line.length && j<i+5 && line[j]>='0' && line[j]<='7'; j++)
+                    v = v*8 + (line[j]-'0');
+                if (j == i+1) {
+                    field.write(b);   // not an escape after all
+                } else {
+                    field.write(v);
+                    i = j-1;
+                }
+            } else {
+                field.write(b);
+            }
+        }
+        r.add(decode(field));
+        return r;
+    }
+
+    private static String decode(ByteArrayOutputStream field) {
+        return new String(field.toByteArray(), UTF8);
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -88,21 +88,65 @@ public enum ErrorCode {
     EZFS_BADCACHE, /* bad cache file */
     EZFS_ISL2CACHE, /* device is for the level 2 ARC */
     EZFS_VDEVNOTSUP, /* unsupported vdev type */
+    /* The rest are OpenZFS only; see ErrorCodeTable for where they go */
+    EZFS_FAULT, /* bad address */
+    EZFS_NOTSUP, /* ops not supported on this dataset */
+    EZFS_ACTIVE_SPARE, /* pool has active shared spare devices */
+    EZFS_UNPLAYED_LOGS, /* log device has unplayed logs */
+    EZFS_REFTAG_RELE, /* snapshot release: tag not found */
+    EZFS_REFTAG_HOLD, /* snapshot hold: tag already exists */
+    EZFS_TAGTOOLONG, /* snapshot hold/rele: tag too long */
+    EZFS_PIPEFAILED, /* pipe create failed */
+    EZFS_THREADCREATEFAILED, /* thread create failed */
+    EZFS_POSTSPLIT_ONLINE, /* onlining a disk after splitting it */
+    EZFS_SCRUBBING, /* currently scrubbing */
+    EZFS_NO_SCRUB, /* no active scrub */
+    EZFS_DIFF, /* general failure of zfs diff */
+    EZFS_DIFFDATA, /* bad zfs diff data */
+    EZFS_POOLREADONLY, /* pool is in read-only mode */
+    EZFS_SCRUB_PAUSED, /* scrub currently paused */
+    EZFS_ACTIVE_POOL, /* pool is imported on a different system */
+    EZFS_CRYPTOFAILED, /* failed to setup encryption */
+    EZFS_NO_PENDING, /* cannot cancel, no operation is pending */
+    EZFS_CHECKPOINT_EXISTS, /* checkpoint exists */
+    EZFS_DISCARDING_CHECKPOINT, /* currently discarding a checkpoint */
+    EZFS_NO_CHECKPOINT, /* pool has no checkpoint */
+    EZFS_DEVRM_IN_PROGRESS, /* a device is currently being removed */
+    EZFS_VDEV_TOO_BIG, /* a device is too big to be used */
+    EZFS_IOC_NOTSUPPORTED, /* operation not supported by zfs module */
+    EZFS_TOOMANY, /* argument list too long */
+    EZFS_INITIALIZING, /* currently initializing */
+    EZFS_NO_INITIALIZE, /* no active initialize */
+    EZFS_WRONG_PARENT, /* invalid parent dataset (e.g ZVOL) */
+    EZFS_TRIMMING, /* currently trimming */
+    EZFS_NO_TRIM, /* no active trim */
+    EZFS_TRIM_NOTSUP, /* device does not support trim */
+    EZFS_NO_RESILVER_DEFER, /* pool doesn't support resilver_defer */
+    EZFS_EXPORT_IN_PROGRESS, /* currently exporting the pool */
+    EZFS_REBUILDING, /* resilvering (sequential reconstrution) */
+    EZFS_VDEV_NOTSUP, /* ops not supported for this type of vdev */
+    EZFS_NOT_USER_NAMESPACE, /* a file is not a user namespace */
+    EZFS_CKSUM, /* insufficient replicas */
+    EZFS_RESUME_EXISTS, /* resume on existing dataset without force */
+    EZFS_SHAREFAILED, /* filesystem share failed */
     EZFS_UNKNOWN;
 
     /**
-     * Error code number.
+     * Error code number, as the libzfs of this host numbers it.
+     *
+     * @return
+     *      -1 if this libzfs doesn't have the error.
      */
     public int code() {
-        return ordinal() + 2000;
+        return ErrorCodeTable.detected().encode(this);
     }
 
+    /**
+     * Decodes the error code number of the libzfs of this host.
+     * The numbering differs between the ABIs, see {@link ErrorCodeTable}.
+     */
     public static ErrorCode fromCode(final int c) {
-        try {
-            return ErrorCode.values()[c - 2000];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return EZFS_UNKNOWN;
-        }
+        return ErrorCodeTable.detected().decode(c);
     }
 
 }
@@ -0,0 +1,181 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.ErrorCode.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * How a libzfs numbers its {@link ErrorCode}s.
+ *
+ * <p>
+ * libzfs_errno() gives a zfs_error_t, which counts up from 2000 in the order
+ * of the enum in libzfs.h. OpenZFS dropped some of the OpenSolaris errors from
+ * the middle of it and added many, so the same number means different things
+ * depending on the ABI. libzfs doesn't export the enum itself, so the tables are
+ * taken from the headers, and the one for the ABI the library was detected as is
+ * picked. LIBZFS4J_ABI_zfs_error overrides the pick like the other toggles do.
+ *
+ * <p>
+ * OpenZFS only appends to its list, so numbers past the end of the table are
+ * from a newer libzfs and decode to {@link ErrorCode#EZFS_UNKNOWN}. It keeps
+ * EZFS_UNKNOWN last though, so an older libzfs has its EZFS_UNKNOWN where a
+ * newer one has a real error. OpenZFS 2.0 and 2.1 stop at EZFS_VDEV_NOTSUP
+ * (2.0 even before it, and its EZFS_UNKNOWN reads as EZFS_VDEV_NOTSUP here),
+ * 2.2 added four more; the two are told apart like the share functions are,
+ * see {@link Capabilities#hasShareProtocolLists()}.
+ */
+public final class ErrorCodeTable {
+    private static final int BASE = 2000;
+
+    private static final ErrorCode[] LEGACY = {
+        EZFS_NOMEM, EZFS_BADPROP, EZFS_PROPREADONLY, EZFS_PROPTYPE, EZFS_PROPNONINHERIT,
+        EZFS_PROPSPACE, EZFS_BADTYPE, EZFS_BUSY, EZFS_EXISTS, EZFS_NOENT,
+        EZFS_BADSTREAM, EZFS_DSREADONLY, EZFS_VOLTOOBIG, EZFS_VOLHASDATA, EZFS_INVALIDNAME,
+        EZFS_BADRESTORE, EZFS_BADBACKUP, EZFS_BADTARGET, EZFS_NODEVICE, EZFS_BADDEV,
+        EZFS_NOREPLICAS, EZFS_RESILVERING, EZFS_BADVERSION, EZFS_POOLUNAVAIL, EZFS_DEVOVERFLOW,
+        EZFS_BADPATH, EZFS_CROSSTARGET, EZFS_ZONED, EZFS_MOUNTFAILED, EZFS_UMOUNTFAILED,
+        EZFS_UNSHARENFSFAILED, EZFS_SHARENFSFAILED, EZFS_DEVLINKS, EZFS_PERM, EZFS_NOSPC,
+        EZFS_IO, EZFS_INTR, EZFS_ISSPARE, EZFS_INVALCONFIG, EZFS_RECURSIVE,
+        EZFS_NOHISTORY, EZFS_UNSHAREISCSIFAILED, EZFS_SHAREISCSIFAILED, EZFS_POOLPROPS, EZFS_POOL_NOTSUP,
+        EZFS_POOL_INVALARG, EZFS_NAMETOOLONG, EZFS_OPENFAILED, EZFS_NOCAP, EZFS_LABELFAILED,
+        EZFS_ISCSISVCUNAVAIL, EZFS_BADWHO, EZFS_BADPERM, EZFS_BADPERMSET, EZFS_NODELEGATION,
+        EZFS_PERMRDONLY, EZFS_UNSHARESMBFAILED, EZFS_SHARESMBFAILED, EZFS_BADCACHE, EZFS_ISL2CACHE,
+        EZFS_VDEVNOTSUP, EZFS_UNKNOWN
+    };
+
+    /**
+     * OpenZFS 2.2 and later.
+     */
+    private static final ErrorCode[] OPENZFS = {
+        EZFS_NOMEM, EZFS_BADPROP, EZFS_PROPREADONLY, EZFS_PROPTYPE, EZFS_PROPNONINHERIT,
+        EZFS_PROPSPACE, EZFS_BADTYPE, EZFS_BUSY, EZFS_EXISTS, EZFS_NOENT,
+        EZFS_BADSTREAM, EZFS_DSREADONLY, EZFS_VOLTOOBIG, EZFS_INVALIDNAME, EZFS_BADRESTORE,
+        EZFS_BADBACKUP, EZFS_BADTARGET, EZFS_NODEVICE, EZFS_BADDEV, EZFS_NOREPLICAS,
+        EZFS_RESILVERING, EZFS_BADVERSION, EZFS_POOLUNAVAIL, EZFS_DEVOVERFLOW, EZFS_BADPATH,
+        EZFS_CROSSTARGET, EZFS_ZONED, EZFS_MOUNTFAILED, EZFS_UMOUNTFAILED, EZFS_UNSHARENFSFAILED,
+        EZFS_SHARENFSFAILED, EZFS_PERM, EZFS_NOSPC, EZFS_FAULT, EZFS_IO,
+        EZFS_INTR, EZFS_ISSPARE, EZFS_INVALCONFIG, EZFS_RECURSIVE, EZFS_NOHISTORY,
+        EZFS_POOLPROPS, EZFS_POOL_NOTSUP, EZFS_POOL_INVALARG, EZFS_NAMETOOLONG, EZFS_OPENFAILED,
+        EZFS_NOCAP, EZFS_LABELFAILED, EZFS_BADWHO, EZFS_BADPERM, EZFS_BADPERMSET,
+        EZFS_NODELEGATION, EZFS_UNSHARESMBFAILED, EZFS_SHARESMBFAILED, EZFS_BADCACHE, EZFS_ISL2CACHE,
+        EZFS_VDEVNOTSUP, EZFS_NOTSUP, EZFS_ACTIVE_SPARE, EZFS_UNPLAYED_LOGS, EZFS_REFTAG_RELE,
+        EZFS_REFTAG_HOLD, EZFS_TAGTOOLONG, EZFS_PIPEFAILED, EZFS_THREADCREATEFAILED, EZFS_POSTSPLIT_ONLINE,
+        EZFS_SCRUBBING, EZFS_NO_SCRUB, EZFS_DIFF, EZFS_DIFFDATA, EZFS_POOLREADONLY,
+        EZFS_SCRUB_PAUSED, EZFS_ACTIVE_POOL, EZFS_CRYPTOFAILED, EZFS_NO_PENDING, EZFS_CHECKPOINT_EXISTS,
+        EZFS_DISCARDING_CHECKPOINT, EZFS_NO_CHECKPOINT, EZFS_DEVRM_IN_PROGRESS, EZFS_VDEV_TOO_BIG, EZFS_IOC_NOTSUPPORTED,
+        EZFS_TOOMANY, EZFS_INITIALIZING, EZFS_NO_INITIALIZE, EZFS_WRONG_PARENT, EZFS_TRIMMING,
+        EZFS_NO_TRIM, EZFS_TRIM_NOTSUP, EZFS_NO_RESILVER_DEFER, EZFS_EXPORT_IN_PROGRESS, EZFS_REBUILDING,
+        EZFS_VDEV_NOTSUP, EZFS_NOT_USER_NAMESPACE, EZFS_CKSUM, EZFS_RESUME_EXISTS, EZFS_SHAREFAILED,
+        EZFS_UNKNOWN
+    };
+
+    private static final ErrorCodeTable LEGACY_TABLE = new ErrorCodeTable("legacy", LEGACY);
+    private static final ErrorCodeTable OPENZFS_TABLE = new ErrorCodeTable("openzfs", OPENZFS);
+    private static final ErrorCodeTable OPENZFS_21_TABLE = new ErrorCodeTable("openzfs-2.1", openZFS21());
+
+    private static volatile ErrorCodeTable detected;
+
+    private final String abi;
+    private final ErrorCode[] byCode;
+    private final Map<ErrorCode,Integer> codes = new EnumMap<ErrorCode,Integer>(ErrorCode.class);
+
+    private ErrorCodeTable(String abi, ErrorCode[] byCode) {
+        this.abi = abi;
+        this.byCode = byCode;
+        for (int i = 0; i < byCode.length; i++)
+            codes.put(byCode[i], BASE + i);
+    }
+
+    /**
+     * OpenZFS 2.0 and 2.1, which end with EZFS_VDEV_NOTSUP.
+     */
+    private static ErrorCode[] openZFS21() {
+        int n = 0;
+        while (OPENZFS[n] != EZFS_VDEV_NOTSUP)
+            n++;
+        ErrorCode[] r = new ErrorCode[n + 2];
+        System.arraycopy(OPENZFS, 0, r, 0, n + 1);
+        r[n + 1] = EZFS_UNKNOWN;
+        return r;
+    }
+
+    /**
+     * The table of the given ABI: "openzfs-2.0" and "openzfs-2.1" for those
+     * versions, any other "openzfs..." for 2.2 and later, and "legacy" for the rest.
+     */
+    public static ErrorCodeTable forABI(String abi) {
+        if (abi.equals("openzfs-2.0") || abi.equals("openzfs-2.1"))
+            return OPENZFS_21_TABLE;
+        return abi.startsWith("openzfs") ? OPENZFS_TABLE : LEGACY_TABLE;
+    }
+
+    /**
+     * The ABI of the table for the libzfs of this host.
+     */
+    private static String detectABI() {
+        Capabilities caps = Capabilities.get();
+        String abi = caps.getABI();
+        if (abi.equals("openzfs") && !caps.hasShareProtocolLists())
+            abi = "openzfs-2.1";
+        return abi;
+    }
+
+    /**
+     * The table of the libzfs of this host.
+     */
+    public static ErrorCodeTable detected() {
+        ErrorCodeTable t = detected;
+        if (t == null) {
+            String abi = System.getProperty("LIBZFS4J_ABI_zfs_error");
+            if (abi == null)
+                abi = System.getenv("LIBZFS4J_ABI_zfs_error");
+            if (abi == null)
+                abi = detectABI();
+            detected = t = forABI(abi);
+        }
+        return t;
+    }
+
+    public String getABI() {
+        return abi;
+    }
+
+    /**
+     * @return
+     *      {@link ErrorCode#EZFS_UNKNOWN} for numbers this table doesn't know.
+     */
+    public ErrorCode decode(int code) {
+        int i = code - BASE;
+        return i >= 0 && i < byCode.length ? byCode[i] : EZFS_UNKNOWN;
+    }
+
+    /**
+     * @return
+     *      -1 if this ABI doesn't have the error.
+     */
+    public int encode(ErrorCode code) {
+        Integer c = codes.get(code);
+        return c != null ? c : -1;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zpool_handle_t;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+
+/**
+ * Turns the error log of a pool, which is a list of (dataset, object) numbers,
+ * into {@link PoolError}s with file names.
+ *
+ * <p>
+ * The entries are grouped by dataset. Each dataset has its name looked up once
+ * (and remembered by the pool for the next time), and different datasets are
+ * resolved on different threads, each with its own path buffer and its own
+ * {@link LibZFS} and pool handle, since looking up a path goes through the
+ * mnttab cache of the handle, which isn't safe to use from two threads.
+ * @see ZFSPool#errorLog(int)
+ */
+final class ErrorLogResolver {
+    /**
+     * "zpool status" uses this much for a path.
+     */
+    private static final int PATH_LEN = libzfs.MAXPATHLEN * 2;
+
+    private final ZFSPool pool;
+
+    /**
+     * Dataset object number to its name, shared by all the resolutions of the pool.
+     * Names of datasets that couldn't be looked up aren't in here.
+     */
+    private final Map<Long,String> dataSetNames;
+
+    /*package*/ ErrorLogResolver(ZFSPool pool, Map<Long,String> dataSetNames) {
+        this.pool = pool;
+        this.dataSetNames = dataSetNames;
+    }
+
+    /*package*/ static Map<Long,String> createCache() {
+        return new ConcurrentHashMap<Long,String>();
+    }
+
+    /**
+     * Reads the error log and resolves all of it.
+     */
+    /*package*/ List<PoolError> resolve(int parallelism) {
+        final TreeMap<Long,long[]> groups = read();
+        if (groups.isEmpty())
+            return Collections.emptyList();
+
+        List<PoolError> r = new ArrayList<PoolError>();
+        int threads = Math.min(Math.max(1, parallelism), groups.size());
+        if (threads == 1) {
+            Worker w = new Worker(pool.handle);
+            for (Map.Entry<Long,long[]> e : groups.entrySet())
+                w.resolve(e.getKey(), e.getValue(), r);
+            return r;
+        }
+
+        final List<Worker> workers = Collections.synchronizedList(new ArrayList<Worker>());
+        final ThreadLocal<Worker> local = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                Worker w = new Worker(new LibZFS(), pool.getName());
+                workers.add(w);
+                return w;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable task) {
+                Thread t = new Thread(task, "zpool errlog " + pool.getName() + " #" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<List<PoolError>>> results = new ArrayList<Future<List<PoolError>>>();
+            for (final Map.Entry<Long,long[]> e : groups.entrySet()) {
+                results.add(executor.submit(new Callable<List<PoolError>>() {
+                    public List<PoolError> call() {
+                        List<PoolError> r = new ArrayList<PoolError>(e.getValue().length);
+                        local.get().resolve(e.getKey(), e.getValue(), r);
+                        return r;
+                    }
+                }));
+            }
+            // collected in the order of the groups, so the result doesn't depend on scheduling
+            for (Future<List<PoolError>> f : results)
+                r.addAll(f.get());
+            return r;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZFSException("Interrupted while resolving the error log of " + pool.getName(), 0);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new ZFSException(String.valueOf(cause), 0);
+        } finally {
+            executor.shutdownNow();
+            // the handles can only go once no thread is using them
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.MINUTES))
+                        break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            for (Worker w : workers)
+                w.dispose();
+        }
+    }
+
+    /**
+     * Reads the error log as dataset object number to the sorted object numbers in it.
+     */
+    private TreeMap<Long,long[]> read() {
+        PtrByReference<nvlist_t> ref = new PtrByReference<nvlist_t>();
+        if (LIBZFS.zpool_get_errlog(pool.handle, ref) != 0)
+            throw new ZFSException(pool.library);
+
+        nvlist_t nvl = nvlist_t.adopt(ref);
+        // libzfs adds every entry under the same name "ejk", so toMap() would keep just one
+        return group(nvl != null ? nvl.values() : Collections.emptyList());
+    }
+
+    /**
+     * Groups the entries of the error log, each a map with "dataset" and "object",
+     * as dataset object number to the sorted object numbers in it.
+     */
+    /*package*/ static TreeMap<Long,long[]> group(List<?> entries) {
+        TreeMap<Long,List<Long>> lists = new TreeMap<Long,List<Long>>();
+        for (Object v : entries) {
+            if (!(v instanceof Map))
+                continue;
+            Map<?,?> entry = (Map<?,?>) v;
+            Long dsobj = (Long) entry.get("dataset");
+            Long obj = (Long) entry.get("object");
+            if (dsobj == null || obj == null)
+                continue;
+            List<Long> objs = lists.get(dsobj);
+            if (objs == null)
+                lists.put(dsobj, objs = new ArrayList<Long>());
+            objs.add(obj);
+        }
+
+        TreeMap<Long,long[]> groups = new TreeMap<Long,long[]>();
+        for (Map.Entry<Long,List<Long>> e : lists.entrySet()) {
+            long[] objs = new long[e.getValue().size()];
+            for (int i = 0; i < objs.length; i++)
+                objs[i] = e.getValue().get(i);
+            Arrays.sort(objs);
+            groups.put(e.getKey(), objs);
+        }
+        return groups;
+    }
+
+    /**
+     * Resolves on one thread, through a pool handle nothing else uses at the same time.
+     */
+    private final class Worker {
+        /**
+         * Opened for this worker, or null if it borrows the pool's handle.
+         */
+        private final LibZFS library;
+        private final zpool_handle_t handle;
+        private final Memory buf = new Memory(PATH_LEN);
+
+        Worker(zpool_handle_t handle) {
+            this.library = null;
+            this.handle = handle;
+        }
+
+        Worker(LibZFS library, String poolName) {
+            this.library = library;
+            this.handle = LIBZFS.zpool_open(library.getHandle(), poolName);
+            if (handle == null) {
+                ZFSException e = new ZFSException(library, "Failed to open " + poolName);
+                library.dispose();
+                throw e;
+            }
+        }
+
+        void resolve(long dsobj, long[] objs, List<PoolError> r) {
+            String dsname = getDataSetName(dsobj);
+            for (long obj : objs)
+                r.add(new PoolError(dsobj, obj, dsname, toPath(dsobj, obj)));
+        }
+
+        /**
+         * libzfs has no call of its own for the name of a dataset from its object number,
+         * but the path of object 0 (which never has one) comes back as "dataset:&lt;0x0&gt;",
+         * or "&lt;0x12&gt;:&lt;0x0&gt;" if the dataset is gone.
+         */
+        private String getDataSetName(long dsobj) {
+            if (dsobj == 0)
+                return null; // pool metadata
+            Long key = dsobj;
+            String name = dataSetNames.get(key);
+            if (name != null)
+                return name;
+
+            String path = toPath(dsobj, 0);
+            int idx = path.lastIndexOf(":<0x");
+            if (idx <= 0 || path.startsWith("<0x"))
+                return null;
+            name = path.substring(0, idx);
+            dataSetNames.put(key, name);
+            return name;
+        }
+
+        private String toPath(long dsobj, long obj) {
+            buf.setByte(0, (byte) 0);
+            LIBZFS.zpool_obj_to_path(handle, dsobj, obj, buf, new NativeLong(PATH_LEN));
+            return buf.getString(0);
+        }
+
+        void dispose() {
+            if (library != null) {
+                LIBZFS.zpool_close(handle);
+                library.dispose();
+            }
+        }
+    }
+}
@@ -25,16 +25,20 @@ import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.sun.jna.Function;
+import org.jvnet.solaris.libzfs.core.LibZFSCore;
 import org.jvnet.solaris.libzfs.jna.libzfs;
 import org.jvnet.solaris.libzfs.jna.libzfs.zpool_iter_f;
 import org.jvnet.solaris.libzfs.jna.libzfs_handle_t;
@@ -53,7 +57,12 @@ import com.sun.jna.Pointer;
  */
 public class LibZFS implements ZFSContainer {
 
-    private libzfs_handle_t handle;
+    private volatile libzfs_handle_t handle;
+    /**
+     * The instance of {@link #getShared()}, which opens its handle lazily
+     * and is never disposed.
+     */
+    private final boolean shared;
     private boolean libzfs_enabled = false;
     private String libzfsNotEnabledReason = "";
 
@@ -116,6 +125,79 @@ public class LibZFS implements ZFSContainer {
         v = getSetting(n,abi);
         features.put(n,v);
 
+        /* zfs_hold() lost its temphold/enoent_ok/dsobj/createtxg args in
+         * OpenZFS, which also added zfs_hold_nvl() and zfs_get_holds() */
+        n = "LIBZFS4J_ABI_zfs_hold";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* zfs_prop_set_list() to set many properties in one go is OpenZFS only */
+        n = "LIBZFS4J_ABI_zfs_prop_set_list";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* Here "openzfs" is the 2.0/2.1 staged zfs_share_nfs() + zfs_commit_all_shares()
+         * and "openzfs-2.2" the later zfs_share(zhp, protocols) + zfs_commit_shares(protocols) */
+        n = "LIBZFS4J_ABI_zfs_share";
+        v = getSetting(n,"");
+        if (v.isEmpty()) {
+            v = abi;
+            if (abi.equals("openzfs") && Capabilities.get().hasShareProtocolLists())
+                v = "openzfs-2.2";
+        }
+        features.put(n,v);
+
+        /* zpool_get_history() grew offset/eof arguments for incremental reads in OpenZFS 2.0 */
+        n = "LIBZFS4J_ABI_zpool_get_history";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* zpool_scrub(zhp, type) became zpool_scan(zhp, func, cmd), which can also pause */
+        n = "LIBZFS4J_ABI_zpool_scan";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* zpool_vdev_attach() got a rebuild argument in OpenZFS 2.0 */
+        n = "LIBZFS4J_ABI_zpool_vdev_attach";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* zpool_import_props() takes ZFS_IMPORT_* flags, and the configuration assembled
+         * from labels can be vetted through libzfs_config_ops, in OpenZFS */
+        n = "LIBZFS4J_ABI_zpool_import";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* zpool_destroy() takes a history string in OpenZFS */
+        n = "LIBZFS4J_ABI_zpool_destroy";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* The kernel event queue (zpool_events_next) is OpenZFS only */
+        n = "LIBZFS4J_ABI_zpool_events";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* Whether libzfs_core (lzc_* functions: bookmarks, send...) is there */
+        n = "LIBZFS4J_ABI_libzfs_core";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
+        /* zfs_error_t lost and gained values in the middle in OpenZFS, see ErrorCodeTable */
+        n = "LIBZFS4J_ABI_zfs_error";
+        v = getSetting(n,"");
+        if (v.isEmpty()) {
+            v = abi;
+            if (abi.equals("openzfs") && !Capabilities.get().hasShareProtocolLists())
+                v = "openzfs-2.1";
+        }
+        features.put(n,v);
+
+        /* vdev_aux_t got VDEV_AUX_UNSUP_FEAT in the middle with feature flags, see VdevTree */
+        n = "LIBZFS4J_ABI_vdev_aux";
+        v = getSetting(n,abi);
+        features.put(n,v);
+
         /* Here the expected tweak is "pre-nv96" for VERY old ABI */
         n = "LIBZFS4J_ABI_zfs_snapshot";
         v = getSetting(n,abi);
@@ -131,32 +213,58 @@ public class LibZFS implements ZFSContainer {
         n = "LIBZFS4J_ABI_zfs_perm_set";
         v = getSetting(n,"");
         if (v.isEmpty()) {
-            try {
-                Function.getFunction("zfs","zfs_perm_set");
+            if (Capabilities.get().hasSymbol("zfs_perm_set"))
                 v = getSetting(n,"pre-sol10u8");
-            } catch (Throwable e) {
-                LOGGER.log(Level.FINEST, "While looking for zfs_perm_set() got this: " + e.toString());
+            else
                 v = getSetting(n,null);
-            }
         }
         features.put(n,v);
 
         n = "LIBZFS4J_ABI_zfs_perm_remove";
         v = getSetting(n,"");
         if (v.isEmpty()) {
-            try {
-                Function.getFunction("zfs","zfs_perm_remove");
+            if (Capabilities.get().hasSymbol("zfs_perm_remove"))
                 v = getSetting(n,"pre-sol10u8");
-            } catch (Throwable e) {
-                LOGGER.log(Level.FINEST, "While looking for zfs_perm_remove() got this: " + e.toString());
+            else
                 v = getSetting(n,null);
-            }
         }
         features.put(n,v);
 
         LOGGER.log(Level.FINE, "libzfs4j features: "+features);
     }
 
+    /**
+     * Decodes libzfs_errno() by the numbering of this libzfs.
+     */
+    /*package*/ ErrorCode decodeError(int code) {
+        String abi = getFeature("LIBZFS4J_ABI_zfs_error");
+        return (abi != null ? ErrorCodeTable.forABI(abi) : ErrorCodeTable.detected()).decode(code);
+    }
+
+    /*
+     * zfs_prop_t numbering differs between ABIs (properties got added and
+     * removed in the middle of the enum), so for properties beyond the ones
+     * listed in zfs_prop_t we ask libzfs for the code by name and remember it.
+     */
+    private final Map<String,Integer> propertyCodes = new HashMap<String,Integer>();
+
+    /**
+     * Resolves a native property name like "userrefs" into the zfs_prop_t
+     * code of the running libzfs.
+     */
+    /*package*/ int getZfsPropertyCode(String name) {
+        synchronized (propertyCodes) {
+            Integer c = propertyCodes.get(name);
+            if (c==null) {
+                c = LIBZFS.zfs_name_to_prop(name);
+                propertyCodes.put(name,c);
+            }
+            if (c<0)
+                throw new IllegalArgumentException("Not a native ZFS property: "+name);
+            return c;
+        }
+    }
+
     /**
      * Retrieves a feature setting from system property, then from env var.
      */
@@ -186,36 +294,12 @@ public class LibZFS implements ZFSContainer {
      * Then I discovered that on ZFS on Linux this function is replaced by spa_feature_is_enabled:
      * https://github.com/zfsonlinux/zfs/commit/fa86b5dbb6d33371df344efb2adb0aba026d097c#diff-4b1411a9b1911486460e7ea126a7d9c5
      *
-     * ... so here I'm testing both.
+     * ... so {@link Capabilities} looks for any of a few of them, once per JVM.
      *
      * See https://people.freebsd.org/~gibbs/zfs_doxygenation/html/d4/dd6/zfeature_8h.html
      */
     private String detectCurrentABI() {
-        /* This list was retrieved by running
-         *   nm /usr/lib/libzfs.so | grep feature | awk '{print "\""$NF"\","}' | sort
-         * on different systems */
-        String featureFuncs[] = { "deps_contains_feature", "feature_is_supported",
-            "spa_feature_is_enabled", "spa_feature_table",
-            "zfeature_checks_disable", "zfeature_depends_on", "zfeature_is_supported",
-            "zfeature_is_valid_guid", "zfeature_lookup_name", "zfeature_register",
-            "zpool_feature_init", "zpool_get_features",
-            "zpool_prop_feature", "zpool_prop_get_feature"
-            };
-
-        for (String featureFunc : featureFuncs) {
-            try {
-                LOGGER.log(Level.FINER, "libzfs4j autodetect: looking for " + featureFunc + "()");
-                Function.getFunction("zfs",featureFunc);
-                LOGGER.log(Level.FINER, "libzfs4j autodetect: OpenZFS feature flag support detected - assuming OpenZFS ABI");
-                return "openzfs";
-            } catch (Throwable e) {
-                // fall through
-                LOGGER.log(Level.FINEST, "While looking for " + featureFunc + "() got this: " + e.toString());
-            }
-        }
-
-        LOGGER.log(Level.FINER, "libzfs4j autodetect: OpenZFS feature flag support not detected - assuming legacy ZFS ABI");
-        return "legacy";
+        return Capabilities.get().getABI();
     }
 
     /**
@@ -229,16 +313,18 @@ public class LibZFS implements ZFSContainer {
      * Or expect such exceptions in callers of classes that might use ZFS.
      */
     public LibZFS() {
+        this(false);
+    }
+
+    private LibZFS(boolean shared) {
+        this.shared = shared;
         libzfs_enabled = false;
         libzfsNotEnabledReason = "";
 
-        handle = LIBZFS.libzfs_init();
-        if (handle==null) {
-            libzfsNotEnabledReason = "Failed to initialize libzfs";
-        } else {
-            LOGGER.log(Level.WARNING, "libzfs4j is used on this system. If your JVM crashes with clues pointing to Java Native Interface link errors, please read documentation at https://github.com/kohsuke/libzfs4j/ regarding setup of LIBZFS4J_ABI family of variables.");
+        if (!shared)
+            openHandle();
+        if (libzfsNotEnabledReason.isEmpty())
             initFeatures();
-        }
 
         if (!libzfsNotEnabledReason.isEmpty()) {
             LOGGER.log(Level.FINE, "libzfs4j autodetect: " + libzfsNotEnabledReason);
@@ -248,6 +334,49 @@ public class LibZFS implements ZFSContainer {
         libzfs_enabled = true;
     }
 
+    private void openHandle() {
+        handle = LIBZFS.libzfs_init();
+        if (handle==null) {
+            libzfsNotEnabledReason = "Failed to initialize libzfs";
+        } else {
+            // once is enough for the process; ParallelMounter and friends open a handle per thread
+            LOGGER.log(setupWarned.getAndSet(true) ? Level.FINE : Level.WARNING, "libzfs4j is used on this system. If your JVM crashes with clues pointing to Java Native Interface link errors, please read documentation at https://github.com/kohsuke/libzfs4j/ regarding setup of LIBZFS4J_ABI family of variables.");
+        }
+    }
+
+    /**
+     * Whether the setup warning of {@link #openHandle()} has been logged.
+     */
+    private static final AtomicBoolean setupWarned = new AtomicBoolean();
+
+    private static volatile LibZFS sharedInstance;
+
+    /**
+     * Gets the {@link LibZFS} shared by the whole process, creating it the first time.
+     *
+     * <p>
+     * Unlike {@code new LibZFS()}, this doesn't call libzfs_init() (which opens
+     * /dev/zfs and reads the kernel's feature and property tables) until something
+     * needs the handle, so that things like {@link #getZfsPropertyCode(String)} cost
+     * no more than the symbol lookups, which themselves come from a cache on disk
+     * after the first run. The shared instance is never disposed; {@link #dispose()}
+     * on it does nothing.
+     *
+     * @throws LinkageError
+     *      As the constructor does, and later from {@link #getHandle()} if libzfs fails to initialize.
+     */
+    public static LibZFS getShared() {
+        LibZFS z = sharedInstance;
+        if (z == null) {
+            synchronized (LibZFS.class) {
+                z = sharedInstance;
+                if (z == null)
+                    sharedInstance = z = new LibZFS(true);
+            }
+        }
+        return z;
+    }
+
     /**
      * Used in routines below to report if this LibZFS instance is not
      * enabled and allow a clean abortion of the corresponding call
@@ -273,7 +402,7 @@ public class LibZFS implements ZFSContainer {
         if (!is_libzfs_enabled("roots"))
             return r;
 
-        LIBZFS.zfs_iter_root(handle, new libzfs.zfs_iter_f() {
+        LIBZFS.zfs_iter_root(getHandle(), new libzfs.zfs_iter_f() {
             public int callback(zfs_handle_t handle, Pointer arg) {
                 r.add(new ZFSFileSystem(LibZFS.this, handle));
                 return 0;
@@ -292,7 +421,7 @@ public class LibZFS implements ZFSContainer {
         if (!is_libzfs_enabled("pools"))
             return r;
 
-        LIBZFS.zpool_iter(handle, new zpool_iter_f() {
+        LIBZFS.zpool_iter(getHandle(), new zpool_iter_f() {
             public int callback(zpool_handle_t handle, Pointer arg) {
                 r.add(new ZFSPool(LibZFS.this, handle));
                 return 0;
@@ -305,7 +434,7 @@ public class LibZFS implements ZFSContainer {
      * Gets the pool of the given name.
      */
     public ZFSPool getPool(String name) {
-        zpool_handle_t h = LIBZFS.zpool_open(handle, name);
+        zpool_handle_t h = LIBZFS.zpool_open(getHandle(), name);
         if (!is_libzfs_enabled("getPool"))
             return null;
 
@@ -313,8 +442,30 @@ public class LibZFS implements ZFSContainer {
         return new ZFSPool(this,h);
     }
 
+    /**
+     * Creates a pool, like "zpool create".
+     *
+     * @return
+     *      The new pool.
+     */
+    public ZFSPool createPool(String name, PoolSpec spec) {
+        if (!is_libzfs_enabled("createPool"))
+            return null;
+
+        if (LIBZFS.zpool_create(getHandle(), name, spec.toNVRoot(), spec.toProps(), spec.toFileSystemProps()) != 0)
+            throw new ZFSException(this);
+        ZFSPool pool = getPool(name);
+        if (pool == null)
+            throw new ZFSException(this);
+        return pool;
+    }
+
     /**
      * Does a zfs dataset of the given name exist?
+     *
+     * <p>
+     * Bookmarks count too, so "rpool/foo#bar" is found once it's created.
+     * Use {@link #exists(String, Set)} to look for some types only.
      * 
      * @param dataSetName
      *            the dataset name of check for.
@@ -324,6 +475,11 @@ public class LibZFS implements ZFSContainer {
         if (!is_libzfs_enabled("exists"))
             return false;
 
+        /* libzfs_core answers without a handle */
+        LibZFSCore core = getCore();
+        if (core != null)
+            return core.exists(dataSetName);
+
         final boolean exists = exists(dataSetName, EnumSet.allOf(ZFSType.class));
         return exists;
     }
@@ -346,7 +502,7 @@ public class LibZFS implements ZFSContainer {
             mask |= t.code;
         }
 
-        final boolean exists = LIBZFS.zfs_dataset_exists(handle, name, mask);
+        final boolean exists = LIBZFS.zfs_dataset_exists(getHandle(), name, mask);
         return exists;
     }
 
@@ -413,7 +569,7 @@ public class LibZFS implements ZFSContainer {
         for (int i = 1; i < dirs.length; i++) {
             sb.append('/').append(dirs[i]);
             if (!exists(sb.toString())) {
-                if (LIBZFS.zfs_create(handle, sb.toString(), type.code, nvl) != 0) {
+                if (LIBZFS.zfs_create(getHandle(), sb.toString(), type.code, nvl) != 0) {
                     throw new ZFSException(this,"Failed to create "+dataSetName);
                 }
             }
@@ -451,9 +607,9 @@ public class LibZFS implements ZFSContainer {
         if (!is_libzfs_enabled("open"))
             return null;
 
-        zfs_handle_t h = LIBZFS.zfs_open(handle, dataSetName, mask);
+        zfs_handle_t h = LIBZFS.zfs_open(getHandle(), dataSetName, mask);
         if(h==null) {
-            int err = LIBZFS.libzfs_errno(handle);
+            int err = LIBZFS.libzfs_errno(getHandle());
             if(err==0)  return null;
             throw new ZFSException(this);
         }
@@ -481,6 +637,14 @@ public class LibZFS implements ZFSContainer {
             return null;
 
         dir = dir.getAbsoluteFile();
+        String name = getMountTable().get(dir);
+        if (name!=null) {
+            ZFSFileSystem f = open(name, ZFSFileSystem.class);
+            if (f!=null)
+                return f;
+        }
+
+        // not mounted; see if some file system would be mounted there
         for (ZFSFileSystem f : descendants(ZFSFileSystem.class)) {
             File mp = f.getMountPoint();
             if(mp!=null && mp.equals(dir))
@@ -489,6 +653,155 @@ public class LibZFS implements ZFSContainer {
         return null;
     }
 
+    /**
+     * Finds the file system that contains the given file or directory.
+     *
+     * <p>
+     * This is answered from the mount table by the longest mount point that
+     * is a prefix of the path, and failing that, by asking libzfs. A path under
+     * a mount point that isn't ZFS, like a tmpfs below a ZFS root, is not on ZFS.
+     * The path is not canonicalized, so symlinks pointing into other file
+     * systems are not followed.
+     *
+     * @return
+     *      null if the path isn't on ZFS.
+     */
+    public ZFSFileSystem resolve(File path) {
+        if (!is_libzfs_enabled("resolve"))
+            return null;
+
+        MountPointTrie trie = getMountTable().getTrie();
+        String name = trie.get(path);
+        if (name!=null) {
+            ZFSFileSystem f = open(name, ZFSFileSystem.class);
+            if (f!=null)
+                return f;
+        } else if (trie.isMounted(path)) {
+            return null;    // on a file system that isn't ZFS
+        }
+
+        zfs_handle_t h = LIBZFS.zfs_path_to_zhandle(getHandle(), path.getAbsolutePath(), zfs_type_t.FILESYSTEM);
+        if (h==null)
+            return null;
+        return (ZFSFileSystem)ZFSObject.create(this, h);
+    }
+
+    /**
+     * Finds the names of the file systems that contain the given files,
+     * without opening any of them.
+     *
+     * <p>
+     * Unlike {@link #resolve(File)} this only consults the mount table.
+     *
+     * @return
+     *      Path to the file system name, for all the given paths that are on ZFS.
+     */
+    public Map<File,String> resolveNames(Collection<File> paths) {
+        Map<File,String> r = new HashMap<File,String>();
+        if (!is_libzfs_enabled("resolveNames"))
+            return r;
+
+        MountPointTrie trie = getMountTable().getTrie();
+        for (File p : paths) {
+            String name = trie.get(p);
+            if (name!=null)
+                r.put(p, name);
+        }
+        return r;
+    }
+
+    /**
+     * Mounts the given file system and all the file systems below it
+     * that have canmount=on and a mount point, like "zfs mount -a" does for everything.
+     *
+     * <p>
+     * File systems that are mounted in different places proceed in parallel;
+     * one is only held back by the file system it is mounted under.
+     * A failure doesn't stop the rest.
+     *
+     * @param parallelism
+     *      Number of threads doing the mounts.
+     * @return
+     *      File system name to the failure, for the ones that couldn't be mounted.
+     *      Empty if all went well.
+     */
+    public Map<String,ZFSException> mountAll(ZFSFileSystem root, int parallelism) {
+        if (!is_libzfs_enabled("mountAll"))
+            return Collections.emptyMap();
+
+        return ParallelMounter.mountAll(root, parallelism);
+    }
+
+    /**
+     * Unmounts the given file system and all the mounted file systems below it,
+     * deepest mount points first. File systems with mountpoint=legacy are left alone.
+     *
+     * @param parallelism
+     *      Number of threads doing the unmounts.
+     * @return
+     *      File system name to the failure, for the ones that couldn't be unmounted.
+     *      Empty if all went well.
+     */
+    public Map<String,ZFSException> unmountAll(ZFSFileSystem root, int parallelism) {
+        if (!is_libzfs_enabled("unmountAll"))
+            return Collections.emptyMap();
+
+        return ParallelMounter.unmountAll(root, parallelism);
+    }
+
+    /**
+     * Opens the kernel event queue, to be fed into a {@link ZFSEventStream}.
+     * Only events posted from now on are seen.
+     *
+     * @return
+     *      null if disabled by configuration, or with the legacy ABI, which has no event queue.
+     */
+    public ZFSEventSource openEventSource() {
+        if (!is_libzfs_enabled("openEventSource"))
+            return null;
+
+        String abi_thisfunc = "openEventSource";
+        String abi_toggle = "LIBZFS4J_ABI_zpool_events";
+        String abi = getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+            return null;
+        } else
+        if (abi.equals("openzfs")) {
+            return new NativeEventSource(this);
+        } else
+        if (abi.equals("legacy")) {
+            /* zpool_events_next() came with ZFS on Linux; there is no event queue to read */
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - not available in this ABI");
+            return null;
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(this);
+        }
+    }
+
+    /**
+     * Mount table index, created on first use.
+     */
+    private MountTable mountTable;
+
+    /*package*/ synchronized MountTable getMountTable() {
+        if (mountTable==null)
+            mountTable = new MountTable(this);
+        return mountTable;
+    }
+
+    /**
+     * Collects the space accounting numbers of all the file systems and volumes
+     * of all the pools in one walk.
+     */
+    public SpaceReport getSpaceReport() {
+        if (!is_libzfs_enabled("getSpaceReport"))
+            return null;
+
+        return SpaceReport.build(this);
+    }
+
     public List<ZFSFileSystem> children() {
         if (!is_libzfs_enabled("children"))
             return null;
@@ -525,15 +838,465 @@ public class LibZFS implements ZFSContainer {
         return r;
     }
 
+    /**
+     * Places user holds on many snapshots at once.
+     *
+     * <p>
+     * Snapshots are grouped by pool and tag, and each group is held through a
+     * single ioctl, so within a group either all the holds are placed or none are.
+     * The holds are permanent, i.e. they survive until {@link #release(Map)}.
+     *
+     * @param holds
+     *      Full snapshot name like "rpool/foo@bar" to the hold tags to place on it.
+     * @throws ZFSException
+     *      The first failure, see {@link #tryHold(Map)} for all of them.
+     */
+    public void hold(Map<String,? extends Collection<String>> holds) {
+        tryHold(holds).throwIfFailed();
+    }
+
+    /**
+     * Like {@link #hold(Map)}, but reports failures instead of throwing them.
+     * A snapshot that failed to take some of its tags is reported with the first failure.
+     */
+    public BatchResult tryHold(Map<String,? extends Collection<String>> holds) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        if (!is_libzfs_enabled("hold"))
+            return new BatchResult("hold", Collections.<String>emptySet(), failures);
+
+        String abi_thisfunc = "hold";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_hold";
+        String abi = getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+            return new BatchResult("hold", Collections.<String>emptySet(), failures);
+        } else
+        if (abi.equals("openzfs")) {
+            LibZFSCore core = getCore();
+            boolean quiet = ZFSException.suppressStackTraces(true);
+            try {
+                // a snapshot can only appear once in each ioctl, hence one round per tag
+                for (Map<String,String> round : groupByTag(holds).values()) {
+                    if (core != null) {
+                        for (Map.Entry<String,ZFSException> e : core.hold(round, -1).getFailures().entrySet())
+                            if (!failures.containsKey(e.getKey()))
+                                failures.put(e.getKey(), e.getValue());
+                        continue;
+                    }
+                    for (Map.Entry<String,Map<String,String>> pool : groupByPool(round).entrySet()) {
+                        ZFSException failure = null;
+                        zfs_handle_t h = LIBZFS.zfs_open(getHandle(), pool.getKey(), zfs_type_t.FILESYSTEM);
+                        if (h==null) {
+                            failure = new ZFSException(this,"Failed to open "+pool.getKey());
+                        } else {
+                            try {
+                                nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+                                for (Map.Entry<String,String> e : pool.getValue().entrySet())
+                                    nvl.put(e.getKey(), e.getValue());
+                                if (LIBZFS.zfs_hold_nvl(h, -1, nvl) != 0)
+                                    failure = new ZFSException(this,"Failed to hold snapshots in "+pool.getKey());
+                            } finally {
+                                LIBZFS.zfs_close(h);
+                            }
+                        }
+                        // the whole pool goes or fails together
+                        if (failure != null) {
+                            for (String name : pool.getValue().keySet())
+                                if (!failures.containsKey(name))
+                                    failures.put(name, failure.copy());
+                        }
+                    }
+                }
+            } finally {
+                ZFSException.suppressStackTraces(quiet);
+            }
+            return new BatchResult("hold", holds.keySet(), failures);
+        } else
+        if (abi.equals("legacy")) {
+            boolean quiet = ZFSException.suppressStackTraces(true);
+            try {
+                // no zfs_hold_nvl() yet, so one ioctl per hold, but each file system is opened only once
+                for (Map.Entry<String,Map<String,Collection<String>>> fs : groupBySnapshotParent(holds, failures).entrySet()) {
+                    zfs_handle_t h = LIBZFS.zfs_open(getHandle(), fs.getKey(), zfs_type_t.FILESYSTEM|zfs_type_t.VOLUME);
+                    if (h==null) {
+                        ZFSException failure = new ZFSException(this,"Failed to open "+fs.getKey());
+                        for (String snap : fs.getValue().keySet())
+                            failures.put(fs.getKey()+'@'+snap, failure.copy());
+                        continue;
+                    }
+                    try {
+                        for (Map.Entry<String,Collection<String>> e : fs.getValue().entrySet()) {
+                            String name = fs.getKey()+'@'+e.getKey();
+                            for (String tag : e.getValue()) {
+                                if (LIBZFS.zfs_hold(h, e.getKey(), tag, false, false, false, -1, 0, 0) != 0 && !failures.containsKey(name))
+                                    failures.put(name, new ZFSException(this,"Failed to hold "+name));
+                            }
+                        }
+                    } finally {
+                        LIBZFS.zfs_close(h);
+                    }
+                }
+            } finally {
+                ZFSException.suppressStackTraces(quiet);
+            }
+            return new BatchResult("hold", holds.keySet(), failures);
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(this);
+        }
+    }
+
+    /**
+     * Releases user holds from many snapshots at once.
+     *
+     * @param holds
+     *      Full snapshot name like "rpool/foo@bar" to the hold tags to release from it.
+     * @throws ZFSException
+     *      The first failure, see {@link #tryRelease(Map)} for all of them.
+     */
+    public void release(Map<String,? extends Collection<String>> holds) {
+        tryRelease(holds).throwIfFailed();
+    }
+
+    /**
+     * Like {@link #release(Map)}, but reports failures instead of throwing them.
+     * A snapshot that failed to drop some of its tags is reported with the first failure.
+     */
+    public BatchResult tryRelease(Map<String,? extends Collection<String>> holds) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        if (!is_libzfs_enabled("release"))
+            return new BatchResult("release", Collections.<String>emptySet(), failures);
+
+        String abi_thisfunc = "release";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_hold";
+        String abi = getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+            return new BatchResult("release", Collections.<String>emptySet(), failures);
+        } else
+        if (!abi.equals("openzfs") && !abi.equals("legacy")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(this);
+        }
+
+        LibZFSCore core = getCore();
+        if (core != null)
+            return core.release(holds);
+
+        boolean quiet = ZFSException.suppressStackTraces(true);
+        try {
+            // libzfs has no batch release, but at least open each file system only once
+            for (Map.Entry<String,Map<String,Collection<String>>> fs : groupBySnapshotParent(holds, failures).entrySet()) {
+                zfs_handle_t h = LIBZFS.zfs_open(getHandle(), fs.getKey(), zfs_type_t.FILESYSTEM|zfs_type_t.VOLUME);
+                if (h==null) {
+                    ZFSException failure = new ZFSException(this,"Failed to open "+fs.getKey());
+                    for (String snap : fs.getValue().keySet())
+                        failures.put(fs.getKey()+'@'+snap, failure.copy());
+                    continue;
+                }
+                try {
+                    for (Map.Entry<String,Collection<String>> e : fs.getValue().entrySet()) {
+                        String name = fs.getKey()+'@'+e.getKey();
+                        for (String tag : e.getValue()) {
+                            if (LIBZFS.zfs_release(h, e.getKey(), tag, false) != 0 && !failures.containsKey(name))
+                                failures.put(name, new ZFSException(this,"Failed to release "+tag+" on "+name));
+                        }
+                    }
+                } finally {
+                    LIBZFS.zfs_close(h);
+                }
+            }
+        } finally {
+            ZFSException.suppressStackTraces(quiet);
+        }
+        return new BatchResult("release", holds.keySet(), failures);
+    }
+
+    /**
+     * Creates many bookmarks at once.
+     *
+     * <p>
+     * Bookmarks are grouped by pool, and each group is created atomically:
+     * either all the bookmarks of a pool are created or none are.
+     *
+     * @param bookmarks
+     *      Full bookmark name like "rpool/foo#bar" to the full name of the
+     *      snapshot to bookmark, like "rpool/foo@bar".
+     */
+    public void createBookmarks(Map<String,String> bookmarks) {
+        if (!is_libzfs_enabled("createBookmarks"))
+            return;
+        LibZFSCore core = requireCore("createBookmarks");
+        if (core == null)
+            return;
+
+        core.bookmark(bookmarks).throwIfFailed();
+    }
+
+    /**
+     * Destroys many bookmarks at once, one ioctl per pool.
+     *
+     * @param bookmarks
+     *      Full bookmark names like "rpool/foo#bar".
+     */
+    public void destroyBookmarks(Collection<String> bookmarks) {
+        if (!is_libzfs_enabled("destroyBookmarks"))
+            return;
+        LibZFSCore core = requireCore("destroyBookmarks");
+        if (core == null)
+            return;
+
+        core.destroyBookmarks(bookmarks).throwIfFailed();
+    }
+
+    /**
+     * Creates many snapshots at once.
+     *
+     * <p>
+     * With libzfs_core this is one ioctl per pool, and within a pool either all
+     * the snapshots are created or none are. Otherwise they are created one by one.
+     *
+     * @param snapshots
+     *      Full snapshot names like "rpool/foo@bar".
+     * @param props
+     *      User properties to set on all of them. Can be null.
+     */
+    public BatchResult createSnapshots(Collection<String> snapshots, Map<String,String> props) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        if (!is_libzfs_enabled("createSnapshots"))
+            return new BatchResult("snapshot", Collections.<String>emptySet(), failures);
+
+        LibZFSCore core = getCore();
+        if (core != null)
+            return core.snapshot(snapshots, props);
+
+        boolean quiet = ZFSException.suppressStackTraces(true);
+        try {
+            for (String s : snapshots) {
+                try {
+                    ZFSSnapshot snap = openSnapshotParent(s).createSnapshot(s.substring(s.indexOf('@') + 1));
+                    if (props != null && snap != null) {
+                        for (Map.Entry<String,String> e : props.entrySet())
+                            snap.setProperty(e.getKey(), e.getValue());
+                    }
+                } catch (ZFSException e) {
+                    failures.put(s, e);
+                }
+            }
+        } finally {
+            ZFSException.suppressStackTraces(quiet);
+        }
+        return new BatchResult("snapshot", snapshots, failures);
+    }
+
+    /**
+     * Destroys many snapshots at once.
+     *
+     * <p>
+     * With libzfs_core this is one ioctl per pool, and within a pool either all
+     * the snapshots are destroyed or none are. Otherwise they are destroyed one by one.
+     *
+     * @param snapshots
+     *      Full snapshot names like "rpool/foo@bar".
+     */
+    public BatchResult destroySnapshots(Collection<String> snapshots) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        if (!is_libzfs_enabled("destroySnapshots"))
+            return new BatchResult("destroy", Collections.<String>emptySet(), failures);
+
+        LibZFSCore core = getCore();
+        if (core != null)
+            return core.destroySnapshots(snapshots, false);
+
+        boolean quiet = ZFSException.suppressStackTraces(true);
+        try {
+            for (String s : snapshots) {
+                try {
+                    openSnapshotParent(s).destroySnapshot(s.substring(s.indexOf('@') + 1));
+                } catch (ZFSException e) {
+                    failures.put(s, e);
+                }
+            }
+        } finally {
+            ZFSException.suppressStackTraces(quiet);
+        }
+        return new BatchResult("destroy", snapshots, failures);
+    }
+
+    /**
+     * Name of the dataset that the snapshot of the given full name belongs to.
+     *
+     * @throws ZFSException
+     *      if the name has no '@'.
+     */
+    private static String getSnapshotParent(String snapshot) {
+        int at = snapshot.indexOf('@');
+        if (at < 0)
+            throw new ZFSException("Not a snapshot name: " + snapshot, ErrorCode.EZFS_INVALIDNAME);
+        return snapshot.substring(0, at);
+    }
+
+    /**
+     * Opens the dataset that the snapshot of the given full name belongs to.
+     *
+     * @throws ZFSException
+     *      if the name has no '@' or the dataset doesn't exist.
+     */
+    private ZFSObject openSnapshotParent(String snapshot) {
+        String dataset = getSnapshotParent(snapshot);
+        ZFSObject o = open(dataset);
+        if (o == null)
+            throw new ZFSException(dataset + " does not exist", ErrorCode.EZFS_NOENT);
+        return o;
+    }
+
+    /**
+     * Gets libzfs_core, through which batch operations skip libzfs handles.
+     *
+     * @return
+     *      null if LIBZFS4J_ABI_libzfs_core isn't "openzfs" or the library isn't there.
+     */
+    public LibZFSCore getCore() {
+        if (!"openzfs".equals(getFeature("LIBZFS4J_ABI_libzfs_core")) || !LibZFSCore.isAvailable())
+            return null;
+        try {
+            return LibZFSCore.getShared();
+        } catch (ZFSException e) {
+            LOGGER.log(Level.FINE, "libzfs_core failed to initialize, using libzfs", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decides if lzc_* functions can be called, per LIBZFS4J_ABI_libzfs_core.
+     *
+     * @return
+     *      false if the call should be skipped as a NO-OP.
+     * @throws ZFSException
+     *      with {@link ErrorCode#EZFS_NOTSUP} for the legacy ABI, which has no libzfs_core.
+     */
+    /*package*/ boolean checkLibZFSCore(String abi_thisfunc) {
+        String abi_toggle = "LIBZFS4J_ABI_libzfs_core";
+        String abi = getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+            return false;
+        }
+        if (abi.equals("openzfs"))
+            return true;
+        if (abi.equals("legacy")) {
+            LOGGER.log(Level.FINE, "libzfs4j::" + abi_thisfunc + "() needs libzfs_core, which is not there for " + abi_toggle + "=='" + abi + "'");
+            throw new ZFSException("libzfs4j::" + abi_thisfunc + "() needs libzfs_core, which is not there for " + abi_toggle + "=='" + abi + "'", ErrorCode.EZFS_NOTSUP);
+        }
+        LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+        throw new ZFSException(this);
+    }
+
+    /**
+     * {@link #getCore()} for functions that have no libzfs fallback.
+     *
+     * @return
+     *      null if the call should be skipped as a NO-OP, per {@link #checkLibZFSCore(String)}.
+     * @throws ZFSException
+     *      with {@link ErrorCode#EZFS_NOTSUP} if libzfs_core isn't there after all.
+     */
+    /*package*/ LibZFSCore requireCore(String abi_thisfunc) {
+        if (!checkLibZFSCore(abi_thisfunc))
+            return null;
+        LibZFSCore core = getCore();
+        if (core == null)
+            throw new ZFSException("libzfs4j::" + abi_thisfunc + "() needs libzfs_core, which failed to load", ErrorCode.EZFS_NOTSUP);
+        return core;
+    }
+
+    /**
+     * Splits holds into one snapshot-to-tag map per tag.
+     */
+    private static Map<String,Map<String,String>> groupByTag(Map<String,? extends Collection<String>> holds) {
+        Map<String,Map<String,String>> r = new TreeMap<String,Map<String,String>>();
+        for (Map.Entry<String,? extends Collection<String>> e : holds.entrySet()) {
+            for (String tag : e.getValue()) {
+                Map<String,String> m = r.get(tag);
+                if (m==null)
+                    r.put(tag, m = new TreeMap<String,String>());
+                m.put(e.getKey(), tag);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Splits holds by the file system or volume of the snapshot, keyed by the short
+     * snapshot names. Names that aren't snapshots go to the failures.
+     */
+    private static Map<String,Map<String,Collection<String>>> groupBySnapshotParent(Map<String,? extends Collection<String>> holds, Map<String,ZFSException> failures) {
+        Map<String,Map<String,Collection<String>>> r = new TreeMap<String,Map<String,Collection<String>>>();
+        for (Map.Entry<String,? extends Collection<String>> e : holds.entrySet()) {
+            String fs;
+            try {
+                fs = getSnapshotParent(e.getKey());
+            } catch (ZFSException x) {
+                failures.put(e.getKey(), x);
+                continue;
+            }
+            Map<String,Collection<String>> m = r.get(fs);
+            if (m==null)
+                r.put(fs, m = new TreeMap<String,Collection<String>>());
+            m.put(e.getKey().substring(fs.length()+1), new LinkedHashSet<String>(e.getValue()));
+        }
+        return r;
+    }
+
+    /**
+     * Splits the map keyed by dataset names into one map per pool.
+     */
+    private static <V> Map<String,Map<String,V>> groupByPool(Map<String,V> byName) {
+        Map<String,Map<String,V>> r = new TreeMap<String,Map<String,V>>();
+        for (Map.Entry<String,V> e : byName.entrySet()) {
+            String pool = getPoolName(e.getKey());
+            Map<String,V> m = r.get(pool);
+            if (m==null)
+                r.put(pool, m = new TreeMap<String,V>());
+            m.put(e.getKey(), e.getValue());
+        }
+        return r;
+    }
+
+    /**
+     * Gets the pool name part of a dataset name like "rpool/foo@bar".
+     */
+    /*package*/ static String getPoolName(String name) {
+        for (int i=0; i<name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch=='/' || ch=='@' || ch=='#')
+                return name.substring(0,i);
+        }
+        return name;
+    }
+
     /**
      * Returns {@link libzfs_handle_t} that this object wraps.
      * <p>
      * If the caller wants to use methods that don't yet have a high-level
      * binding, the returned {@link libzfs_handle_t} can be used directly in
      * conjunction with {@link libzfs#LIBZFS}.
+     * <p>
+     * The {@link #getShared() shared instance} initializes libzfs here when first asked.
      */
     public libzfs_handle_t getHandle() {
-        return handle;
+        libzfs_handle_t h = handle;
+        if (h != null || !shared)
+            return h;
+        synchronized (this) {
+            if (handle == null) {
+                openHandle();
+                if (handle == null) {
+                    libzfs_enabled = false;
+                    throw new LinkageError(libzfsNotEnabledReason);
+                }
+            }
+            return handle;
+        }
     }
 
     @Override
@@ -547,7 +1310,15 @@ public class LibZFS implements ZFSContainer {
      * instead of waiting for GC to take care of it.
      */
     public synchronized void dispose() {
+        if (shared) {
+            LOGGER.log(Level.FINE, "Ignored dispose() of the shared LibZFS");
+            return;
+        }
         if (handle != null) {
+            if (mountTable != null) {
+                mountTable.dispose();
+                mountTable = null;
+            }
             LIBZFS.libzfs_fini(handle);
             handle = null;
             libzfs_enabled = false;
@@ -0,0 +1,131 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mount points organized by path components, to find the file system
+ * a path is in by the longest matching mount point.
+ *
+ * <p>
+ * Non-ZFS mount points are in the trie too, so that a path on, say, a tmpfs
+ * or an NFS mount below a ZFS file system isn't taken to be on the latter.
+ *
+ * <p>
+ * Immutable once built, so lookups need no locking.
+ * @see MountTable#getTrie()
+ */
+/*package*/ final class MountPointTrie {
+    private static final class Node {
+        private final Map<String,Node> children = new HashMap<String,Node>(4);
+        /**
+         * Whether something is mounted here.
+         */
+        private boolean mounted;
+        /**
+         * ZFS file system mounted here, or null.
+         */
+        private String dataSet;
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @param mountPoints
+     *      Mount point to the name of the ZFS file system mounted there,
+     *      or to null if what's mounted there isn't ZFS.
+     */
+    /*package*/ MountPointTrie(Map<File,String> mountPoints) {
+        for (Map.Entry<File,String> e : mountPoints.entrySet()) {
+            Node n = root;
+            for (String c : components(e.getKey())) {
+                Node child = n.children.get(c);
+                if (child==null)
+                    n.children.put(c, child = new Node());
+                n = child;
+            }
+            n.mounted = true;
+            n.dataSet = e.getValue();
+        }
+    }
+
+    /**
+     * Name of the file system the given path is in, or null if it's not on ZFS
+     * (or not under any known mount point, see {@link #isMounted(File)}.)
+     *
+     * <p>
+     * The path is taken literally, without following symlinks.
+     */
+    /*package*/ String get(File path) {
+        Node n = find(path);
+        return n!=null ? n.dataSet : null;
+    }
+
+    /**
+     * Whether the given path is under any mount point, ZFS or not.
+     */
+    /*package*/ boolean isMounted(File path) {
+        return find(path)!=null;
+    }
+
+    /**
+     * The node of the longest mount point the path is under, or null.
+     */
+    private Node find(File path) {
+        Node n = root;
+        Node found = n.mounted ? n : null;
+        for (String c : components(path)) {
+            n = n.children.get(c);
+            if (n==null)
+                break;
+            if (n.mounted)
+                found = n;
+        }
+        return found;
+    }
+
+    /**
+     * Splits the absolute path into its names, resolving "." and ".." lexically.
+     */
+    /*package*/ static List<String> components(File path) {
+        List<String> r = new ArrayList<String>();
+        String s = path.getAbsolutePath();
+        int start = 0;
+        while (start<=s.length()) {
+            int end = s.indexOf(File.separatorChar, start);
+            if (end<0)  end = s.length();
+            String c = s.substring(start, end);
+            if (c.equals("..")) {
+                if (!r.isEmpty())
+                    r.remove(r.size()-1);
+            } else
+            if (c.length()>0 && !c.equals("."))
+                r.add(c);
+            start = end+1;
+        }
+        return r;
+    }
+}
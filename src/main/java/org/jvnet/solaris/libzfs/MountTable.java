@@ -0,0 +1,279 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.jna.libc.LIBC;
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.libc;
+
+/**
+ * Index of the ZFS file systems currently mounted, by mount point.
+ * The other mount points are kept too, see {@link MountPointTrie}.
+ *
+ * <p>
+ * The index is read from the kernel mount table and only re-read when the
+ * kernel says the table changed: on Linux by polling /proc/self/mountinfo,
+ * which reports POLLPRI after every mount or unmount, elsewhere by the
+ * modification time of /etc/mnttab. This also turns on the libzfs mnttab
+ * cache, and flushes it at the same moments, so that
+ * {@link ZFSFileSystem#isMounted()} doesn't re-read the table every time
+ * while still seeing mounts done by other processes.
+ */
+/*package*/ final class MountTable {
+    private static final File MOUNTINFO = new File("/proc/self/mountinfo");
+    private static final File MNTTAB = new File("/etc/mnttab");
+
+    private final LibZFS library;
+
+    /**
+     * Mount point to the name of the file system mounted there.
+     */
+    private Map<File,String> index = Collections.emptyMap();
+    /**
+     * Every mount point, ZFS or not, to the name of the file system mounted
+     * there, or to null for the ones that aren't ZFS.
+     */
+    private Map<File,String> mountPoints = Collections.emptyMap();
+    /**
+     * Built from {@link #mountPoints} on demand.
+     */
+    private MountPointTrie trie;
+
+    /**
+     * File descriptor of /proc/self/mountinfo kept open for poll(2), or -1.
+     */
+    private int fd = -1;
+    private libc.pollfd pollfd;
+    private long lastModified;
+    private boolean cacheEnabled;
+
+    /*package*/ MountTable(LibZFS library) {
+        this.library = library;
+        if (MOUNTINFO.exists()) {
+            try {
+                fd = LIBC.open(MOUNTINFO.getPath(), libc.O_RDONLY);
+                pollfd = new libc.pollfd();
+                pollfd.fd = fd;
+                pollfd.events = libc.POLLPRI;
+            } catch (UnsatisfiedLinkError e) {
+                LOGGER.log(Level.FINE, "Can't watch "+MOUNTINFO+" for changes", e);
+                fd = -1;
+            }
+        }
+        try {
+            LIBZFS.libzfs_mnttab_cache(library.getHandle(), true);
+            cacheEnabled = true;
+        } catch (UnsatisfiedLinkError e) {
+            LOGGER.log(Level.FINE, "libzfs_mnttab_cache() is not available", e);
+        }
+        reload();
+    }
+
+    /**
+     * Name of the file system mounted at the given directory, or null.
+     */
+    /*package*/ synchronized String get(File mountPoint) {
+        refreshIfChanged();
+        return index.get(mountPoint);
+    }
+
+    /**
+     * Current mount point to file system name mapping. The returned map is not modified afterward.
+     */
+    /*package*/ synchronized Map<File,String> getAll() {
+        refreshIfChanged();
+        return index;
+    }
+
+    /**
+     * Longest-prefix index of the current mount points.
+     */
+    /*package*/ synchronized MountPointTrie getTrie() {
+        refreshIfChanged();
+        if (trie==null)
+            trie = new MountPointTrie(mountPoints);
+        return trie;
+    }
+
+    /**
+     * Re-reads the mount table if it changed since we last did.
+     *
+     * @return true if it was re-read.
+     */
+    /*package*/ synchronized boolean refreshIfChanged() {
+        if (!hasChanged())
+            return false;
+        reload();
+        if (cacheEnabled)
+            flushCache();
+        return true;
+    }
+
+    /**
+     * Empties the libzfs mnttab cache, which then gets re-populated on next use.
+     *
+     * <p>
+     * Turning the cache off and on again doesn't do it: OpenZFS ignores
+     * libzfs_mnttab_cache() altogether, and elsewhere the entries are only
+     * dropped by a lookup made while it's off. Tearing the cache down and
+     * setting it up afresh works everywhere.
+     */
+    private void flushCache() {
+        try {
+            LIBZFS.libzfs_mnttab_fini(library.getHandle());
+            LIBZFS.libzfs_mnttab_init(library.getHandle());
+            LIBZFS.libzfs_mnttab_cache(library.getHandle(), true);
+        } catch (UnsatisfiedLinkError e) {
+            LOGGER.log(Level.FINE, "Can't flush the libzfs mnttab cache", e);
+        }
+    }
+
+    private boolean hasChanged() {
+        if (fd>=0) {
+            pollfd.revents = 0;
+            // on error, err on the side of re-reading
+            return LIBC.poll(pollfd, 1, 0)!=0;
+        }
+        return MNTTAB.lastModified()!=lastModified;
+    }
+
+    private void reload() {
+        Map<File,String> m = new HashMap<File,String>();
+        try {
+            if (MOUNTINFO.exists())
+                readMountInfo(m);
+            else if (MNTTAB.exists()) {
+                lastModified = MNTTAB.lastModified();
+                readMnttab(m);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the mount table", e);
+        }
+        Map<File,String> zfs = new HashMap<File,String>();
+        for (Map.Entry<File,String> e : m.entrySet())
+            if (e.getValue()!=null)
+                zfs.put(e.getKey(), e.getValue());
+        index = Collections.unmodifiableMap(zfs);
+        mountPoints = m;
+        trie = null;
+    }
+
+    /**
+     * Linux: "36 35 98:0 /root /mnt rw,noatime shared:1 - zfs pool/fs rw,xattr"
+     */
+    private static void readMountInfo(Map<File,String> m) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(MOUNTINFO)));
+        try {
+            String line;
+            while ((line=r.readLine())!=null) {
+                String[] tokens = line.split(" ");
+                int sep = 6;
+                while (sep<tokens.length && !tokens[sep].equals("-"))
+                    sep++;
+                if (tokens.length<sep+3)
+                    continue;
+                put(m, unescape(tokens[4]), tokens[sep+1].equals("zfs") ? unescape(tokens[sep+2]) : null);
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Solaris: "pool/fs\t/mnt\tzfs\trw,devices\t1234567890"
+     */
+    private static void readMnttab(Map<File,String> m) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(MNTTAB)));
+        try {
+            String line;
+            while ((line=r.readLine())!=null) {
+                String[] tokens = line.split("\t");
+                if (tokens.length<3)
+                    continue;
+                put(m, tokens[1], tokens[2].equals("zfs") ? tokens[0] : null);
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * @param dataSet
+     *      null if the file system isn't ZFS.
+     */
+    private static void put(Map<File,String> m, String mountPoint, String dataSet) {
+        if (dataSet!=null && dataSet.indexOf('@')>=0)
+            return; // snapshots auto-mounted under .zfs
+        // later entries are mounted on top of earlier ones
+        m.put(new File(mountPoint), dataSet);
+    }
+
+    /**
+     * Undoes the octal escapes like "\040" the kernel uses for white space in mount table entries.
+     */
+    /*package*/ static String unescape(String s) {
+        if (s.indexOf('\\')<0)
+            return s;
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i=0; i<s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch=='\\' && i+3<s.length() && isOctal(s,i+1) && isOctal(s,i+2) && isOctal(s,i+3)) {
+                b.append((char)Integer.parseInt(s.substring(i+1,i+4),8));
+                i+=3;
+            } else
+                b.append(ch);
+        }
+        return b.toString();
+    }
+
+    private static boolean isOctal(String s, int i) {
+        char ch = s.charAt(i);
+        return '0'<=ch && ch<='7';
+    }
+
+    /**
+     * Stops watching the mount table and turns the libzfs cache back off.
+     */
+    /*package*/ synchronized void dispose() {
+        if (fd>=0) {
+            LIBC.close(fd);
+            fd = -1;
+        }
+        if (cacheEnabled && library.getHandle()!=null) {
+            LIBZFS.libzfs_mnttab_cache(library.getHandle(), false);
+            cacheEnabled = false;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(MountTable.class.getName());
+}
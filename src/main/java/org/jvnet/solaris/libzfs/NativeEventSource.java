@@ -0,0 +1,102 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.jna.libc.LIBC;
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.io.IOException;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.jna.libc;
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+import com.sun.jna.Native;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Reads the kernel event queue with zpool_events_next(), like "zpool events -f" does.
+ *
+ * <p>
+ * Each source has its own /dev/zfs descriptor and thus its own position in
+ * the queue, which starts at the end: only events posted after the source
+ * was opened are seen.
+ */
+/*package*/ final class NativeEventSource implements ZFSEventSource {
+    private final LibZFS library;
+    private int fd;
+    private long dropped;
+
+    NativeEventSource(LibZFS library) {
+        this.library = library;
+        fd = LIBC.open("/dev/zfs", libc.O_RDWR);
+        if (fd<0)
+            throw new ZFSException("Failed to open /dev/zfs", Native.getLastError());
+        if (LIBZFS.zpool_events_seek(library.getHandle(), libzfs.ZEVENT_SEEK_END, fd) != 0) {
+            LIBC.close(fd);
+            throw new ZFSException(library,"Failed to seek the event queue");
+        }
+    }
+
+    /**
+     * Blocks in the kernel until an event is posted. Closing the source doesn't
+     * wake up a thread waiting here; it returns null once the next event comes.
+     */
+    public ZFSEvent next() throws IOException {
+        while (true) {
+            int fd;
+            synchronized (this) {
+                fd = this.fd;
+            }
+            if (fd<0)
+                return null;
+
+            PtrByReference<nvlist_t> nvp = new PtrByReference<nvlist_t>();
+            IntByReference d = new IntByReference();
+            if (LIBZFS.zpool_events_next(library.getHandle(), nvp, d, libzfs.ZEVENT_NONE, fd) != 0) {
+                synchronized (this) {
+                    if (this.fd<0)
+                        return null;    // closed meanwhile
+                }
+                throw new IOException("Failed to read the ZFS event queue: "+LIBZFS.libzfs_error_description(library.getHandle()));
+            }
+            synchronized (this) {
+                dropped += d.getValue();
+            }
+            nvlist_t nvl = nvlist_t.adopt(nvp);
+            if (nvl!=null)
+                return new ZFSEvent(nvl.toMap());
+            // no event despite blocking; e.g. woken up by a signal
+        }
+    }
+
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    public synchronized void close() {
+        if (fd>=0) {
+            LIBC.close(fd);
+            fd = -1;
+        }
+    }
+}
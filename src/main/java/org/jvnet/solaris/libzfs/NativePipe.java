@@ -0,0 +1,248 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.jna.libc.EINTR;
+import static org.jvnet.solaris.jna.libc.LIBC;
+import static org.jvnet.solaris.jna.libc.POLLIN;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.jvnet.solaris.jna.libc.pollfd;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+
+/**
+ * pipe(2) that brings the output of libzfs functions that write into a file
+ * descriptor (send streams, diffs) back into Java without a temporary file.
+ *
+ * <p>
+ * The native writer runs on its own thread and the Java side reads from
+ * {@link #getInputStream()}, so the pipe buffer provides the back pressure:
+ * the writer simply blocks while nobody reads.
+ *
+ * <p>
+ * Once the writer is started, only its thread closes the write end, and only
+ * after the native function has returned, so that the file descriptor number
+ * can't be reused by another open(2) while native code still writes to it.
+ */
+/*package*/ final class NativePipe {
+    private int readFd;
+    private int writeFd;
+    private boolean started;
+    /**
+     * True if the native writer closes the write end itself, as libzfs does
+     * with the descriptor given to zfs_show_diffs().
+     */
+    private volatile boolean calleeCloses;
+    private volatile boolean writerDone;
+
+    NativePipe() {
+        int[] fds = new int[2];
+        if (LIBC.pipe(fds) != 0)
+            throw new ZFSException("Failed to create a pipe", Native.getLastError());
+        readFd = fds[0];
+        writeFd = fds[1];
+    }
+
+    /**
+     * The file descriptor to hand to the native function.
+     */
+    int getWriteFd() {
+        return writeFd;
+    }
+
+    /**
+     * Runs the native writer on a separate thread, and closes the write end once
+     * it returns so that the reader sees EOF.
+     *
+     * @param writer
+     *      Returns 0 or the errno-style error code of the native function.
+     */
+    Future<Integer> start(String threadName, Callable<Integer> writer) {
+        return start(threadName, writer, false);
+    }
+
+    /**
+     * Runs the native writer on a separate thread.
+     *
+     * @param calleeCloses
+     *      True if the native function closes the write end itself, in which
+     *      case it's left alone here. The reader then sees EOF once the writer
+     *      has returned and the pipe is drained, even if the native function
+     *      bailed out before it got to close the descriptor.
+     */
+    Future<Integer> start(String threadName, final Callable<Integer> writer, boolean calleeCloses) {
+        synchronized (this) {
+            started = true;
+            this.calleeCloses = calleeCloses;
+        }
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                try {
+                    return writer.call();
+                } finally {
+                    synchronized (NativePipe.this) {
+                        if (NativePipe.this.calleeCloses)
+                            writeFd = -1;   // no longer ours; the number may already be reused
+                    }
+                    closeWriteEnd();
+                    writerDone = true;
+                }
+            }
+        });
+        Thread t = new Thread(task, threadName);
+        t.setDaemon(true);
+        t.start();
+        return task;
+    }
+
+    /**
+     * Waits for the writer started by {@link #start(String, Callable)} to complete.
+     */
+    static int join(Future<Integer> writer) {
+        try {
+            return writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZFSException("Interrupted while waiting for the native writer", EINTR);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException)  throw (RuntimeException)t;
+            if (t instanceof Error)             throw (Error)t;
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private synchronized void closeWriteEnd() {
+        if (writeFd >= 0) {
+            LIBC.close(writeFd);
+            writeFd = -1;
+        }
+    }
+
+    private synchronized void closeReadEnd() {
+        if (readFd >= 0) {
+            LIBC.close(readFd);
+            readFd = -1;
+        }
+    }
+
+    /**
+     * Closes the read end, and the write end unless the writer thread owns it.
+     * If the writer is still running, it gets EPIPE and bails out, then its
+     * thread closes the write end.
+     */
+    void close() {
+        closeReadEnd();
+        synchronized (this) {
+            if (started)
+                return;
+        }
+        closeWriteEnd();
+    }
+
+    /**
+     * Stream over the read end. Closing it closes the read end.
+     */
+    InputStream getInputStream() {
+        return new InputStream() {
+            private final Memory buf = new Memory(64*1024);
+
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b,0,1) < 0 ? -1 : (b[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)   return 0;
+                while (true) {
+                    int fd;
+                    synchronized (NativePipe.this) {
+                        fd = readFd;
+                    }
+                    if (fd < 0)
+                        throw new IOException("Pipe is already closed");
+                    if (calleeCloses && !waitForData(fd))
+                        return -1;
+                    int n = LIBC.read(fd, buf, new NativeLong(Math.min(len, buf.size()))).intValue();
+                    if (n > 0) {
+                        buf.read(0, b, off, n);
+                        return n;
+                    }
+                    if (n == 0)
+                        return -1;  // EOF
+                    int errno = Native.getLastError();
+                    if (errno != EINTR)
+                        throw new IOException("Failed to read from the pipe: " + LIBC.strerror(errno));
+                }
+            }
+
+            @Override
+            public void close() {
+                closeReadEnd();
+            }
+        };
+    }
+
+    /**
+     * Waits until the pipe has something to read, or the writer is done.
+     * Everything the writer wrote is in the pipe by the time it returns,
+     * so an empty pipe after that is EOF, whoever holds the write end.
+     *
+     * @return false at EOF.
+     */
+    private boolean waitForData(int fd) throws IOException {
+        pollfd p = new pollfd();
+        p.fd = fd;
+        p.events = POLLIN;
+        while (true) {
+            boolean done = writerDone;
+            int n = LIBC.poll(p, 1, done ? 0 : 100);
+            if (n > 0)
+                return true;
+            if (n == 0) {
+                if (done)
+                    return false;
+                continue;
+            }
+            int errno = Native.getLastError();
+            if (errno != EINTR)
+                throw new IOException("Failed to poll the pipe: " + LIBC.strerror(errno));
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        // the writer thread keeps this reachable while it runs, so both ends are ours now
+        closeReadEnd();
+        closeWriteEnd();
+        super.finalize();
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.libc;
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Mounts or unmounts a whole tree of file systems on several threads,
+ * the way "zfs mount -a" of OpenZFS does.
+ *
+ * <p>
+ * File systems are sorted by mount point so that everything mounted below
+ * a mount point comes right after it. A file system is mounted only after the
+ * one it is mounted under, but independent subtrees proceed in parallel.
+ * Unmounting goes the other way, deepest mount points first.
+ *
+ * <p>
+ * A failure to mount or unmount one file system is recorded and doesn't stop
+ * the others. As with "zfs mount -a", nothing is mounted below a file system
+ * that failed to mount, since it would end up on the bare mount point
+ * directory and then hide the parent; those are recorded as failed, too.
+ *
+ * <p>
+ * libzfs handles aren't safe to share among threads, so each thread works on
+ * the file systems through a {@link LibZFS} of its own.
+ * @see LibZFS#mountAll(ZFSFileSystem, int)
+ * @see LibZFS#unmountAll(ZFSFileSystem, int)
+ */
+/*package*/ final class ParallelMounter {
+    /**
+     * Orders paths component by component, so that "/a/b" sorts before "/a-b"
+     * and the mount points below "/a" stay contiguous.
+     */
+    private static final Comparator<String> MOUNT_POINT_ORDER = new Comparator<String>() {
+        public int compare(String a, String b) {
+            int n = Math.min(a.length(), b.length());
+            for (int i=0; i<n; i++) {
+                char x = a.charAt(i), y = b.charAt(i);
+                if (x!=y) {
+                    if (x=='/') return -1;
+                    if (y=='/') return 1;
+                    return x-y;
+                }
+            }
+            return a.length()-b.length();
+        }
+    };
+
+    /**
+     * Value of the numeric "canmount" property that makes a file system mounted automatically.
+     */
+    private static final long CANMOUNT_ON = 1;
+
+    private final LibZFS library;
+
+    /**
+     * The file systems to work on, in {@link #MOUNT_POINT_ORDER} of their mount points.
+     */
+    private final List<ZFSFileSystem> fileSystems = new ArrayList<ZFSFileSystem>();
+    private String[] mountPoints;
+
+    private final Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+
+    private final ExecutorService executor;
+    /**
+     * Tasks submitted and not yet done.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Libraries opened by the threads, to be disposed at the end.
+     */
+    private final List<LibZFS> opened = Collections.synchronizedList(new ArrayList<LibZFS>());
+    private final ThreadLocal<LibZFS> libraries;
+
+    private ParallelMounter(final LibZFS library, final int parallelism, final String threadName) {
+        this.library = library;
+        libraries = new ThreadLocal<LibZFS>() {
+            @Override
+            protected LibZFS initialValue() {
+                if (parallelism <= 1)
+                    return library;     // the only thread, while the caller just waits
+                LibZFS z = new LibZFS();
+                opened.add(z);
+                return z;
+            }
+        };
+        executor = Executors.newFixedThreadPool(Math.max(1,parallelism), new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadName+" #"+n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Mounts the given file system and all below it that have canmount=on
+     * and a mount point, and aren't mounted yet.
+     *
+     * @return
+     *      File system name to the failure, for the ones that failed.
+     */
+    /*package*/ static Map<String,ZFSException> mountAll(ZFSFileSystem root, int parallelism) {
+        ParallelMounter m = new ParallelMounter(root.getLibrary(), parallelism, "zfs mount");
+        try {
+            m.collect(root, true);
+            m.sort();
+            m.mountChildren(0, m.mountPoints.length);
+            m.await();
+        } finally {
+            m.finish(root);
+        }
+        return m.failures;
+    }
+
+    /**
+     * Unmounts the given file system and all below it that are mounted.
+     * File systems with mountpoint=legacy are left alone.
+     *
+     * @return
+     *      File system name to the failure, for the ones that failed.
+     */
+    /*package*/ static Map<String,ZFSException> unmountAll(ZFSFileSystem root, int parallelism) {
+        ParallelMounter m = new ParallelMounter(root.getLibrary(), parallelism, "zfs unmount");
+        try {
+            m.collect(root, false);
+            m.sort();
+
+            // mount points at the same depth can't be below one another
+            TreeMap<Integer,List<Integer>> levels = new TreeMap<Integer,List<Integer>>(Collections.reverseOrder());
+            for (int i=0; i<m.mountPoints.length; i++) {
+                int depth = MountPointTrie.components(new File(m.mountPoints[i])).size();
+                List<Integer> l = levels.get(depth);
+                if (l==null)
+                    levels.put(depth, l = new ArrayList<Integer>());
+                l.add(i);
+            }
+            for (List<Integer> level : levels.values()) {
+                for (int i : level)
+                    m.submit(m.new Unmount(i));
+                m.await();
+            }
+        } finally {
+            m.finish(root);
+        }
+        return m.failures;
+    }
+
+    /**
+     * Picks the file systems to work on, from the given one down.
+     *
+     * @return
+     *      true if the given file system itself was picked.
+     */
+    private boolean collect(ZFSFileSystem fs, boolean forMount) {
+        boolean picked = fs.getMountPoint()!=null
+            && (forMount ? fs.getNumericProperty("canmount")==CANMOUNT_ON && !fs.isMounted() : fs.isMounted());
+        if (picked)
+            fileSystems.add(fs);
+
+        final List<ZFSFileSystem> children = new ArrayList<ZFSFileSystem>();
+        LIBZFS.zfs_iter_filesystems(fs.handle, new libzfs.zfs_iter_f() {
+            public int callback(zfs_handle_t handle, Pointer arg) {
+                ZFSObject o = ZFSObject.create(library, handle);
+                if (o instanceof ZFSFileSystem)
+                    children.add((ZFSFileSystem)o);
+                else
+                    o.dispose();    // volume
+                return 0;
+            }
+        }, null);
+        for (ZFSFileSystem c : children) {
+            if (!collect(c, forMount))
+                c.dispose();
+        }
+        return picked;
+    }
+
+    private void sort() {
+        final Map<ZFSFileSystem,String> mp = new HashMap<ZFSFileSystem,String>();
+        for (ZFSFileSystem fs : fileSystems)
+            mp.put(fs, fs.getMountPoint().getPath());
+        Collections.sort(fileSystems, new Comparator<ZFSFileSystem>() {
+            public int compare(ZFSFileSystem a, ZFSFileSystem b) {
+                return MOUNT_POINT_ORDER.compare(mp.get(a), mp.get(b));
+            }
+        });
+        mountPoints = new String[fileSystems.size()];
+        for (int i=0; i<mountPoints.length; i++)
+            mountPoints[i] = mp.get(fileSystems.get(i));
+    }
+
+    /**
+     * Index right after the last file system mounted below the i-th one.
+     * Another file system with the same mount point counts as below, so that
+     * they get mounted on top of each other in order.
+     */
+    private int subtreeEnd(int i) {
+        String p = mountPoints[i];
+        int j = i+1;
+        while (j<mountPoints.length) {
+            String c = mountPoints[j];
+            if (!(c.equals(p) || p.equals("/") || c.startsWith(p+'/')))
+                break;
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * Mounts the topmost file systems in the given index range, each of which
+     * then goes on with what's below it.
+     */
+    private void mountChildren(int from, int to) {
+        for (int k=from; k<to; k=subtreeEnd(k))
+            submit(new Mount(k));
+    }
+
+    private final class Mount implements Runnable {
+        private final int i;
+
+        Mount(int i) {
+            this.i = i;
+        }
+
+        public void run() {
+            ZFSFileSystem fs = fileSystems.get(i);
+            ZFSFileSystem target = null;
+            try {
+                target = open(fs);
+                target.mount();
+            } catch (ZFSException e) {
+                fail(fs, e);
+                // like zfs mount -a, leave alone what would be mounted on the bare mount point
+                for (int j=i+1; j<subtreeEnd(i); j++)
+                    fail(fileSystems.get(j), new ZFSException("Not mounted because "+fs.getName()+" failed to mount", e.getCode()));
+                return;
+            } finally {
+                close(fs, target);
+            }
+            mountChildren(i+1, subtreeEnd(i));
+        }
+    }
+
+    private final class Unmount implements Runnable {
+        private final int i;
+
+        Unmount(int i) {
+            this.i = i;
+        }
+
+        public void run() {
+            ZFSFileSystem fs = fileSystems.get(i);
+            ZFSFileSystem target = null;
+            try {
+                target = open(fs);
+                target.unmount();
+            } catch (ZFSException e) {
+                fail(fs, e);
+            } finally {
+                close(fs, target);
+            }
+        }
+    }
+
+    /**
+     * Opens the file system again through the {@link LibZFS} of the current thread.
+     */
+    private ZFSFileSystem open(ZFSFileSystem fs) {
+        LibZFS z = libraries.get();
+        if (z == library)
+            return fs;
+        ZFSFileSystem r = z.open(fs.getName(), ZFSFileSystem.class);
+        if (r == null)
+            throw new ZFSException(fs.getName()+" no longer exists", ErrorCode.EZFS_NOENT);
+        return r;
+    }
+
+    private static void close(ZFSFileSystem fs, ZFSFileSystem target) {
+        if (target != null && target != fs)
+            target.dispose();
+    }
+
+    private void fail(ZFSFileSystem fs, ZFSException e) {
+        synchronized (failures) {
+            failures.put(fs.getName(), e);
+        }
+    }
+
+    private void submit(final Runnable task) {
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    if (pending.decrementAndGet()==0) {
+                        synchronized (ParallelMounter.this) {
+                            ParallelMounter.this.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all the submitted tasks, including the ones they submitted, are done.
+     */
+    private synchronized void await() {
+        try {
+            while (pending.get()>0)
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZFSException("Interrupted while waiting for mounts", libc.EINTR);
+        }
+    }
+
+    private void finish(ZFSFileSystem root) {
+        executor.shutdownNow();
+        // the handles below may still be in use by a thread that hasn't noticed yet
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES))
+                    break;
+                LOGGER.log(Level.WARNING, "Still waiting for mount threads to finish");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        for (ZFSFileSystem fs : fileSystems) {
+            if (fs!=root)
+                fs.dispose();
+        }
+        for (LibZFS z : opened)
+            z.dispose();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelMounter.class.getName());
+}
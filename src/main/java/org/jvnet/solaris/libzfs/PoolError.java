@@ -0,0 +1,81 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+/**
+ * A persistent data error of a pool, as listed by "zpool status -v".
+ * @see ZFSPool#errorLog()
+ */
+public final class PoolError {
+    private final long dataSetObject;
+    private final long object;
+    private final String dataSetName;
+    private final String path;
+
+    /*package*/ PoolError(long dataSetObject, long object, String dataSetName, String path) {
+        this.dataSetObject = dataSetObject;
+        this.object = object;
+        this.dataSetName = dataSetName;
+        this.path = path;
+    }
+
+    /**
+     * Object number of the dataset; 0 for pool metadata.
+     */
+    public long getDataSetObject() {
+        return dataSetObject;
+    }
+
+    /**
+     * Object number of the damaged file (or other object) within the dataset.
+     */
+    public long getObject() {
+        return object;
+    }
+
+    /**
+     * Name of the dataset, or null for pool metadata and datasets that no longer exist.
+     */
+    public String getDataSetName() {
+        return dataSetName;
+    }
+
+    /**
+     * Where the damaged object is: "/mountpoint/file" if the dataset is mounted,
+     * "dataset:/file" if it isn't, and "dataset:&lt;0x1f&gt;" or "&lt;metadata&gt;:&lt;0x1f&gt;"
+     * if the object has no path (e.g. it was deleted since.)
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Whether the object could be resolved to a file name.
+     */
+    public boolean hasFileName() {
+        return path.indexOf(":<0x")<0;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * Reads the command history of a pool, like "zpool history -il".
+ *
+ * <p>
+ * Records are fetched lazily in chunks of about 1MB of history. Once
+ * {@link #hasNext()} returns false, the reader is at the end of the history
+ * for now, but keeps its position: calling {@link #hasNext()} again later
+ * only fetches what was logged since. {@link #getOffset()} can be saved to
+ * resume with {@link ZFSPool#history(long)} in another process.
+ *
+ * <p>
+ * On the legacy ABI libzfs can only read the whole history at once, so each
+ * poll reads everything and skips what was seen before.
+ * @see ZFSPool#history()
+ */
+public final class PoolHistory implements Iterator<PoolHistory.Record> {
+    /**
+     * One entry of the history: either a command line a user ran, or an
+     * internal event logged by ZFS itself.
+     */
+    public static final class Record {
+        private final Map<String,Object> attributes;
+
+        /*package*/ Record(Map<String,Object> attributes) {
+            this.attributes = Collections.unmodifiableMap(attributes);
+        }
+
+        /**
+         * All the members of the record, named like "history time".
+         */
+        public Map<String,Object> getAttributes() {
+            return attributes;
+        }
+
+        public Date getTime() {
+            Long t = getLong("history time");
+            return t==null ? null : new Date(t*1000);
+        }
+
+        /**
+         * Command line the user ran, like "zfs create tank/foo", or null for internal events.
+         */
+        public String getCommand() {
+            return getString("history command");
+        }
+
+        public boolean isInternal() {
+            return getCommand()==null;
+        }
+
+        /**
+         * Transaction group of an internal event, or null.
+         */
+        public Long getTxg() {
+            return getLong("history txg");
+        }
+
+        /**
+         * Name of an internal event, like "create" or "snapshot". On older pools
+         * internal events only have a number; see {@link #getInternalEvent()}.
+         */
+        public String getInternalName() {
+            return getString("history internal name");
+        }
+
+        /**
+         * Numeric code of an internal event in the legacy format, or null.
+         */
+        public Long getInternalEvent() {
+            return getLong("history internal event");
+        }
+
+        /**
+         * Free-form detail of an internal event, like "dataset = 77".
+         */
+        public String getInternalString() {
+            return getString("history internal str");
+        }
+
+        /**
+         * Dataset an internal event is about, or null.
+         */
+        public String getDataSetName() {
+            return getString("history dsname");
+        }
+
+        /**
+         * uid of the user who ran the command, or null.
+         */
+        public Long getWho() {
+            return getLong("history who");
+        }
+
+        public String getHost() {
+            return getString("history hostname");
+        }
+
+        public String getZone() {
+            return getString("history zone");
+        }
+
+        private String getString(String name) {
+            Object o = attributes.get(name);
+            return o instanceof String ? (String)o : null;
+        }
+
+        private Long getLong(String name) {
+            Object o = attributes.get(name);
+            return o instanceof Number ? ((Number)o).longValue() : null;
+        }
+
+        @Override
+        public String toString() {
+            String s = getCommand();
+            if (s==null)
+                s = "["+getInternalName()+"] "+getDataSetName()+" "+getInternalString();
+            return getTime()+" "+s;
+        }
+    }
+
+    private final ZFSPool pool;
+    /**
+     * Bytes of history consumed on OpenZFS, records consumed on legacy.
+     */
+    private long offset;
+    /**
+     * Whether the last fetch reached the end of the history.
+     */
+    private boolean eof;
+    private final LinkedList<Record> buffer = new LinkedList<Record>();
+
+    /*package*/ PoolHistory(ZFSPool pool, long offset) {
+        this.pool = pool;
+        this.offset = offset;
+    }
+
+    /**
+     * Position right after the records fetched so far, so read it once
+     * {@link #hasNext()} returned false. Only meaningful to
+     * {@link ZFSPool#history(long)} of the same pool on the same ABI.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean hasNext() {
+        if (buffer.isEmpty())
+            fetch();
+        return !buffer.isEmpty();
+    }
+
+    public Record next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return buffer.removeFirst();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reads more records. Keeps reading while chunks come back without records
+     * (which happens when a record straddles a chunk), until the end.
+     */
+    private void fetch() {
+        LibZFS library = pool.library;
+        String abi_thisfunc = "history";
+        String abi_toggle = "LIBZFS4J_ABI_zpool_get_history";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            eof = false;
+            while (buffer.isEmpty() && !eof) {
+                PtrByReference<nvlist_t> nvp = new PtrByReference<nvlist_t>();
+                LongByReference off = new LongByReference(offset);
+                IntByReference end = new IntByReference(0);
+                if (LIBZFS.zpool_get_history(pool.handle, nvp, off, end) != 0)
+                    throw new ZFSException(library,"Failed to read the history of "+pool.getName());
+                offset = off.getValue();
+                eof = end.getValue()!=0;
+                decode(nvlist_t.adopt(nvp), 0);
+            }
+        } else
+        if (abi.equals("legacy")) {
+            PointerByReference nvp = new PointerByReference();
+            if (LIBZFS.zpool_get_history(pool.handle, nvp) != 0)
+                throw new ZFSException(library,"Failed to read the history of "+pool.getName());
+            PtrByReference<nvlist_t> ref = new PtrByReference<nvlist_t>();
+            ref.getPointer().setPointer(0, nvp.getValue());
+            offset += decode(nvlist_t.adopt(ref), (int)offset);
+            eof = true;
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    /**
+     * Buffers the records of the fetched history, skipping the first few.
+     *
+     * @return number of records buffered.
+     */
+    @SuppressWarnings("unchecked")
+    private int decode(nvlist_t nvl, int skip) {
+        if (nvl==null)
+            return 0;
+        // one pass over the whole list instead of a lookup per field
+        Object records = nvl.toMap().get("history record");
+        if (!(records instanceof List))
+            return 0;
+        int n = 0;
+        for (Map<String,Object> r : (List<Map<String,Object>>)records) {
+            if (skip>0) {
+                skip--;
+                continue;
+            }
+            buffer.add(new Record(r));
+            n++;
+        }
+        return n;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PoolHistory.class.getName());
+}
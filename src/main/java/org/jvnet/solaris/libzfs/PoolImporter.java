@@ -0,0 +1,465 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.jna.libc;
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zpool_handle_t;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+import com.sun.jna.Function;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Finds pools to import by reading the labels of a given set of devices
+ * on several threads, then imports the ones picked, like "zpool import -d".
+ *
+ * <p>
+ * Looking only at the devices named, all at once, is what makes this faster
+ * than "zpool import" on a host that sees hundreds of LUNs at failover.
+ *
+ * <pre>
+ * PoolImporter importer = new PoolImporter(zfs).setParallelism(32);
+ * for (PoolImporter.Candidate c : importer.scan(luns).values())
+ *     if (c.isComplete() &amp;&amp; c.getName().startsWith("db"))
+ *         importer.importPool(c, null, props, new File("/a"), libzfs.ZFS_IMPORT_ANY_HOST);
+ * </pre>
+ */
+public final class PoolImporter {
+    private final LibZFS library;
+    private int parallelism = Runtime.getRuntime().availableProcessors() * 4;
+
+    public PoolImporter(LibZFS library) {
+        this.library = library;
+    }
+
+    /**
+     * Sets how many devices are read at the same time. Label reads mostly wait
+     * on I/O, so this can be well above the number of processors.
+     */
+    public PoolImporter setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * The label of one device.
+     */
+    private static final class Label {
+        final File device;
+        final nvlist_t config;
+        final long poolGuid;
+        final long txg;
+        /**
+         * Position of the top-level vdev the device is in.
+         */
+        final long topId;
+
+        Label(File device, nvlist_t config) {
+            this.device = device;
+            this.config = config;
+            this.poolGuid = value(config, "pool_guid");
+            this.txg = value(config, "txg");
+            nvlist_t tree = config.getNVList("vdev_tree");
+            this.topId = tree != null ? value(tree, "id") : -1;
+        }
+    }
+
+    private static long value(nvlist_t nvl, String key) {
+        Long v = nvl.getLong(key);
+        return v != null ? v : 0;
+    }
+
+    /**
+     * A pool found on the devices.
+     */
+    public static final class Candidate {
+        private final List<File> devices = new ArrayList<File>();
+        /**
+         * Device each leaf vdev was found on, by the leaf's guid.
+         */
+        private final Map<Long,File> leaves = new TreeMap<Long,File>();
+        /**
+         * The newest label seen of each top-level vdev, by its position.
+         */
+        private final Map<Long,Label> topLevel = new TreeMap<Long,Label>();
+        private Label best;
+
+        private void add(Label l) {
+            devices.add(l.device);
+            leaves.put(value(l.config, "guid"), l.device);
+            if (best == null || l.txg > best.txg)
+                best = l;
+            if (l.topId >= 0) {
+                Label cur = topLevel.get(l.topId);
+                if (cur == null || l.txg > cur.txg)
+                    topLevel.put(l.topId, l);
+            }
+        }
+
+        public String getName() {
+            return best.config.getString("name");
+        }
+
+        public long getGuid() {
+            return best.poolGuid;
+        }
+
+        /**
+         * The newest transaction group on any of the labels.
+         */
+        public long getTxg() {
+            return best.txg;
+        }
+
+        /**
+         * pool_state_t: 0 if active (possibly on another host), 1 if exported, 2 if destroyed.
+         */
+        public long getState() {
+            return value(best.config, "state");
+        }
+
+        /**
+         * Host that last had the pool imported, or null.
+         */
+        public String getHostName() {
+            return best.config.getString("hostname");
+        }
+
+        public long getHostId() {
+            return value(best.config, "hostid");
+        }
+
+        /**
+         * Devices found to be part of this pool.
+         */
+        public List<File> getDevices() {
+            return Collections.unmodifiableList(devices);
+        }
+
+        /**
+         * Number of top-level vdevs the pool has.
+         */
+        public int getTopLevelCount() {
+            return (int) value(best.config, "vdev_children");
+        }
+
+        /**
+         * Whether a device of every top-level vdev was found. A pool that isn't
+         * complete can only be imported with some data missing, if at all.
+         */
+        public boolean isComplete() {
+            long n = getTopLevelCount();
+            List<Long> holes = holes();
+            for (long id = 0; id < n; id++)
+                if (!topLevel.containsKey(id) && !holes.contains(id))
+                    return false;
+            return true;
+        }
+
+        private List<Long> holes() {
+            List<Long> r = new ArrayList<Long>();
+            long[] a = best.config.getLongArray("hole_array");
+            if (a != null)
+                for (long id : a)
+                    r.add(id);
+            return r;
+        }
+
+        /**
+         * Puts the newest label of each top-level vdev under a root vdev,
+         * the way libzfs does when it searches for pools.
+         */
+        private nvlist_t toConfig() {
+            long n = getTopLevelCount();
+            List<Long> holes = holes();
+            nvlist_t[] children = new nvlist_t[(int) n];
+            for (long id = 0; id < n; id++) {
+                Label l = topLevel.get(id);
+                if (l != null) {
+                    children[(int) id] = l.config.getNVList("vdev_tree").dup();
+                    fixPaths(children[(int) id]);
+                } else {
+                    nvlist_t stub = nvlist_t.allocMap();
+                    stub.put("type", holes.contains(id) ? "hole" : "missing");
+                    stub.put("id", id);
+                    stub.put("guid", 0L);
+                    children[(int) id] = stub;
+                }
+            }
+
+            nvlist_t root = nvlist_t.allocMap();
+            root.put("type", "root");
+            root.put("id", 0L);
+            root.put("guid", getGuid());
+            root.put("children", children);
+
+            nvlist_t config = best.config.dup();
+            // these are about the device the label came from
+            config.remove("top_guid");
+            config.remove("guid");
+            config.remove("is_log");
+            config.remove("is_spare");
+            config.remove("vdev_tree");
+            config.put("vdev_tree", root);
+            return config;
+        }
+
+        /**
+         * Points the leaves of the vdev tree at the devices they were found on,
+         * which is where the labels may not say they are, like on another host
+         * that names its disks differently. This is what fix_paths() of libzfs does.
+         * The devid is dropped along with the old path, since it went with it.
+         */
+        private void fixPaths(nvlist_t vdev) {
+            nvlist_t[] children = vdev.getNVListArray("children");
+            if (children != null) {
+                for (nvlist_t c : children)
+                    fixPaths(c);
+                return;
+            }
+            File device = leaves.get(value(vdev, "guid"));
+            if (device == null || device.getPath().equals(vdev.getString("path")))
+                return;
+            vdev.put("path", device.getPath());
+            vdev.remove("devid");
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " (" + Long.toHexString(getGuid()) + ") on " + devices;
+        }
+    }
+
+    /**
+     * Reads the labels of the given devices and groups them into pools.
+     * Devices that can't be opened or don't have a label are skipped.
+     *
+     * @return
+     *      Pool guid to the pool, in the order of their names.
+     */
+    public Map<Long,Candidate> scan(Collection<File> devices) throws InterruptedException {
+        List<Label> labels = readLabels(devices);
+
+        Map<Long,Candidate> byGuid = new TreeMap<Long,Candidate>();
+        for (Label l : labels) {
+            if (l.poolGuid == 0)
+                continue; // a spare or cache device, which doesn't tell which pool
+            Candidate c = byGuid.get(l.poolGuid);
+            if (c == null)
+                byGuid.put(l.poolGuid, c = new Candidate());
+            c.add(l);
+        }
+
+        // order by name so that the same devices always give the same order
+        List<Candidate> sorted = new ArrayList<Candidate>(byGuid.values());
+        Collections.sort(sorted, new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                int r = String.valueOf(a.getName()).compareTo(String.valueOf(b.getName()));
+                return r != 0 ? r : a.getGuid() < b.getGuid() ? -1 : a.getGuid() > b.getGuid() ? 1 : 0;
+            }
+        });
+        Map<Long,Candidate> r = new LinkedHashMap<Long,Candidate>();
+        for (Candidate c : sorted)
+            r.put(c.getGuid(), c);
+        return r;
+    }
+
+    private List<Label> readLabels(Collection<File> devices) throws InterruptedException {
+        List<Label> r = new ArrayList<Label>();
+        if (devices.isEmpty())
+            return r;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, devices.size()), new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable task) {
+                Thread t = new Thread(task, "zpool read label #" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<Label>> futures = new ArrayList<Future<Label>>();
+            for (final File device : devices) {
+                futures.add(executor.submit(new Callable<Label>() {
+                    public Label call() {
+                        return readLabel(device);
+                    }
+                }));
+            }
+            for (Future<Label> f : futures) {
+                try {
+                    Label l = f.get();
+                    if (l != null)
+                        r.add(l);
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read a label", e.getCause());
+                }
+            }
+            return r;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return
+     *      null if the device has no label.
+     */
+    private static Label readLabel(File device) {
+        int fd = libc.LIBC.open(device.getPath(), libc.O_RDONLY);
+        if (fd < 0) {
+            LOGGER.log(Level.FINE, "Can''t open {0}", device);
+            return null;
+        }
+        try {
+            PtrByReference<nvlist_t> ref = new PtrByReference<nvlist_t>();
+            IntByReference count = new IntByReference(-1);
+            if (LIBZFS.zpool_read_label(fd, ref, count) != 0)
+                return null;
+            nvlist_t config = nvlist_t.adopt(ref);
+            if (config == null || count.getValue() == 0)
+                return null;
+            return new Label(device, config);
+        } finally {
+            libc.LIBC.close(fd);
+        }
+    }
+
+    /**
+     * Imports a pool found by {@link #scan(Collection)}.
+     *
+     * @param newName
+     *      Name to import the pool as, or null to keep its name.
+     * @param props
+     *      Pool properties to set, or null.
+     * @param altroot
+     *      Where to mount the file systems of the pool under, like "zpool import -R".
+     *      This also keeps the pool out of the cache file. null to mount them where they say.
+     * @param flags
+     *      {@link libzfs#ZFS_IMPORT_ANY_HOST} and other ZFS_IMPORT_* flags.
+     *      Ignored by the legacy ABI.
+     * @return
+     *      The imported pool, or null if disabled by configuration.
+     */
+    public ZFSPool importPool(Candidate candidate, String newName, Map<String,String> props, File altroot, int flags) {
+        String abi_thisfunc = "importPool";
+        String abi_toggle = "LIBZFS4J_ABI_zpool_import";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+            return null;
+        }
+
+        nvlist_t p = nvlist_t.allocMap();
+        if (props != null)
+            for (Map.Entry<String,String> e : props.entrySet())
+                p.put(e.getKey(), e.getValue());
+        if (altroot != null) {
+            p.put("altroot", altroot.getPath());
+            if (props == null || !props.containsKey("cachefile"))
+                p.put("cachefile", "none");
+        }
+
+        nvlist_t config = candidate.toConfig();
+        if (abi.equals("openzfs")) {
+            config = refreshConfig(config);
+            if (LIBZFS.zpool_import_props(library.getHandle(), config, newName, p, flags) != 0)
+                throw new ZFSException(library);
+        } else
+        if (abi.equals("legacy")) {
+            if (LIBZFS.zpool_import_props(library.getHandle(), config, newName, p, 0) != 0)
+                throw new ZFSException(library);
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+
+        String name = newName != null ? newName : candidate.getName();
+        zpool_handle_t h = LIBZFS.zpool_open(library.getHandle(), name);
+        if (h == null)
+            throw new ZFSException(library);
+        return new ZFSPool(library, h);
+    }
+
+    /**
+     * Imports several pools one after another (the kernel does them one at a time anyway.)
+     *
+     * @return
+     *      Pool name to the failure, for the ones that failed.
+     */
+    public Map<String,ZFSException> importPools(Collection<Candidate> candidates, Map<String,String> props, File altroot, int flags) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        for (Candidate c : candidates) {
+            try {
+                ZFSPool pool = importPool(c, null, props, altroot, flags);
+                if (pool != null)
+                    pool.dispose();
+            } catch (ZFSException e) {
+                failures.put(c.getName(), e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Has the kernel check the configuration assembled from the labels and fill in
+     * what they don't tell, through the refresh_config() of libzfs_config_ops,
+     * which is how "zpool import" does it.
+     */
+    private nvlist_t refreshConfig(nvlist_t config) {
+        Pointer ops = NativeLibrary.getInstance("zfs").getGlobalVariableAddress("libzfs_config_ops");
+        Function refresh = Function.getFunction(ops.getPointer(0));
+        nvlist_t r = (nvlist_t) refresh.invoke(nvlist_t.class, new Object[] {library.getHandle(), config});
+        if (r == null)
+            throw new ZFSException(library);
+        // the caller is to free it
+        PtrByReference<nvlist_t> ref = new PtrByReference<nvlist_t>();
+        ref.getPointer().setPointer(0, r.getPointer());
+        return nvlist_t.adopt(ref);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PoolImporter.class.getName());
+}
@@ -0,0 +1,347 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jvnet.solaris.libzfs.VdevTree.VdevClass;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+/**
+ * Describes a pool to create with {@link LibZFS#createPool(String, PoolSpec)}:
+ * its vdevs and properties.
+ *
+ * <pre>
+ * PoolSpec spec = new PoolSpec()
+ *     .add(PoolSpec.Vdev.mirror("/dev/sdb1", "/dev/sdc1"))
+ *     .add(VdevClass.LOG, PoolSpec.Vdev.leaf("/dev/nvme0n1p1"))
+ *     .add(VdevClass.SPARE, PoolSpec.Vdev.leaf("/dev/sdd1"))
+ *     .setAShift(12)
+ *     .enableFeature("lz4_compress");
+ * </pre>
+ *
+ * <p>
+ * Devices can be files (at least {@link #MIN_DEVICE_SIZE}, see
+ * {@link #createSparseFile(File, long)}) or disk partitions. Whole disks aren't
+ * partitioned and labeled the way the zpool command does.
+ */
+public final class PoolSpec {
+    /**
+     * SPA_MINDEVSIZE: the smallest device ZFS takes.
+     */
+    public static final long MIN_DEVICE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * A top-level vdev, or a device of its own.
+     */
+    public static final class Vdev {
+        private final String type;
+        private final String path;
+        private final int parity;
+        private final int data;
+        private final int spares;
+        private final List<String> devices;
+
+        private Vdev(String type, String path, int parity, int data, int spares, String... devices) {
+            this.type = type;
+            this.path = path;
+            this.parity = parity;
+            this.data = data;
+            this.spares = spares;
+            this.devices = Collections.unmodifiableList(Arrays.asList(devices));
+        }
+
+        /**
+         * A single file or disk partition.
+         */
+        public static Vdev leaf(String path) {
+            return new Vdev(null, path, 0, 0, 0);
+        }
+
+        public static Vdev mirror(String... devices) {
+            if (devices.length < 2)
+                throw new IllegalArgumentException("A mirror needs at least 2 devices");
+            return new Vdev("mirror", null, 0, 0, 0, devices);
+        }
+
+        /**
+         * @param parity
+         *      1 to 3, for raidz1 to raidz3.
+         */
+        public static Vdev raidz(int parity, String... devices) {
+            if (parity < 1 || parity > 3)
+                throw new IllegalArgumentException("Bad raidz parity: " + parity);
+            if (devices.length < parity + 1)
+                throw new IllegalArgumentException("raidz" + parity + " needs at least " + (parity + 1) + " devices");
+            return new Vdev("raidz", null, parity, 0, 0, devices);
+        }
+
+        /**
+         * A dRAID (OpenZFS 2.1 and later.)
+         *
+         * @param parity
+         *      1 to 3.
+         * @param data
+         *      Data devices per redundancy group.
+         * @param spares
+         *      Distributed spares.
+         */
+        public static Vdev draid(int parity, int data, int spares, String... devices) {
+            if (parity < 1 || parity > 3)
+                throw new IllegalArgumentException("Bad draid parity: " + parity);
+            if (data < 1 || devices.length < parity + data + spares)
+                throw new IllegalArgumentException("draid" + parity + ":" + data + "d:" + spares + "s needs at least " + (parity + data + spares) + " devices");
+            return new Vdev("draid", null, parity, data, spares, devices);
+        }
+
+        /**
+         * Encodes this as a top-level vdev.
+         *
+         * @param id
+         *      Position among the top-level vdevs, for naming the distributed spares.
+         * @param distributedSpares
+         *      Where to put the distributed spares of a draid.
+         */
+        private nvlist_t encode(int ashift, VdevClass c, int id, List<nvlist_t> distributedSpares) {
+            if (path != null) {
+                nvlist_t leaf = PoolSpec.leaf(path, ashift);
+                topLevel(leaf, c);
+                return leaf;
+            }
+
+            nvlist_t nv = nvlist_t.allocMap();
+            nv.put("type", type);
+            nvlist_t[] children = new nvlist_t[devices.size()];
+            for (int i = 0; i < children.length; i++)
+                children[i] = PoolSpec.leaf(devices.get(i), ashift);
+            nv.put("children", children);
+            if (parity > 0)
+                nv.put("nparity", (long) parity);
+            if (type.equals("draid")) {
+                int n = devices.size();
+                long groups = 1;
+                // enough groups to fill a whole number of rows, as the zpool command does
+                while (groups * (data + parity) % (n - spares) != 0)
+                    groups++;
+                nv.put("draid_ndata", (long) data);
+                nv.put("draid_nspares", (long) spares);
+                nv.put("draid_ngroups", groups);
+                for (int s = 0; s < spares; s++) {
+                    nvlist_t spare = nvlist_t.allocMap();
+                    spare.put("type", "dspare");
+                    spare.put("path", "draid" + parity + "-" + id + "-" + s);
+                    distributedSpares.add(spare);
+                }
+            }
+            topLevel(nv, c);
+            return nv;
+        }
+
+        private static void topLevel(nvlist_t nv, VdevClass c) {
+            nv.put("is_log", c == VdevClass.LOG ? 1L : 0L);
+            if (c == VdevClass.LOG)
+                nv.put("alloc_bias", "log");
+            if (c == VdevClass.SPECIAL)
+                nv.put("alloc_bias", "special");
+            if (c == VdevClass.DEDUP)
+                nv.put("alloc_bias", "dedup");
+        }
+
+        @Override
+        public String toString() {
+            if (path != null)
+                return path;
+            String t = type;
+            if (type.equals("raidz"))
+                t += parity;
+            if (type.equals("draid"))
+                t += parity + ":" + data + "d:" + spares + "s";
+            return t + " " + devices;
+        }
+    }
+
+    private final Map<Vdev,VdevClass> vdevs = new LinkedHashMap<Vdev,VdevClass>();
+    private final Map<String,String> props = new LinkedHashMap<String,String>();
+    private final Map<String,String> fsProps = new LinkedHashMap<String,String>();
+    private int ashift;
+
+    /**
+     * Adds a vdev that holds data.
+     */
+    public PoolSpec add(Vdev vdev) {
+        return add(VdevClass.NORMAL, vdev);
+    }
+
+    /**
+     * Adds a vdev of the given class. Cache devices and spares have to be single devices.
+     */
+    public PoolSpec add(VdevClass c, Vdev vdev) {
+        if ((c == VdevClass.CACHE || c == VdevClass.SPARE) && vdev.path == null)
+            throw new IllegalArgumentException(c + " devices can't be " + vdev.type);
+        vdevs.put(vdev, c);
+        return this;
+    }
+
+    /**
+     * Sets the sector size shift of the devices, like "zpool create -o ashift=12".
+     * 0 lets ZFS decide.
+     */
+    public PoolSpec setAShift(int ashift) {
+        this.ashift = ashift;
+        return this;
+    }
+
+    /**
+     * Sets a pool property, like "zpool create -o".
+     */
+    public PoolSpec setProperty(String name, String value) {
+        props.put(name, value);
+        return this;
+    }
+
+    /**
+     * Enables a feature, like "zpool create -o feature@name=enabled".
+     * libzfs doesn't enable any feature by itself, unlike the zpool command.
+     */
+    public PoolSpec enableFeature(String name) {
+        return setProperty("feature@" + name, "enabled");
+    }
+
+    /**
+     * Sets a property of the root file system, like "zpool create -O".
+     */
+    public PoolSpec setFileSystemProperty(String name, String value) {
+        fsProps.put(name, value);
+        return this;
+    }
+
+    /**
+     * Encodes the vdevs into the nvroot that zpool_create() takes.
+     */
+    /*package*/ nvlist_t toNVRoot() {
+        List<nvlist_t> children = new ArrayList<nvlist_t>();
+        List<nvlist_t> spares = new ArrayList<nvlist_t>();
+        List<nvlist_t> caches = new ArrayList<nvlist_t>();
+        for (Map.Entry<Vdev,VdevClass> e : vdevs.entrySet()) {
+            VdevClass c = e.getValue();
+            if (c == VdevClass.SPARE)
+                spares.add(leaf(e.getKey().path, ashift));
+            else if (c == VdevClass.CACHE)
+                caches.add(leaf(e.getKey().path, ashift));
+            else
+                children.add(e.getKey().encode(ashift, c, children.size(), spares));
+        }
+        if (children.isEmpty())
+            throw new IllegalArgumentException("A pool needs at least one vdev for data");
+
+        nvlist_t root = nvlist_t.allocMap();
+        root.put("type", "root");
+        root.put("children", children.toArray(new nvlist_t[children.size()]));
+        if (!spares.isEmpty())
+            root.put("spares", spares.toArray(new nvlist_t[spares.size()]));
+        if (!caches.isEmpty())
+            root.put("l2cache", caches.toArray(new nvlist_t[caches.size()]));
+        return root;
+    }
+
+    /*package*/ nvlist_t toProps() {
+        return toNVList(props);
+    }
+
+    /*package*/ nvlist_t toFileSystemProps() {
+        return toNVList(fsProps);
+    }
+
+    private static nvlist_t toNVList(Map<String,String> m) {
+        if (m.isEmpty())
+            return null;
+        nvlist_t nv = nvlist_t.allocMap();
+        for (Map.Entry<String,String> e : m.entrySet())
+            nv.put(e.getKey(), e.getValue());
+        return nv;
+    }
+
+    private static nvlist_t leaf(String path, int ashift) {
+        if (!path.startsWith("/"))
+            throw new IllegalArgumentException("Device paths have to be absolute: " + path);
+        nvlist_t leaf = nvlist_t.allocMap();
+        boolean file = new File(path).isFile();
+        leaf.put("type", file ? "file" : "disk");
+        leaf.put("path", path);
+        if (!file)
+            leaf.put("whole_disk", 0L);
+        if (ashift > 0)
+            leaf.put("ashift", (long) ashift);
+        return leaf;
+    }
+
+    /**
+     * Creates a sparse file to use as a vdev, which takes no space until written to.
+     *
+     * @param size
+     *      At least {@link #MIN_DEVICE_SIZE}.
+     */
+    public static File createSparseFile(File file, long size) throws IOException {
+        if (size < MIN_DEVICE_SIZE)
+            throw new IllegalArgumentException("Vdevs have to be at least " + MIN_DEVICE_SIZE + " bytes: " + size);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+        } finally {
+            raf.close();
+        }
+        return file.getAbsoluteFile();
+    }
+
+    /**
+     * Creates sparse files named like "vdev0.img" in a directory.
+     *
+     * @return
+     *      Their absolute paths, to pass to {@link Vdev}.
+     */
+    public static String[] createSparseFiles(File dir, int count, long size) throws IOException {
+        String[] r = new String[count];
+        for (int i = 0; i < count; i++)
+            r[i] = createSparseFile(new File(dir, "vdev" + i + ".img"), size).getPath();
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Map.Entry<Vdev,VdevClass> e : vdevs.entrySet()) {
+            if (b.length() > 0)
+                b.append(", ");
+            if (e.getValue() != VdevClass.NORMAL)
+                b.append(e.getValue().name().toLowerCase()).append(' ');
+            b.append(e.getKey());
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.Date;
+
+/**
+ * Where the scrub or resilver of a pool is, as "zpool status" shows it.
+ *
+ * <p>
+ * This is a snapshot of the pool_scan_stat_t in the pool configuration
+ * taken at one moment. Two of them taken some time apart give the current
+ * scan rate through {@link #getRate(ScanProgress)}.
+ * @see ZFSPool#getScanProgress()
+ */
+public final class ScanProgress {
+    /**
+     * pool_scan_func_t
+     */
+    public enum Function {
+        NONE, SCRUB, RESILVER, ERROR_SCRUB
+    }
+
+    /**
+     * dsl_scan_state_t
+     */
+    public enum State {
+        NONE, SCANNING, FINISHED, CANCELED, ERROR_SCRUBBING
+    }
+
+    /*
+     * Indices into the "scan_stats" array. The first 11 are there everywhere;
+     * the pause and issued counters came with OpenZFS 0.8 (and later illumos.)
+     */
+    private static final int FUNC = 0;
+    private static final int STATE = 1;
+    private static final int START_TIME = 2;
+    private static final int END_TIME = 3;
+    private static final int TO_EXAMINE = 4;
+    private static final int EXAMINED = 5;
+    private static final int PROCESSED = 7;
+    private static final int ERRORS = 8;
+    private static final int PASS_EXAM = 9;
+    private static final int PASS_START = 10;
+    private static final int PASS_SCRUB_PAUSE = 11;
+    private static final int PASS_SCRUB_SPENT_PAUSED = 12;
+    private static final int PASS_ISSUED = 13;
+    private static final int ISSUED = 14;
+
+    private static final ScanProgress NEVER = new ScanProgress(new long[0], 0, 0);
+
+    private final long[] stats;
+    /**
+     * {@link System#currentTimeMillis()} when this was read, for the rates in
+     * bytes per second since the scan started.
+     */
+    private final long sampledAt;
+    /**
+     * {@link System#nanoTime()} when this was read, for the rate between two readings.
+     */
+    private final long sampledNanos;
+
+    /*package*/ ScanProgress(long[] stats, long sampledAt, long sampledNanos) {
+        this.stats = stats;
+        this.sampledAt = sampledAt;
+        this.sampledNanos = sampledNanos;
+    }
+
+    /**
+     * Decodes the "scan_stats" array of the root vdev.
+     *
+     * @param stats
+     *      null if the pool has never been scanned.
+     */
+    /*package*/ static ScanProgress decode(long[] stats) {
+        if (stats == null)
+            return NEVER;
+        return new ScanProgress(stats, System.currentTimeMillis(), System.nanoTime());
+    }
+
+    private long get(int index) {
+        return index < stats.length ? stats[index] : 0;
+    }
+
+    private long getSeconds() {
+        return sampledAt / 1000;
+    }
+
+    public Function getFunction() {
+        int f = (int) get(FUNC);
+        Function[] values = Function.values();
+        return f < values.length ? values[f] : Function.NONE;
+    }
+
+    public State getState() {
+        int s = (int) get(STATE);
+        State[] values = State.values();
+        return s < values.length ? values[s] : State.NONE;
+    }
+
+    /**
+     * Whether a scan is going on, paused or not.
+     */
+    public boolean isScanning() {
+        return getState() == State.SCANNING;
+    }
+
+    /**
+     * Whether the scrub going on is paused. Always false on systems that can't pause.
+     */
+    public boolean isPaused() {
+        return isScanning() && get(PASS_SCRUB_PAUSE) != 0;
+    }
+
+    /**
+     * When the last (or current) scan started, or null if there was never one.
+     */
+    public Date getStartTime() {
+        long t = get(START_TIME);
+        return t != 0 ? new Date(t * 1000) : null;
+    }
+
+    /**
+     * When the last scan ended, or null if it hasn't.
+     */
+    public Date getEndTime() {
+        long t = get(END_TIME);
+        return t != 0 && !isScanning() ? new Date(t * 1000) : null;
+    }
+
+    /**
+     * Bytes the scan has to go through in total.
+     */
+    public long getBytesToExamine() {
+        return get(TO_EXAMINE);
+    }
+
+    /**
+     * Bytes of metadata walked so far. On OpenZFS this runs ahead of
+     * {@link #getBytesIssued()}, as blocks are sorted before they are read.
+     */
+    public long getBytesExamined() {
+        return get(EXAMINED);
+    }
+
+    /**
+     * Bytes actually read and verified so far. Where the kernel doesn't track this
+     * separately, the same as {@link #getBytesExamined()}.
+     */
+    public long getBytesIssued() {
+        return stats.length > ISSUED ? stats[ISSUED] : get(EXAMINED);
+    }
+
+    /**
+     * Bytes repaired (scrub) or rewritten (resilver) so far.
+     */
+    public long getBytesProcessed() {
+        return get(PROCESSED);
+    }
+
+    /**
+     * Number of errors the scan ran into.
+     */
+    public long getErrors() {
+        return get(ERRORS);
+    }
+
+    /**
+     * How much of the scan is done, from 0 to 100.
+     */
+    public double getPercentDone() {
+        if (!isScanning())
+            return getState() == State.FINISHED ? 100 : 0;
+        long total = getBytesToExamine();
+        if (total == 0)
+            return 0;
+        return Math.min(100, getBytesIssued() * 100.0 / total);
+    }
+
+    /**
+     * Bytes per second issued over the current pass, not counting the time
+     * it spent paused, which is the rate "zpool status" reports.
+     *
+     * @return
+     *      0 if no scan is going on.
+     */
+    public double getAverageRate() {
+        if (!isScanning())
+            return 0;
+
+        long bytes;
+        long elapsed;
+        if (stats.length > PASS_ISSUED) {
+            long end = isPaused() ? get(PASS_SCRUB_PAUSE) : getSeconds();
+            elapsed = end - get(PASS_START) - get(PASS_SCRUB_SPENT_PAUSED);
+            bytes = get(PASS_ISSUED);
+        } else {
+            elapsed = getSeconds() - get(PASS_START);
+            bytes = get(PASS_EXAM);
+        }
+        return bytes / (double) Math.max(1, elapsed);
+    }
+
+    /**
+     * Bytes per second issued between an earlier reading and this one.
+     *
+     * @param earlier
+     *      An earlier reading of the same pool. If it belongs to another
+     *      scan than this one, {@link #getAverageRate()} is returned instead.
+     */
+    public double getRate(ScanProgress earlier) {
+        if (!isScanning())
+            return 0;
+        if (earlier == null || !earlier.isScanning()
+         || earlier.get(START_TIME) != get(START_TIME) || earlier.get(FUNC) != get(FUNC))
+            return getAverageRate();
+
+        long nanos = sampledNanos - earlier.sampledNanos;
+        if (nanos <= 0)
+            return getAverageRate();
+        long bytes = getBytesIssued() - earlier.getBytesIssued();
+        return Math.max(0, bytes) * 1e9 / nanos;
+    }
+
+    /**
+     * Estimated seconds until the scan finishes at {@link #getAverageRate()},
+     * or -1 if that can't be told (e.g. while paused.)
+     */
+    public long getSecondsRemaining() {
+        double rate = getAverageRate();
+        if (isPaused() || rate <= 0)
+            return -1;
+        return (long) (Math.max(0, getBytesToExamine() - getBytesIssued()) / rate);
+    }
+
+    @Override
+    public String toString() {
+        if (getState() == State.NONE)
+            return "none requested";
+        StringBuilder b = new StringBuilder();
+        b.append(getFunction().name().toLowerCase()).append(' ').append(getState().name().toLowerCase());
+        if (isPaused())
+            b.append(" (paused)");
+        if (isScanning())
+            b.append(String.format(" %.2f%% done", getPercentDone()));
+        b.append(", ").append(getErrors()).append(" errors");
+        return b.toString();
+    }
+}
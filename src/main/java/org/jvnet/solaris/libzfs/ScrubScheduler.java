@@ -0,0 +1,273 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scrubs pools one after another so that no more than a given number
+ * of them are being scrubbed at once, to bound the I/O load of a host.
+ *
+ * <p>
+ * Pools are queued with {@link #schedule(ZFSPool)} and started in that order
+ * as earlier scrubs finish, which is found out by reading their {@link ScanProgress}
+ * every poll interval. A pool that is already being scanned when its turn comes
+ * (say a resilver is going on) isn't started again, but its scan takes up a slot
+ * until it's over. So does a paused scrub.
+ *
+ * <p>
+ * There should be one of these per host; two of them don't know about each other.
+ */
+public final class ScrubScheduler implements Closeable {
+    private final int maxConcurrent;
+    private final long pollInterval;
+
+    /**
+     * Pools waiting for their turn, by name.
+     */
+    private final LinkedHashMap<String,ZFSPool> queued = new LinkedHashMap<String,ZFSPool>();
+    /**
+     * Pools being scanned, by name.
+     */
+    private final Map<String,ZFSPool> running = new TreeMap<String,ZFSPool>();
+    /**
+     * Last reading of each pool that has been started or seen scanning.
+     */
+    private final Map<String,ScanProgress> progress = new TreeMap<String,ScanProgress>();
+    private final Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @param maxConcurrent
+     *      Maximum number of pools scanned at the same time.
+     * @param pollInterval
+     *      How often to check on the running scrubs.
+     */
+    public ScrubScheduler(int maxConcurrent, long pollInterval, TimeUnit unit) {
+        if (maxConcurrent < 1)
+            throw new IllegalArgumentException("maxConcurrent must be at least 1: " + maxConcurrent);
+        this.maxConcurrent = maxConcurrent;
+        this.pollInterval = Math.max(1, unit.toMillis(pollInterval));
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "zpool scrub scheduler");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts scheduling. Pools can be queued before or after this.
+     */
+    public ScrubScheduler start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Queues a pool for scrubbing. Does nothing if it's already queued or running.
+     */
+    public synchronized ScrubScheduler schedule(ZFSPool pool) {
+        String name = pool.getName();
+        if (!running.containsKey(name) && !queued.containsKey(name)) {
+            queued.put(name, pool);
+            failures.remove(name);
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Takes a pool off the queue, if it hasn't been started yet.
+     *
+     * @return
+     *      true if it was removed.
+     */
+    public synchronized boolean unschedule(String poolName) {
+        return queued.remove(poolName) != null;
+    }
+
+    /**
+     * Names of the pools waiting for their turn, in order.
+     */
+    public synchronized List<String> getQueued() {
+        return new ArrayList<String>(queued.keySet());
+    }
+
+    /**
+     * Names of the pools being scanned.
+     */
+    public synchronized List<String> getRunning() {
+        return new ArrayList<String>(running.keySet());
+    }
+
+    /**
+     * The last reading of a pool this scheduler started or waited for,
+     * or null if it hasn't got to that pool.
+     */
+    public synchronized ScanProgress getProgress(String poolName) {
+        return progress.get(poolName);
+    }
+
+    /**
+     * Pools that failed to start scrubbing, or to report on it.
+     */
+    public synchronized Map<String,ZFSException> getFailures() {
+        return new TreeMap<String,ZFSException>(failures);
+    }
+
+    /**
+     * Waits until nothing is queued or running.
+     *
+     * @return
+     *      false if timed out.
+     */
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!queued.isEmpty() || !running.isEmpty()) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                return false;
+            wait(wait);
+        }
+        return true;
+    }
+
+    /**
+     * Stops scheduling. Scrubs that are running are left running, and the queue is dropped.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            queued.clear();
+            notifyAll();
+        }
+        if (thread.isAlive() && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    // keep scheduling the other pools, and wake up awaitIdle() to see where things are
+                    LOGGER.log(Level.WARNING, "Failed to check on the scrubs", e);
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+                synchronized (this) {
+                    if (closed)
+                        break;
+                    // nothing to watch: sleep until something is queued
+                    if (running.isEmpty() && queued.isEmpty())
+                        wait();
+                    else
+                        wait(pollInterval);
+                }
+            }
+        } catch (InterruptedException e) {
+            // exit
+        }
+    }
+
+    /**
+     * Checks on the running scans, then starts queued ones for the slots that opened up.
+     */
+    /*package*/ synchronized void tick() {
+        for (ZFSPool pool : new ArrayList<ZFSPool>(running.values())) {
+            ScanProgress p = read(pool);
+            if (p == null || !p.isScanning()) {
+                running.remove(pool.getName());
+                LOGGER.log(Level.FINE, "Scan of pool {0} is over: {1}", new Object[]{pool.getName(), p});
+            }
+        }
+
+        while (running.size() < maxConcurrent && !queued.isEmpty() && !closed) {
+            ZFSPool pool = queued.values().iterator().next();
+            String name = pool.getName();
+            queued.remove(name);
+
+            ScanProgress p = read(pool);
+            if (p == null)
+                continue;
+            if (!p.isScanning()) {
+                try {
+                    pool.startScrub();
+                } catch (ZFSException e) {
+                    LOGGER.log(Level.WARNING, "Failed to start scrubbing pool " + name, e);
+                    failures.put(name, e);
+                    continue;
+                }
+                LOGGER.log(Level.FINE, "Started scrubbing pool {0}", name);
+                p = read(pool);
+                if (p == null)
+                    continue;
+            }
+            running.put(name, pool);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads the progress of a pool, recording it.
+     *
+     * @return
+     *      null if it failed, which is recorded as a failure.
+     */
+    private ScanProgress read(ZFSPool pool) {
+        try {
+            ScanProgress p = pool.getScanProgress();
+            progress.put(pool.getName(), p);
+            return p;
+        } catch (ZFSException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the scan progress of pool " + pool.getName(), e);
+            failures.put(pool.getName(), e);
+            return null;
+        } catch (RuntimeException e) {
+            // say a configuration that doesn't decode; the pool mustn't stay running forever
+            LOGGER.log(Level.WARNING, "Failed to read the scan progress of pool " + pool.getName(), e);
+            ZFSException z = new ZFSException("Failed to read the scan progress of pool " + pool.getName(), ErrorCode.EZFS_UNKNOWN);
+            z.initCause(e);
+            failures.put(pool.getName(), z);
+            return null;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ScrubScheduler.class.getName());
+}
@@ -0,0 +1,136 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.libzfs.jna.libzfs;
+
+/**
+ * Shares and unshares many file systems with one update of the exports.
+ *
+ * <p>
+ * On OpenZFS, sharing a file system only stages the change and it takes a
+ * commit to rewrite the exports table and reload the NFS server. Calling
+ * {@link ZFSFileSystem#share()} in a loop does that commit every time, which
+ * gets slow with thousands of file systems. Collect them here instead and
+ * {@link #commit()} once. On the legacy ABI every share is applied right
+ * away anyway, so this is merely a loop.
+ *
+ * <p>
+ * Like the rest of libzfs, this is not thread-safe.
+ */
+public final class ShareBatch {
+    private static final int[] ALL_PROTOCOLS = {libzfs.SA_PROTOCOL_NFS, libzfs.SA_PROTOCOL_SMB, libzfs.SA_NO_PROTOCOL};
+
+    private final LibZFS library;
+    private final List<ZFSFileSystem> toShare = new ArrayList<ZFSFileSystem>();
+    private final List<ZFSFileSystem> toUnshare = new ArrayList<ZFSFileSystem>();
+
+    public ShareBatch(LibZFS library) {
+        this.library = library;
+    }
+
+    /**
+     * Schedules the file system to be shared over NFS and SMB, according to its
+     * sharenfs and sharesmb properties. It has to be mounted by the time of {@link #commit()}.
+     */
+    public ShareBatch share(ZFSFileSystem fs) {
+        toShare.add(fs);
+        return this;
+    }
+
+    /**
+     * Schedules the file system to be unshared.
+     */
+    public ShareBatch unshare(ZFSFileSystem fs) {
+        toUnshare.add(fs);
+        return this;
+    }
+
+    /**
+     * Number of file systems waiting for {@link #commit()}.
+     */
+    public int size() {
+        return toShare.size()+toUnshare.size();
+    }
+
+    /**
+     * Applies all the scheduled changes and empties the batch.
+     * A failure on one file system doesn't stop the others.
+     *
+     * @return
+     *      File system name to the failure, for the ones that failed.
+     *      Empty if all went well.
+     */
+    public Map<String,ZFSException> commit() {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        if (!library.is_libzfs_enabled("commit") || size()==0)
+            return failures;
+
+        String abi_thisfunc = "commit";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_share";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs-2.2")) {
+            for (ZFSFileSystem fs : toUnshare)
+                check(LIBZFS.zfs_unshare(fs.handle, null, ALL_PROTOCOLS), "unshare", fs, failures);
+            for (ZFSFileSystem fs : toShare)
+                check(LIBZFS.zfs_share(fs.handle, ALL_PROTOCOLS), "share", fs, failures);
+            LIBZFS.zfs_commit_shares(ALL_PROTOCOLS);
+        } else
+        if (abi.equals("openzfs") || abi.equals("legacy")) {
+            for (ZFSFileSystem fs : toUnshare) {
+                check(LIBZFS.zfs_unshare_nfs(fs.handle, null), "unshare", fs, failures);
+                check(LIBZFS.zfs_unshare_smb(fs.handle, null), "unshare", fs, failures);
+            }
+            for (ZFSFileSystem fs : toShare) {
+                check(LIBZFS.zfs_share_nfs(fs.handle), "share", fs, failures);
+                check(LIBZFS.zfs_share_smb(fs.handle), "share", fs, failures);
+            }
+            if (abi.equals("openzfs"))
+                LIBZFS.zfs_commit_all_shares();
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+
+        toShare.clear();
+        toUnshare.clear();
+        return failures;
+    }
+
+    private void check(int r, String op, ZFSFileSystem fs, Map<String,ZFSException> failures) {
+        if (r!=0 && !failures.containsKey(fs.getName()))
+            failures.put(fs.getName(), new ZFSException(library,"Failed to "+op+" "+fs.getName()));
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ShareBatch.class.getName());
+}
@@ -0,0 +1,293 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Space accounting numbers of a whole tree of file systems and volumes,
+ * collected in one walk.
+ *
+ * <p>
+ * Each dataset gets an ordinal in the depth-first order of the walk, and
+ * the numbers are kept column by column in primitive arrays indexed by that
+ * ordinal. Because of the depth-first order, the descendants of a dataset
+ * occupy the ordinals right after it, which makes roll-ups by subtree cheap.
+ *
+ * <p>
+ * The values are the raw numbers libzfs already fetched with each handle,
+ * so building a report costs one handle per dataset and no property ioctls.
+ * @see ZFSObject#getSpaceReport()
+ * @see LibZFS#getSpaceReport()
+ */
+public final class SpaceReport {
+    /**
+     * Numbers collected for each dataset.
+     */
+    public enum Column {
+        USED_BY_SNAPSHOTS("usedbysnapshots"),
+        USED_BY_DATASET("usedbydataset"),
+        USED_BY_CHILDREN("usedbychildren"),
+        USED_BY_REFRESERVATION("usedbyrefreservation"),
+        REFERENCED("referenced"),
+        LOGICAL_USED("logicalused"),
+        /**
+         * Compression ratio multiplied by 100, so 1.50x is 150.
+         * Ratios don't add up, so this can't be {@linkplain SpaceReport#sum(Column, int) summed}.
+         */
+        COMPRESS_RATIO("compressratio");
+
+        /**
+         * Native property name.
+         */
+        public final String property;
+
+        Column(String property) {
+            this.property = property;
+        }
+    }
+
+    private static final Column[] COLUMNS = Column.values();
+
+    private String[] names = new String[64];
+    private int[] parents = new int[64];
+    /**
+     * Ordinal right after the last descendant of each dataset.
+     */
+    private int[] ends = new int[64];
+    private final long[][] values = new long[COLUMNS.length][64];
+    private int size;
+
+    /**
+     * zfs_prop_t codes of the columns in the running libzfs, -1 if it doesn't have the property.
+     */
+    private final int[] codes = new int[COLUMNS.length];
+    /**
+     * Lazily computed prefix sums for {@link #sum(Column, int)}.
+     */
+    private final long[][] prefixSums = new long[COLUMNS.length][];
+    private final Map<String,Integer> ordinals = new HashMap<String,Integer>();
+
+    private SpaceReport(LibZFS library) {
+        for (Column c : COLUMNS) {
+            try {
+                codes[c.ordinal()] = library.getZfsPropertyCode(c.property);
+            } catch (IllegalArgumentException e) {
+                codes[c.ordinal()] = -1;    // e.g. logicalused on legacy ABI
+            }
+        }
+    }
+
+    /**
+     * Walks the given dataset and everything below it.
+     */
+    /*package*/ static SpaceReport build(LibZFS library, zfs_handle_t root) {
+        SpaceReport r = new SpaceReport(library);
+        r.add(root, -1);
+        return r.trim();
+    }
+
+    /**
+     * Walks all the pools.
+     */
+    /*package*/ static SpaceReport build(LibZFS library) {
+        final SpaceReport r = new SpaceReport(library);
+        LIBZFS.zfs_iter_root(library.getHandle(), new libzfs.zfs_iter_f() {
+            public int callback(zfs_handle_t handle, Pointer arg) {
+                try {
+                    r.add(handle, -1);
+                } finally {
+                    LIBZFS.zfs_close(handle);
+                }
+                return 0;
+            }
+        }, null);
+        return r.trim();
+    }
+
+    /**
+     * Records the dataset, then recursively its children.
+     */
+    private void add(zfs_handle_t handle, int parent) {
+        final int i = size++;
+        if (i == names.length)
+            grow();
+        names[i] = LIBZFS.zfs_get_name(handle);
+        parents[i] = parent;
+        for (int c=0; c<codes.length; c++)
+            if (codes[c] >= 0)
+                values[c][i] = LIBZFS.zfs_prop_get_int(handle, codes[c]);
+        ordinals.put(names[i], i);
+
+        LIBZFS.zfs_iter_filesystems(handle, new libzfs.zfs_iter_f() {
+            public int callback(zfs_handle_t child, Pointer arg) {
+                try {
+                    add(child, i);
+                } finally {
+                    LIBZFS.zfs_close(child);
+                }
+                return 0;
+            }
+        }, null);
+        ends[i] = size;
+    }
+
+    private void grow() {
+        int n = names.length*2;
+        names = Arrays.copyOf(names, n);
+        parents = Arrays.copyOf(parents, n);
+        ends = Arrays.copyOf(ends, n);
+        for (int c=0; c<values.length; c++)
+            values[c] = Arrays.copyOf(values[c], n);
+    }
+
+    private SpaceReport trim() {
+        names = Arrays.copyOf(names, size);
+        parents = Arrays.copyOf(parents, size);
+        ends = Arrays.copyOf(ends, size);
+        for (int c=0; c<values.length; c++)
+            values[c] = Arrays.copyOf(values[c], size);
+        return this;
+    }
+
+    /**
+     * Number of datasets in this report.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Name of the dataset at the given ordinal.
+     */
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * Finds the ordinal of the dataset.
+     *
+     * @return -1 if the dataset isn't in this report.
+     */
+    public int indexOf(String name) {
+        Integer i = ordinals.get(name);
+        return i==null ? -1 : i;
+    }
+
+    /**
+     * Ordinal of the parent dataset, or -1 for the dataset the walk started from.
+     */
+    public int getParent(int i) {
+        return parents[i];
+    }
+
+    /**
+     * The descendants of the dataset at <tt>i</tt> are at the ordinals from
+     * <tt>i+1</tt> (inclusive) to this (exclusive).
+     */
+    public int getSubtreeEnd(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Does the running libzfs know this property? If not, the column is all zeros.
+     */
+    public boolean isAvailable(Column c) {
+        return codes[c.ordinal()] >= 0;
+    }
+
+    /**
+     * Gets one value, in bytes except for {@link Column#COMPRESS_RATIO}.
+     */
+    public long get(Column c, int i) {
+        return values[c.ordinal()][i];
+    }
+
+    /**
+     * Gets the whole column, indexed by ordinals.
+     *
+     * @return a copy that the caller can modify.
+     */
+    public long[] getColumn(Column c) {
+        long[] v = values[c.ordinal()];
+        return Arrays.copyOf(v, v.length);
+    }
+
+    /**
+     * Adds up the column over the dataset at <tt>i</tt> and all its descendants,
+     * in constant time.
+     *
+     * <p>
+     * Note that {@link Column#USED_BY_CHILDREN} already accounts for the descendants,
+     * so roll-ups are meaningful for columns like {@link Column#USED_BY_SNAPSHOTS},
+     * {@link Column#USED_BY_DATASET} or {@link Column#REFERENCED}.
+     */
+    public long sum(Column c, int i) {
+        if (c == Column.COMPRESS_RATIO)
+            throw new IllegalArgumentException("Compression ratios can't be summed up");
+        long[] p = prefixSums(c);
+        return p[ends[i]] - p[i];
+    }
+
+    /**
+     * Adds up the column over the whole report.
+     */
+    public long total(Column c) {
+        if (c == Column.COMPRESS_RATIO)
+            throw new IllegalArgumentException("Compression ratios can't be summed up");
+        return prefixSums(c)[size];
+    }
+
+    private synchronized long[] prefixSums(Column c) {
+        long[] p = prefixSums[c.ordinal()];
+        if (p == null) {
+            long[] v = values[c.ordinal()];
+            p = new long[size+1];
+            for (int i=0; i<size; i++)
+                p[i+1] = p[i] + v[i];
+            prefixSums[c.ordinal()] = p;
+        }
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("NAME");
+        for (Column c : COLUMNS)
+            b.append('\t').append(c.property);
+        for (int i=0; i<size; i++) {
+            b.append('\n').append(names[i]);
+            for (Column c : COLUMNS)
+                b.append('\t').append(values[c.ordinal()][i]);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+import org.jvnet.solaris.libzfs.jna.zfs_userquota_prop_t;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Per-user or per-group space accounting of one file system, as
+ * reported by "zfs userspace" and "zfs groupspace".
+ *
+ * <p>
+ * Rows are kept column by column in primitive arrays, so that tables with
+ * hundreds of thousands of ids stay cheap. Domains (SID prefixes) repeat a lot
+ * and are stored once, with each row referring to them by index.
+ *
+ * <p>
+ * To poll, keep the previous table around and use {@link #changesSince(UserSpaceTable)}
+ * to only look at what moved.
+ * @see ZFSFileSystem#userspace(Type)
+ */
+public final class UserSpaceTable {
+    /**
+     * What is being reported.
+     */
+    public enum Type {
+        USER_USED(zfs_userquota_prop_t.ZFS_PROP_USERUSED),
+        USER_QUOTA(zfs_userquota_prop_t.ZFS_PROP_USERQUOTA),
+        GROUP_USED(zfs_userquota_prop_t.ZFS_PROP_GROUPUSED),
+        GROUP_QUOTA(zfs_userquota_prop_t.ZFS_PROP_GROUPQUOTA),
+        USER_OBJ_USED(zfs_userquota_prop_t.ZFS_PROP_USEROBJUSED),
+        USER_OBJ_QUOTA(zfs_userquota_prop_t.ZFS_PROP_USEROBJQUOTA),
+        GROUP_OBJ_USED(zfs_userquota_prop_t.ZFS_PROP_GROUPOBJUSED),
+        GROUP_OBJ_QUOTA(zfs_userquota_prop_t.ZFS_PROP_GROUPOBJQUOTA),
+        PROJECT_USED(zfs_userquota_prop_t.ZFS_PROP_PROJECTUSED),
+        PROJECT_QUOTA(zfs_userquota_prop_t.ZFS_PROP_PROJECTQUOTA),
+        PROJECT_OBJ_USED(zfs_userquota_prop_t.ZFS_PROP_PROJECTOBJUSED),
+        PROJECT_OBJ_QUOTA(zfs_userquota_prop_t.ZFS_PROP_PROJECTOBJQUOTA);
+
+        /*package*/ final zfs_userquota_prop_t prop;
+
+        Type(zfs_userquota_prop_t prop) {
+            this.prop = prop;
+        }
+
+        /**
+         * Native property name prefix, like "userquota@".
+         */
+        public String getPropertyPrefix() {
+            return prop.prefix;
+        }
+    }
+
+    private final Type type;
+
+    private String[] domains = new String[4];
+    private int domainCount;
+    private final Map<String,Integer> domainIndex = new HashMap<String,Integer>();
+
+    private int[] domainOf = new int[256];
+    private int[] rids = new int[256];
+    private long[] values = new long[256];
+    private int size;
+
+    /**
+     * (domain index, rid) to row, built on first lookup.
+     */
+    private Map<Long,Integer> rows;
+
+    private UserSpaceTable(Type type) {
+        this.type = type;
+    }
+
+    /*package*/ static UserSpaceTable build(LibZFS library, zfs_handle_t handle, String name, Type type) {
+        final UserSpaceTable t = new UserSpaceTable(type);
+        int r = LIBZFS.zfs_userspace(handle, type.prop.ordinal(), new libzfs.zfs_userspace_cb() {
+            public int callback(Pointer arg, String domain, int rid, long space) {
+                t.add(domain, rid, space);
+                return 0;
+            }
+        }, null);
+        if (r != 0)
+            throw new ZFSException(library,"Failed to get "+type.getPropertyPrefix()+" of "+name);
+        return t.trim();
+    }
+
+    private void add(String domain, int rid, long value) {
+        if (size==rids.length) {
+            int n = size*2;
+            domainOf = Arrays.copyOf(domainOf, n);
+            rids = Arrays.copyOf(rids, n);
+            values = Arrays.copyOf(values, n);
+        }
+        domainOf[size] = intern(domain);
+        rids[size] = rid;
+        values[size] = value;
+        size++;
+    }
+
+    private int intern(String domain) {
+        if (domain==null)
+            domain = "";
+        Integer i = domainIndex.get(domain);
+        if (i==null) {
+            if (domainCount==domains.length)
+                domains = Arrays.copyOf(domains, domainCount*2);
+            domains[domainCount] = domain;
+            domainIndex.put(domain, i = domainCount++);
+        }
+        return i;
+    }
+
+    private UserSpaceTable trim() {
+        domainOf = Arrays.copyOf(domainOf, size);
+        rids = Arrays.copyOf(rids, size);
+        values = Arrays.copyOf(values, size);
+        return this;
+    }
+
+    /**
+     * What this table reports.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Domain of the i-th row; "" for plain POSIX uids/gids.
+     */
+    public String getDomain(int i) {
+        check(i);
+        return domains[domainOf[i]];
+    }
+
+    /**
+     * uid, gid or project id of the i-th row (the RID part of a SID if the domain isn't empty).
+     */
+    public int getId(int i) {
+        check(i);
+        return rids[i];
+    }
+
+    /**
+     * Bytes (or objects, for the *_OBJ_* types) of the i-th row.
+     */
+    public long getValue(int i) {
+        check(i);
+        return values[i];
+    }
+
+    /**
+     * Copy of all the ids, in row order.
+     */
+    public int[] getIds() {
+        return Arrays.copyOf(rids, size);
+    }
+
+    /**
+     * Copy of all the values, in row order.
+     */
+    public long[] getValues() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Row of the given id, or -1 if it's not in this table.
+     */
+    public int indexOf(String domain, int id) {
+        Integer d = domainIndex.get(domain==null ? "" : domain);
+        if (d==null)
+            return -1;
+        if (rows==null) {
+            rows = new HashMap<Long,Integer>(size*2);
+            for (int i=0; i<size; i++)
+                rows.put(key(domainOf[i], rids[i]), i);
+        }
+        Integer i = rows.get(key(d, id));
+        return i==null ? -1 : i;
+    }
+
+    /**
+     * Row of the given POSIX uid/gid, or -1.
+     */
+    public int indexOf(int id) {
+        return indexOf("", id);
+    }
+
+    /**
+     * Value of the given POSIX uid/gid, or 0 if it's not in the table
+     * (which is what ZFS means by an absent entry.)
+     */
+    public long get(int id) {
+        int i = indexOf(id);
+        return i<0 ? 0 : values[i];
+    }
+
+    /**
+     * Rows that are new or whose value changed since the given earlier table
+     * of the same type. Ids that disappeared are included with the value 0.
+     */
+    public UserSpaceTable changesSince(UserSpaceTable previous) {
+        if (previous.type!=type)
+            throw new IllegalArgumentException("Can't compare "+type+" with "+previous.type);
+
+        UserSpaceTable d = new UserSpaceTable(type);
+        for (int i=0; i<size; i++) {
+            String domain = domains[domainOf[i]];
+            int j = previous.indexOf(domain, rids[i]);
+            if (j<0 || previous.values[j]!=values[i])
+                d.add(domain, rids[i], values[i]);
+        }
+        for (int j=0; j<previous.size; j++) {
+            String domain = previous.domains[previous.domainOf[j]];
+            if (indexOf(domain, previous.rids[j])<0)
+                d.add(domain, previous.rids[j], 0);
+        }
+        return d.trim();
+    }
+
+    private static long key(int domain, int rid) {
+        return ((long)domain<<32) | (rid&0xFFFFFFFFL);
+    }
+
+    private void check(int i) {
+        if (i<0 || i>=size)
+            throw new IndexOutOfBoundsException(i+" of "+size);
+    }
+
+    @Override
+    public String toString() {
+        return type+"["+size+" entries]";
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jvnet.solaris.libzfs.jna.vdev_aux_t;
+import org.jvnet.solaris.libzfs.jna.vdev_state_t;
+
+/**
+ * The vdevs of a pool as of one reading of its configuration: the root,
+ * the top-level vdevs (mirrors, raidz, draid, or plain disks) with their leaves
+ * under them, and the cache devices and spares.
+ *
+ * <p>
+ * Immutable. Vdevs can be looked up by guid and by path, and two trees of the
+ * same pool compared with {@link #diff(VdevTree)} to see what changed between them.
+ * @see ZFSPool#getVdevTree()
+ */
+public final class VdevTree {
+    /**
+     * What a vdev is used for.
+     */
+    public enum VdevClass {
+        NORMAL, LOG, SPECIAL, DEDUP, CACHE, SPARE
+    }
+
+    /**
+     * One vdev, which is either a leaf (a disk or a file) or a group of them.
+     */
+    public static final class Vdev {
+        private final String type;
+        private final long id;
+        private final long guid;
+        private final String path;
+        private final String devid;
+        private final VdevClass vdevClass;
+        private final Vdev parent;
+        private final List<Vdev> children;
+        private final Map<String,Object> config;
+        private final long[] stats;
+        private final vdev_aux_t[] auxes;
+
+        private Vdev(Map<String,Object> config, VdevClass vdevClass, Vdev parent, List<Vdev> all, vdev_aux_t[] auxes) {
+            this.config = config;
+            this.auxes = auxes;
+            this.type = string(config, "type");
+            this.id = number(config, "id", 0);
+            this.guid = number(config, "guid", 0);
+            this.path = string(config, "path");
+            this.devid = string(config, "devid");
+            this.parent = parent;
+            this.vdevClass = vdevClass;
+            Object s = config.get("vdev_stats");
+            if (s == null)
+                s = config.get("stats"); // before the rename
+            this.stats = s instanceof long[] ? (long[]) s : new long[0];
+            all.add(this);
+
+            List<Vdev> children = new ArrayList<Vdev>();
+            for (Map<String,Object> c : list(config, "children"))
+                children.add(new Vdev(c, parent == null ? classOf(c) : vdevClass, this, all, auxes));
+            this.children = Collections.unmodifiableList(children);
+        }
+
+        /**
+         * "root", "mirror", "raidz", "draid", "disk", "file", "replacing", "spare", "hole"...
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Position among its siblings.
+         */
+        public long getId() {
+            return id;
+        }
+
+        public long getGuid() {
+            return guid;
+        }
+
+        /**
+         * Device or file path of a leaf, or null.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public String getDevId() {
+            return devid;
+        }
+
+        /**
+         * Name like "zpool status" shows: the path of a leaf
+         * or "mirror-0" for a group.
+         */
+        public String getName() {
+            if (path != null)
+                return path;
+            if (parent == null || isLeaf())
+                return type;
+            String t = type;
+            if (t.equals("raidz") || t.equals("draid"))
+                t += number(config, "nparity", 1);
+            return t + "-" + id;
+        }
+
+        public VdevClass getVdevClass() {
+            return vdevClass;
+        }
+
+        /**
+         * The vdev this is in, or null for the root (and spares and cache devices.)
+         */
+        public Vdev getParent() {
+            return parent;
+        }
+
+        public List<Vdev> getChildren() {
+            return children;
+        }
+
+        public boolean isLeaf() {
+            return children.isEmpty() && !type.equals("root");
+        }
+
+        /**
+         * Parity of a raidz or draid.
+         */
+        public int getParity() {
+            return (int) number(config, "nparity", 0);
+        }
+
+        public vdev_state_t getState() {
+            return stat(STATE) < STATES.length ? STATES[(int) stat(STATE)] : vdev_state_t.VDEV_STATE_UNKNOWN;
+        }
+
+        /**
+         * Why the vdev is in a bad state.
+         */
+        public vdev_aux_t getAux() {
+            return stat(AUX) < auxes.length ? auxes[(int) stat(AUX)] : vdev_aux_t.VDEV_AUX_NONE;
+        }
+
+        /**
+         * Whether the vdev was taken offline on purpose.
+         */
+        public boolean isOffline() {
+            return number(config, "offline", 0) != 0;
+        }
+
+        /**
+         * Bytes allocated.
+         */
+        public long getAllocated() {
+            return stat(ALLOC);
+        }
+
+        /**
+         * Capacity in bytes.
+         */
+        public long getSpace() {
+            return stat(SPACE);
+        }
+
+        public long getReadErrors() {
+            return stat(READ_ERRORS);
+        }
+
+        public long getWriteErrors() {
+            return stat(WRITE_ERRORS);
+        }
+
+        public long getChecksumErrors() {
+            return stat(CHECKSUM_ERRORS);
+        }
+
+        public long getErrors() {
+            return getReadErrors() + getWriteErrors() + getChecksumErrors();
+        }
+
+        /**
+         * The whole vdev_stat_t, for numbers that don't have a getter.
+         */
+        public long[] getStats() {
+            return stats.clone();
+        }
+
+        /**
+         * Any value of the configuration of this vdev, decoded as {@link org.jvnet.solaris.nvlist.jna.nvlist_t#toMap()} does.
+         */
+        public Object getConfig(String key) {
+            return config.get(key);
+        }
+
+        private long stat(int index) {
+            return index < stats.length ? stats[index] : 0;
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " " + getState();
+        }
+    }
+
+    /*
+     * Indices into vdev_stat_t, which has had vs_esize since illumos 2012 and
+     * in all of OpenZFS. vs_ops and vs_bytes have 6 entries each.
+     */
+    private static final int STATE = 1;
+    private static final int AUX = 2;
+    private static final int ALLOC = 3;
+    private static final int SPACE = 4;
+    private static final int READ_ERRORS = 20;
+    private static final int WRITE_ERRORS = 21;
+    private static final int CHECKSUM_ERRORS = 22;
+
+    private static final vdev_state_t[] STATES = vdev_state_t.values();
+
+    /**
+     * vdev_aux_t by native value. OpenZFS inserted VDEV_AUX_UNSUP_FEAT in the
+     * middle, so from VDEV_AUX_SPARED on the numbers differ from OpenSolaris.
+     */
+    private static final vdev_aux_t[] LEGACY_AUXES = {
+        vdev_aux_t.VDEV_AUX_NONE, vdev_aux_t.VDEV_AUX_OPEN_FAILED, vdev_aux_t.VDEV_AUX_CORRUPT_DATA,
+        vdev_aux_t.VDEV_AUX_NO_REPLICAS, vdev_aux_t.VDEV_AUX_BAD_GUID_SUM, vdev_aux_t.VDEV_AUX_TOO_SMALL,
+        vdev_aux_t.VDEV_AUX_BAD_LABEL, vdev_aux_t.VDEV_AUX_VERSION_NEWER, vdev_aux_t.VDEV_AUX_VERSION_OLDER,
+        vdev_aux_t.VDEV_AUX_SPARED, vdev_aux_t.VDEV_AUX_ERR_EXCEEDED, vdev_aux_t.VDEV_AUX_IO_FAILURE,
+        vdev_aux_t.VDEV_AUX_BAD_LOG, vdev_aux_t.VDEV_AUX_EXTERNAL, vdev_aux_t.VDEV_AUX_SPLIT_POOL
+    };
+    private static final vdev_aux_t[] OPENZFS_AUXES = {
+        vdev_aux_t.VDEV_AUX_NONE, vdev_aux_t.VDEV_AUX_OPEN_FAILED, vdev_aux_t.VDEV_AUX_CORRUPT_DATA,
+        vdev_aux_t.VDEV_AUX_NO_REPLICAS, vdev_aux_t.VDEV_AUX_BAD_GUID_SUM, vdev_aux_t.VDEV_AUX_TOO_SMALL,
+        vdev_aux_t.VDEV_AUX_BAD_LABEL, vdev_aux_t.VDEV_AUX_VERSION_NEWER, vdev_aux_t.VDEV_AUX_VERSION_OLDER,
+        vdev_aux_t.VDEV_AUX_UNSUP_FEAT, vdev_aux_t.VDEV_AUX_SPARED, vdev_aux_t.VDEV_AUX_ERR_EXCEEDED,
+        vdev_aux_t.VDEV_AUX_IO_FAILURE, vdev_aux_t.VDEV_AUX_BAD_LOG, vdev_aux_t.VDEV_AUX_EXTERNAL,
+        vdev_aux_t.VDEV_AUX_SPLIT_POOL, vdev_aux_t.VDEV_AUX_BAD_ASHIFT, vdev_aux_t.VDEV_AUX_EXTERNAL_PERSIST,
+        vdev_aux_t.VDEV_AUX_ACTIVE, vdev_aux_t.VDEV_AUX_CHILDREN_OFFLINE, vdev_aux_t.VDEV_AUX_ASHIFT_TOO_BIG
+    };
+
+    private final Vdev root;
+    private final List<Vdev> spares;
+    private final List<Vdev> caches;
+    private final List<Vdev> all;
+    private final Map<Long,Vdev> byGuid;
+    private final Map<String,Vdev> byPath;
+
+    private VdevTree(Map<String,Object> vdevTree, vdev_aux_t[] auxes) {
+        List<Vdev> all = new ArrayList<Vdev>();
+        root = new Vdev(vdevTree, VdevClass.NORMAL, null, all, auxes);
+        spares = aux(vdevTree, "spares", VdevClass.SPARE, all, auxes);
+        caches = aux(vdevTree, "l2cache", VdevClass.CACHE, all, auxes);
+        this.all = Collections.unmodifiableList(all);
+
+        byGuid = new HashMap<Long,Vdev>(all.size() * 2);
+        byPath = new HashMap<String,Vdev>(all.size() * 2);
+        for (Vdev v : all) {
+            // a spare in use is also in the tree, which comes first and tells more
+            if (!byGuid.containsKey(v.guid))
+                byGuid.put(v.guid, v);
+            if (v.path != null && (!byPath.containsKey(v.path) || v.vdevClass != VdevClass.SPARE))
+                byPath.put(v.path, v);
+        }
+    }
+
+    /**
+     * Decodes the "vdev_tree" of a pool configuration.
+     *
+     * @param abi
+     *      Value of LIBZFS4J_ABI_vdev_aux, which tells how the aux states are numbered.
+     */
+    /*package*/ static VdevTree decode(Map<String,Object> vdevTree, String abi) {
+        return new VdevTree(vdevTree, abi.startsWith("openzfs") ? OPENZFS_AUXES : LEGACY_AUXES);
+    }
+
+    private static List<Vdev> aux(Map<String,Object> vdevTree, String key, VdevClass c, List<Vdev> all, vdev_aux_t[] auxes) {
+        List<Vdev> r = new ArrayList<Vdev>();
+        for (Map<String,Object> m : list(vdevTree, key))
+            r.add(new Vdev(m, c, null, all, auxes));
+        return Collections.unmodifiableList(r);
+    }
+
+    private static VdevClass classOf(Map<String,Object> topLevel) {
+        String bias = string(topLevel, "alloc_bias");
+        if ("special".equals(bias))
+            return VdevClass.SPECIAL;
+        if ("dedup".equals(bias))
+            return VdevClass.DEDUP;
+        if ("log".equals(bias) || number(topLevel, "is_log", 0) != 0)
+            return VdevClass.LOG;
+        return VdevClass.NORMAL;
+    }
+
+    private static String string(Map<String,Object> m, String key) {
+        Object o = m.get(key);
+        return o instanceof String ? (String) o : null;
+    }
+
+    private static long number(Map<String,Object> m, String key, long defaultValue) {
+        Object o = m.get(key);
+        return o instanceof Number ? ((Number) o).longValue() : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String,Object>> list(Map<String,Object> m, String key) {
+        Object o = m.get(key);
+        return o instanceof List ? (List<Map<String,Object>>) o : Collections.<Map<String,Object>>emptyList();
+    }
+
+    public Vdev getRoot() {
+        return root;
+    }
+
+    /**
+     * Top-level vdevs of the given class, in order.
+     */
+    public List<Vdev> getTopLevel(VdevClass c) {
+        if (c == VdevClass.SPARE)
+            return spares;
+        if (c == VdevClass.CACHE)
+            return caches;
+        List<Vdev> r = new ArrayList<Vdev>();
+        for (Vdev v : root.children)
+            if (v.vdevClass == c && !v.type.equals("hole"))
+                r.add(v);
+        return r;
+    }
+
+    public List<Vdev> getSpares() {
+        return spares;
+    }
+
+    public List<Vdev> getCaches() {
+        return caches;
+    }
+
+    /**
+     * All the disks and files.
+     */
+    public List<Vdev> getLeaves() {
+        List<Vdev> r = new ArrayList<Vdev>();
+        for (Vdev v : all)
+            if (v.isLeaf() && v.path != null)
+                r.add(v);
+        return r;
+    }
+
+    /**
+     * Every vdev, root first, then depth first, then spares and cache devices.
+     */
+    public List<Vdev> getAll() {
+        return all;
+    }
+
+    /**
+     * @return
+     *      null if there's no such vdev.
+     */
+    public Vdev get(long guid) {
+        return byGuid.get(guid);
+    }
+
+    /**
+     * @return
+     *      null if there's no such vdev.
+     */
+    public Vdev get(String path) {
+        return byPath.get(path);
+    }
+
+    /**
+     * Looks up a vdev the way the zpool command takes one: by path, by a path
+     * under /dev, or by guid.
+     *
+     * @return
+     *      null if there's no such vdev.
+     */
+    public Vdev find(String pathOrGuid) {
+        Vdev v = byPath.get(pathOrGuid);
+        if (v == null && !pathOrGuid.startsWith("/"))
+            v = byPath.get("/dev/" + pathOrGuid);
+        if (v == null) {
+            try {
+                v = byGuid.get(Long.parseLong(pathOrGuid));
+            } catch (NumberFormatException e) {
+                // not a guid
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Vdevs that are being replaced, which is over when the resilver is.
+     */
+    public List<Vdev> getReplacing() {
+        List<Vdev> r = new ArrayList<Vdev>();
+        for (Vdev v : all)
+            if ("replacing".equals(v.type))
+                r.add(v);
+        return r;
+    }
+
+    /**
+     * The scrub or resilver progress, read along with this tree.
+     */
+    public ScanProgress getScanProgress() {
+        Object stats = root.config.get("scan_stats");
+        return ScanProgress.decode(stats instanceof long[] ? (long[]) stats : null);
+    }
+
+    /**
+     * A difference between two trees of the same pool.
+     */
+    public static final class Change {
+        public enum Kind {
+            /**
+             * In the newer tree only, like a disk being attached.
+             */
+            ADDED,
+            /**
+             * In the older tree only.
+             */
+            REMOVED,
+            /**
+             * Under another parent, like a disk that is now being replaced.
+             */
+            MOVED,
+            STATE_CHANGED,
+            /**
+             * More read, write or checksum errors than before.
+             */
+            ERRORS_INCREASED
+        }
+
+        private final Kind kind;
+        private final Vdev before;
+        private final Vdev after;
+
+        private Change(Kind kind, Vdev before, Vdev after) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * The vdev in the older tree, or null if {@link Kind#ADDED}.
+         */
+        public Vdev getBefore() {
+            return before;
+        }
+
+        /**
+         * The vdev in the newer tree, or null if {@link Kind#REMOVED}.
+         */
+        public Vdev getAfter() {
+            return after;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+            case ADDED:         return "+" + after;
+            case REMOVED:       return "-" + before;
+            case STATE_CHANGED: return before.getName() + " " + before.getState() + " -> " + after.getState();
+            default:            return kind + " " + after;
+            }
+        }
+    }
+
+    /**
+     * Lists what changed since an earlier tree of the same pool, matching vdevs by guid.
+     * A vdev can have more than one change.
+     *
+     * @return
+     *      Empty if nothing changed.
+     */
+    public List<Change> diff(VdevTree older) {
+        List<Change> r = new ArrayList<Change>();
+        for (Vdev after : all) {
+            if (byGuid.get(after.guid) != after)
+                continue;   // the spares list entry of a spare in use
+            Vdev before = older.byGuid.get(after.guid);
+            if (before == null) {
+                r.add(new Change(Change.Kind.ADDED, null, after));
+                continue;
+            }
+            long p1 = before.parent != null ? before.parent.guid : 0;
+            long p2 = after.parent != null ? after.parent.guid : 0;
+            if (p1 != p2 || before.vdevClass != after.vdevClass)
+                r.add(new Change(Change.Kind.MOVED, before, after));
+            if (before.stat(STATE) != after.stat(STATE) || before.stat(AUX) != after.stat(AUX))
+                r.add(new Change(Change.Kind.STATE_CHANGED, before, after));
+            if (after.getErrors() > before.getErrors())
+                r.add(new Change(Change.Kind.ERRORS_INCREASED, before, after));
+        }
+        for (Vdev before : older.all)
+            if (older.byGuid.get(before.guid) == before && !byGuid.containsKey(before.guid))
+                r.add(new Change(Change.Kind.REMOVED, before, null));
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Vdev v : all) {
+            for (Vdev p = v.parent; p != null; p = p.parent)
+                b.append("  ");
+            b.append(v).append('\n');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jvnet.solaris.libzfs.jna.vdev_state_t;
+
+/**
+ * Waits for the vdevs of a pool to get to some state, such as after
+ * {@link ZFSPool#online(String, boolean)} or {@link ZFSPool#replace(String, String)}.
+ *
+ * <p>
+ * The pool is re-read with a backoff, from a short interval up to a longer one.
+ * Added to a {@link ZFSEventStream} as a listener, an event of the pool
+ * (a state change, a resilver finishing...) has it re-read the pool right away,
+ * so the backoff then only matters for what doesn't post events.
+ *
+ * <pre>
+ * VdevWaiter w = new VdevWaiter(pool);
+ * long since = System.currentTimeMillis();
+ * pool.replace("/dev/sdb1", "/dev/sdc1");
+ * w.awaitResilver(since, 1, TimeUnit.HOURS, null);
+ * </pre>
+ */
+public final class VdevWaiter implements ZFSEventListener {
+    private final ZFSPool pool;
+    private long initialDelay = 100;
+    private long maxDelay = 5000;
+
+    /**
+     * Set by events, so that the current wait is cut short.
+     */
+    private boolean woken;
+
+    /**
+     * Gets told how a resilver is going, each time the pool is read.
+     */
+    public interface ProgressListener {
+        /**
+         * @param rate
+         *      Bytes per second since the previous reading.
+         */
+        void onProgress(ScanProgress progress, double rate);
+    }
+
+    /**
+     * What to wait for.
+     */
+    public interface Condition {
+        boolean isMet(VdevTree tree);
+    }
+
+    public VdevWaiter(ZFSPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets how long to wait between readings of the pool: the first wait, which
+     * doubles every time up to the maximum.
+     */
+    public VdevWaiter setBackoff(long initial, long max, TimeUnit unit) {
+        this.initialDelay = Math.max(1, unit.toMillis(initial));
+        this.maxDelay = Math.max(initialDelay, unit.toMillis(max));
+        return this;
+    }
+
+    public void onEvent(ZFSEvent event) {
+        if (pool.getName().equals(event.getPoolName())) {
+            synchronized (this) {
+                woken = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until a condition holds.
+     *
+     * @return
+     *      The tree in which it did, or null if timed out.
+     */
+    public VdevTree await(Condition condition, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(condition, timeout, unit, null);
+    }
+
+    private VdevTree await(Condition condition, long timeout, TimeUnit unit, ProgressListener listener) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        long delay = initialDelay;
+        ScanProgress last = null;
+        while (true) {
+            VdevTree tree = pool.getVdevTree();
+            if (listener != null) {
+                ScanProgress p = tree.getScanProgress();
+                if (p.isScanning())
+                    listener.onProgress(p, p.getRate(last));
+                last = p;
+            }
+            if (condition.isMet(tree))
+                return tree;
+
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                return null;
+            synchronized (this) {
+                if (!woken)
+                    wait(Math.min(delay, left));
+                if (woken)
+                    delay = initialDelay; // things are moving; look more often again
+                else
+                    delay = Math.min(delay * 2, maxDelay);
+                woken = false;
+            }
+        }
+    }
+
+    /**
+     * Waits until a vdev is in the given state.
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal.
+     * @return
+     *      false if timed out.
+     */
+    public boolean awaitState(final String vdev, final vdev_state_t state, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(new Condition() {
+            public boolean isMet(VdevTree tree) {
+                VdevTree.Vdev v = tree.find(vdev);
+                return v != null && v.getState() == state;
+            }
+        }, timeout, unit) != null;
+    }
+
+    /**
+     * Waits until a vdev is gone from the pool, such as the old device of a replacement.
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal.
+     * @return
+     *      false if timed out.
+     */
+    public boolean awaitRemoval(final String vdev, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(new Condition() {
+            public boolean isMet(VdevTree tree) {
+                return tree.find(vdev) == null;
+            }
+        }, timeout, unit) != null;
+    }
+
+    /**
+     * Waits until a resilver that started no earlier than the given time is over,
+     * and nothing is being replaced any more.
+     *
+     * @param since
+     *      {@link System#currentTimeMillis()} from before the attach or replace.
+     *      A resilver that ended before this second doesn't count.
+     * @param listener
+     *      Told of the progress of the resilver as it runs. Can be null.
+     * @return
+     *      false if timed out.
+     */
+    public boolean awaitResilver(final long since, long timeout, TimeUnit unit, ProgressListener listener) throws InterruptedException {
+        return await(new Condition() {
+            public boolean isMet(VdevTree tree) {
+                ScanProgress p = tree.getScanProgress();
+                if (p.isScanning() || !tree.getReplacing().isEmpty())
+                    return false;
+                return p.getFunction() == ScanProgress.Function.RESILVER
+                    && p.getEndTime() != null && p.getEndTime().getTime() >= since / 1000 * 1000;
+            }
+        }, timeout, unit, listener) != null;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+
+/**
+ * ZFS bookmark.
+ *
+ * <p>
+ * A bookmark remembers the point in time of a snapshot without pinning its
+ * blocks, so it can be the "from" side of {@link ZFSSnapshot#send(ZFSObject, java.io.OutputStream)}
+ * long after the snapshot itself is gone.
+ * @see ZFSSnapshot#createBookmark(String)
+ */
+public final class ZFSBookmark extends ZFSObject {
+    /*package*/ ZFSBookmark(LibZFS parent, zfs_handle_t handle) {
+        super(parent, handle);
+    }
+
+    /**
+     * Gets the name of the bookmark itself, like "bar" for "rpool/foo#bar".
+     */
+    public String getBookmarkName() {
+        return getName().substring(getName().indexOf('#')+1);
+    }
+
+    /**
+     * Gets the name of the file system or volume this bookmark belongs to, like "rpool/foo" for "rpool/foo#bar".
+     */
+    public String getFileSystemName() {
+        return getName().substring(0,getName().indexOf('#'));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An event from the ZFS kernel module, such as a vdev changing state,
+ * a scrub finishing, or a dataset being created.
+ *
+ * <p>
+ * The event is the decoded nvlist as is; the accessors below merely pick
+ * the commonly used members.
+ * @see ZFSEventStream
+ */
+public final class ZFSEvent {
+    /**
+     * A vdev changed state. See {@link #getVdevPath()} and {@link #getVdevState()}.
+     */
+    public static final String CLASS_STATECHANGE = "resource.fs.zfs.statechange";
+    public static final String CLASS_SCRUB_START = "sysevent.fs.zfs.scrub_start";
+    public static final String CLASS_SCRUB_FINISH = "sysevent.fs.zfs.scrub_finish";
+    public static final String CLASS_RESILVER_START = "sysevent.fs.zfs.resilver_start";
+    public static final String CLASS_RESILVER_FINISH = "sysevent.fs.zfs.resilver_finish";
+    /**
+     * An administrative action was logged to the pool history, such as a
+     * dataset being created or destroyed. See {@link #getHistoryInternalName()}.
+     */
+    public static final String CLASS_HISTORY = "sysevent.fs.zfs.history_event";
+
+    private final Map<String,Object> attributes;
+
+    /**
+     * @param attributes
+     *      The event nvlist decoded as by {@link org.jvnet.solaris.nvlist.jna.nvlist_t#toMap()}.
+     */
+    public ZFSEvent(Map<String,Object> attributes) {
+        this.attributes = Collections.unmodifiableMap(new LinkedHashMap<String,Object>(attributes));
+    }
+
+    /**
+     * All the members of the event.
+     */
+    public Map<String,Object> getAttributes() {
+        return attributes;
+    }
+
+    public Object get(String name) {
+        return attributes.get(name);
+    }
+
+    /**
+     * Like "sysevent.fs.zfs.scrub_finish". See the CLASS_* constants.
+     */
+    public String getEventClass() {
+        return getString("class");
+    }
+
+    public String getPoolName() {
+        return getString("pool");
+    }
+
+    /**
+     * @return null if the event isn't about a pool.
+     */
+    public Long getPoolGuid() {
+        return getLong("pool_guid");
+    }
+
+    /**
+     * When the event was posted, or null if unknown.
+     */
+    public Date getTime() {
+        Object t = attributes.get("time");
+        if (t instanceof long[] && ((long[])t).length==2) {
+            long[] st = (long[])t;  // seconds, nanoseconds
+            return new Date(st[0]*1000+st[1]/1000000);
+        }
+        return null;
+    }
+
+    /**
+     * Device path of the vdev the event is about, or null.
+     */
+    public String getVdevPath() {
+        return getString("vdev_path");
+    }
+
+    /**
+     * New state of the vdev for {@link #CLASS_STATECHANGE} (a vdev_state_t ordinal), or null.
+     */
+    public Long getVdevState() {
+        return getLong("vdev_state");
+    }
+
+    /**
+     * For {@link #CLASS_HISTORY}, the action such as "create", "destroy" or "snapshot".
+     */
+    public String getHistoryInternalName() {
+        return getString("history_internal_name");
+    }
+
+    /**
+     * For {@link #CLASS_HISTORY}, the dataset that was acted upon.
+     */
+    public String getHistoryDataSetName() {
+        return getString("history_dsname");
+    }
+
+    private String getString(String name) {
+        Object o = attributes.get(name);
+        return o instanceof String ? (String)o : null;
+    }
+
+    private Long getLong(String name) {
+        Object o = attributes.get(name);
+        return o instanceof Number ? ((Number)o).longValue() : null;
+    }
+
+    @Override
+    public String toString() {
+        return getEventClass()+attributes;
+    }
+}
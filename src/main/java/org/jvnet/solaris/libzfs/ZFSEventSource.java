@@ -0,0 +1,46 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where a {@link ZFSEventStream} gets its events from.
+ *
+ * <p>
+ * {@link LibZFS#openEventSource()} gives the one that reads from the kernel;
+ * other implementations can replay recorded events.
+ */
+public interface ZFSEventSource extends Closeable {
+    /**
+     * Blocks until the next event is available.
+     *
+     * @return
+     *      null if there will be no more events, for example because the source was closed.
+     */
+    ZFSEvent next() throws IOException;
+
+    /**
+     * Number of events lost so far because they were not read quickly enough.
+     */
+    long getDroppedCount();
+}
@@ -0,0 +1,190 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers ZFS events to {@link ZFSEventListener}s as they happen, so that
+ * changes can be noticed without polling pools and properties.
+ *
+ * <p>
+ * One thread reads from the {@link ZFSEventSource} and another calls the
+ * listeners, with a bounded queue in between. If the listeners fall behind
+ * and the queue fills up, the oldest queued events are discarded and counted
+ * in {@link #getDroppedCount()}, so that a stuck listener can't make the
+ * kernel queue overflow.
+ *
+ * <pre>
+ * ZFSEventStream s = new ZFSEventStream(zfs.openEventSource(), 1024);
+ * s.addListener(new ZFSEventListener() {
+ *     public void onEvent(ZFSEvent e) {
+ *         if (ZFSEvent.CLASS_STATECHANGE.equals(e.getEventClass())) ...
+ *     }
+ * });
+ * s.start();
+ * </pre>
+ */
+public final class ZFSEventStream implements Closeable {
+    private final ZFSEventSource source;
+    private final BlockingQueue<ZFSEvent> queue;
+    private final List<ZFSEventListener> listeners = new CopyOnWriteArrayList<ZFSEventListener>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread reader;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * @param source
+     *      Where the events come from. Note that {@link LibZFS#openEventSource()}
+     *      gives null where there are no events to read.
+     * @param capacity
+     *      Number of events that can wait for the listeners.
+     */
+    public ZFSEventStream(ZFSEventSource source, int capacity) {
+        if (source == null)
+            throw new IllegalArgumentException("No event source");
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<ZFSEvent>(capacity);
+
+        reader = new Thread("ZFS event reader") {
+            @Override
+            public void run() {
+                read();
+            }
+        };
+        reader.setDaemon(true);
+        dispatcher = new Thread("ZFS event dispatcher") {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        dispatcher.setDaemon(true);
+    }
+
+    public void addListener(ZFSEventListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(ZFSEventListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Starts delivering events.
+     */
+    public void start() {
+        dispatcher.start();
+        reader.start();
+    }
+
+    private void read() {
+        try {
+            ZFSEvent e;
+            while (!closed && (e=source.next())!=null) {
+                while (!queue.offer(e)) {
+                    if (queue.poll()!=null)
+                        dropped.incrementAndGet();
+                }
+            }
+        } catch (IOException x) {
+            if (!closed)
+                LOGGER.log(Level.WARNING, "Failed to read ZFS events", x);
+        } finally {
+            closed = true;
+            dispatcher.interrupt();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            ZFSEvent e = queue.poll();
+            if (e==null) {
+                if (closed) {
+                    // the reader may have queued one more right before closing
+                    e = queue.poll();
+                    if (e==null)
+                        return;
+                } else {
+                    try {
+                        e = queue.poll(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException x) {
+                        // woken up to check for closed
+                    }
+                    if (e==null)
+                        continue;
+                }
+            }
+            for (ZFSEventListener l : listeners) {
+                try {
+                    l.onEvent(e);
+                } catch (RuntimeException x) {
+                    LOGGER.log(Level.WARNING, "ZFS event listener "+l+" failed on "+e, x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of events lost, either in the source or because the listeners
+     * didn't keep up.
+     */
+    public long getDroppedCount() {
+        return dropped.get()+source.getDroppedCount();
+    }
+
+    /**
+     * Whether events are still coming.
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Waits until all the events of a finite source have been delivered.
+     */
+    public void join() throws InterruptedException {
+        reader.join();
+        dispatcher.join();
+    }
+
+    /**
+     * Stops the delivery and closes the source.
+     */
+    public void close() throws IOException {
+        closed = true;
+        source.close();
+        dispatcher.interrupt();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ZFSEventStream.class.getName());
+}
@@ -20,6 +20,7 @@
  */
 package org.jvnet.solaris.libzfs;
 
+import static org.jvnet.solaris.jna.libc.*;
 import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
 
 import org.jvnet.solaris.libzfs.jna.libzfs_handle_t;
@@ -38,15 +39,204 @@ public class ZFSException extends RuntimeException {
 
     private final ErrorCode code;
 
+    /**
+     * What was being done, and to which dataset, when known.
+     */
+    private String operation;
+    private String dataSetName;
+
+    /**
+     * Description of an error left in a {@link LibZFS} handle. Batch operations,
+     * which {@link #suppressStackTraces(boolean) suppress stack traces} since they
+     * create many exceptions that nobody looks at, leave reading it to
+     * {@link #getMessage()}; until then these are set, and afterwards {@link #description} is.
+     */
+    private transient LibZFS zfs;
+    private transient libzfs_handle_t handle;
+    private int errno;
+    private String description;
+
     /* package */ZFSException(LibZFS zfs) {
         this(zfs,null);
     }
 
     /*package*/ ZFSException(LibZFS zfs, String message) {
-        super((message==null?"":message+" : ")+LIBZFS.libzfs_error_description(zfs.getHandle()));
+        this(zfs.getHandle(), zfs, message);
+    }
+
+    private ZFSException(libzfs_handle_t h, LibZFS zfs, String message) {
+        super(message);
+        errno = LIBZFS.libzfs_errno(h);
+        code = zfs.decodeError(errno);
+        if (suppressed.get() != null) {
+            this.zfs = zfs;
+            this.handle = h;
+        } else {
+            description = LIBZFS.libzfs_error_description(h);
+        }
+    }
+
+    /**
+     * Another exception for the same error, see {@link #copy()}.
+     */
+    private ZFSException(ZFSException e) {
+        super(e.getPlainMessage());
+        synchronized (e) {
+            code = e.code;
+            errno = e.errno;
+            zfs = e.zfs;
+            handle = e.handle;
+            description = e.description;
+        }
+    }
+
+    /**
+     * For failures reported as plain errno values, like those of libzfs_core
+     * and the C library, which don't leave anything in the {@link LibZFS} handle.
+     */
+    /*package*/ ZFSException(String message, int errno) {
+        super(message+" : "+LIBC.strerror(errno));
+        code = fromErrno(errno);
+    }
+
+    /**
+     * For subclasses that work out the error code themselves.
+     */
+    protected ZFSException(String message, ErrorCode code) {
+        super(message);
+        this.code = code;
+    }
 
-        final libzfs_handle_t h = zfs.getHandle();
-        code = ErrorCode.fromCode(LIBZFS.libzfs_errno(h));
+    /**
+     * Records what failed, for batch reports.
+     *
+     * @return this
+     */
+    public ZFSException withContext(String operation, String dataSetName) {
+        this.operation = operation;
+        this.dataSetName = dataSetName;
+        return this;
+    }
+
+    /**
+     * What was being done, like "destroy". null if not known.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * The dataset, snapshot or bookmark it failed on. null if not known.
+     */
+    public String getDataSetName() {
+        return dataSetName;
+    }
+
+    private static volatile boolean stackTraces = !"false".equals(getSetting("LIBZFS4J_EXCEPTION_STACKTRACES"));
+
+    private static final ThreadLocal<Boolean> suppressed = new ThreadLocal<Boolean>();
+
+    private static String getSetting(String key) {
+        String v = System.getProperty(key);
+        return v != null ? v : System.getenv(key);
+    }
+
+    /**
+     * Turns stack traces of exceptions created from now on off or back on
+     * for the whole process. They are on unless LIBZFS4J_EXCEPTION_STACKTRACES
+     * is "false".
+     */
+    public static void setStackTraces(boolean enabled) {
+        stackTraces = enabled;
+    }
+
+    /**
+     * Turns stack traces off or back on for exceptions created by this thread,
+     * for code that expects to collect a lot of them, like batch operations
+     * reporting each name that failed. Filling in a stack trace is most of what
+     * creating an exception costs.
+     *
+     * <pre>
+     * boolean old = ZFSException.suppressStackTraces(true);
+     * try {
+     *     ...
+     * } finally {
+     *     ZFSException.suppressStackTraces(old);
+     * }
+     * </pre>
+     *
+     * @return
+     *      Whether they were suppressed before.
+     */
+    public static boolean suppressStackTraces(boolean suppress) {
+        boolean old = suppressed.get() != null;
+        if (suppress)
+            suppressed.set(Boolean.TRUE);
+        else
+            suppressed.remove();
+        return old;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (!stackTraces || suppressed.get() != null)
+            return this;
+        return super.fillInStackTrace();
+    }
+
+    private static ErrorCode fromErrno(int errno) {
+        switch (errno) {
+        case EPERM:
+        case EACCES:    return ErrorCode.EZFS_PERM;
+        case ENOENT:    return ErrorCode.EZFS_NOENT;
+        case EEXIST:    return ErrorCode.EZFS_EXISTS;
+        case EBUSY:     return ErrorCode.EZFS_BUSY;
+        case ENOMEM:    return ErrorCode.EZFS_NOMEM;
+        case ENOSPC:    return ErrorCode.EZFS_NOSPC;
+        case EIO:       return ErrorCode.EZFS_IO;
+        case EINTR:     return ErrorCode.EZFS_INTR;
+        case EROFS:     return ErrorCode.EZFS_DSREADONLY;
+        case EXDEV:     return ErrorCode.EZFS_CROSSTARGET;
+        default:        return ErrorCode.EZFS_UNKNOWN;
+        }
+    }
+
+    /**
+     * Another exception for the same error, for when one failure has to be
+     * reported under many names, each with its own {@link #withContext(String, String) context}.
+     */
+    /*package*/ ZFSException copy() {
+        return new ZFSException(this);
+    }
+
+    private String getPlainMessage() {
+        return super.getMessage();
+    }
+
+    @Override
+    public String getMessage() {
+        String message = getPlainMessage();
+        String d = getDescription();
+        if (d == null)
+            return message;
+        return (message==null?"":message+" : ")+d;
+    }
+
+    /**
+     * Reads the description of the error from the handle it was left in, for
+     * exceptions of batch operations. If the handle has since been disposed of
+     * or has gone on to another error, what it says is no longer about this one,
+     * so only the code is given.
+     */
+    private synchronized String getDescription() {
+        if (zfs != null) {
+            libzfs_handle_t h = handle;
+            boolean current = zfs.getHandle() == h && LIBZFS.libzfs_errno(h) == errno;
+            description = current ? LIBZFS.libzfs_error_description(h) : code.toString();
+            zfs = null;
+            handle = null;
+        }
+        return description;
     }
 
     /**
@@ -57,7 +247,10 @@ public class ZFSException extends RuntimeException {
     }
 
     public String toString() {
-        return super.toString() + " " + code;
+        String s = super.toString() + " " + code;
+        if (dataSetName != null)
+            s += " (" + (operation != null ? operation + " " : "") + dataSetName + ")";
+        return s;
     }
 
 }
@@ -22,11 +22,18 @@ package org.jvnet.solaris.libzfs;
 
 import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
 
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
+
 import java.io.File;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
 import org.jvnet.solaris.libzfs.jna.zfs_prop_t;
+import org.jvnet.solaris.libzfs.jna.zfs_userquota_prop_t;
 import org.jvnet.solaris.mount.MountFlags;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
 
 /**
  * ZFS file system.
@@ -127,4 +134,61 @@ public final class ZFSFileSystem extends ZFSObject {
             throw new ZFSException(library);
         }
     }
+
+    /**
+     * Reports per-user or per-group space usage or quotas of this file system,
+     * like "zfs userspace" / "zfs groupspace" do.
+     */
+    public UserSpaceTable userspace(UserSpaceTable.Type type) {
+        return UserSpaceTable.build(library, handle, getName(), type);
+    }
+
+    /**
+     * Sets quotas of many users at once.
+     *
+     * @param quotas
+     *      uid to the quota in bytes. 0 removes the quota.
+     */
+    public void setUserQuotas(Map<Integer,Long> quotas) {
+        setQuotas(zfs_userquota_prop_t.ZFS_PROP_USERQUOTA, quotas);
+    }
+
+    /**
+     * Sets quotas of many groups at once.
+     *
+     * @param quotas
+     *      gid to the quota in bytes. 0 removes the quota.
+     */
+    public void setGroupQuotas(Map<Integer,Long> quotas) {
+        setQuotas(zfs_userquota_prop_t.ZFS_PROP_GROUPQUOTA, quotas);
+    }
+
+    private void setQuotas(zfs_userquota_prop_t prop, Map<Integer,Long> quotas) {
+        if (quotas.isEmpty())
+            return;
+
+        String abi_thisfunc = "setQuotas";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_prop_set_list";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            nvlist_t props = nvlist_t.alloc(NV_UNIQUE_NAME);
+            for (Map.Entry<Integer,Long> e : quotas.entrySet())
+                props.put(prop.prefix+e.getKey(), String.valueOf(e.getValue()));
+            if (LIBZFS.zfs_prop_set_list(handle, props) != 0)
+                throw new ZFSException(library,"Failed to set "+quotas.size()+" "+prop.prefix+" properties on "+getName());
+        } else
+        if (abi.equals("legacy")) {
+            // one ioctl per property
+            for (Map.Entry<Integer,Long> e : quotas.entrySet())
+                setProperty(prop.prefix+e.getKey(), String.valueOf(e.getValue()));
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ZFSFileSystem.class.getName());
 }
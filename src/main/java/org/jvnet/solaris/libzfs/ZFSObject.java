@@ -21,6 +21,7 @@
 package org.jvnet.solaris.libzfs;
 
 import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -78,6 +79,7 @@ public abstract class ZFSObject implements Comparable<ZFSObject>, ZFSContainer {
         case FILESYSTEM:    return new ZFSFileSystem(parent,handle);
         case SNAPSHOT:      return new ZFSSnapshot(parent,handle);
         case VOLUME:        return new ZFSVolume(parent,handle);
+        case BOOKMARK:      return new ZFSBookmark(parent,handle);
         default:            throw new AssertionError();
         }
     }
@@ -160,6 +162,37 @@ public abstract class ZFSObject implements Comparable<ZFSObject>, ZFSContainer {
         return target;
     }
 
+    /**
+     * Creates a clone from this snapshot, choosing what to do with it afterward.
+     *
+     * <p>
+     * This method fails if this {@link ZFSObject} is not a snapshot.
+     *
+     * @param props
+     *      ZFS properties to be set on the clone. Can be null.
+     * @param mount
+     *      Whether to mount the clone.
+     * @param shares
+     *      If non-null, the clone is added to this batch and gets shared when it's
+     *      {@linkplain ShareBatch#commit() committed}. If null, the clone isn't shared.
+     */
+    public ZFSFileSystem clone(String fullDestinationName, Map<String,String> props, boolean mount, ShareBatch shares) {
+        nvlist_t nvl = null;
+        if (props!=null) {
+            nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+            for (Map.Entry<String,String> e : props.entrySet())
+                nvl.put(e.getKey(), e.getValue());
+        }
+        if (LIBZFS.zfs_clone(handle, fullDestinationName, nvl) != 0)
+            throw new ZFSException(library,"Failed to clone "+getName()+" to "+fullDestinationName);
+        ZFSFileSystem target = library.open(fullDestinationName, ZFSFileSystem.class);
+        if (mount)
+            target.mount();
+        if (shares!=null)
+            shares.share(target);
+        return target;
+    }
+
     /**
      * Creates a nested file system.
      *
@@ -278,8 +311,21 @@ public abstract class ZFSObject implements Comparable<ZFSObject>, ZFSContainer {
 
     /**
      * Wipes out this dataset and all its data, optionally recursively.
+     *
+     * <p>
+     * A recursive destroy of a file system or volume goes through {@link DestroyPlanner},
+     * which batches the snapshots and destroys independent subtrees in parallel.
+     * It does so only when both LIBZFS4J_ABI_zfs_destroy and LIBZFS4J_ABI_zfs_destroy_snaps
+     * are "openzfs"; otherwise the datasets go one by one through {@link #destroy()},
+     * which honours those settings.
      */
     public void destroy(boolean recursive) {
+        if (recursive && !(this instanceof ZFSSnapshot)
+                && library.getFeature("LIBZFS4J_ABI_zfs_destroy").equals("openzfs")
+                && library.getFeature("LIBZFS4J_ABI_zfs_destroy_snaps").equals("openzfs")) {
+            new DestroyPlanner(library).destroy(this).throwIfFailed();
+            return;
+        }
         if(recursive) {
             for (ZFSObject child : children())
                 child.destroy(recursive);
@@ -414,6 +460,29 @@ public abstract class ZFSObject implements Comparable<ZFSObject>, ZFSContainer {
         return ((ret != 0) ? null : propbuf.getString(0));
     }
 
+    /**
+     * Gets the raw numeric value of a native property, such as "used" in bytes
+     * rather than "1.2G".
+     *
+     * <p>
+     * The value comes from the properties libzfs already fetched when this
+     * handle was opened, so this doesn't go to the kernel.
+     *
+     * @param name
+     *      Native property name like "userrefs" or "usedbysnapshots".
+     */
+    public long getNumericProperty(String name) {
+        return LIBZFS.zfs_prop_get_int(handle, library.getZfsPropertyCode(name));
+    }
+
+    /**
+     * Collects the space accounting numbers of this dataset and all the
+     * file systems and volumes below it in one walk.
+     */
+    public SpaceReport getSpaceReport() {
+        return SpaceReport.build(library, handle);
+    }
+
     public Hashtable<String, String> getUserProperty(Collection<String> keys) {
         // don't we need to release userProps later?
         Hashtable<String, String> map = new Hashtable<String, String>();
@@ -523,6 +592,20 @@ public abstract class ZFSObject implements Comparable<ZFSObject>, ZFSContainer {
      */
     public Set<ZFSSnapshot> snapshots() {
         final Set<ZFSSnapshot> set = new TreeSet<ZFSSnapshot>();
+        iterSnapshots(library, handle, new libzfs.zfs_iter_f() {
+            public int callback(zfs_handle_t handle, Pointer arg) {
+                set.add((ZFSSnapshot)ZFSObject.create(library, handle));
+                return 0;
+            }
+        });
+        return set;
+    }
+
+    /**
+     * Passes the raw handles of the snapshots of the dataset to the callback,
+     * which takes over the handles.
+     */
+    /*package*/ static void iterSnapshots(LibZFS library, zfs_handle_t handle, libzfs.zfs_iter_f callback) {
         String abi_thisfunc = "snapshots";
         String abi_toggle = "LIBZFS4J_ABI_zfs_iter_snapshots";
         String abi = library.getFeature(abi_toggle);
@@ -530,25 +613,56 @@ public abstract class ZFSObject implements Comparable<ZFSObject>, ZFSContainer {
             LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
         } else
         if (abi.equals("openzfs")) {
-            LIBZFS.zfs_iter_snapshots(handle, false, new libzfs.zfs_iter_f() {
-                public int callback(zfs_handle_t handle, Pointer arg) {
-                    set.add((ZFSSnapshot)ZFSObject.create(library, handle));
-                    return 0;
-                }
-            }, null);
+            LIBZFS.zfs_iter_snapshots(handle, false, callback, null);
         } else
         if (abi.equals("legacy")) {
-            LIBZFS.zfs_iter_snapshots(handle, new libzfs.zfs_iter_f() {
+            LIBZFS.zfs_iter_snapshots(handle, callback, null);
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    /**
+     * Obtain all bookmarks of this file system or volume.
+     *
+     * @return can be empty but never null.
+     */
+    public List<ZFSBookmark> bookmarks() {
+        final List<ZFSBookmark> r = new ArrayList<ZFSBookmark>();
+        bookmarks(new ZFSVisitor<ZFSBookmark>() {
+            public boolean visit(ZFSBookmark b) {
+                r.add(b);
+                return true;
+            }
+        });
+        return r;
+    }
+
+    /**
+     * Passes the bookmarks of this file system or volume to the visitor one by one
+     * as libzfs iterates them, without collecting them first.
+     */
+    public void bookmarks(final ZFSVisitor<? super ZFSBookmark> visitor) {
+        String abi_thisfunc = "bookmarks";
+        String abi_toggle = "LIBZFS4J_ABI_libzfs_core";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            LIBZFS.zfs_iter_bookmarks(handle, new libzfs.zfs_iter_f() {
                 public int callback(zfs_handle_t handle, Pointer arg) {
-                    set.add((ZFSSnapshot)ZFSObject.create(library, handle));
-                    return 0;
+                    return visitor.visit((ZFSBookmark)ZFSObject.create(library, handle)) ? 0 : 1;
                 }
             }, null);
+        } else
+        if (abi.equals("legacy")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' which has no bookmarks");
         } else {
             LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
             throw new ZFSException(library);
         }
-        return set;
     }
 
     /**
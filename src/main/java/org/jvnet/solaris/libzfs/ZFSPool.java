@@ -21,10 +21,26 @@
 package org.jvnet.solaris.libzfs;
 
 import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+import static org.jvnet.solaris.libzfs.jna.libzfs_core.LIBZFS_CORE;
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.BooleanByReference;
+import org.jvnet.solaris.jna.EnumByReference;
+import org.jvnet.solaris.jna.PtrByReference;
 import org.jvnet.solaris.libzfs.jna.libzfs;
+import org.jvnet.solaris.libzfs.jna.pool_scrub_type_t;
+import org.jvnet.solaris.libzfs.jna.vdev_state_t;
 import org.jvnet.solaris.libzfs.jna.zpool_handle_t;
 import org.jvnet.solaris.libzfs.jna.zpool_prop_t;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
 
 import com.sun.jna.Memory;
 import com.sun.jna.NativeLong;
@@ -39,6 +55,10 @@ public final class ZFSPool {
     /*package*/ final LibZFS library;
     /*package*/ zpool_handle_t handle;
     private final String name;
+    /**
+     * Dataset names looked up by {@link #errorLog(int)}, by their object numbers.
+     */
+    private final Map<Long,String> dataSetNames = ErrorLogResolver.createCache();
 
     ZFSPool(final LibZFS parent, final zpool_handle_t handle) {
         if (!parent.is_libzfs_enabled("ZFSPool")) {
@@ -147,6 +167,379 @@ public final class ZFSPool {
             check(LIBZFS.zpool_export(handle,force));
     }
 
+    /**
+     * Starts scrubbing this pool, like "zpool scrub". Resumes a paused scrub.
+     */
+    public void startScrub() {
+        scan("startScrub", libzfs.POOL_SCAN_SCRUB, libzfs.POOL_SCRUB_NORMAL);
+    }
+
+    /**
+     * Pauses the scrub going on, like "zpool scrub -p".
+     * {@link #startScrub()} picks up from where it stopped.
+     * Does nothing with the legacy ABI, which can't pause a scrub.
+     */
+    public void pauseScrub() {
+        scan("pauseScrub", libzfs.POOL_SCAN_SCRUB, libzfs.POOL_SCRUB_PAUSE);
+    }
+
+    /**
+     * Stops the scrub going on, like "zpool scrub -s".
+     */
+    public void cancelScrub() {
+        scan("cancelScrub", libzfs.POOL_SCAN_NONE, libzfs.POOL_SCRUB_NORMAL);
+    }
+
+    private void scan(String abi_thisfunc, int func, int cmd) {
+        String abi_toggle = "LIBZFS4J_ABI_zpool_scan";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            check(LIBZFS.zpool_scan(handle, func, cmd));
+        } else
+        if (abi.equals("legacy")) {
+            if (cmd == libzfs.POOL_SCRUB_PAUSE) {
+                /* zpool_scrub() can only start or stop, so the scrub keeps going */
+                LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - scrubs can't be paused in this ABI");
+                return;
+            }
+            check(LIBZFS.zpool_scrub(handle, (func == libzfs.POOL_SCAN_NONE ? pool_scrub_type_t.POOL_SCRUB_NONE : pool_scrub_type_t.POOL_SCRUB_EVERYTHING).ordinal()));
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    /**
+     * Reads where the scrub or resilver of this pool is.
+     * Take it again after a while and use {@link ScanProgress#getRate(ScanProgress)}
+     * to see how fast it is going.
+     */
+    public ScanProgress getScanProgress() {
+        nvlist_t vdevTree = getVdevConfig();
+        return ScanProgress.decode(vdevTree != null ? vdevTree.getLongArray("scan_stats") : null);
+    }
+
+    /**
+     * Reads the vdevs of this pool and their current state.
+     */
+    public VdevTree getVdevTree() {
+        nvlist_t vdevTree = getVdevConfig();
+        if (vdevTree == null)
+            throw new ZFSException("No vdev tree in the configuration of " + name, 0);
+        return VdevTree.decode(vdevTree.toMap(), library.getFeature("LIBZFS4J_ABI_vdev_aux"));
+    }
+
+    /**
+     * Reads the feature@ states of this pool, by short feature name like "large_blocks".
+     * Features missing from the map are disabled. These are also recorded in
+     * {@link Capabilities#getPoolFeatures(String)}.
+     */
+    public Map<String,Capabilities.FeatureState> getFeatures() {
+        return Capabilities.get().readPoolFeatures(this);
+    }
+
+    /**
+     * Refreshes the stats and gets "vdev_tree" of the pool configuration,
+     * which is owned by the handle.
+     */
+    private nvlist_t getVdevConfig() {
+        check(LIBZFS.zpool_refresh_stats(handle, new BooleanByReference()));
+        nvlist_t config = LIBZFS.zpool_get_config(handle, null);
+        return config != null ? config.getNVList("vdev_tree") : null;
+    }
+
+    /**
+     * Brings a vdev online, like "zpool online".
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal.
+     * @param expand
+     *      Whether to grow the vdev to use all of the device, like "zpool online -e".
+     * @return
+     *      The state of the vdev afterwards, which may be less than healthy.
+     * @see VdevWaiter
+     */
+    public vdev_state_t online(String vdev, boolean expand) {
+        EnumByReference<vdev_state_t> state = new EnumByReference<vdev_state_t>();
+        check(LIBZFS.zpool_vdev_online(handle, vdev, expand ? libzfs.ZFS_ONLINE_EXPAND : 0, state));
+        return state.getValue(vdev_state_t.class);
+    }
+
+    /**
+     * Takes a vdev offline, like "zpool offline".
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal.
+     * @param temporary
+     *      If true, the vdev comes back online at the next import.
+     */
+    public void offline(String vdev, boolean temporary) {
+        check(LIBZFS.zpool_vdev_offline(handle, vdev, temporary));
+    }
+
+    /**
+     * Attaches a device to a vdev to mirror it, like "zpool attach".
+     * The new device is resilvered from the existing one; see
+     * {@link VdevWaiter#awaitResilver(long, long, java.util.concurrent.TimeUnit, VdevWaiter.ProgressListener)}.
+     *
+     * @param existing
+     *      Path of a disk or file in the pool, or its guid in decimal.
+     * @param device
+     *      Path of a disk partition or a file to add. Whole disks aren't labeled
+     *      the way the zpool command does, so give it a partition.
+     */
+    public void attach(String existing, String device) {
+        attach("attach", existing, device, false);
+    }
+
+    /**
+     * Replaces a device with another, like "zpool replace".
+     * The old device is detached when the resilver of the new one completes.
+     *
+     * @param old
+     *      Path of a disk or file in the pool, or its guid in decimal.
+     * @param device
+     *      Path of a disk partition or a file to use instead.
+     */
+    public void replace(String old, String device) {
+        attach("replace", old, device, true);
+    }
+
+    private void attach(String abi_thisfunc, String existing, String device, boolean replacing) {
+        nvlist_t leaf = nvlist_t.allocMap();
+        leaf.put("type", new File(device).isFile() ? "file" : "disk");
+        leaf.put("path", device);
+        nvlist_t nvroot = nvlist_t.allocMap();
+        nvroot.put("type", "root");
+        nvroot.put("children", new nvlist_t[] {leaf});
+
+        String abi_toggle = "LIBZFS4J_ABI_zpool_vdev_attach";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            check(LIBZFS.zpool_vdev_attach(handle, existing, device, nvroot, replacing ? 1 : 0, 0));
+        } else
+        if (abi.equals("legacy")) {
+            check(LIBZFS.zpool_vdev_attach(handle, existing, device, nvroot, replacing ? 1 : 0));
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    /**
+     * Detaches a device from a mirror, or cancels a replacement, like "zpool detach".
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal.
+     */
+    public void detach(String vdev) {
+        check(LIBZFS.zpool_vdev_detach(handle, vdev));
+    }
+
+    /**
+     * Removes a hot spare, cache or log device, like "zpool remove".
+     * OpenZFS can also evacuate and remove a top-level vdev, which goes on in the background.
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal.
+     * @see VdevWaiter#awaitRemoval(String, long, java.util.concurrent.TimeUnit)
+     */
+    public void remove(String vdev) {
+        check(LIBZFS.zpool_vdev_remove(handle, vdev));
+    }
+
+    /**
+     * Clears the error counters, and faults if the devices are back, like "zpool clear".
+     *
+     * @param vdev
+     *      Path of the vdev, or its guid in decimal. null to clear the whole pool.
+     */
+    public void clear(String vdev) {
+        check(LIBZFS.zpool_clear(handle, vdev, null));
+    }
+
+    /**
+     * Destroys this pool and all the data in it, like "zpool destroy".
+     * This object can't be used afterwards.
+     *
+     * @param force
+     *      Unmount file systems even if they are busy.
+     */
+    public void destroy(boolean force) {
+        disableDatasets(force);
+
+        String abi_thisfunc = "destroy";
+        String abi_toggle = "LIBZFS4J_ABI_zpool_destroy";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+            return;
+        } else
+        if (abi.equals("openzfs")) {
+            if (LIBZFS.zpool_destroy(handle, "zpool destroy " + name) != 0)
+                throw new ZFSException(library, "Failed to destroy " + name);
+        } else
+        if (abi.equals("legacy")) {
+            if (LIBZFS.zpool_destroy(handle) != 0)
+                throw new ZFSException(library, "Failed to destroy " + name);
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+        Capabilities.get().forgetPool(name);
+        dispose();
+    }
+
+    /**
+     * Runs a channel program against this pool, like "zfs program".
+     *
+     * <p>
+     * The Lua script runs in the kernel, in syncing context, so everything it
+     * changes happens atomically in one transaction group. It gets the
+     * arguments as its "...", and can walk and change datasets through the
+     * zfs.* functions without a round trip to user space for each.
+     *
+     * @param args
+     *      Passed to the script as a table. null for none.
+     * @return
+     *      What the script returned, decoded like {@link nvlist_t#toMap()}:
+     *      a table becomes a {@link Map}. null if it returned nothing.
+     * @throws ZFSException
+     *      If the script failed to compile, raised an error or ran out of its limits.
+     *      The message has the Lua error. {@link ErrorCode#EZFS_NOTSUP} if this host
+     *      can't run channel programs, see {@link Capabilities#canRunChannelPrograms()}.
+     */
+    public Object runChannelProgram(String lua, nvlist_t args, ChannelProgramLimits limits) {
+        return runChannelProgram(lua, args, limits, true);
+    }
+
+    /**
+     * Runs a read-only channel program, which doesn't wait for a transaction
+     * group to sync and so is much quicker for listing things.
+     * Functions of the script that would change something fail.
+     *
+     * @see #runChannelProgram(String, nvlist_t, ChannelProgramLimits)
+     */
+    public Object runChannelProgramNoSync(String lua, nvlist_t args, ChannelProgramLimits limits) {
+        return runChannelProgram(lua, args, limits, false);
+    }
+
+    private Object runChannelProgram(String lua, nvlist_t args, ChannelProgramLimits limits, boolean sync) {
+        String abi_thisfunc = sync ? "runChannelProgram" : "runChannelProgramNoSync";
+        if (!library.checkLibZFSCore(abi_thisfunc))
+            return null;
+        if (!Capabilities.get().canRunChannelPrograms())
+            throw new ZFSException("libzfs4j::" + abi_thisfunc + "() needs lzc_channel_program(), which this libzfs_core doesn't have", ErrorCode.EZFS_NOTSUP);
+
+        if (args == null)
+            args = nvlist_t.alloc(NV_UNIQUE_NAME);
+        PtrByReference<nvlist_t> outnvl = new PtrByReference<nvlist_t>();
+        int r = sync
+            ? LIBZFS_CORE.lzc_channel_program(name, lua, limits.getInstructions(), limits.getMemory(), args, outnvl)
+            : LIBZFS_CORE.lzc_channel_program_nosync(name, lua, limits.getInstructions(), limits.getMemory(), args, outnvl);
+        nvlist_t out = nvlist_t.adopt(outnvl);
+        Map<String,Object> result = out != null ? out.toMap() : Collections.<String,Object>emptyMap();
+        if (r != 0) {
+            Object error = result.get("error");
+            throw new ZFSException("Channel program failed on " + name + (error != null ? ": " + error : ""), r);
+        }
+        return result.get("return");
+    }
+
+    /**
+     * Lists the snapshots of a file system with some of their properties,
+     * all in one read-only channel program.
+     *
+     * @param fs
+     *      File system or volume in this pool.
+     * @param recursive
+     *      Also list the snapshots of all the descendants.
+     * @param props
+     *      Native or user property names like "used" or "com.example:keep".
+     * @return
+     *      Full snapshot name to property name to value, sorted by name.
+     *      Properties that aren't set are left out.
+     */
+    public Map<String,Map<String,Object>> listSnapshots(String fs, boolean recursive, Collection<String> props) {
+        return ChannelPrograms.listSnapshots(this, fs, recursive, props);
+    }
+
+    /**
+     * Destroys snapshots of this pool in one transaction: if any of them
+     * can't be destroyed (it's held, or has clones), none are.
+     *
+     * @param snapshots
+     *      Full snapshot names like "rpool/foo@bar".
+     * @return
+     *      Which were destroyed, or which couldn't be and why.
+     */
+    public BatchResult destroySnapshots(Collection<String> snapshots) {
+        return ChannelPrograms.destroySnapshots(this, snapshots);
+    }
+
+    /**
+     * Destroys the snapshots of a file system created before the given time,
+     * in one transaction. Snapshots that can't be destroyed are skipped.
+     *
+     * @param createdBefore
+     *      Seconds since the epoch, compared to the "creation" property.
+     * @param recursive
+     *      Also prune the snapshots of all the descendants.
+     * @return
+     *      The snapshots destroyed, sorted.
+     */
+    public List<String> destroySnapshotsCreatedBefore(String fs, long createdBefore, boolean recursive) {
+        return ChannelPrograms.pruneSnapshots(this, fs, createdBefore, recursive);
+    }
+
+    /**
+     * Reads the history of this pool from the beginning.
+     * See {@link PoolHistory} for polling it for new records.
+     */
+    public PoolHistory history() {
+        return history(0);
+    }
+
+    /**
+     * Reads the history of this pool from where an earlier reader left off.
+     *
+     * @param offset
+     *      {@link PoolHistory#getOffset()} of the earlier reader.
+     */
+    public PoolHistory history(long offset) {
+        return new PoolHistory(this, offset);
+    }
+
+    /**
+     * Lists the objects with persistent data errors, like "zpool status -v" does.
+     */
+    public List<PoolError> errorLog() {
+        return errorLog(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Lists the objects with persistent data errors, like "zpool status -v" does.
+     *
+     * <p>
+     * Datasets are resolved separately, up to the given number at a time.
+     * Dataset names are remembered by this object, so after a dataset is renamed
+     * a new {@link ZFSPool} reports the new name.
+     *
+     * @param parallelism
+     *      Number of threads to resolve paths on.
+     * @return
+     *      Sorted by dataset and object number. Empty if there are no errors.
+     */
+    public List<PoolError> errorLog(int parallelism) {
+        return new ErrorLogResolver(this, dataSetNames).resolve(parallelism);
+    }
+
     public synchronized void dispose() {
         if (handle != null)
             LIBZFS.zpool_close(handle);
@@ -158,4 +551,6 @@ public final class ZFSPool {
         dispose();
         super.finalize();
     }
+
+    private static final Logger LOGGER = Logger.getLogger(ZFSPool.class.getName());
 }
@@ -20,7 +20,25 @@
  */
 package org.jvnet.solaris.libzfs;
 
+import static org.jvnet.solaris.libzfs.jna.libzfs.LIBZFS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.libzfs.core.LibZFSCore;
 import org.jvnet.solaris.libzfs.jna.zfs_handle_t;
+import org.jvnet.solaris.libzfs.jna.zfs_type_t;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -29,4 +47,237 @@ public final class ZFSSnapshot extends ZFSObject {
     ZFSSnapshot(LibZFS parent, zfs_handle_t handle) {
         super(parent, handle);
     }
+
+    /**
+     * Gets the name of the snapshot itself, like "bar" for "rpool/foo@bar".
+     */
+    public String getSnapshotName() {
+        return getName().substring(getName().indexOf('@')+1);
+    }
+
+    /**
+     * Gets the name of the file system or volume this is a snapshot of, like "rpool/foo" for "rpool/foo@bar".
+     */
+    public String getFileSystemName() {
+        return getName().substring(0,getName().indexOf('@'));
+    }
+
+    /**
+     * Places a user hold on this snapshot, which prevents it from being destroyed
+     * until the hold is released.
+     *
+     * @param tag
+     *      Name of the hold. A snapshot can have any number of holds with different tags.
+     */
+    public void hold(String tag) {
+        hold(tag,false);
+    }
+
+    /**
+     * Places a user hold on this snapshot, and optionally on the snapshots of the same name
+     * of all the descendant datasets.
+     */
+    public void hold(String tag, boolean recursive) {
+        String abi_thisfunc = "hold";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_hold";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            zfs_handle_t fs = openFileSystem();
+            try {
+                if (LIBZFS.zfs_hold(fs, getSnapshotName(), tag, recursive, -1) != 0)
+                    throw new ZFSException(library,"Failed to hold "+getName());
+            } finally {
+                LIBZFS.zfs_close(fs);
+            }
+        } else
+        if (abi.equals("legacy")) {
+            zfs_handle_t fs = openFileSystem();
+            try {
+                if (LIBZFS.zfs_hold(fs, getSnapshotName(), tag, recursive, false, false, -1, 0, 0) != 0)
+                    throw new ZFSException(library,"Failed to hold "+getName());
+            } finally {
+                LIBZFS.zfs_close(fs);
+            }
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    /**
+     * Releases a user hold from this snapshot.
+     */
+    public void release(String tag) {
+        release(tag,false);
+    }
+
+    /**
+     * Releases a user hold from this snapshot, and optionally from the snapshots
+     * of the same name of all the descendant datasets.
+     */
+    public void release(String tag, boolean recursive) {
+        String abi_thisfunc = "release";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_hold";
+        String abi = library.getFeature(abi_toggle);
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs") || abi.equals("legacy")) {
+            /* zfs_release() kept its signature */
+            zfs_handle_t fs = openFileSystem();
+            try {
+                if (LIBZFS.zfs_release(fs, getSnapshotName(), tag, recursive) != 0)
+                    throw new ZFSException(library,"Failed to release "+tag+" on "+getName());
+            } finally {
+                LIBZFS.zfs_close(fs);
+            }
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+    }
+
+    /**
+     * Gets the number of user holds on this snapshot.
+     *
+     * <p>
+     * This is read from the properties that came with the handle, so it's cheap
+     * enough to check on every snapshot during a sweep before looking at
+     * {@link #getHolds()}.
+     */
+    public long getUserRefs() {
+        return getNumericProperty("userrefs");
+    }
+
+    /**
+     * Does this snapshot have any user holds?
+     */
+    public boolean isHeld() {
+        return getUserRefs()>0;
+    }
+
+    /**
+     * Lists up the user holds on this snapshot.
+     *
+     * @return
+     *      Hold tag to the time the hold was placed, sorted by tags. Can be empty but never null.
+     *      Always empty with the legacy ABI, which can't list holds; {@link #getUserRefs()} still counts them.
+     */
+    public Map<String,Date> getHolds() {
+        if (getUserRefs()==0)
+            return Collections.emptyMap();   // saves an ioctl for the common case
+
+        String abi_thisfunc = "getHolds";
+        String abi_toggle = "LIBZFS4J_ABI_zfs_hold";
+        String abi = library.getFeature(abi_toggle);
+        Map<String,Date> r = new TreeMap<String,Date>();
+        if (abi.equals("NO-OP")) {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - skipped due to config");
+        } else
+        if (abi.equals("openzfs")) {
+            PtrByReference<nvlist_t> ref = new PtrByReference<nvlist_t>();
+            if (LIBZFS.zfs_get_holds(handle, ref) != 0)
+                throw new ZFSException(library,"Failed to get holds of "+getName());
+            nvlist_t holds = nvlist_t.adopt(ref);
+            for (String tag : holds.names())
+                r.put(tag, new Date(holds.getLong(tag)*1000));
+        } else
+        if (abi.equals("legacy")) {
+            /* zfs_get_holds() came with OpenZFS; the count in userrefs is all there is */
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' - not available in this ABI");
+        } else {
+            LOGGER.log(Level.FINE, "NO-OP: libzfs4j::" + abi_thisfunc + "() was called while " + abi_toggle + "=='" + abi + "' and this is currently not a known value");
+            throw new ZFSException(library);
+        }
+        return r;
+    }
+
+    /**
+     * Creates a bookmark of this snapshot.
+     *
+     * @param bookmarkName
+     *      The name of the bookmark, like "bar", which creates "rpool/foo#bar".
+     * @return the created bookmark.
+     */
+    public ZFSBookmark createBookmark(String bookmarkName) {
+        String fullName = getFileSystemName() + '#' + bookmarkName;
+        library.createBookmarks(Collections.singletonMap(fullName, getName()));
+        return library.open(fullName, ZFSBookmark.class);
+    }
+
+    /**
+     * Writes the full replication stream of this snapshot, like "zfs send".
+     */
+    public void send(OutputStream out) throws IOException {
+        send(null, out);
+    }
+
+    /**
+     * Writes the replication stream of this snapshot, like "zfs send -i".
+     *
+     * @param from
+     *      An earlier {@link ZFSSnapshot} or {@link ZFSBookmark} of the same file system
+     *      to send the incremental stream from. null for the full stream.
+     * @param out
+     *      Receives the stream. Not closed by this method.
+     */
+    public void send(ZFSObject from, OutputStream out) throws IOException {
+        final LibZFSCore core = library.requireCore("send");
+        if (core == null)
+            return;
+
+        final String fromName = from==null ? null : from.getName();
+        final NativePipe pipe = new NativePipe();
+        try {
+            Future<Integer> writer = pipe.start("zfs send "+getName(), new Callable<Integer>() {
+                public Integer call() {
+                    core.send(getName(), fromName, pipe.getWriteFd(), 0);
+                    return 0;
+                }
+            });
+
+            InputStream in = pipe.getInputStream();
+            byte[] buf = new byte[64*1024];
+            int n;
+            while ((n=in.read(buf)) >= 0)
+                out.write(buf,0,n);
+
+            NativePipe.join(writer);
+        } finally {
+            pipe.close();
+        }
+    }
+
+    /**
+     * Streams the files that changed between this snapshot and a later one, like "zfs diff".
+     *
+     * <p>
+     * The file system must be mounted, since the paths are resolved under its mount point.
+     *
+     * @param later
+     *      A later snapshot of the same file system, or null to compare against
+     *      the current state of the file system.
+     * @return
+     *      Iterator that reads the changes as they are produced.
+     *      {@link DiffIterator#close() Close} it if you stop before the end.
+     */
+    public DiffIterator diff(ZFSSnapshot later) {
+        return new DiffIterator(library, openFileSystem(), getName(), later==null ? null : later.getName());
+    }
+
+    /**
+     * Holds and releases work through the handle of the file system,
+     * so open a short-lived one.
+     */
+    private zfs_handle_t openFileSystem() {
+        zfs_handle_t fs = LIBZFS.zfs_open(library.getHandle(), getFileSystemName(), zfs_type_t.FILESYSTEM|zfs_type_t.VOLUME);
+        if (fs==null)
+            throw new ZFSException(library,"Failed to open "+getFileSystemName());
+        return fs;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ZFSSnapshot.class.getName());
 }
@@ -52,7 +52,14 @@ public enum ZFSType {
      * environments.  Volumes  cannot  be  used in a non-global
      * zone.
      */
-    VOLUME(4,ZFSVolume.class);
+    VOLUME(4,ZFSVolume.class),
+    /**
+     * A bookmark of a snapshot, specified as filesystem#name or
+     * volume#name. It only remembers the point in time of the
+     * snapshot, not its data, yet it can be used as the source of
+     * an incremental send after the snapshot is destroyed.
+     */
+    BOOKMARK(16,ZFSBookmark.class);
     // AFAICT, pool is never represented as zfs_handle_t, so this doesn't belong here.
 //    /**
 //     * Pool is a storage abstraction in which filesysems, snapshots,
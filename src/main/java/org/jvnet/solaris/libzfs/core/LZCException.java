@@ -0,0 +1,105 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs.core;
+
+import static org.jvnet.solaris.jna.libc.*;
+
+import org.jvnet.solaris.libzfs.ErrorCode;
+import org.jvnet.solaris.libzfs.ZFSException;
+
+import com.sun.jna.Platform;
+
+/**
+ * A failure reported by libzfs_core, which only gives an errno, mapped to
+ * the {@link ErrorCode} that libzfs would have given for the same failure.
+ */
+public class LZCException extends ZFSException {
+    private static final long serialVersionUID = 1L;
+
+    private final int errno;
+
+    /**
+     * @param operation
+     *      What was being done, like "destroy".
+     * @param name
+     *      The dataset, snapshot or bookmark it failed on.
+     */
+    public LZCException(String operation, String name, int errno) {
+        super("Failed to " + operation + " " + name + " : " + LIBC.strerror(errno), toErrorCode(operation, errno));
+        this.errno = errno;
+        withContext(operation, name);
+    }
+
+    /**
+     * For failures found before any ioctl is made, which have no errno.
+     */
+    /*package*/ LZCException(String message, ErrorCode code) {
+        super(message, code);
+        this.errno = 0;
+    }
+
+    public int getErrno() {
+        return errno;
+    }
+
+    /*
+     * These differ between platforms, so they aren't in libc.
+     */
+    private static final int ENAMETOOLONG = Platform.isLinux() ? 36 : Platform.isFreeBSD() ? 63 : 78;
+    private static final int EDQUOT = Platform.isLinux() ? 122 : Platform.isFreeBSD() ? 69 : 49;
+    private static final int ENOTSUP = Platform.isLinux() ? 95 : Platform.isFreeBSD() ? 45 : 48;
+    private static final int E2BIG = 7;
+
+    /**
+     * Which {@link ErrorCode} libzfs gives when the ioctl behind the operation
+     * fails with the errno. Some depend on the operation, as they do in libzfs:
+     * EINVAL is a bad name for a snapshot or bookmark, but a bad tag or target otherwise.
+     */
+    /*package*/ static ErrorCode toErrorCode(String operation, int errno) {
+        if (errno == ENOENT || errno == ESRCH)
+            return ErrorCode.EZFS_NOENT;
+        if (errno == EEXIST)
+            return ErrorCode.EZFS_EXISTS;
+        if (errno == EBUSY)
+            return ErrorCode.EZFS_BUSY;
+        if (errno == EPERM || errno == EACCES)
+            return ErrorCode.EZFS_PERM;
+        if (errno == ENOSPC || errno == EDQUOT)
+            return ErrorCode.EZFS_NOSPC;
+        if (errno == EXDEV)
+            return ErrorCode.EZFS_CROSSTARGET;
+        if (errno == EINVAL)
+            return operation.equals("snapshot") || operation.equals("bookmark") ? ErrorCode.EZFS_INVALIDNAME : ErrorCode.EZFS_BADTYPE;
+        if (errno == ENAMETOOLONG || errno == E2BIG)
+            return ErrorCode.EZFS_NAMETOOLONG;
+        if (errno == ENOTSUP)
+            return ErrorCode.EZFS_BADVERSION;
+        if (errno == EROFS)
+            return ErrorCode.EZFS_DSREADONLY;
+        if (errno == ENOMEM)
+            return ErrorCode.EZFS_NOMEM;
+        if (errno == EIO)
+            return ErrorCode.EZFS_IO;
+        if (errno == EINTR)
+            return ErrorCode.EZFS_INTR;
+        return ErrorCode.EZFS_UNKNOWN;
+    }
+}
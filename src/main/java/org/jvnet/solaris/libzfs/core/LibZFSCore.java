@@ -0,0 +1,350 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs.core;
+
+import static org.jvnet.solaris.libzfs.jna.libzfs_core.LIBZFS_CORE;
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.libzfs.BatchResult;
+import org.jvnet.solaris.libzfs.Capabilities;
+import org.jvnet.solaris.libzfs.ErrorCode;
+import org.jvnet.solaris.libzfs.ZFSException;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+/**
+ * Batch operations on snapshots, holds and bookmarks through libzfs_core.
+ *
+ * <p>
+ * Unlike their libzfs counterparts, these don't open a handle for every
+ * dataset involved nor look at the mount table: names go to the kernel in an
+ * nvlist, one ioctl per pool, and each failed name comes back with its errno.
+ * Names are grouped by pool, and within a pool a batch is atomic: if any of
+ * it fails, nothing of that pool is done.
+ *
+ * <p>
+ * Failures are returned in a {@link BatchResult}, one {@link LZCException} per
+ * failed name. Names of a pool are all listed as failed when the kernel didn't
+ * say which one was the culprit.
+ *
+ * <p>
+ * Only OpenZFS has libzfs_core, see {@link #isAvailable()}. {@link org.jvnet.solaris.libzfs.LibZFS}
+ * goes through here on its own where it can.
+ */
+public final class LibZFSCore implements Closeable {
+    private boolean closed;
+
+    /**
+     * Opens /dev/zfs, unless something else in the process already did.
+     *
+     * @throws ZFSException
+     *      With {@link ErrorCode#EZFS_NOTSUP} if this host has no libzfs_core,
+     *      or if /dev/zfs can't be opened.
+     */
+    public LibZFSCore() {
+        if (!isAvailable())
+            throw new LZCException("libzfs_core is not available on this host", ErrorCode.EZFS_NOTSUP);
+        int r = LIBZFS_CORE.libzfs_core_init();
+        if (r != 0)
+            throw new LZCException("initialize", "libzfs_core", r);
+    }
+
+    /**
+     * Whether this host has libzfs_core.
+     */
+    public static boolean isAvailable() {
+        return Capabilities.get().hasLibZFSCore();
+    }
+
+    private static volatile LibZFSCore shared;
+
+    /**
+     * The instance shared by the whole process, which is never closed.
+     */
+    public static LibZFSCore getShared() {
+        LibZFSCore c = shared;
+        if (c == null) {
+            synchronized (LibZFSCore.class) {
+                c = shared;
+                if (c == null)
+                    shared = c = new LibZFSCore();
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Creates snapshots, one ioctl per pool.
+     *
+     * @param snapshots
+     *      Full snapshot names like "rpool/foo@bar".
+     * @param props
+     *      User properties to set on all of them, or null.
+     */
+    public BatchResult snapshot(Collection<String> snapshots, Map<String,String> props) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        nvlist_t propnvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+        if (props != null) {
+            for (Map.Entry<String,String> e : props.entrySet())
+                propnvl.put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String,Map<String,Boolean>> pool : groupByPool(asSet(snapshots)).entrySet()) {
+            PtrByReference<nvlist_t> errlist = new PtrByReference<nvlist_t>();
+            int r = LIBZFS_CORE.lzc_snapshot(toNVList(pool.getValue()), propnvl, errlist);
+            collect("snapshot", r, errlist, pool.getValue().keySet(), failures);
+        }
+        return new BatchResult("snapshot", snapshots, failures);
+    }
+
+    /**
+     * Destroys snapshots, one ioctl per pool.
+     *
+     * @param defer
+     *      Like "zfs destroy -d": snapshots that are held or cloned are marked
+     *      to go away when that's over, instead of failing.
+     */
+    public BatchResult destroySnapshots(Collection<String> snapshots, boolean defer) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        for (Map.Entry<String,Map<String,Boolean>> pool : groupByPool(asSet(snapshots)).entrySet()) {
+            PtrByReference<nvlist_t> errlist = new PtrByReference<nvlist_t>();
+            int r = LIBZFS_CORE.lzc_destroy_snaps(toNVList(pool.getValue()), defer, errlist);
+            collect("destroy", r, errlist, pool.getValue().keySet(), failures);
+        }
+        return new BatchResult("destroy", snapshots, failures);
+    }
+
+    /**
+     * Whether a dataset, snapshot or bookmark of the name exists.
+     */
+    public boolean exists(String name) {
+        return LIBZFS_CORE.lzc_exists(name) != 0;
+    }
+
+    /**
+     * Places user holds, one ioctl per pool.
+     *
+     * @param holds
+     *      Full snapshot name like "rpool/foo@bar" to the hold tag.
+     * @param cleanupFd
+     *      -1 for holds that stay until released, or a file descriptor of /dev/zfs
+     *      whose closing releases them.
+     */
+    public BatchResult hold(Map<String,String> holds, int cleanupFd) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        for (Map.Entry<String,Map<String,String>> pool : groupByPool(holds).entrySet()) {
+            nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+            for (Map.Entry<String,String> e : pool.getValue().entrySet())
+                nvl.put(e.getKey(), e.getValue());
+            PtrByReference<nvlist_t> errlist = new PtrByReference<nvlist_t>();
+            int r = LIBZFS_CORE.lzc_hold(nvl, cleanupFd, errlist);
+            collect("hold", r, errlist, pool.getValue().keySet(), failures);
+        }
+        return new BatchResult("hold", holds.keySet(), failures);
+    }
+
+    /**
+     * Releases user holds, one ioctl per pool.
+     *
+     * @param holds
+     *      Full snapshot name like "rpool/foo@bar" to the tags to release.
+     */
+    public BatchResult release(Map<String,? extends Collection<String>> holds) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        for (Map.Entry<String,? extends Map<String,? extends Collection<String>>> pool : groupByPool(holds).entrySet()) {
+            nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+            for (Map.Entry<String,? extends Collection<String>> e : pool.getValue().entrySet()) {
+                nvlist_t tags = nvlist_t.alloc(NV_UNIQUE_NAME);
+                for (String tag : e.getValue())
+                    tags.put(tag, true);
+                nvl.put(e.getKey(), tags);
+            }
+            PtrByReference<nvlist_t> errlist = new PtrByReference<nvlist_t>();
+            int r = LIBZFS_CORE.lzc_release(nvl, errlist);
+            collect("release", r, errlist, pool.getValue().keySet(), failures);
+        }
+        return new BatchResult("release", holds.keySet(), failures);
+    }
+
+    /**
+     * Gets the user holds of a snapshot.
+     *
+     * @return
+     *      Tag to when the hold was placed, in seconds since the epoch, sorted by tag.
+     */
+    public Map<String,Long> getHolds(String snapshot) {
+        PtrByReference<nvlist_t> holdsp = new PtrByReference<nvlist_t>();
+        int r = LIBZFS_CORE.lzc_get_holds(snapshot, holdsp);
+        if (r != 0)
+            throw new LZCException("get holds of", snapshot, r);
+        Map<String,Long> holds = new TreeMap<String,Long>();
+        nvlist_t nvl = nvlist_t.adopt(holdsp);
+        if (nvl != null) {
+            for (String tag : nvl.names())
+                holds.put(tag, nvl.getLong(tag));
+        }
+        return holds;
+    }
+
+    /**
+     * Writes the replication stream of a snapshot to a file descriptor, like "zfs send".
+     * Blocks until the whole stream is written, so the reader of the descriptor
+     * has to run on another thread.
+     *
+     * @param from
+     *      Full name of an earlier snapshot or bookmark to send the incremental
+     *      stream from, or null for the full stream.
+     * @param flags
+     *      Bitwise OR of the LZC_SEND_FLAG_* constants of
+     *      {@link org.jvnet.solaris.libzfs.jna.libzfs_core}.
+     */
+    public void send(String snapshot, String from, int fd, int flags) {
+        int r = LIBZFS_CORE.lzc_send(snapshot, from, fd, flags);
+        if (r != 0)
+            throw new LZCException("send", snapshot, r);
+    }
+
+    /**
+     * Creates bookmarks, one ioctl per pool.
+     *
+     * @param bookmarks
+     *      Full bookmark name like "rpool/foo#bar" to the full name of the
+     *      snapshot to bookmark, like "rpool/foo@bar".
+     */
+    public BatchResult bookmark(Map<String,String> bookmarks) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        for (Map.Entry<String,Map<String,String>> pool : groupByPool(bookmarks).entrySet()) {
+            nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+            for (Map.Entry<String,String> e : pool.getValue().entrySet())
+                nvl.put(e.getKey(), e.getValue());
+            PtrByReference<nvlist_t> errlist = new PtrByReference<nvlist_t>();
+            int r = LIBZFS_CORE.lzc_bookmark(nvl, errlist);
+            collect("bookmark", r, errlist, pool.getValue().keySet(), failures);
+        }
+        return new BatchResult("bookmark", bookmarks.keySet(), failures);
+    }
+
+    /**
+     * Destroys bookmarks, one ioctl per pool.
+     *
+     * @param bookmarks
+     *      Full bookmark names like "rpool/foo#bar".
+     */
+    public BatchResult destroyBookmarks(Collection<String> bookmarks) {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        for (Map.Entry<String,Map<String,Boolean>> pool : groupByPool(asSet(bookmarks)).entrySet()) {
+            PtrByReference<nvlist_t> errlist = new PtrByReference<nvlist_t>();
+            int r = LIBZFS_CORE.lzc_destroy_bookmarks(toNVList(pool.getValue()), errlist);
+            collect("destroy", r, errlist, pool.getValue().keySet(), failures);
+        }
+        return new BatchResult("destroy", bookmarks, failures);
+    }
+
+    /**
+     * Releases /dev/zfs if nothing else in the process uses it.
+     * Does nothing to {@link #getShared()}.
+     */
+    public synchronized void close() {
+        if (closed || this == shared)
+            return;
+        closed = true;
+        LIBZFS_CORE.libzfs_core_fini();
+    }
+
+    /**
+     * Turns the errlist of a call into failures, blaming all the names when
+     * the call failed but the list is empty.
+     *
+     * <p>
+     * The list is read even when the call succeeded, since some calls skip
+     * names they can't do and only say so there: lzc_hold() returns 0 and
+     * lists the snapshots that don't exist with ENOENT.
+     */
+    private static void collect(String operation, int r, PtrByReference<nvlist_t> errlist, Collection<String> names, Map<String,ZFSException> failures) {
+        nvlist_t errors = nvlist_t.adopt(errlist);
+        // errnos are int32
+        Map<String,Object> failed = errors != null ? errors.toMap() : Collections.<String,Object>emptyMap();
+        if (r == 0 && failed.isEmpty())
+            return;
+        boolean quiet = ZFSException.suppressStackTraces(true);
+        try {
+            if (failed.isEmpty()) {
+                for (String name : names)
+                    failures.put(name, new LZCException(operation, name, r));
+            } else {
+                for (Map.Entry<String,Object> e : failed.entrySet()) {
+                    int errno = e.getValue() instanceof Number ? ((Number) e.getValue()).intValue() : r;
+                    failures.put(e.getKey(), new LZCException(operation, e.getKey(), errno));
+                }
+            }
+        } finally {
+            ZFSException.suppressStackTraces(quiet);
+        }
+        LOGGER.log(Level.FINE, "lzc " + operation + " failed for " + failures.keySet());
+    }
+
+    private static Map<String,Boolean> asSet(Collection<String> names) {
+        Map<String,Boolean> r = new TreeMap<String,Boolean>();
+        for (String n : names)
+            r.put(n, true);
+        return r;
+    }
+
+    private static nvlist_t toNVList(Map<String,Boolean> names) {
+        nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+        for (String n : names.keySet())
+            nvl.put(n, true);
+        return nvl;
+    }
+
+    /**
+     * Splits the map keyed by dataset names into one map per pool.
+     */
+    private static <V> Map<String,Map<String,V>> groupByPool(Map<String,V> byName) {
+        Map<String,Map<String,V>> r = new TreeMap<String,Map<String,V>>();
+        for (Map.Entry<String,V> e : byName.entrySet()) {
+            String pool = getPoolName(e.getKey());
+            Map<String,V> m = r.get(pool);
+            if (m==null)
+                r.put(pool, m = new TreeMap<String,V>());
+            m.put(e.getKey(), e.getValue());
+        }
+        return r;
+    }
+
+    /*package*/ static String getPoolName(String name) {
+        for (int i=0; i<name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch=='/' || ch=='@' || ch=='#')
+                return name.substring(0,i);
+        }
+        return name;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LibZFSCore.class.getName());
+}
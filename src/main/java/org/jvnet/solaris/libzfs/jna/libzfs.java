@@ -160,18 +160,43 @@ int zpool_iter(libzfs_handle_t lib, zpool_iter_f callback, Pointer arg);
  * Functions to create and destroy pools
  */
 int zpool_create(libzfs_handle_t lib, String poolName, nvlist_t nvroot, nvlist_t props);
+/* Since 2008 the properties of the root file system can be given too */
+int zpool_create(libzfs_handle_t lib, String poolName, nvlist_t nvroot, nvlist_t props, nvlist_t fsprops);
+/* The legacy function ABI signature: */
 int zpool_destroy(zpool_handle_t pool);
+/* The OpenZFS function ABI signature, with the string for the pool history: */
+int zpool_destroy(zpool_handle_t pool, String log_str);
 int zpool_add(zpool_handle_t pool, nvlist_t _1);
 
 /*
  * Functions to manipulate pool and vdev state
  */
 int zpool_scrub(zpool_handle_t pool, pool_scrub_type_t scrub);
+/* What JNA can actually pass: POOL_SCRUB_NONE stops, POOL_SCRUB_EVERYTHING starts (legacy ABI) */
+int zpool_scrub(zpool_handle_t pool, /*pool_scrub_type_t*/ int scrub);
+/* The OpenZFS (and later illumos) replacement, which can also pause */
+public static final int POOL_SCAN_NONE = 0;
+public static final int POOL_SCAN_SCRUB = 1;
+public static final int POOL_SCAN_RESILVER = 2;
+public static final int POOL_SCRUB_NORMAL = 0;
+public static final int POOL_SCRUB_PAUSE = 1;
+int zpool_scan(zpool_handle_t pool, /*pool_scan_func_t*/ int func, /*pool_scrub_cmd_t*/ int cmd);
 int zpool_clear(zpool_handle_t pool, String name);
+/* Later ones take a rewind policy, for which NULL is the default; extra arguments don't hurt the above */
+int zpool_clear(zpool_handle_t pool, String name, nvlist_t rewindnvl);
 
 int zpool_vdev_online(zpool_handle_t pool, String path, int flags, vdev_state_t newstate);
+/* newstate is an out parameter, so the above can't work */
+public static final int ZFS_ONLINE_CHECKREMOVE = 0x1;
+public static final int ZFS_ONLINE_UNSPARE = 0x2;
+public static final int ZFS_ONLINE_FORCEFAULT = 0x4;
+public static final int ZFS_ONLINE_EXPAND = 0x8;
+int zpool_vdev_online(zpool_handle_t pool, String path, int flags, EnumByReference<vdev_state_t> newstate);
 int zpool_vdev_offline(zpool_handle_t pool, String path, boolean istmp);
+/* The legacy function ABI signature: */
 int zpool_vdev_attach(zpool_handle_t pool, String old_disk, String new_disk, nvlist_t nvroot, int replacing);
+/* The OpenZFS function ABI signature since 2.0, which can do a sequential rebuild instead of a resilver: */
+int zpool_vdev_attach(zpool_handle_t pool, String old_disk, String new_disk, nvlist_t nvroot, int replacing, /*boolean_t*/ int rebuild);
 int zpool_vdev_detach(zpool_handle_t pool, String path);
 int zpool_vdev_remove(zpool_handle_t pool, String path);
 
@@ -206,7 +231,23 @@ int/*ZPoolStatus*/ zpool_import_status(nvlist_t config, PointerByReference misgi
  */
 nvlist_t zpool_get_config(zpool_handle_t pool, /*nvlist_t ** */ PointerByReference ppchNVList);
 int zpool_refresh_stats(zpool_handle_t pool, BooleanByReference missing);
+/* OpenZFS only: feature guid -> refcount of the features enabled on the pool, owned by the handle */
+nvlist_t zpool_get_features(zpool_handle_t pool);
 int zpool_get_errlog(zpool_handle_t pool, /*nvlist_t ** */ PointerByReference ppchNVList);
+/* Same, but the caller takes over the list of { "dataset", "object" } nvlists (ZPOOL_ERR_DATASET, ZPOOL_ERR_OBJECT) */
+int zpool_get_errlog(zpool_handle_t pool, /*nvlist_t ** */ PtrByReference<nvlist_t> ppNVList);
+
+/*
+ * Kernel event queue (OpenZFS only), read through a file descriptor of /dev/zfs
+ * so that each reader has its own position.
+ */
+public static final int ZEVENT_NONE = 0x0;
+public static final int ZEVENT_NONBLOCK = 0x1;
+/* zpool_events_seek() target that skips everything queued so far */
+public static final long ZEVENT_SEEK_END = -1L;
+int zpool_events_next(libzfs_handle_t lib, /*nvlist_t ** */ PtrByReference<nvlist_t> nvp,
+    IntByReference dropped, /*unsigned*/ int flags, int zevent_fd);
+int zpool_events_seek(libzfs_handle_t lib, long eid, int zevent_fd);
 
 /*
  * Import and export functions
@@ -220,6 +261,16 @@ int zpool_import(libzfs_handle_t lib, nvlist_t config, String newname, /*char *
  */
 int zpool_import_props(libzfs_handle_t lib, nvlist_t config, String newname,
                         nvlist_t props, BooleanByReference importfaulted);
+/* What the last argument really is: a boolean_t importfaulted in the legacy ABI,
+ * and ZFS_IMPORT_* flags in OpenZFS and illumos since 2012 */
+public static final int ZFS_IMPORT_NORMAL = 0x0;
+public static final int ZFS_IMPORT_VERBOSE = 0x1;
+public static final int ZFS_IMPORT_ANY_HOST = 0x2;
+public static final int ZFS_IMPORT_MISSING_LOG = 0x4;
+public static final int ZFS_IMPORT_ONLY = 0x8;
+public static final int ZFS_IMPORT_TEMP_NAME = 0x10;
+int zpool_import_props(libzfs_handle_t lib, nvlist_t config, String newname,
+                        nvlist_t props, int flags);
 
 /*
  * Search for pools to import
@@ -245,10 +296,17 @@ String zpool_vdev_name(libzfs_handle_t lib, zpool_handle_t pool, nvlist_t nv, Bo
 /* Legacy ABI in Sol10, SXCE... */
 String zpool_vdev_name(libzfs_handle_t lib, zpool_handle_t pool, nvlist_t nv);
 int zpool_upgrade(zpool_handle_t pool , long new_version);
+/* The legacy (Sun/Oracle Solaris; illumos) function ABI signature, always reads the whole history: */
 int zpool_get_history(zpool_handle_t pool, /*nvlist_t ** */ PointerByReference ppNVList);
+/* The OpenZFS function ABI signature since 2.0: reads about 1MB from *off on, advancing it; *eof must start as B_FALSE */
+int zpool_get_history(zpool_handle_t pool, /*nvlist_t ** */ PtrByReference<nvlist_t> ppNVList,
+    LongByReference off, /*boolean_t * */ IntByReference eof);
 void zpool_set_history_str(String subcommand, int argc, String[] argv, String history_str);
 int zpool_stage_history(libzfs_handle_t lib, String _2);
 void zpool_obj_to_path(zpool_handle_t pool, long _2, long _3, String _4, NativeLong len);
+/* The above can't return anything in a String; this one fills the buffer with
+ * "/mountpoint/path", "dataset:/path", or "dataset:<0xobj>" if the object has no path */
+void zpool_obj_to_path(zpool_handle_t pool, long dsobj, long obj, /*char * */ Pointer pathname, NativeLong len);
 int zfs_ioctl(libzfs_handle_t lib, int _2, zfs_cmd cmd);
 /*
  * Basic handle manipulations.  These functions do not create or destroy the
@@ -277,6 +335,8 @@ String zfs_prop_column_name(zfs_prop_t prop);
 boolean zfs_prop_align_right(zfs_prop_t prop);
 
 String zfs_prop_to_name(zfs_prop_t prop);
+/* Resolves the property code in the numbering of the running libzfs, or ZPROP_INVAL (-1) */
+int/*zfs_prop_t*/ zfs_name_to_prop(String propname);
 
     /**
      * Sets a property on a ZFS data set.
@@ -285,11 +345,14 @@ String zfs_prop_to_name(zfs_prop_t prop);
      * This method can set both native properties and user-defined properties.
      */
     int zfs_prop_set(zfs_handle_t handle, String propertyName, String propertyValue);
+/* Sets all the name -> string value pairs in one ioctl (OpenZFS only) */
+int zfs_prop_set_list(zfs_handle_t handle, nvlist_t props);
 int zfs_prop_get(zfs_handle_t handle, /* zfs_prop_t */ NativeLong prop, Pointer _4, int cbSize,
     /*zprop_source_t* */ IntByReference _5, char[] _6, NativeLong _7, boolean _8);
 int zfs_prop_get_numeric(zfs_handle_t handle, zfs_prop_t prop, LongByReference r,
     /*zprop_source_t* */ IntByReference _4, char[] _5, NativeLong _6);
 long zfs_prop_get_int(zfs_handle_t handle, zfs_prop_t prop);
+long zfs_prop_get_int(zfs_handle_t handle, /*zfs_prop_t*/ int prop);
 int zfs_prop_inherit(zfs_handle_t handle, String _2);
 String zfs_prop_values(zfs_prop_t prop);
 int zfs_prop_is_string(zfs_prop_t prop);
@@ -297,6 +360,15 @@ nvlist_t zfs_get_user_props(zfs_handle_t handle);
 
 int zfs_expand_proplist(zfs_handle_t handle, /*zprop_list_t ** */ PointerByReference _2);
 
+    /**
+     * Receives one user or group; domain is "" for POSIX ids and the SID prefix otherwise.
+     */
+    interface zfs_userspace_cb extends Callback {
+        int callback(Pointer arg, String domain, int rid, long space);
+    }
+
+int zfs_userspace(zfs_handle_t handle, /*zfs_userquota_prop_t*/ int type, zfs_userspace_cb func, Pointer arg);
+
 public static final String ZFS_MOUNTPOINT_NONE= "none";
 public static final String ZFS_MOUNTPOINT_LEGACY= "legacy";
 
@@ -347,6 +419,8 @@ int zfs_iter_snapshots(zfs_handle_t handle, zfs_iter_f callback, Pointer arg);
 int zfs_iter_snapshots(zfs_handle_t handle, boolean simple, zfs_iter_f callback, Pointer arg);
 int zfs_iter_snapshots_sorted(zfs_handle_t handle, zfs_iter_f callback, Pointer arg);
 int zfs_iter_snapspec(zfs_handle_t handle, zfs_iter_f callback, Pointer arg);
+/* OpenZFS only */
+int zfs_iter_bookmarks(zfs_handle_t handle, zfs_iter_f callback, Pointer arg);
 
 /*
  * Functions to create and destroy datasets.
@@ -371,6 +445,20 @@ int zfs_rollback(zfs_handle_t handle1, zfs_handle_t handle2, boolean _3);
 int zfs_rename(zfs_handle_t handle, String name, boolean _3);
 int zfs_promote(zfs_handle_t handle);
 
+/*
+ * User holds on snapshots. These take the parent file system handle and
+ * the short snapshot name (the part after '@').
+ */
+/* The OpenZFS function ABI signature since ~2013 (cleanup_fd of -1 makes the hold permanent): */
+int zfs_hold(zfs_handle_t handle, String snapname, String tag, boolean recursive, int cleanup_fd);
+/* The legacy function ABI signature (temphold is for "zfs send -h"; dsobj/createtxg of 0 look the snapshot up by name): */
+int zfs_hold(zfs_handle_t handle, String snapname, String tag, boolean recursive, boolean temphold, boolean enoent_ok, int cleanup_fd, long dsobj, long createtxg);
+/* Batch form: 'holds' maps full snapshot names to tags, all in the same pool; one ioctl (OpenZFS only) */
+int zfs_hold_nvl(zfs_handle_t handle, int cleanup_fd, nvlist_t holds);
+int zfs_release(zfs_handle_t handle, String snapname, String tag, boolean recursive);
+/* Called on the snapshot handle; yields tag -> creation time (uint64 seconds) (OpenZFS only) */
+int zfs_get_holds(zfs_handle_t handle, /*nvlist_t ** */ PtrByReference<nvlist_t> ppNVList);
+
 //typedef struct sendflags {
 //        /* print informational messages (ie, -v was specified) */
 //        boolean_t verbose;
@@ -437,12 +525,25 @@ int zfs_promote(zfs_handle_t handle);
 //    extern int zfs_receive(libzfs_handle_t *, const char *, recvflags_t *,
 //        int, avl_tree_t *);
 
+/*
+ * Writes the differences between two snapshots (or a snapshot and the live
+ * file system, if tosnap is null) into outfd, as text lines like "zfs diff".
+ * fromsnap/tosnap are full snapshot names; the handle is of the file system.
+ */
+public static final int ZFS_DIFF_PARSEABLE = 0x1;
+public static final int ZFS_DIFF_TIMESTAMP = 0x2;
+public static final int ZFS_DIFF_CLASSIFY = 0x4;
+
+int zfs_show_diffs(zfs_handle_t handle, int outfd, String fromsnap, String tosnap, int flags);
+
 /*
  * Miscellaneous functions.
  */
 String zfs_type_to_name(zfs_type_t type);
 void zfs_refresh_properties(zfs_handle_t handle);
 int zfs_name_valid(String name, zfs_type_t type);
+/* returns boolean_t */
+int zfs_name_valid(String name, /*zfs_type_t*/ int type);
 zfs_handle_t zfs_path_to_zhandle(libzfs_handle_t lib, String path, /*zfs_type_t*/ int type);
 boolean zfs_dataset_exists(libzfs_handle_t lib, String name, /*zfs_type_t*/int type);
 int zfs_spa_version(zfs_handle_t handle, IntByReference r);
@@ -520,6 +621,26 @@ int zfs_unshareall(zfs_handle_t handle);
 boolean zfs_is_shared_iscsi(zfs_handle_t handle);
 int zfs_share_iscsi(zfs_handle_t handle);
 int zfs_unshare_iscsi(zfs_handle_t handle);
+
+/*
+ * Since OpenZFS 2.0 the zfs_share_*()/zfs_unshare_*() functions only stage
+ * the change, and it takes a commit to regenerate the exports (once for any
+ * number of datasets). Legacy sharemgr applies each call right away.
+ */
+void zfs_commit_nfs_shares();
+void zfs_commit_smb_shares();
+void zfs_commit_all_shares();
+/* 2.0/2.1 only; the one of 2.2 below has the same name but takes protocols */
+void zfs_commit_shares(String protocol);
+
+/* OpenZFS 2.2 replaced the per-protocol functions with protocol lists terminated by SA_NO_PROTOCOL,
+ * and dropped zfs_share_nfs() and zfs_commit_all_shares() */
+public static final int SA_NO_PROTOCOL = -1;
+public static final int SA_PROTOCOL_NFS = 0;
+public static final int SA_PROTOCOL_SMB = 1;
+int zfs_share(zfs_handle_t handle, /*const enum sa_protocol * */ int[] protocols);
+int zfs_unshare(zfs_handle_t handle, String mountpoint, /*const enum sa_protocol * */ int[] protocols);
+void zfs_commit_shares(/*const enum sa_protocol * */ int[] protocols);
     // TODO
 //int zfs_iscsi_perm_check(libzfs_handle_t lib, char *, ucred_t *);
 //int zfs_deleg_share_nfs(libzfs_handle_t lib, char *, char *,
@@ -541,6 +662,9 @@ int zpool_in_use(libzfs_handle_t lib, int _2, /*pool_state_t* */ IntByReference
  * ftyp special.  Read the label from a given device.
  */
 int zpool_read_label(int _1, /*nvlist_t ***/ PointerByReference ppnvlist);
+/* Since OpenZFS 0.7 and illumos 2017 it also counts the valid labels;
+ * the older one just leaves num_labels alone */
+int zpool_read_label(int fd, /*nvlist_t ** */ PtrByReference<nvlist_t> config, IntByReference num_labels);
 
 /*
  * Create and remove zvol /dev links.
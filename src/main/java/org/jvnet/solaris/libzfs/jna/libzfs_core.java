@@ -0,0 +1,100 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs.jna;
+
+import org.jvnet.solaris.jna.PtrByReference;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+
+/**
+ * libzfs_core, the stateless nvlist-in/nvlist-out interface to the ZFS ioctls
+ * that comes with OpenZFS. Legacy Solaris does not have this library at all,
+ * so don't touch {@link #LIBZFS_CORE} unless the ABI says so.
+ *
+ * <p>
+ * These functions report failures as errno values rather than through
+ * {@link libzfs_handle_t}, and the batch forms fill in an "errlist" that maps
+ * each failed name to its errno.
+ *
+ * See https://github.com/openzfs/zfs/blob/master/include/libzfs_core.h
+ */
+public interface libzfs_core extends Library {
+    public static final libzfs_core LIBZFS_CORE = (libzfs_core) Native.loadLibrary("zfs_core",libzfs_core.class);
+
+/* Reference counted; opens /dev/zfs on the first call. libzfs_init() does this too. */
+int libzfs_core_init();
+void libzfs_core_fini();
+
+/*
+ * Snapshots. All the names must be in the same pool and the whole list is
+ * created or destroyed atomically. 'snaps' lists "pool/fs@snap" as boolean pairs.
+ */
+int lzc_snapshot(nvlist_t snaps, nvlist_t props, PtrByReference<nvlist_t> errlist);
+int lzc_destroy_snaps(nvlist_t snaps, boolean defer, PtrByReference<nvlist_t> errlist);
+/* boolean_t, B_TRUE if the dataset, snapshot or bookmark is there */
+int lzc_exists(String dataset);
+
+/*
+ * User holds. For lzc_hold 'holds' maps "pool/fs@snap" to the tag; for lzc_release
+ * it maps "pool/fs@snap" to an nvlist of tags as boolean pairs. 'cleanup_fd' is
+ * -1 for holds that stay until released. lzc_get_holds gives tag -> creation time.
+ */
+int lzc_hold(nvlist_t holds, int cleanup_fd, PtrByReference<nvlist_t> errlist);
+int lzc_release(nvlist_t holds, PtrByReference<nvlist_t> errlist);
+int lzc_get_holds(String snapname, PtrByReference<nvlist_t> holdsp);
+
+/*
+ * Bookmarks. 'bookmarks' maps "pool/fs#bmark" to "pool/fs@snap"; all the
+ * names must be in the same pool and the whole list is created atomically.
+ */
+int lzc_bookmark(nvlist_t bookmarks, PtrByReference<nvlist_t> errlist);
+/* 'props' lists the wanted properties as boolean pairs, e.g. "guid", "createtxg" */
+int lzc_get_bookmarks(String fsname, nvlist_t props, PtrByReference<nvlist_t> bmarks);
+/* 'bmarks' lists "pool/fs#bmark" names as boolean pairs */
+int lzc_destroy_bookmarks(nvlist_t bmarks, PtrByReference<nvlist_t> errlist);
+
+/*
+ * Send streams. 'fromsnap' can be null for a full stream, or the full name
+ * of an earlier snapshot or bookmark of the same file system.
+ */
+public static final int LZC_SEND_FLAG_EMBED_DATA = 1<<0;
+public static final int LZC_SEND_FLAG_LARGE_BLOCK = 1<<1;
+public static final int LZC_SEND_FLAG_COMPRESS = 1<<2;
+public static final int LZC_SEND_FLAG_RAW = 1<<3;
+
+int lzc_send(String snapname, String fromsnap, int fd, int/*enum lzc_send_flags*/ flags);
+
+/*
+ * Channel programs: a Lua script run by the kernel against one pool. 'argnvl' is
+ * passed to the script as its argument, and 'outnvl' gets what it returned under
+ * "return", or a message under "error" when it failed. The _nosync form runs
+ * outside of syncing context and can't change anything.
+ */
+public static final long ZCP_DEFAULT_INSTRLIMIT = 10 * 1000 * 1000L;
+public static final long ZCP_MAX_INSTRLIMIT = 10 * ZCP_DEFAULT_INSTRLIMIT;
+public static final long ZCP_DEFAULT_MEMLIMIT = 10 * 1024 * 1024L;
+public static final long ZCP_MAX_MEMLIMIT = 10 * ZCP_DEFAULT_MEMLIMIT;
+
+int lzc_channel_program(String pool, String program, long instrlimit, long memlimit, nvlist_t argnvl, PtrByReference<nvlist_t> outnvl);
+int lzc_channel_program_nosync(String pool, String program, long instrlimit, long memlimit, nvlist_t argnvl, PtrByReference<nvlist_t> outnvl);
+}
@@ -0,0 +1,53 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs.jna;
+
+/**
+ * Kinds of per-user/per-group space accounting, passed to
+ * {@link libzfs#zfs_userspace} by ordinal.
+ *
+ * <p>
+ * The legacy ABI only has the first four; the object and project
+ * accounting came with OpenZFS.
+ */
+public enum zfs_userquota_prop_t {
+    ZFS_PROP_USERUSED("userused@"),
+    ZFS_PROP_USERQUOTA("userquota@"),
+    ZFS_PROP_GROUPUSED("groupused@"),
+    ZFS_PROP_GROUPQUOTA("groupquota@"),
+    ZFS_PROP_USEROBJUSED("userobjused@"),
+    ZFS_PROP_USEROBJQUOTA("userobjquota@"),
+    ZFS_PROP_GROUPOBJUSED("groupobjused@"),
+    ZFS_PROP_GROUPOBJQUOTA("groupobjquota@"),
+    ZFS_PROP_PROJECTUSED("projectused@"),
+    ZFS_PROP_PROJECTQUOTA("projectquota@"),
+    ZFS_PROP_PROJECTOBJUSED("projectobjused@"),
+    ZFS_PROP_PROJECTOBJQUOTA("projectobjquota@");
+
+    zfs_userquota_prop_t(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Property name prefix, to be followed by the user/group name or id.
+     */
+    public final String prefix;
+}
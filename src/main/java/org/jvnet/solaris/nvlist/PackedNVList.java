@@ -0,0 +1,235 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.nvlist;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jvnet.solaris.nvlist.jna.libnvpair.data_type_t;
+
+/**
+ * Decodes an nvlist packed in the XDR encoding, such as the configuration
+ * in a vdev label, in pure Java.
+ *
+ * <p>
+ * The result has the same shape as {@link org.jvnet.solaris.nvlist.jna.nvlist_t#toMap()},
+ * so code that works on one works on the other.
+ */
+public final class PackedNVList {
+    /**
+     * First byte of the header: which encoding follows.
+     */
+    public static final int NV_ENCODE_NATIVE = 0;
+    public static final int NV_ENCODE_XDR = 1;
+
+    private static final data_type_t[] DATA_TYPES = data_type_t.values();
+
+    private final ByteBuffer buf;
+
+    private PackedNVList(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    /**
+     * Decodes a packed nvlist, starting with its 4-byte header, from the current
+     * position of the buffer. The position is left after the list.
+     *
+     * @throws IllegalArgumentException
+     *      If the data isn't an XDR-encoded nvlist, or is cut short.
+     */
+    public static Map<String,Object> unpack(ByteBuffer buf) {
+        ByteBuffer b = buf.slice().order(ByteOrder.BIG_ENDIAN); // XDR is big endian
+        if (b.remaining() < 4)
+            throw new IllegalArgumentException("Too short for an nvlist header");
+        int encoding = b.get();
+        b.get(); // endianness of the host that packed it, which XDR doesn't care about
+        b.getShort(); // reserved
+        if (encoding != NV_ENCODE_XDR)
+            throw new IllegalArgumentException("Not an XDR-encoded nvlist: encoding=" + encoding);
+        try {
+            Map<String,Object> r = new PackedNVList(b).list();
+            buf.position(buf.position() + b.position());
+            return r;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated nvlist", e);
+        }
+    }
+
+    /**
+     * An nvlist: version, flags, then pairs up to an empty one.
+     */
+    private Map<String,Object> list() {
+        buf.getInt(); // nvl_version
+        buf.getInt(); // nvl_nvflag
+        Map<String,Object> r = new LinkedHashMap<String,Object>();
+        while (true) {
+            int start = buf.position();
+            int encodedSize = buf.getInt();
+            int decodedSize = buf.getInt();
+            if (encodedSize == 0 && decodedSize == 0)
+                return r;
+
+            String name = string();
+            int type = buf.getInt();
+            int nelem = buf.getInt();
+            Object v = type > 0 && type < DATA_TYPES.length ? value(DATA_TYPES[type], nelem) : null;
+            if (v == null) {
+                // a type we don't know (like double); the sizes let us step over it
+                if (encodedSize < 8)
+                    throw new IllegalArgumentException("Bad size of nvpair " + name + ": " + encodedSize);
+                buf.position(start + encodedSize);
+                continue;
+            }
+            r.put(name, v);
+        }
+    }
+
+    private Object value(data_type_t type, int n) {
+        switch (type) {
+        case DATA_TYPE_BOOLEAN:
+            return Boolean.TRUE;
+        case DATA_TYPE_BOOLEAN_VALUE:
+            return buf.getInt() != 0;
+        case DATA_TYPE_BYTE:
+        case DATA_TYPE_UINT8:
+            return buf.getInt() & 0xFF;
+        case DATA_TYPE_INT8:
+            return (int) (byte) buf.getInt();
+        case DATA_TYPE_INT16:
+            return (int) (short) buf.getInt();
+        case DATA_TYPE_UINT16:
+            return buf.getInt() & 0xFFFF;
+        case DATA_TYPE_INT32:
+            return buf.getInt();
+        case DATA_TYPE_UINT32:
+            return buf.getInt() & 0xFFFFFFFFL;
+        case DATA_TYPE_INT64:
+        case DATA_TYPE_UINT64:
+        case DATA_TYPE_HRTIME:
+            return buf.getLong();
+        case DATA_TYPE_STRING:
+            return string();
+        case DATA_TYPE_NVLIST:
+            return list();
+        case DATA_TYPE_NVLIST_ARRAY: {
+            List<Map<String,Object>> a = new ArrayList<Map<String,Object>>(n);
+            for (int i = 0; i < n; i++)
+                a.add(list());
+            return a;
+        }
+        case DATA_TYPE_BYTE_ARRAY: {
+            // opaque: no count, padded to 4 bytes
+            byte[] a = new byte[n];
+            buf.get(a);
+            skipPadding(n);
+            return a;
+        }
+        case DATA_TYPE_STRING_ARRAY: {
+            String[] a = new String[n];
+            for (int i = 0; i < n; i++)
+                a[i] = string();
+            return a;
+        }
+        }
+
+        // the other arrays have their count again, then 4 or 8 bytes for each element
+        switch (type) {
+        case DATA_TYPE_UINT8_ARRAY: {
+            byte[] a = new byte[count(n)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = (byte) buf.getInt();
+            return a;
+        }
+        case DATA_TYPE_INT8_ARRAY:
+        case DATA_TYPE_INT16_ARRAY:
+        case DATA_TYPE_UINT16_ARRAY:
+        case DATA_TYPE_INT32_ARRAY: {
+            int[] a = new int[count(n)];
+            for (int i = 0; i < a.length; i++) {
+                int v = buf.getInt();
+                switch (type) {
+                case DATA_TYPE_INT8_ARRAY:      v = (byte) v; break;
+                case DATA_TYPE_INT16_ARRAY:     v = (short) v; break;
+                case DATA_TYPE_UINT16_ARRAY:    v &= 0xFFFF; break;
+                default:                        break;
+                }
+                a[i] = v;
+            }
+            return a;
+        }
+        case DATA_TYPE_UINT32_ARRAY: {
+            long[] a = new long[count(n)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = buf.getInt() & 0xFFFFFFFFL;
+            return a;
+        }
+        case DATA_TYPE_INT64_ARRAY:
+        case DATA_TYPE_UINT64_ARRAY: {
+            long[] a = new long[count(n)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = buf.getLong();
+            return a;
+        }
+        case DATA_TYPE_BOOLEAN_ARRAY: {
+            boolean[] a = new boolean[count(n)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = buf.getInt() != 0;
+            return a;
+        }
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Reads the element count xdr_array() puts in front, which should agree with nvp_value_elem.
+     */
+    private int count(int nelem) {
+        int n = buf.getInt();
+        if (n != nelem || n < 0 || n > buf.remaining())
+            throw new IllegalArgumentException("Array of " + n + " elements where " + nelem + " were expected");
+        return n;
+    }
+
+    private String string() {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining())
+            throw new IllegalArgumentException("Bad string length: " + len);
+        byte[] b = new byte[len];
+        buf.get(b);
+        skipPadding(len);
+        try {
+            return new String(b, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void skipPadding(int len) {
+        buf.position(buf.position() + ((4 - (len & 3)) & 3));
+    }
+}
@@ -24,7 +24,12 @@ import org.jvnet.solaris.jna.PtrByReference;
 
 import com.sun.jna.Library;
 import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.ByteByReference;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
 import com.sun.jna.ptr.PointerByReference;
+import com.sun.jna.ptr.ShortByReference;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -120,7 +125,7 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    int nvlist_size(nvlist_t list, Structure.FFIType.size_t *, int);
 //    int nvlist_pack(nvlist_t list, char **, Structure.FFIType.size_t *, int, int);
 //    int nvlist_unpack(char *, Structure.FFIType.size_t, nvlist_t list*, int);
-//    int nvlist_dup(nvlist_t list, nvlist_t list*, int);
+    int nvlist_dup(nvlist_t list, PtrByReference<nvlist_t> result, int kmflag);
 //    int nvlist_merge(nvlist_t list, nvlist_t list, int);
 //
 //    int nvlist_xalloc(nvlist_t list*, uint_t, nv_alloc_t *);
@@ -132,7 +137,7 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    int nvlist_add_nvpair(nvlist_t list, nvpair_t *);
     int nvlist_add_boolean(nvlist_t list, String name);
     int nvlist_add_boolean_value(nvlist_t list, String name, boolean value);
-//    int nvlist_add_byte(nvlist_t list, String name, uchar_t);
+    int nvlist_add_byte(nvlist_t list, String name, byte value);
 //    int nvlist_add_int8(nvlist_t list, String name, int8_t);
 //    int nvlist_add_uint8(nvlist_t list, String name, uint8_t);
 //    int nvlist_add_int16(nvlist_t list, String name, int16_t);
@@ -140,7 +145,7 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    int nvlist_add_int32(nvlist_t list, String name, int32_t);
 //    int nvlist_add_uint32(nvlist_t list, String name, uint32_t);
 //    int nvlist_add_int64(nvlist_t list, String name, int64_t);
-//    int nvlist_add_uint64(nvlist_t list, String name, uint64_t);
+    int nvlist_add_uint64(nvlist_t list, String name, long value);
     int nvlist_add_string(nvlist_t list, String key, String value);
     int nvlist_add_nvlist(nvlist_t list, String key, nvlist_t value);
 //    int nvlist_add_boolean_array(nvlist_t list, String name, boolean_t *, uint_t);
@@ -151,14 +156,14 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    int nvlist_add_uint16_array(nvlist_t list, String name, uint16_t *, uint_t);
 //    int nvlist_add_int32_array(nvlist_t list, String name, int32_t *, uint_t);
 //    int nvlist_add_uint32_array(nvlist_t list, String name, uint32_t *, uint_t);
-//    int nvlist_add_int64_array(nvlist_t list, String name, int64_t *, uint_t);
+    int nvlist_add_int64_array(nvlist_t list, String name, long[] values, int nelem);
 //    int nvlist_add_uint64_array(nvlist_t list, String name, uint64_t *, uint_t);
 //    int nvlist_add_string_array(nvlist_t list, String name, char *const *, uint_t);
-//    int nvlist_add_nvlist_array(nvlist_t list, String name, nvlist_t list*, uint_t);
+    int nvlist_add_nvlist_array(nvlist_t list, String name, /*nvlist_t ** */ Pointer[] values, int nelem);
 //    int nvlist_add_hrtime(nvlist_t list, String name, hrtime_t);
 //
 //    int nvlist_remove(nvlist_t list, String name, data_type_t);
-//    int nvlist_remove_all(nvlist_t list, const char *);
+    int nvlist_remove_all(nvlist_t list, String name);
 //
 //    int nvlist_lookup_boolean(nvlist_t list, const char *);
 //    int nvlist_lookup_boolean_value(nvlist_t list, String name, boolean_t *);
@@ -170,7 +175,7 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    int nvlist_lookup_int32(nvlist_t list, String name, int32_t *);
 //    int nvlist_lookup_uint32(nvlist_t list, String name, uint32_t *);
 //    int nvlist_lookup_int64(nvlist_t list, String name, int64_t *);
-//    int nvlist_lookup_uint64(nvlist_t list, String name, uint64_t *);
+    int nvlist_lookup_uint64(nvlist_t list, String name, LongByReference result);
     int nvlist_lookup_string(nvlist_t list, String name, PointerByReference result);
     int nvlist_lookup_nvlist(nvlist_t list, String name, PtrByReference<nvlist_t> result);
 //    int nvlist_lookup_boolean_array(nvlist_t list, String name,
@@ -183,10 +188,9 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    int nvlist_lookup_int32_array(nvlist_t list, String name, int32_t **, uint_t *);
 //    int nvlist_lookup_uint32_array(nvlist_t list, String name, uint32_t **, uint_t *);
 //    int nvlist_lookup_int64_array(nvlist_t list, String name, int64_t **, uint_t *);
-//    int nvlist_lookup_uint64_array(nvlist_t list, String name, uint64_t **, uint_t *);
+    int nvlist_lookup_uint64_array(nvlist_t list, String name, PointerByReference result, IntByReference nelem);
 //    int nvlist_lookup_string_array(nvlist_t list, String name, char ***, uint_t *);
-//    int nvlist_lookup_nvlist_array(nvlist_t list, String name,
-//        nvlist_t list**, uint_t *);
+    int nvlist_lookup_nvlist_array(nvlist_t list, String name, /*nvlist_t ** */ PointerByReference result, IntByReference nelem);
 //    int nvlist_lookup_hrtime(nvlist_t list, String name, hrtime_t *);
 //    int nvlist_lookup_pairs(nvlist_t listnvl, int, ...);
 //
@@ -194,32 +198,32 @@ int nvlist_alloc(PtrByReference<nvlist_t> result, int nvflag, int kmflag);
 //    boolean_t nvlist_exists(nvlist_t listnvl, const char *);
 //
 ///* processing libnvpair */
-//    nvpair_t *nvlist_next_nvpair(nvlist_t listnvl, nvpair_t *);
-//    char *nvpair_name(nvpair_t *);
-//    data_type_t nvpair_type(nvpair_t *);
-//    int nvpair_value_boolean_value(nvpair_t *, boolean_t *);
-//    int nvpair_value_byte(nvpair_t *, uchar_t *);
-//    int nvpair_value_int8(nvpair_t *, int8_t *);
-//    int nvpair_value_uint8(nvpair_t *, uint8_t *);
-//    int nvpair_value_int16(nvpair_t *, int16_t *);
-//    int nvpair_value_uint16(nvpair_t *, uint16_t *);
-//    int nvpair_value_int32(nvpair_t *, int32_t *);
-//    int nvpair_value_uint32(nvpair_t *, uint32_t *);
-//    int nvpair_value_int64(nvpair_t *, int64_t *);
-//    int nvpair_value_uint64(nvpair_t *, uint64_t *);
-//    int nvpair_value_string(nvpair_t *, char **);
-//    int nvpair_value_nvlist(nvpair_t *, nvlist_t list*);
-//    int nvpair_value_boolean_array(nvpair_t *, boolean_t **, uint_t *);
-//    int nvpair_value_byte_array(nvpair_t *, uchar_t **, uint_t *);
-//    int nvpair_value_int8_array(nvpair_t *, int8_t **, uint_t *);
-//    int nvpair_value_uint8_array(nvpair_t *, uint8_t **, uint_t *);
-//    int nvpair_value_int16_array(nvpair_t *, int16_t **, uint_t *);
-//    int nvpair_value_uint16_array(nvpair_t *, uint16_t **, uint_t *);
-//    int nvpair_value_int32_array(nvpair_t *, int32_t **, uint_t *);
-//    int nvpair_value_uint32_array(nvpair_t *, uint32_t **, uint_t *);
-//    int nvpair_value_int64_array(nvpair_t *, int64_t **, uint_t *);
-//    int nvpair_value_uint64_array(nvpair_t *, uint64_t **, uint_t *);
-//    int nvpair_value_string_array(nvpair_t *, char ***, uint_t *);
-//    int nvpair_value_nvlist_array(nvpair_t *, nvlist_t list**, uint_t *);
-//    int nvpair_value_hrtime(nvpair_t *, hrtime_t *);
+    /*nvpair_t*/ Pointer nvlist_next_nvpair(nvlist_t listnvl, /*nvpair_t*/ Pointer pair);
+    String nvpair_name(/*nvpair_t*/ Pointer pair);
+    int/*data_type_t*/ nvpair_type(/*nvpair_t*/ Pointer pair);
+    int nvpair_value_boolean_value(/*nvpair_t*/ Pointer pair, /*boolean_t*/ IntByReference result);
+    int nvpair_value_byte(/*nvpair_t*/ Pointer pair, ByteByReference result);
+    int nvpair_value_int8(/*nvpair_t*/ Pointer pair, ByteByReference result);
+    int nvpair_value_uint8(/*nvpair_t*/ Pointer pair, ByteByReference result);
+    int nvpair_value_int16(/*nvpair_t*/ Pointer pair, ShortByReference result);
+    int nvpair_value_uint16(/*nvpair_t*/ Pointer pair, ShortByReference result);
+    int nvpair_value_int32(/*nvpair_t*/ Pointer pair, IntByReference result);
+    int nvpair_value_uint32(/*nvpair_t*/ Pointer pair, IntByReference result);
+    int nvpair_value_int64(/*nvpair_t*/ Pointer pair, LongByReference result);
+    int nvpair_value_uint64(/*nvpair_t*/ Pointer pair, LongByReference result);
+    int nvpair_value_string(/*nvpair_t*/ Pointer pair, PointerByReference result);
+    int nvpair_value_nvlist(/*nvpair_t*/ Pointer pair, PtrByReference<nvlist_t> result);
+    int nvpair_value_boolean_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_byte_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_int8_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_uint8_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_int16_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_uint16_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_int32_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_uint32_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_int64_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_uint64_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_string_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_nvlist_array(/*nvpair_t*/ Pointer pair, PointerByReference result, IntByReference nelem);
+    int nvpair_value_hrtime(/*nvpair_t*/ Pointer pair, LongByReference result);
 }
@@ -23,10 +23,21 @@ package org.jvnet.solaris.nvlist.jna;
 import static org.jvnet.solaris.nvlist.jna.libnvpair.LIBNVPAIR;
 import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.jvnet.solaris.jna.PtrByReference;
 
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
 import com.sun.jna.PointerType;
+import com.sun.jna.ptr.ByteByReference;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
 import com.sun.jna.ptr.PointerByReference;
+import com.sun.jna.ptr.ShortByReference;
 
 /**
  * Opaque handle type that represents name/value pair list.
@@ -50,6 +61,40 @@ public class nvlist_t extends PointerType {
         return alloc(NV_UNIQUE_NAME);
     }
 
+    /**
+     * Wraps {@link nvlist_t} that libzfs allocated for us through an out parameter.
+     * The caller is responsible for freeing such a list, so the returned object
+     * owns it and releases it when garbage collected.
+     *
+     * @return
+     *      null if the out parameter was left unset.
+     */
+    public static nvlist_t adopt(PtrByReference<nvlist_t> ref) {
+        nvlist_t r = ref.getValue(nvlist_t.class);
+        if(r!=null)
+            r.owner = true;
+        return r;
+    }
+
+    /**
+     * Makes a deep copy, owned by the returned object.
+     */
+    public nvlist_t dup() {
+        PtrByReference<nvlist_t> buf = new PtrByReference<nvlist_t>();
+        if(LIBNVPAIR.nvlist_dup(this,buf,0)!=0)
+            throw new NVListException();
+        return adopt(buf);
+    }
+
+    /**
+     * Removes all the pairs of the given name, whatever their type.
+     */
+    public void remove(String key) {
+        int r = LIBNVPAIR.nvlist_remove_all(this,key);
+        if(r!=0 && r!=2/*ENOENT*/)
+            throw new NVListException();
+    }
+
     public void put(String key, String value) {
         if(LIBNVPAIR.nvlist_add_string(this,key,value)!=0)
             throw new NVListException();
@@ -65,11 +110,30 @@ public class nvlist_t extends PointerType {
         }
     }
 
+    /**
+     * Adds a uint64 value.
+     */
+    public void put(String key, long value) {
+        if(LIBNVPAIR.nvlist_add_uint64(this,key,value)!=0)
+            throw new NVListException();
+    }
+
     public void put(String key, nvlist_t value) {
         if(LIBNVPAIR.nvlist_add_nvlist(this,key,value)!=0)
             throw new NVListException();
     }
 
+    /**
+     * Adds an nvlist array. The lists are copied.
+     */
+    public void put(String key, nvlist_t[] values) {
+        Pointer[] ptrs = new Pointer[values.length];
+        for (int i=0; i<values.length; i++)
+            ptrs[i] = values[i].getPointer();
+        if(LIBNVPAIR.nvlist_add_nvlist_array(this,key,ptrs,ptrs.length)!=0)
+            throw new NVListException();
+    }
+
     public String getString(String key) {
         PointerByReference r = new PointerByReference();
         if(LIBNVPAIR.nvlist_lookup_string(this,key,r)!=0)
@@ -77,6 +141,283 @@ public class nvlist_t extends PointerType {
         return r.getValue().getString(0);
     }
 
+    /**
+     * Looks up a uint64 value.
+     *
+     * @return
+     *      null if no such key exists (or if it's not uint64.)
+     */
+    public Long getLong(String key) {
+        LongByReference r = new LongByReference();
+        if(LIBNVPAIR.nvlist_lookup_uint64(this,key,r)!=0)
+            return null;
+        return r.getValue();
+    }
+
+    /**
+     * Looks up a uint64 array value.
+     *
+     * @return
+     *      null if no such key exists (or if it's not a uint64 array.)
+     */
+    public long[] getLongArray(String key) {
+        PointerByReference r = new PointerByReference();
+        IntByReference n = new IntByReference();
+        if(LIBNVPAIR.nvlist_lookup_uint64_array(this,key,r,n)!=0)
+            return null;
+        return array(r).getLongArray(0,n.getValue());
+    }
+
+    /**
+     * Lists up the names of all the pairs in this list, in the order they are stored.
+     */
+    public List<String> names() {
+        List<String> r = new ArrayList<String>();
+        for (Pointer p = LIBNVPAIR.nvlist_next_nvpair(this,null); p!=null; p = LIBNVPAIR.nvlist_next_nvpair(this,p))
+            r.add(LIBNVPAIR.nvpair_name(p));
+        return r;
+    }
+
+    /**
+     * Copies the whole list into Java objects in one pass, which is much cheaper
+     * than looking up many keys one by one.
+     *
+     * <p>
+     * Values map as follows: strings to {@link String}, booleans to {@link Boolean}
+     * (a value-less boolean flag to {@link Boolean#TRUE}), 8/16/32-bit integers to
+     * {@link Integer} except uint32 to {@link Long}, 64-bit integers and hrtime to
+     * {@link Long} (uint64 above {@link Long#MAX_VALUE} come out negative),
+     * nested lists to {@link Map}, lists of nested lists to {@link List} of {@link Map},
+     * and the other arrays to Java arrays of the matching type
+     * (byte[], int[], long[], boolean[], String[]). Unknown types are skipped.
+     *
+     * @return
+     *      Map that keeps the order of the pairs.
+     */
+    public Map<String,Object> toMap() {
+        Map<String,Object> r = new LinkedHashMap<String,Object>();
+        for (Pointer p = LIBNVPAIR.nvlist_next_nvpair(this,null); p!=null; p = LIBNVPAIR.nvlist_next_nvpair(this,p)) {
+            Object v = valueOf(p);
+            if (v!=null)
+                r.put(LIBNVPAIR.nvpair_name(p), v);
+        }
+        return r;
+    }
+
+    /**
+     * Copies the values of all the pairs, in the order they are stored, mapped
+     * as {@link #toMap()} does. Unlike {@link #toMap()}, this keeps every pair of a
+     * list allocated without {@link libnvpair#NV_UNIQUE_NAME}, where many pairs can
+     * have the same name.
+     */
+    public List<Object> values() {
+        List<Object> r = new ArrayList<Object>();
+        for (Pointer p = LIBNVPAIR.nvlist_next_nvpair(this,null); p!=null; p = LIBNVPAIR.nvlist_next_nvpair(this,p)) {
+            Object v = valueOf(p);
+            if (v!=null)
+                r.add(v);
+        }
+        return r;
+    }
+
+    private static Object valueOf(Pointer p) {
+        int type = LIBNVPAIR.nvpair_type(p);
+        if (type<0 || type>=DATA_TYPES.length)
+            return null;
+        switch (DATA_TYPES[type]) {
+        case DATA_TYPE_BOOLEAN:
+            return Boolean.TRUE;
+        case DATA_TYPE_BOOLEAN_VALUE: {
+            IntByReference r = new IntByReference();
+            check(LIBNVPAIR.nvpair_value_boolean_value(p,r));
+            return r.getValue()!=0;
+        }
+        case DATA_TYPE_BYTE: {
+            ByteByReference r = new ByteByReference();
+            check(LIBNVPAIR.nvpair_value_byte(p,r));
+            return r.getValue()&0xFF;
+        }
+        case DATA_TYPE_UINT8: {
+            ByteByReference r = new ByteByReference();
+            check(LIBNVPAIR.nvpair_value_uint8(p,r));
+            return r.getValue()&0xFF;
+        }
+        case DATA_TYPE_INT8: {
+            ByteByReference r = new ByteByReference();
+            check(LIBNVPAIR.nvpair_value_int8(p,r));
+            return (int)r.getValue();
+        }
+        case DATA_TYPE_INT16: {
+            ShortByReference r = new ShortByReference();
+            check(LIBNVPAIR.nvpair_value_int16(p,r));
+            return (int)r.getValue();
+        }
+        case DATA_TYPE_UINT16: {
+            ShortByReference r = new ShortByReference();
+            check(LIBNVPAIR.nvpair_value_uint16(p,r));
+            return r.getValue()&0xFFFF;
+        }
+        case DATA_TYPE_INT32: {
+            IntByReference r = new IntByReference();
+            check(LIBNVPAIR.nvpair_value_int32(p,r));
+            return r.getValue();
+        }
+        case DATA_TYPE_UINT32: {
+            IntByReference r = new IntByReference();
+            check(LIBNVPAIR.nvpair_value_uint32(p,r));
+            return r.getValue()&0xFFFFFFFFL;
+        }
+        case DATA_TYPE_INT64: {
+            LongByReference r = new LongByReference();
+            check(LIBNVPAIR.nvpair_value_int64(p,r));
+            return r.getValue();
+        }
+        case DATA_TYPE_UINT64: {
+            LongByReference r = new LongByReference();
+            check(LIBNVPAIR.nvpair_value_uint64(p,r));
+            return r.getValue();
+        }
+        case DATA_TYPE_HRTIME: {
+            LongByReference r = new LongByReference();
+            check(LIBNVPAIR.nvpair_value_hrtime(p,r));
+            return r.getValue();
+        }
+        case DATA_TYPE_STRING: {
+            PointerByReference r = new PointerByReference();
+            check(LIBNVPAIR.nvpair_value_string(p,r));
+            return r.getValue().getString(0);
+        }
+        case DATA_TYPE_NVLIST: {
+            PtrByReference<nvlist_t> r = new PtrByReference<nvlist_t>();
+            check(LIBNVPAIR.nvpair_value_nvlist(p,r));
+            return r.getValue(nvlist_t.class).toMap();
+        }
+        }
+
+        // arrays
+        PointerByReference r = new PointerByReference();
+        IntByReference n = new IntByReference();
+        switch (DATA_TYPES[type]) {
+        case DATA_TYPE_BYTE_ARRAY:
+            check(LIBNVPAIR.nvpair_value_byte_array(p,r,n));
+            return array(r).getByteArray(0,n.getValue());
+        case DATA_TYPE_UINT8_ARRAY:
+            check(LIBNVPAIR.nvpair_value_uint8_array(p,r,n));
+            return array(r).getByteArray(0,n.getValue());
+        case DATA_TYPE_INT8_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_int8_array(p,r,n));
+            byte[] b = array(r).getByteArray(0,n.getValue());
+            int[] a = new int[b.length];
+            for (int i=0; i<a.length; i++)
+                a[i] = b[i];
+            return a;
+        }
+        case DATA_TYPE_INT16_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_int16_array(p,r,n));
+            short[] s = array(r).getShortArray(0,n.getValue());
+            int[] a = new int[s.length];
+            for (int i=0; i<a.length; i++)
+                a[i] = s[i];
+            return a;
+        }
+        case DATA_TYPE_UINT16_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_uint16_array(p,r,n));
+            short[] s = array(r).getShortArray(0,n.getValue());
+            int[] a = new int[s.length];
+            for (int i=0; i<a.length; i++)
+                a[i] = s[i]&0xFFFF;
+            return a;
+        }
+        case DATA_TYPE_INT32_ARRAY:
+            check(LIBNVPAIR.nvpair_value_int32_array(p,r,n));
+            return array(r).getIntArray(0,n.getValue());
+        case DATA_TYPE_UINT32_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_uint32_array(p,r,n));
+            int[] i32 = array(r).getIntArray(0,n.getValue());
+            long[] a = new long[i32.length];
+            for (int i=0; i<a.length; i++)
+                a[i] = i32[i]&0xFFFFFFFFL;
+            return a;
+        }
+        case DATA_TYPE_INT64_ARRAY:
+            check(LIBNVPAIR.nvpair_value_int64_array(p,r,n));
+            return array(r).getLongArray(0,n.getValue());
+        case DATA_TYPE_UINT64_ARRAY:
+            check(LIBNVPAIR.nvpair_value_uint64_array(p,r,n));
+            return array(r).getLongArray(0,n.getValue());
+        case DATA_TYPE_BOOLEAN_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_boolean_array(p,r,n));
+            int[] i32 = array(r).getIntArray(0,n.getValue());
+            boolean[] a = new boolean[i32.length];
+            for (int i=0; i<a.length; i++)
+                a[i] = i32[i]!=0;
+            return a;
+        }
+        case DATA_TYPE_STRING_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_string_array(p,r,n));
+            Pointer[] ptrs = array(r).getPointerArray(0,n.getValue());
+            String[] a = new String[ptrs.length];
+            for (int i=0; i<a.length; i++)
+                a[i] = ptrs[i].getString(0);
+            return a;
+        }
+        case DATA_TYPE_NVLIST_ARRAY: {
+            check(LIBNVPAIR.nvpair_value_nvlist_array(p,r,n));
+            Pointer[] ptrs = array(r).getPointerArray(0,n.getValue());
+            List<Map<String,Object>> a = new ArrayList<Map<String,Object>>(ptrs.length);
+            for (Pointer ptr : ptrs) {
+                nvlist_t nvl = new nvlist_t();
+                nvl.setPointer(ptr);    // not the owner
+                a.add(nvl.toMap());
+            }
+            return a;
+        }
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * libnvpair checks that the getter matches the type of the pair exactly.
+     */
+    private static void check(int r) {
+        if (r!=0)
+            throw new NVListException();
+    }
+
+    /**
+     * Empty arrays may come back as NULL.
+     */
+    private static Pointer array(PointerByReference r) {
+        Pointer p = r.getValue();
+        return p!=null ? p : EMPTY;
+    }
+
+    private static final Pointer EMPTY = new Memory(8);
+
+    private static final libnvpair.data_type_t[] DATA_TYPES = libnvpair.data_type_t.values();
+
+    /**
+     * Looks up an nvlist array value. The lists belong to this one, so they
+     * can be changed in place but not kept after this one is freed.
+     *
+     * @return
+     *      null if no such key exists (or if it's not an nvlist array.)
+     */
+    public nvlist_t[] getNVListArray(String key) {
+        PointerByReference r = new PointerByReference();
+        IntByReference n = new IntByReference();
+        if(LIBNVPAIR.nvlist_lookup_nvlist_array(this,key,r,n)!=0)
+            return null;
+        Pointer[] ptrs = array(r).getPointerArray(0,n.getValue());
+        nvlist_t[] a = new nvlist_t[ptrs.length];
+        for (int i=0; i<a.length; i++) {
+            a[i] = new nvlist_t();
+            a[i].setPointer(ptrs[i]);   // not the owner
+        }
+        return a;
+    }
+
     public nvlist_t getNVList(String key) {
         PtrByReference<nvlist_t> r = new PtrByReference<nvlist_t>();
         if(LIBNVPAIR.nvlist_lookup_nvlist(this,key,r)!=0)
@@ -0,0 +1,190 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.label;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jvnet.solaris.nvlist.XdrEncoder;
+
+/**
+ * Reads labels off synthetic image files.
+ */
+public class LabelReaderTest extends TestCase {
+    private static final int MB = 1024 * 1024;
+    private static final long ZEC_MAGIC = 0x0210da7ab10c7a11L;
+
+    private File image;
+    private RandomAccessFile raf;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        image = File.createTempFile("vdev", ".img");
+        raf = new RandomAccessFile(image, "rw");
+        // a bit more than 8MB, which ZFS rounds down to a multiple of the label size
+        raf.setLength(8 * MB + 1000);
+    }
+
+    public void tearDown() throws Exception {
+        raf.close();
+        image.delete();
+        super.tearDown();
+    }
+
+    private static Map<String,Object> config(long txg) {
+        Map<String,Object> tree = new LinkedHashMap<String,Object>();
+        tree.put("type", "file");
+        tree.put("id", 0L);
+        tree.put("guid", 222L);
+        tree.put("path", "/images/vdev.img");
+        tree.put("ashift", 12L);
+
+        Map<String,Object> m = new LinkedHashMap<String,Object>();
+        m.put("version", 5000L);
+        m.put("name", "tank");
+        m.put("state", 1L);
+        m.put("txg", txg);
+        m.put("pool_guid", 111L);
+        m.put("hostname", "db1");
+        m.put("top_guid", 222L);
+        m.put("guid", 222L);
+        m.put("vdev_children", 1L);
+        m.put("vdev_tree", tree);
+        return m;
+    }
+
+    private long labelOffset(int l) {
+        long size = 8 * MB;
+        return l * 256 * 1024L + (l < 2 ? 0 : size - 4 * 256 * 1024L);
+    }
+
+    /**
+     * Writes a block with its embedded checksum, the way ZFS does.
+     */
+    private void writeBlock(long offset, byte[] payload, int size, ByteOrder order) throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(size).order(order);
+        b.put(payload);
+        int trailer = size - 40;
+        b.putLong(trailer, ZEC_MAGIC);
+        b.putLong(trailer + 8, offset);
+        long a0 = 0, a1 = 0, b0 = 0, b1 = 0;
+        for (int i = 0; i < size; i += 16) {
+            a0 += b.getLong(i);
+            a1 += b.getLong(i + 8);
+            b0 += a0;
+            b1 += a1;
+        }
+        b.putLong(trailer + 8, a0).putLong(trailer + 16, a1).putLong(trailer + 24, b0).putLong(trailer + 32, b1);
+        raf.seek(offset);
+        raf.write(b.array());
+    }
+
+    private void writeConfig(int l, Map<String,Object> config) throws Exception {
+        writeBlock(labelOffset(l) + 16 * 1024, XdrEncoder.pack(config), 112 * 1024, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeUberblock(int l, int slot, long txg, ByteOrder order) throws Exception {
+        ByteBuffer ub = ByteBuffer.allocate(208).order(order);
+        ub.putLong(0, 0x00bab10cL).putLong(8, 5000).putLong(16, txg).putLong(24, 333).putLong(32, 1700000000L + txg);
+        writeBlock(labelOffset(l) + 128 * 1024 + slot * 4096, ub.array(), 4096, order);
+    }
+
+    public void testReadLabels() throws Exception {
+        for (int l = 0; l < 4; l++) {
+            writeConfig(l, config(40));
+            writeUberblock(l, 0, 32, ByteOrder.LITTLE_ENDIAN);
+            writeUberblock(l, 8, 40, ByteOrder.LITTLE_ENDIAN);
+            writeUberblock(l, 7, 39, ByteOrder.BIG_ENDIAN);
+        }
+
+        LabelReader r = new LabelReader(image);
+        try {
+            assertEquals(8 * MB, r.getSize());
+            List<VdevLabel> labels = r.readLabels();
+            assertEquals(4, labels.size());
+            VdevLabel l3 = labels.get(3);
+            assertEquals(3, l3.getIndex());
+            assertEquals(labelOffset(3), l3.getOffset());
+            assertEquals("tank", l3.getPoolName());
+            assertEquals(111, l3.getPoolGuid());
+            assertEquals(40, l3.getTxg());
+            assertEquals("db1", l3.getHostName());
+            assertEquals("/images/vdev.img", l3.getVdevTree().get("path"));
+
+            // 4K slots since ashift=12
+            assertEquals(3, l3.getUberblocks().size());
+            assertEquals(ByteOrder.BIG_ENDIAN, l3.getUberblocks().get(1).getByteOrder());
+            assertEquals(39, l3.getUberblocks().get(1).getTxg());
+
+            Uberblock u = r.findActiveUberblock();
+            assertEquals(40, u.getTxg());
+            assertEquals(8, u.getSlot());
+            assertEquals(333, u.getGuidSum());
+            assertEquals((1700000000L + 40) * 1000, u.getTimestamp().getTime());
+        } finally {
+            r.close();
+        }
+    }
+
+    public void testDamage() throws Exception {
+        writeConfig(0, config(40));
+        writeUberblock(0, 1, 41, ByteOrder.LITTLE_ENDIAN);
+        writeUberblock(0, 2, 50, ByteOrder.LITTLE_ENDIAN);
+        writeConfig(2, config(40));
+        writeUberblock(2, 3, 45, ByteOrder.LITTLE_ENDIAN);
+
+        // flip a byte in the newest uberblock and in the config of label 2
+        raf.seek(labelOffset(0) + 128 * 1024 + 2 * 4096 + 100);
+        raf.write(1);
+        raf.seek(labelOffset(2) + 16 * 1024 + 64);
+        raf.write(0x55);
+
+        LabelReader r = new LabelReader(image);
+        try {
+            assertNull(r.readLabel(1));  // blank
+            assertNull(r.readLabel(2));  // bad checksum
+            List<VdevLabel> labels = r.readLabels();
+            assertEquals(1, labels.size());
+            assertEquals(1, labels.get(0).getUberblocks().size());
+            assertEquals(41, r.findActiveUberblock().getTxg());
+        } finally {
+            r.close();
+        }
+    }
+
+    public void testTooSmall() throws Exception {
+        raf.setLength(MB - 1);
+        try {
+            new LabelReader(image);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of {@link AbiCache} with made-up library files.
+ */
+public class AbiCacheTest extends TestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("abicache", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private File library(byte[] contents) throws IOException {
+        return library("libzfs.so", contents);
+    }
+
+    private File library(String name, byte[] contents) throws IOException {
+        File f = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    public void testRoundTrip() throws IOException {
+        File lib = library("not an ELF file".getBytes());
+        File file = new File(dir, "abi.properties");
+        AbiCache cache = new AbiCache(file, lib);
+        assertNull(cache.load());
+
+        Map<String,Boolean> symbols = new TreeMap<String,Boolean>();
+        symbols.put("zpool_get_features", true);
+        symbols.put("zfs_perm_set", false);
+        cache.store(symbols);
+
+        assertEquals(symbols, new AbiCache(file, lib).load(new String[] {"zpool_get_features"}));
+        // a symbol this version looks for but the cache didn't record
+        assertNull(new AbiCache(file, lib).load(new String[] {"lzc_channel_program"}));
+
+        // libzfs_core came or went, or got replaced on its own
+        File core = library("libzfs_core.so", "not an ELF file either".getBytes());
+        assertNull(new AbiCache(file, lib, core).load());
+        new AbiCache(file, lib, core).store(symbols);
+        assertEquals(symbols, new AbiCache(file, lib, core).load());
+        core.setLastModified(core.lastModified() - 60000);
+        assertNull(new AbiCache(file, lib, core).load());
+
+        // the library got replaced
+        lib.setLastModified(lib.lastModified() - 60000);
+        assertNull(new AbiCache(file, lib).load());
+    }
+
+    public void testBuildId() throws IOException {
+        assertEquals("", AbiCache.readBuildId(library(new byte[10])));
+
+        // 64-bit little endian ELF with a single PT_NOTE program header
+        byte[] elf = new byte[64 + 56 + 16 + 4];
+        ByteBuffer b = ByteBuffer.wrap(elf).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0, 0x464c457f);
+        elf[4] = 2;
+        elf[5] = 1;
+        b.putLong(32, 64);
+        b.putShort(54, (short) 56);
+        b.putShort(56, (short) 1);
+        b.putInt(64, 4);
+        b.putLong(64 + 8, 120);
+        b.putLong(64 + 32, 20);
+        b.putInt(120, 4);
+        b.putInt(124, 4);
+        b.putInt(128, 3);
+        b.put(132, (byte) 'G').put(133, (byte) 'N').put(134, (byte) 'U');
+        b.putInt(136, 0xefbeadde);
+        assertEquals("deadbeef", AbiCache.readBuildId(library(elf)));
+    }
+}
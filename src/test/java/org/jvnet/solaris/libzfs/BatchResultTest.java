@@ -0,0 +1,71 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link BatchResult} and the context of its exceptions.
+ */
+public class BatchResultTest extends TestCase {
+    private static ZFSException failure(ErrorCode code) {
+        return new ZFSException("failed", code);
+    }
+
+    public void testResult() {
+        Map<String,ZFSException> failures = new TreeMap<String,ZFSException>();
+        failures.put("rpool/b@x", failure(ErrorCode.EZFS_EXISTS));
+        failures.put("rpool/c@x", failure(ErrorCode.EZFS_BUSY));
+        BatchResult r = new BatchResult("snapshot", Arrays.asList("rpool/c@x", "rpool/a@x", "rpool/b@x"), failures);
+
+        assertFalse(r.isSuccess());
+        assertEquals(Arrays.asList("rpool/a@x"), r.getSucceeded());
+        assertEquals(2, r.getFailures().size());
+        assertEquals("rpool/b@x", r.getFailures().get("rpool/b@x").getDataSetName());
+        assertEquals("snapshot", r.getFailures().get("rpool/b@x").getOperation());
+        assertEquals("snapshot: 1 succeeded, 2 failed: rpool/b@x EZFS_EXISTS, rpool/c@x EZFS_BUSY", r.toString());
+
+        assertEquals(1, r.getFailuresExcept(ErrorCode.EZFS_EXISTS).size());
+        r.throwIfFailed(ErrorCode.EZFS_EXISTS, ErrorCode.EZFS_BUSY);
+        try {
+            r.throwIfFailed(ErrorCode.EZFS_EXISTS);
+            fail();
+        } catch (ZFSException e) {
+            assertEquals(ErrorCode.EZFS_BUSY, e.getCode());
+        }
+    }
+
+    public void testStackTraceSuppression() {
+        assertTrue(failure(ErrorCode.EZFS_BUSY).getStackTrace().length > 0);
+        boolean old = ZFSException.suppressStackTraces(true);
+        try {
+            assertFalse(old);
+            assertEquals(0, failure(ErrorCode.EZFS_BUSY).getStackTrace().length);
+        } finally {
+            ZFSException.suppressStackTraces(old);
+        }
+        assertTrue(failure(ErrorCode.EZFS_BUSY).getStackTrace().length > 0);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link Capabilities} built from made-up lookup results.
+ */
+public class CapabilitiesTest extends TestCase {
+    private static Capabilities of(String... present) {
+        Map<String,Boolean> symbols = new TreeMap<String,Boolean>();
+        for (String s : Capabilities.FEATURE_SYMBOLS)
+            symbols.put(s, false);
+        for (String s : Capabilities.OPTIONAL_SYMBOLS)
+            symbols.put(s, false);
+        for (String s : present)
+            symbols.put(s, true);
+        return new Capabilities(symbols, 0);
+    }
+
+    public void testABI() {
+        assertEquals("legacy", of("zfs_perm_set").getABI());
+        Capabilities c = of("spa_feature_is_enabled", "lzc_channel_program", "lzc_destroy_snaps");
+        assertEquals("openzfs", c.getABI());
+        assertTrue(c.isOpenZFS());
+        assertTrue(c.canRunChannelPrograms());
+        assertTrue(c.canDestroySnapshotsInBatch());
+        assertFalse(c.canMountInParallel());
+        assertFalse(c.hasEventQueue());
+    }
+
+    public void testShareProtocolLists() {
+        // 2.0/2.1 have a zfs_commit_shares(const char *) too
+        assertFalse(of("spa_feature_is_enabled", "zfs_commit_shares", "zfs_commit_all_shares", "zfs_share_nfs").hasShareProtocolLists());
+        assertTrue(of("spa_feature_is_enabled", "zfs_commit_shares").hasShareProtocolLists());
+        assertFalse(of("spa_feature_is_enabled", "zfs_commit_nfs_shares", "zfs_commit_all_shares").hasShareProtocolLists());
+    }
+
+    public void testPoolFeatures() {
+        Capabilities c = of("zpool_get_features");
+        assertNull(c.getPoolFeatures("tank"));
+        assertNull(c.getPoolFeature("tank", "lz4_compress"));
+
+        Map<String,Long> refcounts = new TreeMap<String,Long>();
+        refcounts.put("org.illumos:lz4_compress", 1L);
+        refcounts.put("com.delphix:async_destroy", 0L);
+        Map<String,Capabilities.FeatureState> states = c.recordPoolFeatures("tank", refcounts);
+        assertEquals(2, states.size());
+        assertEquals(Capabilities.FeatureState.ACTIVE, states.get("lz4_compress"));
+
+        assertEquals(Capabilities.FeatureState.ACTIVE, c.getPoolFeature("tank", "feature@lz4_compress"));
+        assertEquals(Capabilities.FeatureState.ENABLED, c.getPoolFeature("tank", "com.delphix:async_destroy"));
+        assertEquals(Capabilities.FeatureState.DISABLED, c.getPoolFeature("tank", "large_blocks"));
+
+        c.forgetPool("tank");
+        assertNull(c.getPoolFeatures("tank"));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Ordering of {@link DestroyPlanner.Plan}, on made-up trees.
+ */
+public class DestroyPlannerTest extends TestCase {
+    private static int stepOf(DestroyPlanner.Plan plan, String name) {
+        List<DestroyPlanner.Step> steps = plan.getSteps();
+        for (int i=0; i<steps.size(); i++) {
+            if (steps.get(i).getSnapshots().contains(name) || steps.get(i).getDataSets().contains(name))
+                return i;
+        }
+        throw new AssertionError(name+" isn't in the plan");
+    }
+
+    public void testOrder() {
+        DestroyPlanner.Plan plan = new DestroyPlanner.Plan("tank/t");
+        plan.add("tank/t", false, null, 1000);
+        plan.add("tank/t@1", true, null, 10);
+        plan.add("tank/t/a", false, null, 600);
+        plan.add("tank/t/a@1", true, null, 10);
+        plan.add("tank/t/a@2", true, null, 10);
+        plan.add("tank/t/a/b", false, null, 100);
+        plan.add("tank/t/a/b@1", true, null, 10);
+        plan.add("tank/t/c", false, "tank/t/a@1", 50);
+        plan.add("tank/t/c/d", false, "tank/other@1", 50);
+        plan.schedule();
+
+        assertEquals(9, plan.size());
+        assertEquals(1000, plan.getEstimatedFreedSpace());
+
+        // clones before origins
+        assertTrue(stepOf(plan, "tank/t/c") < stepOf(plan, "tank/t/a@1"));
+        // snapshots before their file systems
+        assertTrue(stepOf(plan, "tank/t/a@2") < stepOf(plan, "tank/t/a"));
+        assertTrue(stepOf(plan, "tank/t/a/b@1") < stepOf(plan, "tank/t/a/b"));
+        // children before parents
+        assertTrue(stepOf(plan, "tank/t/a/b") < stepOf(plan, "tank/t/a"));
+        assertTrue(stepOf(plan, "tank/t/c/d") < stepOf(plan, "tank/t/c"));
+        assertEquals(plan.getSteps().size()-1, stepOf(plan, "tank/t"));
+
+        // everything that can go first goes in one step
+        DestroyPlanner.Step first = plan.getSteps().get(0);
+        assertEquals(Arrays.asList("tank/t@1", "tank/t/a@2", "tank/t/a/b@1"), first.getSnapshots());
+        assertEquals(Arrays.asList("tank/t/c/d"), first.getDataSets());
+    }
+
+    public void testDryRunReport() {
+        DestroyPlanner.Plan plan = new DestroyPlanner.Plan("tank/t");
+        plan.add("tank/t", false, null, 300);
+        plan.add("tank/t@1", true, null, 100);
+        plan.schedule();
+
+        assertEquals("would destroy tank/t@1\nwould destroy tank/t\nwould reclaim 300 bytes", plan.toString());
+    }
+}
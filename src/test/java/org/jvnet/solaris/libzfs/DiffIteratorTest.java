@@ -0,0 +1,100 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+/**
+ * Parsing of "zfs diff -HtF" lines, which doesn't need libzfs.
+ */
+public class DiffIteratorTest extends TestCase {
+    private static DiffEntry parse(String line) throws UnsupportedEncodingException {
+        return DiffIterator.parse(line.getBytes("UTF-8"));
+    }
+
+    public void testModified() throws Exception {
+        DiffEntry e = parse("1500000000.000000123\tM\t/\t/tank/fs/dir");
+        assertEquals(DiffEntry.ChangeType.MODIFIED, e.getChangeType());
+        assertEquals(DiffEntry.FileType.DIRECTORY, e.getFileType());
+        assertEquals("/tank/fs/dir", e.getPath());
+        assertNull(e.getNewPath());
+        assertEquals(1500000000000000123L, e.getChangeTimeNanos());
+
+        e = parse("1500000000.000000000\tM\tF\t/tank/fs/a\t(-1)");
+        assertEquals(-1, e.getLinkCountDelta());
+        e = parse("1500000000.000000000\tM\tF\t/tank/fs/a\t(+2)");
+        assertEquals(2, e.getLinkCountDelta());
+    }
+
+    public void testRenamed() throws Exception {
+        DiffEntry e = parse("1500000000.000000000\tR\tF\t/tank/fs/a\t/tank/fs/b");
+        assertEquals(DiffEntry.ChangeType.RENAMED, e.getChangeType());
+        assertEquals(DiffEntry.FileType.FILE, e.getFileType());
+        assertEquals("/tank/fs/a", e.getPath());
+        assertEquals("/tank/fs/b", e.getNewPath());
+    }
+
+    public void testEscapedNames() throws Exception {
+        // a space, a tab, a backslash, and "é" as UTF-8 bytes
+        DiffEntry e = parse("1500000000.000000000\t+\tF\t/tank/fs/a\\040b\\011c\\134d\\303\\251");
+        assertEquals(DiffEntry.ChangeType.ADDED, e.getChangeType());
+        assertEquals("/tank/fs/a b\tc\\dé", e.getPath());
+
+        e = parse("1500000000.000000000\tR\t@\t/tank/fs/old\\040name\t/tank/fs/new\\040name");
+        assertEquals(DiffEntry.FileType.SYMLINK, e.getFileType());
+        assertEquals("/tank/fs/old name", e.getPath());
+        assertEquals("/tank/fs/new name", e.getNewPath());
+
+        // a backslash that doesn't start an octal escape stays as it is
+        assertEquals("/tank/fs/a\\b", parse("1500000000.000000000\t-\tF\t/tank/fs/a\\b").getPath());
+    }
+
+    public void testUnknownChangeType() throws Exception {
+        assertNull(parse("1500000000.000000000\tX\tF\t/tank/fs/a"));
+        assertEquals(DiffEntry.FileType.UNKNOWN, parse("1500000000.000000000\t-\tZ\t/tank/fs/a").getFileType());
+    }
+
+    public void testMalformed() throws Exception {
+        String[] lines = {
+            "",
+            "1500000000.000000000",
+            "1500000000.000000000\tM\tF",               // cut short
+            "1500000000.000000000\t\tF\t/tank/fs/a",     // empty change type
+            "1500000000.000000000\tM\t\t/tank/fs/a",     // empty file type
+            "1500000000.000000000\tM\tF\t",              // empty path
+            "1500000000.000000000\tR\tF\t/tank/fs/a",    // rename to nowhere
+            "1500000000.000000000\tR\tF\t/tank/fs/a\t",
+            "soon\tM\tF\t/tank/fs/a",
+            "1500000000.000000000\tM\tF\t/tank/fs/a\t(x)",
+        };
+        for (String line : lines) {
+            try {
+                parse(line);
+                fail(line);
+            } catch (ZFSException e) {
+                assertEquals(line, ErrorCode.EZFS_DIFFDATA, e.getCode());
+                assertTrue(e.getMessage(), e.getMessage().contains("Malformed zfs diff output"));
+            }
+        }
+    }
+}
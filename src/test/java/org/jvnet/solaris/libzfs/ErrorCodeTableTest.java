@@ -0,0 +1,69 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import junit.framework.TestCase;
+
+/**
+ * Numbering of {@link ErrorCode}s in the two ABIs.
+ */
+public class ErrorCodeTableTest extends TestCase {
+    public void testLegacy() {
+        ErrorCodeTable t = ErrorCodeTable.forABI("legacy");
+        assertEquals(ErrorCode.EZFS_NOMEM, t.decode(2000));
+        assertEquals(ErrorCode.EZFS_VOLHASDATA, t.decode(2013));
+        assertEquals(ErrorCode.EZFS_DEVLINKS, t.decode(2032));
+        assertEquals(2060, t.encode(ErrorCode.EZFS_VDEVNOTSUP));
+        assertEquals(-1, t.encode(ErrorCode.EZFS_NOTSUP));
+    }
+
+    public void testOpenZFS() {
+        ErrorCodeTable t = ErrorCodeTable.forABI("openzfs-2.2");
+        assertEquals("openzfs", t.getABI());
+        assertEquals(ErrorCode.EZFS_EXISTS, t.decode(2008));
+        assertEquals(ErrorCode.EZFS_NOENT, t.decode(2009));
+        // no EZFS_VOLHASDATA in between
+        assertEquals(ErrorCode.EZFS_INVALIDNAME, t.decode(2013));
+        // EZFS_FAULT came in before EZFS_IO
+        assertEquals(ErrorCode.EZFS_FAULT, t.decode(2033));
+        assertEquals(ErrorCode.EZFS_IO, t.decode(2034));
+        assertEquals(ErrorCode.EZFS_UNKNOWN, t.decode(5000));
+        assertEquals(ErrorCode.EZFS_UNKNOWN, t.decode(0));
+        assertEquals(-1, t.encode(ErrorCode.EZFS_DEVLINKS));
+        for (ErrorCode c : ErrorCode.values()) {
+            int n = t.encode(c);
+            if (n >= 0)
+                assertEquals(c, t.decode(n));
+        }
+    }
+
+    public void testOpenZFS21() {
+        ErrorCodeTable t = ErrorCodeTable.forABI("openzfs-2.1");
+        assertEquals("openzfs-2.1", t.getABI());
+        assertEquals(ErrorCode.EZFS_VDEV_NOTSUP, t.decode(2090));
+        // 2.2 has EZFS_NOT_USER_NAMESPACE where 2.1 has EZFS_UNKNOWN
+        assertEquals(ErrorCode.EZFS_UNKNOWN, t.decode(2091));
+        assertEquals(ErrorCode.EZFS_NOT_USER_NAMESPACE, ErrorCodeTable.forABI("openzfs").decode(2091));
+        assertEquals(2091, t.encode(ErrorCode.EZFS_UNKNOWN));
+        assertEquals(-1, t.encode(ErrorCode.EZFS_SHAREFAILED));
+        assertSame(t, ErrorCodeTable.forABI("openzfs-2.0"));
+    }
+}
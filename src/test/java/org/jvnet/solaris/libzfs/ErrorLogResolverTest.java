@@ -0,0 +1,58 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Grouping of the error log entries, as {@link org.jvnet.solaris.nvlist.jna.nvlist_t#values()}
+ * gives them from the list zpool_get_errlog() builds.
+ */
+public class ErrorLogResolverTest extends TestCase {
+    private static Map<String,Object> ejk(long dataset, long object) {
+        Map<String,Object> m = new LinkedHashMap<String,Object>();
+        m.put("dataset", dataset);
+        m.put("object", object);
+        return m;
+    }
+
+    public void testManyEntries() {
+        // all of these are named "ejk" in the nvlist
+        List<Object> entries = new ArrayList<Object>();
+        entries.add(ejk(54, 9));
+        entries.add(ejk(21, 3));
+        entries.add(ejk(54, 2));
+        entries.add(ejk(54, 130));
+        entries.add("not an entry");
+
+        TreeMap<Long,long[]> groups = ErrorLogResolver.group(entries);
+        assertEquals(Arrays.asList(21L, 54L), new ArrayList<Long>(groups.keySet()));
+        assertTrue(Arrays.equals(new long[] {3}, groups.get(21L)));
+        assertTrue(Arrays.equals(new long[] {2, 9, 130}, groups.get(54L)));
+    }
+}
@@ -20,9 +20,21 @@
  */
 package org.jvnet.solaris.libzfs;
 
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -35,8 +47,10 @@ import org.jvnet.solaris.libzfs.ZFSObject;
 import org.jvnet.solaris.libzfs.ZFSPermission;
 import org.jvnet.solaris.libzfs.ZFSPool;
 import org.jvnet.solaris.libzfs.ZFSType;
+import org.jvnet.solaris.libzfs.jna.vdev_state_t;
 import org.jvnet.solaris.libzfs.jna.zfs_prop_t;
 import org.jvnet.solaris.libzfs.jna.zpool_prop_t;
+import org.jvnet.solaris.nvlist.jna.nvlist_t;
 
 /**
  * Unit test for simple ZFS-aware App.
@@ -220,6 +234,420 @@ public class LibZFSTest extends TestCase {
         assertNotNull(zfs.getFileSystemByMountPoint(new File("/rpool")));
     }
 
+    public void testMountTable() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        fs.mount();
+        File mp = fs.getMountPoint();
+        assertEquals(dataSet, zfs.getFileSystemByMountPoint(mp).getName());
+
+        // the index has to notice the unmount
+        fs.unmount();
+        assertFalse(fs.isMounted());
+        assertFalse(zfs.getMountTable().getAll().containsKey(mp));
+    }
+
+    public void testMountAll() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        for (int i = 0; i < 4; i++) {
+            zfs.create(dataSet + "/" + i, ZFSFileSystem.class);
+            zfs.create(dataSet + "/" + i + "/x", ZFSFileSystem.class);
+        }
+
+        assertTrue(zfs.unmountAll(fs, 4).isEmpty());
+        assertFalse(fs.isMounted());
+
+        assertTrue(zfs.mountAll(fs, 4).isEmpty());
+        assertTrue(zfs.open(dataSet + "/3/x", ZFSFileSystem.class).isMounted());
+    }
+
+    public void testShareBatch() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        Map<String,String> props = new HashMap<String,String>();
+        props.put("sharenfs", "on");
+        ZFSFileSystem fs = (ZFSFileSystem) zfs.create(dataSet, ZFSType.FILESYSTEM, props);
+        ZFSSnapshot snap = fs.createSnapshot("golden");
+
+        ShareBatch batch = new ShareBatch(zfs);
+        ZFSFileSystem a = snap.clone(dataSet + "/a", null, true, batch);
+        ZFSFileSystem b = snap.clone(dataSet + "/b", null, true, batch);
+        ZFSFileSystem c = snap.clone(dataSet + "/c", null, false, null);
+        assertEquals(2, batch.size());
+        assertFalse(c.isMounted());
+
+        assertTrue(batch.commit().isEmpty());
+        assertEquals(0, batch.size());
+        assertTrue(a.isShared());
+        assertTrue(b.isShared());
+
+        assertTrue(batch.unshare(a).unshare(b).commit().isEmpty());
+        assertFalse(a.isShared());
+    }
+
+    public void testCloneFactory() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSSnapshot golden = fs.createSnapshot("golden");
+
+        CloneFactory f = new CloneFactory(golden, dataSet, "ws", null, false);
+        try {
+            // the handle caches userrefs, so open it afresh to see the hold
+            assertTrue(zfs.open(golden.getName(), ZFSSnapshot.class).isHeld());
+            List<Future<ZFSFileSystem>> clones = f.provision(3);
+            ZFSFileSystem first = clones.get(0).get();
+            assertTrue(first.isMounted());
+            for (Future<ZFSFileSystem> c : clones)
+                c.get();
+            assertEquals(3, f.getProvisionedCount());
+            assertTrue(f.getLatencyPercentile(50) <= f.getLatencyPercentile(99));
+
+            String name = first.getName();
+            f.recycle(first);
+            assertEquals(name, f.provision().get().getName());
+        } finally {
+            f.close();
+        }
+        assertFalse(zfs.open(golden.getName(), ZFSSnapshot.class).isHeld());
+    }
+
+    public void testPoolHistory() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        PoolHistory h = fs.getPool().history();
+        while (h.hasNext())
+            h.next();
+
+        fs.createSnapshot("polled");
+        boolean seen = false;
+        while (h.hasNext()) {
+            PoolHistory.Record r = h.next();
+            System.out.println(r);
+            if (r.getCommand() != null && r.getCommand().contains(dataSet + "@polled"))
+                seen = true;
+            if (dataSet.equals(r.getDataSetName()) || (dataSet + "@polled").equals(r.getDataSetName()))
+                seen = true;
+        }
+        assertTrue(seen);
+    }
+
+    public void testScrub() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSPool pool = fs.getPool();
+        ScrubScheduler s = new ScrubScheduler(1, 100, TimeUnit.MILLISECONDS).start();
+        try {
+            s.schedule(pool).schedule(pool);
+            assertTrue(s.awaitIdle(10, TimeUnit.MINUTES));
+            assertTrue(s.getFailures().isEmpty());
+            ScanProgress p = pool.getScanProgress();
+            System.out.println(p);
+            assertEquals(ScanProgress.Function.SCRUB, p.getFunction());
+            assertFalse(p.isScanning());
+        } finally {
+            s.close();
+        }
+    }
+
+    public void testVdevTree() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        VdevTree t = fs.getPool().getVdevTree();
+        System.out.println(t);
+        assertFalse(t.getLeaves().isEmpty());
+        for (VdevTree.Vdev v : t.getLeaves()) {
+            assertSame(v, t.get(v.getGuid()));
+            assertSame(v, t.get(v.getPath()));
+        }
+        assertTrue(t.diff(t).isEmpty());
+    }
+
+    public void testVdevWaiter() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSPool pool = fs.getPool();
+        pool.clear(null);
+        VdevTree.Vdev leaf = pool.getVdevTree().getLeaves().get(0);
+        VdevWaiter w = new VdevWaiter(pool).setBackoff(10, 100, TimeUnit.MILLISECONDS);
+        assertTrue(w.awaitState(String.valueOf(leaf.getGuid()), leaf.getState(), 1, TimeUnit.SECONDS));
+        assertFalse(w.awaitRemoval(leaf.getPath(), 200, TimeUnit.MILLISECONDS));
+    }
+
+    public void testVdevOperations() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        File dir = File.createTempFile("libzfs4j", "vdevs");
+        dir.delete();
+        dir.mkdirs();
+        String[] files = PoolSpec.createSparseFiles(dir, 4, PoolSpec.MIN_DEVICE_SIZE);
+        String name = "libzfs4jtest" + System.currentTimeMillis() % 100000;
+        try {
+            ZFSPool pool = zfs.createPool(name, new PoolSpec()
+                    .add(PoolSpec.Vdev.mirror(files[0], files[1]))
+                    .add(VdevTree.VdevClass.SPARE, PoolSpec.Vdev.leaf(files[3])));
+            try {
+                VdevWaiter w = new VdevWaiter(pool).setBackoff(10, 500, TimeUnit.MILLISECONDS);
+
+                pool.offline(files[1], true);
+                assertTrue(w.awaitState(files[1], vdev_state_t.VDEV_STATE_OFFLINE, 10, TimeUnit.SECONDS));
+                pool.online(files[1], false);
+                assertTrue(w.awaitState(files[1], vdev_state_t.VDEV_STATE_HEALTHY, 10, TimeUnit.SECONDS));
+
+                long since = System.currentTimeMillis();
+                pool.attach(files[0], files[2]);
+                assertTrue(w.awaitResilver(since, 60, TimeUnit.SECONDS, null));
+                assertTrue(w.awaitState(files[2], vdev_state_t.VDEV_STATE_HEALTHY, 10, TimeUnit.SECONDS));
+                assertEquals(3, pool.getVdevTree().getTopLevel(VdevTree.VdevClass.NORMAL).get(0).getChildren().size());
+
+                pool.detach(files[2]);
+                assertTrue(w.awaitRemoval(files[2], 10, TimeUnit.SECONDS));
+
+                // the old device goes away by itself once the new one is resilvered
+                since = System.currentTimeMillis();
+                pool.replace(files[1], files[2]);
+                assertTrue(w.awaitResilver(since, 60, TimeUnit.SECONDS, null));
+                assertTrue(w.awaitRemoval(files[1], 10, TimeUnit.SECONDS));
+                assertTrue(w.awaitState(files[2], vdev_state_t.VDEV_STATE_HEALTHY, 10, TimeUnit.SECONDS));
+
+                pool.remove(files[3]);
+                assertTrue(w.awaitRemoval(files[3], 10, TimeUnit.SECONDS));
+                assertTrue(pool.getVdevTree().getSpares().isEmpty());
+            } finally {
+                pool.destroy(false);
+            }
+            assertNull(zfs.getPool(name));
+        } finally {
+            for (String f : files)
+                new File(f).delete();
+            dir.delete();
+        }
+    }
+
+    public void testPoolImporterScan() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSPool pool = fs.getPool();
+        List<File> devices = new ArrayList<File>();
+        for (VdevTree.Vdev v : pool.getVdevTree().getLeaves())
+            devices.add(new File(v.getPath()));
+        devices.add(new File("/nonexistent"));
+
+        Map<Long,PoolImporter.Candidate> found = new PoolImporter(zfs).setParallelism(4).scan(devices);
+        PoolImporter.Candidate c = null;
+        for (PoolImporter.Candidate x : found.values())
+            if (pool.getName().equals(x.getName()))
+                c = x;
+        assertNotNull(found.toString(), c);
+        assertTrue(c.isComplete());
+        assertEquals(devices.size() - 1, c.getDevices().size());
+    }
+
+    public void testPoolImporterImport() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        File dir = File.createTempFile("libzfs4j", "vdevs");
+        dir.delete();
+        dir.mkdirs();
+        File moved = new File(dir, "moved");
+        moved.mkdirs();
+        String[] files = PoolSpec.createSparseFiles(dir, 2, PoolSpec.MIN_DEVICE_SIZE);
+        List<File> devices = new ArrayList<File>();
+        for (String f : files)
+            devices.add(new File(moved, new File(f).getName()));
+        String name = "libzfs4jtest" + System.currentTimeMillis() % 100000;
+        try {
+            ZFSPool pool = zfs.createPool(name, new PoolSpec().add(PoolSpec.Vdev.mirror(files)));
+            pool.export(false, false);
+            pool.dispose();
+            assertNull(zfs.getPool(name));
+
+            // as if the failover node named the disks differently
+            for (int i = 0; i < files.length; i++)
+                assertTrue(new File(files[i]).renameTo(devices.get(i)));
+
+            PoolImporter importer = new PoolImporter(zfs);
+            PoolImporter.Candidate c = null;
+            for (PoolImporter.Candidate x : importer.scan(devices).values())
+                if (name.equals(x.getName()))
+                    c = x;
+            assertNotNull(c);
+            assertTrue(c.isComplete());
+
+            pool = importer.importPool(c, null, null, null, 0);
+            try {
+                List<String> paths = new ArrayList<String>();
+                for (VdevTree.Vdev v : pool.getVdevTree().getLeaves())
+                    paths.add(v.getPath());
+                assertEquals(new HashSet<String>(Arrays.asList(devices.get(0).getPath(), devices.get(1).getPath())),
+                        new HashSet<String>(paths));
+
+                pool.export(false, false);
+                assertTrue(importer.importPools(importer.scan(devices).values(), null, null, 0).isEmpty());
+                pool = zfs.getPool(name);
+                assertNotNull(pool);
+            } finally {
+                pool.destroy(false);
+            }
+            assertNull(zfs.getPool(name));
+        } finally {
+            for (File f : devices)
+                f.delete();
+            for (String f : files)
+                new File(f).delete();
+            moved.delete();
+            dir.delete();
+        }
+    }
+
+    public void testCreatePool() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        File dir = File.createTempFile("libzfs4j", "vdevs");
+        dir.delete();
+        dir.mkdirs();
+        String[] files = PoolSpec.createSparseFiles(dir, 4, PoolSpec.MIN_DEVICE_SIZE);
+        String name = "libzfs4jtest" + System.currentTimeMillis() % 100000;
+        try {
+            PoolSpec spec = new PoolSpec()
+                    .add(PoolSpec.Vdev.mirror(files[0], files[1]))
+                    .add(VdevTree.VdevClass.LOG, PoolSpec.Vdev.leaf(files[2]))
+                    .add(VdevTree.VdevClass.SPARE, PoolSpec.Vdev.leaf(files[3]))
+                    .setAShift(12)
+                    .setFileSystemProperty("compression", "on");
+            ZFSPool pool = zfs.createPool(name, spec);
+            try {
+                VdevTree t = pool.getVdevTree();
+                System.out.println(t);
+                assertEquals(1, t.getTopLevel(VdevTree.VdevClass.NORMAL).size());
+                assertEquals("mirror", t.getTopLevel(VdevTree.VdevClass.NORMAL).get(0).getType());
+                assertEquals(files[2], t.getTopLevel(VdevTree.VdevClass.LOG).get(0).getPath());
+                assertEquals(files[3], t.getSpares().get(0).getPath());
+                assertEquals("on", zfs.open(name, ZFSFileSystem.class).getZfsProperty(zfs_prop_t.ZFS_PROP_COMPRESSION));
+            } finally {
+                pool.destroy(false);
+            }
+            assertNull(zfs.getPool(name));
+        } finally {
+            for (String f : files)
+                new File(f).delete();
+            dir.delete();
+        }
+    }
+
+    public void testChannelProgram() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+        if (!Capabilities.get().canRunChannelPrograms())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSPool pool = fs.getPool();
+        nvlist_t args = nvlist_t.alloc(NV_UNIQUE_NAME);
+        args.put("fs", dataSet);
+        assertEquals(dataSet, pool.runChannelProgramNoSync("args = ...\nreturn args.fs", args, ChannelProgramLimits.DEFAULT));
+        try {
+            pool.runChannelProgramNoSync("error('boom')", null, ChannelProgramLimits.DEFAULT);
+            fail();
+        } catch (ZFSException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("boom"));
+        }
+
+        fs.createSnapshot("a");
+        fs.createSnapshot("b");
+        Map<String,Map<String,Object>> snaps = pool.listSnapshots(dataSet, false, Arrays.asList("createtxg"));
+        assertEquals(2, snaps.size());
+        assertTrue(snaps.get(dataSet + "@a").containsKey("createtxg"));
+
+        assertTrue(pool.destroySnapshots(Arrays.asList(dataSet + "@a")).isSuccess());
+        assertEquals(Arrays.asList(dataSet + "@b"), pool.destroySnapshotsCreatedBefore(dataSet, System.currentTimeMillis() / 1000 + 60, false));
+        assertTrue(pool.listSnapshots(dataSet, false, Collections.<String>emptyList()).isEmpty());
+    }
+
+    public void testDestroyPlanner() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSFileSystem a = zfs.create(dataSet + "/a", ZFSFileSystem.class);
+        zfs.create(dataSet + "/a/b", ZFSFileSystem.class);
+        a.createSnapshot("s").clone(dataSet + "/c");
+        fs.createSnapshot("s");
+
+        DestroyPlanner planner = new DestroyPlanner(zfs).setParallelism(2);
+        DestroyPlanner.Plan plan = planner.plan(fs);
+        assertEquals(6, plan.size());
+        // the clone goes before its origin, the origin before a, and a before the root
+        List<DestroyPlanner.Step> steps = plan.getSteps();
+        assertEquals(4, steps.size());
+        assertEquals(Collections.singletonList(dataSet + "@s"), steps.get(0).getSnapshots());
+        assertEquals(new HashSet<String>(Arrays.asList(dataSet + "/a/b", dataSet + "/c")),
+                new HashSet<String>(steps.get(0).getDataSets()));
+        assertEquals(Collections.singletonList(dataSet + "/a@s"), steps.get(1).getSnapshots());
+        assertEquals(Collections.singletonList(dataSet + "/a"), steps.get(2).getDataSets());
+        assertEquals(Collections.singletonList(dataSet), steps.get(3).getDataSets());
+        assertTrue(plan.getEstimatedFreedSpace() > 0);
+        // the dry run leaves everything in place
+        assertTrue(zfs.exists(dataSet + "/a@s"));
+
+        BatchResult r = planner.execute(plan);
+        assertTrue(r.toString(), r.isSuccess());
+        assertFalse(zfs.exists(dataSet));
+    }
+
+    public void testErrorLog() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSPool pool = fs.getPool();
+        // the test pool is supposed to be healthy; this checks the decoding path
+        List<PoolError> errors = pool.errorLog(4);
+        assertEquals(errors.size(), pool.errorLog(1).size());
+        for (PoolError e : errors) {
+            System.out.println(e.getDataSetName() + " " + e);
+            assertNotNull(e.getPath());
+        }
+    }
+
+    public void testResolve() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSFileSystem child = zfs.create(dataSet + "/child", ZFSFileSystem.class);
+        fs.mount();
+        child.mount();
+
+        File deep = new File(child.getMountPoint(), "no/such/dir");
+        assertEquals(dataSet + "/child", zfs.resolve(deep).getName());
+
+        File sibling = new File(fs.getMountPoint(), "childish");
+        Map<File,String> names = zfs.resolveNames(Arrays.asList(deep, sibling));
+        assertEquals(dataSet + "/child", names.get(deep));
+        assertEquals(dataSet, names.get(sibling));
+    }
+
     public void testCreate() {
         /* TODO: Real func name */
         if (!ZFS_TEST_FUNCNAME.isEmpty() && !ZFS_TEST_FUNCNAME.matches(".*\\b" + "zfs_create" + "\\b.*") )
@@ -378,6 +806,142 @@ public class LibZFSTest extends TestCase {
         /* Should not segfault */
     }
 
+    public void testHold() {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSObject fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSSnapshot a = fs.createSnapshot("a");
+        ZFSSnapshot b = fs.createSnapshot("b");
+        assertFalse(a.isHeld());
+        assertTrue(a.getHolds().isEmpty());
+
+        a.hold("libzfstest");
+        a = zfs.open(a.getName(), ZFSSnapshot.class);
+        assertEquals(1, a.getUserRefs());
+        assertTrue(a.getHolds().containsKey("libzfstest"));
+
+        Map<String,List<String>> holds = new HashMap<String,List<String>>();
+        holds.put(a.getName(), Arrays.asList("batch", "batch2"));
+        holds.put(b.getName(), Arrays.asList("batch"));
+        zfs.hold(holds);
+        assertEquals(3, zfs.open(a.getName(), ZFSSnapshot.class).getUserRefs());
+        assertTrue(zfs.open(a.getName(), ZFSSnapshot.class).getHolds().containsKey("batch2"));
+        assertEquals(1, zfs.open(b.getName(), ZFSSnapshot.class).getUserRefs());
+
+        zfs.release(holds);
+        a.release("libzfstest");
+        assertFalse(zfs.open(a.getName(), ZFSSnapshot.class).isHeld());
+        assertFalse(zfs.open(b.getName(), ZFSSnapshot.class).isHeld());
+    }
+
+    public void testBookmark() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSObject fs = zfs.create(dataSet, ZFSFileSystem.class);
+        ZFSSnapshot a = fs.createSnapshot("a");
+        ZFSBookmark bm = a.createBookmark("a");
+        assertEquals(dataSet + "#a", bm.getName());
+        assertEquals(ZFSType.BOOKMARK, bm.getType());
+        assertEquals(1, fs.bookmarks().size());
+
+        // exists(String) finds bookmarks as well, but the typed form can leave them out
+        assertTrue(zfs.exists(bm.getName()));
+        assertTrue(zfs.exists(bm.getName(), ZFSType.BOOKMARK));
+        assertFalse(zfs.exists(bm.getName(), EnumSet.of(ZFSType.FILESYSTEM, ZFSType.VOLUME, ZFSType.SNAPSHOT)));
+
+        // the bookmark stays usable as the incremental source after the snapshot is gone
+        a.destroy();
+        ZFSSnapshot b = fs.createSnapshot("b");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.send(bm, out);
+        assertTrue(out.size() > 0);
+
+        Map<String,String> bookmarks = new HashMap<String,String>();
+        bookmarks.put(dataSet + "#b1", b.getName());
+        bookmarks.put(dataSet + "#b2", b.getName());
+        zfs.createBookmarks(bookmarks);
+        assertEquals(3, fs.bookmarks().size());
+
+        zfs.destroyBookmarks(bookmarks.keySet());
+        bm.destroy();
+        assertTrue(fs.bookmarks().isEmpty());
+    }
+
+    public void testDiff() throws Exception {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        fs.mount();
+        File dir = fs.getMountPoint();
+        new FileOutputStream(new File(dir, "gone")).close();
+        ZFSSnapshot a = fs.createSnapshot("a");
+        new File(dir, "gone").delete();
+        new FileOutputStream(new File(dir, "new file")).close();
+        ZFSSnapshot b = fs.createSnapshot("b");
+
+        Map<String,DiffEntry.ChangeType> changes = new HashMap<String,DiffEntry.ChangeType>();
+        DiffIterator itr = a.diff(b);
+        while (itr.hasNext()) {
+            DiffEntry e = itr.next();
+            changes.put(e.getPath(), e.getChangeType());
+        }
+        assertEquals(DiffEntry.ChangeType.REMOVED, changes.get(new File(dir, "gone").getPath()));
+        assertEquals(DiffEntry.ChangeType.ADDED, changes.get(new File(dir, "new file").getPath()));
+
+        // abandoning the iterator midway must not hang
+        a.diff(null).close();
+    }
+
+    public void testSpaceReport() {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        zfs.create(dataSet + "/a", ZFSFileSystem.class);
+        zfs.create(dataSet + "/a/b", ZFSFileSystem.class);
+        zfs.create(dataSet + "/c", ZFSFileSystem.class);
+
+        SpaceReport r = fs.getSpaceReport();
+        System.out.println(r);
+        assertEquals(4, r.size());
+        assertEquals(dataSet, r.getName(0));
+        int a = r.indexOf(dataSet + "/a");
+        assertEquals(0, r.getParent(a));
+        assertEquals(a + 2, r.getSubtreeEnd(a));
+        assertEquals(r.get(SpaceReport.Column.REFERENCED, a) + r.get(SpaceReport.Column.REFERENCED, a + 1),
+                r.sum(SpaceReport.Column.REFERENCED, a));
+        assertTrue(r.get(SpaceReport.Column.USED_BY_CHILDREN, 0) > 0);
+    }
+
+    public void testUserQuotas() {
+        if (!ZFS_TEST_FUNCNAME.isEmpty())
+            return;
+
+        ZFSFileSystem fs = zfs.create(dataSet, ZFSFileSystem.class);
+        UserSpaceTable before = fs.userspace(UserSpaceTable.Type.USER_QUOTA);
+        assertEquals(0, before.size());
+
+        Map<Integer,Long> quotas = new HashMap<Integer,Long>();
+        quotas.put(12345, 1024L*1024*1024);
+        quotas.put(12346, 2048L*1024*1024);
+        fs.setUserQuotas(quotas);
+
+        UserSpaceTable after = fs.userspace(UserSpaceTable.Type.USER_QUOTA);
+        assertEquals(2, after.size());
+        assertEquals(1024L*1024*1024, after.get(12345));
+
+        quotas.clear();
+        quotas.put(12346, 0L);
+        fs.setUserQuotas(quotas);
+        UserSpaceTable delta = fs.userspace(UserSpaceTable.Type.USER_QUOTA).changesSince(after);
+        assertEquals(1, delta.size());
+        assertEquals(12346, delta.getId(0));
+        assertEquals(0, delta.getValue(0));
+    }
+
     public void testUserProperty() {
         /* TODO: Real func name */
         if (!ZFS_TEST_FUNCNAME.isEmpty())
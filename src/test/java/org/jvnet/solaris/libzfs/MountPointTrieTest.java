@@ -0,0 +1,64 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Longest-prefix lookups of {@link MountPointTrie}.
+ */
+public class MountPointTrieTest extends TestCase {
+    private final MountPointTrie trie;
+
+    public MountPointTrieTest() {
+        Map<File,String> m = new HashMap<File,String>();
+        m.put(new File("/"), "rpool/ROOT/default");
+        m.put(new File("/home"), "rpool/home");
+        m.put(new File("/boot/efi"), null);
+        m.put(new File("/home/shared"), null);
+        m.put(new File("/home/shared/zfs"), "tank/shared");
+        trie = new MountPointTrie(m);
+    }
+
+    public void testZFS() {
+        assertEquals("rpool/ROOT/default", trie.get(new File("/etc/passwd")));
+        assertEquals("rpool/home", trie.get(new File("/home/alice/../bob")));
+        assertEquals("tank/shared", trie.get(new File("/home/shared/zfs/x")));
+    }
+
+    public void testNotZFSBelowZFS() {
+        assertNull(trie.get(new File("/boot/efi/EFI")));
+        assertTrue(trie.isMounted(new File("/boot/efi/EFI")));
+        assertNull(trie.get(new File("/home/shared/x")));
+        // the directory the mount sits in is still on ZFS
+        assertEquals("rpool/ROOT/default", trie.get(new File("/boot")));
+    }
+
+    public void testNoMounts() {
+        MountPointTrie empty = new MountPointTrie(new HashMap<File,String>());
+        assertNull(empty.get(new File("/home")));
+        assertFalse(empty.isMounted(new File("/home")));
+    }
+}
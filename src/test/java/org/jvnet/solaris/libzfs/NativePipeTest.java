@@ -0,0 +1,99 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import static org.jvnet.solaris.jna.libc.LIBC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+
+/**
+ * Ownership of the write end of {@link NativePipe}, with plain libc writers.
+ */
+public class NativePipeTest extends TestCase {
+    private static void write(int fd, String s) {
+        Memory m = new Memory(s.length());
+        m.write(0, s.getBytes(), 0, s.length());
+        LIBC.write(fd, m, new NativeLong(s.length()));
+    }
+
+    private static String readAll(NativePipe pipe) throws Exception {
+        InputStream in = pipe.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int ch;
+        while ((ch=in.read()) >= 0)
+            out.write(ch);
+        return out.toString();
+    }
+
+    public void testWriteEndClosedAfterWriter() throws Exception {
+        final NativePipe pipe = new NativePipe();
+        Future<Integer> w = pipe.start("test", new Callable<Integer>() {
+            public Integer call() {
+                write(pipe.getWriteFd(), "hello");
+                return 0;
+            }
+        });
+        assertEquals("hello", readAll(pipe));
+        assertEquals(0, NativePipe.join(w));
+        pipe.close();
+    }
+
+    public void testCalleeClosesWriteEnd() throws Exception {
+        final NativePipe pipe = new NativePipe();
+        Future<Integer> w = pipe.start("test", new Callable<Integer>() {
+            public Integer call() {
+                int fd = pipe.getWriteFd();
+                write(fd, "hello");
+                LIBC.close(fd);
+                return 0;
+            }
+        }, true);
+        assertEquals("hello", readAll(pipe));
+        assertEquals(0, NativePipe.join(w));
+        pipe.close();
+    }
+
+    /**
+     * The callee bailed out before it took over the descriptor.
+     */
+    public void testCalleeLeavesWriteEndOpen() throws Exception {
+        final int[] leaked = new int[1];
+        final NativePipe pipe = new NativePipe();
+        Future<Integer> w = pipe.start("test", new Callable<Integer>() {
+            public Integer call() {
+                leaked[0] = pipe.getWriteFd();
+                return 1;
+            }
+        }, true);
+        assertEquals("", readAll(pipe));
+        assertEquals(1, NativePipe.join(w));
+        pipe.close();
+        LIBC.close(leaked[0]);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import junit.framework.TestCase;
+
+/**
+ * Decodes {@link ScanProgress} from made-up "scan_stats" arrays.
+ */
+public class ScanProgressTest extends TestCase {
+    private static final long GB = 1L << 30;
+
+    private static final long START = 1700000000L;
+
+    /**
+     * A scrub of 100GB that started at {@link #START}, spent 20 seconds paused,
+     * and read the metadata of 60GB.
+     */
+    private static long[] scrub(long start, long issued) {
+        return new long[] {
+            1, 1, start, 0, 100 * GB, 60 * GB, 0, 0, 2,
+            60 * GB, start, 0, 20, issued, issued
+        };
+    }
+
+    public void testOpenZFS() {
+        long now = START + 100;
+        ScanProgress p = new ScanProgress(scrub(START, 40 * GB), now * 1000, 0);
+        assertEquals(ScanProgress.Function.SCRUB, p.getFunction());
+        assertTrue(p.isScanning());
+        assertFalse(p.isPaused());
+        assertEquals(40.0, p.getPercentDone(), 0.001);
+        assertEquals(2, p.getErrors());
+        assertNull(p.getEndTime());
+        // 40GB over 80 seconds not paused
+        assertEquals(GB / 2.0, p.getAverageRate(), 1);
+        assertEquals(120, p.getSecondsRemaining());
+
+        // 1GB more two seconds later
+        ScanProgress q = new ScanProgress(scrub(START, 41 * GB), (now + 2) * 1000, 2000000000L);
+        assertEquals(GB / 2.0, q.getRate(p), 1);
+    }
+
+    public void testRateAcrossScans() {
+        long now = START + 100;
+        ScanProgress p = new ScanProgress(scrub(START, 40 * GB), now * 1000, 0);
+        long[] other = scrub(now + 5, 1 * GB); // a new scrub started in between
+        ScanProgress q = new ScanProgress(other, (now + 10) * 1000, 10000000000L);
+        assertEquals(q.getAverageRate(), q.getRate(p), 0);
+    }
+
+    public void testLegacy() {
+        long now = START + 10;
+        // no pause or issued counters; rate comes from pass_exam
+        long[] stats = { 1, 1, START, 0, 100 * GB, 10 * GB, 0, 0, 0, 10 * GB, START };
+        ScanProgress p = new ScanProgress(stats, now * 1000, 0);
+        assertEquals(10 * GB, p.getBytesIssued());
+        assertEquals(GB, p.getAverageRate(), 1);
+        assertFalse(p.isPaused());
+    }
+
+    public void testFinished() {
+        long[] stats = { 2, 2, 1000, 2000, 100, 100, 0, 0, 0 };
+        ScanProgress p = new ScanProgress(stats, 3000 * 1000, 0);
+        assertFalse(p.isScanning());
+        assertEquals(ScanProgress.Function.RESILVER, p.getFunction());
+        assertEquals(2000 * 1000L, p.getEndTime().getTime());
+        assertEquals(100.0, p.getPercentDone(), 0);
+        assertEquals(0.0, p.getRate(null), 0);
+        assertEquals(ScanProgress.State.NONE, ScanProgress.decode(null).getState());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures what it costs a short-lived process to get going with libzfs4j.
+ * Run with the test classpath on a host with ZFS:
+ *
+ * <pre>
+ * java -cp ... org.jvnet.solaris.libzfs.StartupBenchmark [rounds]
+ * </pre>
+ *
+ * Each step is timed separately, as a JVM would see it the first time,
+ * except that the library is already loaded from the first round on.
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        long t = System.nanoTime();
+        Capabilities.get();
+        report("first Capabilities.get()", t);
+
+        File cacheFile = File.createTempFile("abi", ".properties");
+        cacheFile.delete();
+        try {
+            AbiCache cache = new AbiCache(cacheFile, findLibrary());
+            t = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                Capabilities.probe(null);
+            report("symbol lookup", t, rounds);
+
+            Capabilities.probe(cache);
+            t = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                Capabilities.probe(cache);
+            report("symbol lookup from cache", t, rounds);
+        } finally {
+            cacheFile.delete();
+        }
+
+        t = System.nanoTime();
+        LibZFS shared = LibZFS.getShared();
+        report("LibZFS.getShared()", t);
+        t = System.nanoTime();
+        shared.getZfsPropertyCode("userrefs");
+        report("property lookup without a handle", t);
+        t = System.nanoTime();
+        shared.getHandle();
+        report("libzfs_init() of the shared instance", t);
+
+        t = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            new LibZFS().dispose();
+        report("new LibZFS() + dispose()", t, rounds);
+    }
+
+    private static File findLibrary() throws IOException {
+        String[] dirs = { "/lib", "/usr/lib", "/lib64", "/usr/lib64", "/lib/x86_64-linux-gnu",
+            "/usr/lib/x86_64-linux-gnu", "/usr/local/lib" };
+        for (String dir : dirs) {
+            for (String name : new String[] { "libzfs.so", "libzfs.so.4", "libzfs.so.2", "libzfs.so.1" }) {
+                File f = new File(dir, name);
+                if (f.exists())
+                    return f.getCanonicalFile();
+            }
+        }
+        throw new IOException("libzfs.so not found");
+    }
+
+    private static void report(String what, long start) {
+        report(what, start, 1);
+    }
+
+    private static void report(String what, long start, int rounds) {
+        long us = (System.nanoTime() - start) / 1000 / rounds;
+        System.out.println(String.format("%-40s %8d us", what, us));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jvnet.solaris.libzfs.VdevTree.Change;
+import org.jvnet.solaris.libzfs.VdevTree.VdevClass;
+import org.jvnet.solaris.libzfs.jna.vdev_aux_t;
+import org.jvnet.solaris.libzfs.jna.vdev_state_t;
+
+/**
+ * Decodes {@link VdevTree} from made-up configurations in the shape
+ * {@link org.jvnet.solaris.nvlist.jna.nvlist_t#toMap()} gives.
+ */
+public class VdevTreeTest extends TestCase {
+    /**
+     * Configuration of a vdev; a class of its own so that children can be passed as varargs.
+     */
+    private static final class Conf extends LinkedHashMap<String,Object> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static Conf vdev(String type, long guid, String path, int state, Conf... children) {
+        Conf m = new Conf();
+        m.put("type", type);
+        m.put("guid", guid);
+        if (path != null)
+            m.put("path", path);
+        long[] stats = new long[23];
+        stats[1] = state;
+        m.put("vdev_stats", stats);
+        if (children.length > 0) {
+            List<Conf> l = new ArrayList<Conf>(Arrays.asList(children));
+            for (int i = 0; i < l.size(); i++)
+                l.get(i).put("id", (long) i);
+            m.put("children", l);
+        }
+        return m;
+    }
+
+    private static final int HEALTHY = vdev_state_t.VDEV_STATE_HEALTHY.ordinal();
+    private static final int FAULTED = vdev_state_t.VDEV_STATE_FAULTED.ordinal();
+
+    private static Map<String,Object> pool(int sdbState) {
+        Conf log = vdev("disk", 30, "/dev/sdd", HEALTHY);
+        log.put("is_log", 1L);
+        Map<String,Object> root = vdev("root", 1, null, HEALTHY,
+                vdev("mirror", 10, null, HEALTHY,
+                        vdev("disk", 11, "/dev/sda", HEALTHY),
+                        vdev("disk", 12, "/dev/sdb", sdbState)),
+                log);
+        root.put("spares", Arrays.asList(vdev("disk", 40, "/dev/sde", HEALTHY)));
+        return root;
+    }
+
+    public void testDecode() {
+        VdevTree t = VdevTree.decode(pool(HEALTHY), "openzfs");
+        assertEquals("root", t.getRoot().getType());
+        assertEquals(1, t.getTopLevel(VdevClass.NORMAL).size());
+        assertEquals("mirror-0", t.getTopLevel(VdevClass.NORMAL).get(0).getName());
+        assertEquals("/dev/sdd", t.getTopLevel(VdevClass.LOG).get(0).getPath());
+        assertEquals(1, t.getSpares().size());
+        assertEquals(4, t.getLeaves().size());
+
+        VdevTree.Vdev sdb = t.get("/dev/sdb");
+        assertSame(sdb, t.get(12));
+        assertEquals(10, sdb.getParent().getGuid());
+        assertEquals(VdevClass.NORMAL, sdb.getVdevClass());
+        assertEquals(vdev_state_t.VDEV_STATE_HEALTHY, sdb.getState());
+        assertEquals(VdevClass.SPARE, t.get("/dev/sde").getVdevClass());
+        assertNull(t.get(99));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testDiff() {
+        VdevTree before = VdevTree.decode(pool(HEALTHY), "openzfs");
+        assertTrue(before.diff(before).isEmpty());
+
+        Map<String,Object> m = pool(FAULTED);
+        ((long[]) ((List<Map<String,Object>>) ((List<Map<String,Object>>) m.get("children")).get(0).get("children")).get(0).get("vdev_stats"))[22] = 3;
+        m.remove("spares");
+        VdevTree after = VdevTree.decode(m, "openzfs");
+
+        List<Change> changes = after.diff(before);
+        assertEquals(changes.toString(), 3, changes.size());
+        assertEquals(Change.Kind.ERRORS_INCREASED, changes.get(0).getKind());
+        assertEquals("/dev/sda", changes.get(0).getAfter().getPath());
+        assertEquals(Change.Kind.STATE_CHANGED, changes.get(1).getKind());
+        assertEquals(vdev_state_t.VDEV_STATE_FAULTED, changes.get(1).getAfter().getState());
+        assertEquals(Change.Kind.REMOVED, changes.get(2).getKind());
+        assertEquals(40, changes.get(2).getBefore().getGuid());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testAux() {
+        Map<String,Object> m = pool(HEALTHY);
+        Map<String,Object> sdb = ((List<Map<String,Object>>) ((List<Map<String,Object>>) m.get("children")).get(0).get("children")).get(1);
+        ((long[]) sdb.get("vdev_stats"))[2] = 10;
+        assertEquals(vdev_aux_t.VDEV_AUX_SPARED, VdevTree.decode(m, "openzfs").get("/dev/sdb").getAux());
+        assertEquals(vdev_aux_t.VDEV_AUX_ERR_EXCEEDED, VdevTree.decode(m, "legacy").get("/dev/sdb").getAux());
+        ((long[]) sdb.get("vdev_stats"))[2] = 9;
+        assertEquals(vdev_aux_t.VDEV_AUX_UNSUP_FEAT, VdevTree.decode(m, "openzfs").get("/dev/sdb").getAux());
+        assertEquals(vdev_aux_t.VDEV_AUX_SPARED, VdevTree.decode(m, "legacy").get("/dev/sdb").getAux());
+    }
+
+    /**
+     * A spare in use shows up both in the tree and in the spares list.
+     */
+    @SuppressWarnings("unchecked")
+    public void testSpareInUse() {
+        Map<String,Object> m = pool(HEALTHY);
+        List<Conf> mirror = (List<Conf>) ((List<Conf>) m.get("children")).get(0).get("children");
+        Conf spare = vdev("spare", 50, null, HEALTHY, mirror.get(1), vdev("disk", 40, "/dev/sde", HEALTHY));
+        mirror.set(1, spare);
+
+        VdevTree t = VdevTree.decode(m, "openzfs");
+        assertEquals(VdevClass.NORMAL, t.get(40).getVdevClass());
+        assertEquals(50, t.get(40).getParent().getGuid());
+        assertTrue(t.diff(t).isEmpty());
+    }
+}
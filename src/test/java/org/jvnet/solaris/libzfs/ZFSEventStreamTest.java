@@ -0,0 +1,144 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs {@link ZFSEventStream} over events replayed from a file,
+ * so that it doesn't need a ZFS kernel module.
+ */
+public class ZFSEventStreamTest extends TestCase {
+    private File file;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("zevents", ".txt");
+        FileWriter w = new FileWriter(file);
+        w.write("class=sysevent.fs.zfs.scrub_start\npool=tank\npool_guid=1234\n\n");
+        w.write("class=resource.fs.zfs.statechange\npool=tank\nvdev_path=/dev/sdb\nvdev_state=5\n\n");
+        w.write("class=sysevent.fs.zfs.history_event\npool=tank\nhistory_internal_name=create\nhistory_dsname=tank/ci/42\n\n");
+        w.write("class=sysevent.fs.zfs.scrub_finish\npool=tank\n");
+        w.close();
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testReplay() throws Exception {
+        final List<ZFSEvent> events = Collections.synchronizedList(new ArrayList<ZFSEvent>());
+        ZFSEventStream s = new ZFSEventStream(new ReplayEventSource(file), 16);
+        s.addListener(new ZFSEventListener() {
+            public void onEvent(ZFSEvent e) {
+                events.add(e);
+            }
+        });
+        s.start();
+        s.join();
+
+        assertFalse(s.isOpen());
+        assertEquals(4, events.size());
+        assertEquals(ZFSEvent.CLASS_SCRUB_START, events.get(0).getEventClass());
+        assertEquals(Long.valueOf(1234), events.get(0).getPoolGuid());
+        assertEquals("/dev/sdb", events.get(1).getVdevPath());
+        assertEquals(Long.valueOf(5), events.get(1).getVdevState());
+        assertEquals("create", events.get(2).getHistoryInternalName());
+        assertEquals("tank/ci/42", events.get(2).getHistoryDataSetName());
+        assertEquals(ZFSEvent.CLASS_SCRUB_FINISH, events.get(3).getEventClass());
+        assertEquals(0, s.getDroppedCount());
+    }
+
+    public void testSlowListenerDropsOldest() throws Exception {
+        final List<ZFSEvent> events = Collections.synchronizedList(new ArrayList<ZFSEvent>());
+        final Object gate = new Object();
+        ZFSEventStream s = new ZFSEventStream(new ReplayEventSource(file), 1);
+        s.addListener(new ZFSEventListener() {
+            public void onEvent(ZFSEvent e) {
+                events.add(e);
+                if (events.size()==1) {
+                    synchronized (gate) {
+                        try {
+                            gate.wait(500);
+                        } catch (InterruptedException x) {
+                            // keep going
+                        }
+                    }
+                }
+            }
+        });
+        s.start();
+        s.join();
+
+        // while the listener is stuck the events compete for one slot, and the newest wins
+        assertTrue(s.getDroppedCount() > 0);
+        assertEquals(4, events.size() + s.getDroppedCount());
+        assertEquals(ZFSEvent.CLASS_SCRUB_FINISH, events.get(events.size()-1).getEventClass());
+    }
+
+    /**
+     * Replays events from a file of "name=value" lines, with events separated
+     * by blank lines. Numeric values become {@link Long}s.
+     */
+    static final class ReplayEventSource implements ZFSEventSource {
+        private final BufferedReader in;
+
+        ReplayEventSource(File file) throws IOException {
+            in = new BufferedReader(new FileReader(file));
+        }
+
+        public synchronized ZFSEvent next() throws IOException {
+            Map<String,Object> attributes = new LinkedHashMap<String,Object>();
+            String line;
+            while ((line=in.readLine())!=null) {
+                if (line.length()==0) {
+                    if (!attributes.isEmpty())
+                        break;
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                String value = line.substring(eq+1);
+                attributes.put(line.substring(0,eq), value.matches("-?[0-9]+") ? (Object)Long.valueOf(value) : value);
+            }
+            return attributes.isEmpty() ? null : new ZFSEvent(attributes);
+        }
+
+        public long getDroppedCount() {
+            return 0;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs.core;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jvnet.solaris.libzfs.LibZFS;
+import org.jvnet.solaris.libzfs.ZFSFileSystem;
+import org.jvnet.solaris.libzfs.ZFSType;
+
+/**
+ * Times the same snapshot operations through libzfs handles, one snapshot at
+ * a time, and through {@link LibZFSCore} in one batch. Needs a scratch file
+ * system to create under, on a host with OpenZFS:
+ *
+ * <pre>
+ * java -cp ... org.jvnet.solaris.libzfs.core.CoreBenchmark rpool/scratch [count]
+ * </pre>
+ */
+public class CoreBenchmark {
+    public static void main(String[] args) {
+        String parent = args[0];
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        LibZFS zfs = new LibZFS();
+        LibZFSCore core = LibZFSCore.getShared();
+        String name = parent + "/corebench" + System.currentTimeMillis() % 100000;
+        ZFSFileSystem fs = zfs.create(name, ZFSFileSystem.class);
+        try {
+            List<String> snapshots = new ArrayList<String>();
+            Map<String,String> holds = new TreeMap<String,String>();
+            Map<String,List<String>> releases = new TreeMap<String,List<String>>();
+            for (int i = 0; i < count; i++) {
+                String s = name + "@s" + i;
+                snapshots.add(s);
+                holds.put(s, "bench");
+                List<String> tags = new ArrayList<String>();
+                tags.add("bench");
+                releases.put(s, tags);
+            }
+
+            long t = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                fs.createSnapshot("s" + i);
+            report("snapshot, handle", t, count);
+            t = System.nanoTime();
+            for (String s : snapshots)
+                zfs.exists(s, EnumSet.allOf(ZFSType.class));
+            // exists(String) itself goes through libzfs_core now
+            report("exists, handle", t, count);
+            t = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                fs.destroySnapshot("s" + i);
+            report("destroy, handle", t, count);
+
+            t = System.nanoTime();
+            core.snapshot(snapshots, null).throwIfFailed();
+            report("snapshot, lzc batch", t, count);
+            t = System.nanoTime();
+            for (String s : snapshots)
+                core.exists(s);
+            report("exists, lzc", t, count);
+            t = System.nanoTime();
+            core.hold(holds, -1).throwIfFailed();
+            report("hold, lzc batch", t, count);
+            t = System.nanoTime();
+            core.release(releases).throwIfFailed();
+            report("release, lzc batch", t, count);
+            t = System.nanoTime();
+            core.destroySnapshots(snapshots, false).throwIfFailed();
+            report("destroy, lzc batch", t, count);
+        } finally {
+            fs.destroy(true);
+            zfs.dispose();
+        }
+    }
+
+    private static void report(String what, long start, int count) {
+        long us = (System.nanoTime() - start) / 1000;
+        System.out.println(String.format("%-24s %10d us total %8d us each", what, us, us / count));
+    }
+}
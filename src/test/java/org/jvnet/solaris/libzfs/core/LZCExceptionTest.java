@@ -0,0 +1,56 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.libzfs.core;
+
+import static org.jvnet.solaris.jna.libc.*;
+
+import org.jvnet.solaris.libzfs.ErrorCode;
+
+import junit.framework.TestCase;
+
+/**
+ * Mapping of libzfs_core errnos to {@link ErrorCode}s.
+ */
+public class LZCExceptionTest extends TestCase {
+    public void testErrorCode() {
+        assertEquals(ErrorCode.EZFS_NOENT, LZCException.toErrorCode("release", ESRCH));
+        assertEquals(ErrorCode.EZFS_EXISTS, LZCException.toErrorCode("snapshot", EEXIST));
+        assertEquals(ErrorCode.EZFS_BUSY, LZCException.toErrorCode("destroy", EBUSY));
+        assertEquals(ErrorCode.EZFS_INVALIDNAME, LZCException.toErrorCode("snapshot", EINVAL));
+        assertEquals(ErrorCode.EZFS_BADTYPE, LZCException.toErrorCode("hold", EINVAL));
+        assertEquals(ErrorCode.EZFS_UNKNOWN, LZCException.toErrorCode("hold", 12345));
+    }
+
+    public void testMessage() {
+        LZCException e = new LZCException("destroy", "rpool/foo@bar", EBUSY);
+        assertEquals("rpool/foo@bar", e.getDataSetName());
+        assertEquals("destroy", e.getOperation());
+        assertEquals(EBUSY, e.getErrno());
+        assertEquals(ErrorCode.EZFS_BUSY, e.getCode());
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to destroy rpool/foo@bar : "));
+    }
+
+    public void testPoolName() {
+        assertEquals("rpool", LibZFSCore.getPoolName("rpool/foo@bar"));
+        assertEquals("rpool", LibZFSCore.getPoolName("rpool#mark"));
+        assertEquals("rpool", LibZFSCore.getPoolName("rpool"));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.nvlist;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class PackedNVListTest extends TestCase {
+    @SuppressWarnings("unchecked")
+    public void testRoundTrip() {
+        Map<String,Object> child = new LinkedHashMap<String,Object>();
+        child.put("type", "disk");
+        child.put("path", "/dev/sdb1");
+        child.put("guid", 0x8000000000000001L);
+
+        Map<String,Object> tree = new LinkedHashMap<String,Object>();
+        tree.put("type", "mirror");
+        tree.put("children", Arrays.asList(child, Collections.singletonMap("type", "disk")));
+
+        Map<String,Object> m = new LinkedHashMap<String,Object>();
+        m.put("version", 5000L);
+        m.put("name", "tank");
+        m.put("state", 1);
+        m.put("readonly", false);
+        m.put("vdev_tree", tree);
+        m.put("hole_array", new long[] {2, 5});
+        m.put("ints", new int[] {-1, 7});
+        m.put("bytes", new byte[] {1, 2, 3});
+        m.put("names", new String[] {"a", "bcde"});
+
+        ByteBuffer b = ByteBuffer.wrap(XdrEncoder.pack(m));
+        Map<String,Object> r = PackedNVList.unpack(b);
+        assertFalse(b.hasRemaining());
+
+        assertEquals(Arrays.asList("version", "name", "state", "readonly", "vdev_tree", "hole_array", "ints", "bytes", "names"),
+                Arrays.asList(r.keySet().toArray()));
+        assertEquals(5000L, r.get("version"));
+        assertEquals("tank", r.get("name"));
+        assertEquals(1, r.get("state"));
+        assertEquals(false, r.get("readonly"));
+        assertTrue(Arrays.equals(new long[] {2, 5}, (long[]) r.get("hole_array")));
+        assertTrue(Arrays.equals(new int[] {-1, 7}, (int[]) r.get("ints")));
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, (byte[]) r.get("bytes")));
+        assertTrue(Arrays.equals(new String[] {"a", "bcde"}, (String[]) r.get("names")));
+
+        Map<String,Object> t = (Map<String,Object>) r.get("vdev_tree");
+        List<Map<String,Object>> children = (List<Map<String,Object>>) t.get("children");
+        assertEquals(2, children.size());
+        assertEquals("/dev/sdb1", children.get(0).get("path"));
+        assertEquals(0x8000000000000001L, children.get(0).get("guid"));
+        assertEquals("disk", children.get(1).get("type"));
+    }
+
+    public void testRejectsGarbage() {
+        try {
+            PackedNVList.unpack(ByteBuffer.wrap(new byte[] {0, 1, 0, 0, 0, 0}));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // native encoding
+        }
+        byte[] b = XdrEncoder.pack(Collections.singletonMap("name", "tank"));
+        try {
+            PackedNVList.unpack(ByteBuffer.wrap(Arrays.copyOf(b, b.length - 12)));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // truncated
+        }
+    }
+}
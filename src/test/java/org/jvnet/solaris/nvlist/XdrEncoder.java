@@ -0,0 +1,142 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.nvlist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.jvnet.solaris.nvlist.jna.libnvpair.data_type_t;
+
+/**
+ * Packs maps into XDR-encoded nvlists the way libnvpair does, to make test data
+ * for {@link PackedNVList}. Integer becomes int32, Long uint64, String string,
+ * Boolean boolean_value, Map nvlist, List of Map nvlist array, long[] uint64 array,
+ * int[] int32 array, byte[] byte array and String[] string array.
+ */
+public class XdrEncoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    public static byte[] pack(Map<String,?> map) {
+        XdrEncoder e = new XdrEncoder();
+        e.out.write(PackedNVList.NV_ENCODE_XDR);
+        e.out.write(1); // little endian host
+        e.out.write(0);
+        e.out.write(0);
+        e.list(map);
+        return e.out.toByteArray();
+    }
+
+    private void list(Map<String,?> map) {
+        putInt(0);  // version
+        putInt(1);  // NV_UNIQUE_NAME
+        for (Map.Entry<String,?> e : map.entrySet()) {
+            XdrEncoder pair = new XdrEncoder();
+            pair.string(e.getKey());
+            pair.value(e.getValue());
+            byte[] b = pair.out.toByteArray();
+            putInt(b.length + 8);
+            putInt(b.length + 8);
+            out.write(b, 0, b.length);
+        }
+        putInt(0);
+        putInt(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void value(Object v) {
+        if (v instanceof Integer) {
+            header(data_type_t.DATA_TYPE_INT32, 1);
+            putInt((Integer) v);
+        } else if (v instanceof Long) {
+            header(data_type_t.DATA_TYPE_UINT64, 1);
+            putLong((Long) v);
+        } else if (v instanceof Boolean) {
+            header(data_type_t.DATA_TYPE_BOOLEAN_VALUE, 1);
+            putInt((Boolean) v ? 1 : 0);
+        } else if (v instanceof String) {
+            header(data_type_t.DATA_TYPE_STRING, 1);
+            string((String) v);
+        } else if (v instanceof Map) {
+            header(data_type_t.DATA_TYPE_NVLIST, 1);
+            list((Map<String,?>) v);
+        } else if (v instanceof List) {
+            List<Map<String,?>> l = (List<Map<String,?>>) v;
+            header(data_type_t.DATA_TYPE_NVLIST_ARRAY, l.size());
+            for (Map<String,?> m : l)
+                list(m);
+        } else if (v instanceof long[]) {
+            long[] a = (long[]) v;
+            header(data_type_t.DATA_TYPE_UINT64_ARRAY, a.length);
+            putInt(a.length);
+            for (long x : a)
+                putLong(x);
+        } else if (v instanceof int[]) {
+            int[] a = (int[]) v;
+            header(data_type_t.DATA_TYPE_INT32_ARRAY, a.length);
+            putInt(a.length);
+            for (int x : a)
+                putInt(x);
+        } else if (v instanceof byte[]) {
+            byte[] a = (byte[]) v;
+            header(data_type_t.DATA_TYPE_BYTE_ARRAY, a.length);
+            opaque(a);
+        } else if (v instanceof String[]) {
+            String[] a = (String[]) v;
+            header(data_type_t.DATA_TYPE_STRING_ARRAY, a.length);
+            for (String s : a)
+                string(s);
+        } else {
+            throw new IllegalArgumentException("Can't encode " + v);
+        }
+    }
+
+    private void header(data_type_t type, int nelem) {
+        putInt(type.ordinal());
+        putInt(nelem);
+    }
+
+    private void string(String s) {
+        try {
+            byte[] b = s.getBytes("UTF-8");
+            putInt(b.length);
+            opaque(b);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void opaque(byte[] b) {
+        out.write(b, 0, b.length);
+        for (int i = b.length; (i & 3) != 0; i++)
+            out.write(0);
+    }
+
+    private void putInt(int i) {
+        out.write(ByteBuffer.allocate(4).putInt(i).array(), 0, 4);
+    }
+
+    private void putLong(long l) {
+        out.write(ByteBuffer.allocate(8).putLong(l).array(), 0, 8);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License (the "License").
+ * You may not use this file except in compliance with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file at usr/src/OPENSOLARIS.LICENSE.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ */
+package org.jvnet.solaris.nvlist.jna;
+
+import static org.jvnet.solaris.nvlist.jna.libnvpair.LIBNVPAIR;
+import static org.jvnet.solaris.nvlist.jna.libnvpair.NV_UNIQUE_NAME;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Decoding of native nvlists by {@link nvlist_t#toMap()}. Needs libnvpair.
+ */
+public class NVListTest extends TestCase {
+    public void testTypedValues() {
+        nvlist_t nvl = nvlist_t.alloc(NV_UNIQUE_NAME);
+        // what the "time" member of a zevent looks like
+        assertEquals(0, LIBNVPAIR.nvlist_add_int64_array(nvl, "time", new long[] {1700000000L, 500000000L}, 2));
+        assertEquals(0, LIBNVPAIR.nvlist_add_byte(nvl, "byte", (byte)0xAB));
+        nvl.put("guid", 42L);
+        nvl.put("name", "tank");
+
+        Map<String,Object> m = nvl.toMap();
+        assertTrue(Arrays.equals(new long[] {1700000000L, 500000000L}, (long[])m.get("time")));
+        assertEquals(0xAB, m.get("byte"));
+        assertEquals(42L, m.get("guid"));
+        assertEquals("tank", m.get("name"));
+        assertEquals(Arrays.asList("time", "byte", "guid", "name"), nvl.names());
+    }
+}